@@ -0,0 +1,56 @@
+import wblut.math.*;
+import wblut.processing.*;
+import wblut.core.*;
+import wblut.hemesh.*;
+import wblut.geom.*;
+import java.util.*;
+
+// Times the face orientation pass of HEC_FromFacelist (setCheckNormals)
+// on a large mesh with randomly flipped faces. Put a binary STL file in the
+// data folder as "large.stl" to use it instead of the generated mesh.
+// Results are printed to the console.
+
+int RUNS=5;
+
+void setup() {
+  size(200, 200);
+  HE_Mesh mesh;
+  File stl=new File(dataPath("large.stl"));
+  if (stl.exists()) {
+    mesh=new HE_Mesh(new HEC_FromBinarySTLFile(stl.getAbsolutePath()));
+  } else {
+    mesh=new HE_Mesh(new HEC_Geodesic().setB(40).setC(20).setRadius(300));
+    mesh.subdivide(new HES_Planar(), 3);
+  }
+  WB_Point[] points=mesh.getVerticesAsPoint();
+  int[][] faces=mesh.getFacesAsInt();
+  println(faces.length+" faces, "+points.length+" vertices");
+  Random random=new Random(42);
+  for (int[] face : faces) {
+    if (random.nextBoolean()) reverse(face);
+  }
+  for (int threads : new int[] {1, Runtime.getRuntime().availableProcessors()}) {
+    WB_Parallel.setThreadCount(threads);
+    for (int r=0;r<RUNS;r++) {
+      int[][] copy=new int[faces.length][];
+      for (int i=0;i<faces.length;i++) copy[i]=faces[i].clone();
+      long t0=System.nanoTime();
+      int flipped=HET_FaceOrientation.orient(copy);
+      long t1=System.nanoTime();
+      println("threads "+threads+" orient "+nf((t1-t0)*1e-6f, 1, 1)+"ms ("+flipped+" flipped)");
+    }
+    long t0=System.nanoTime();
+    HE_Mesh result=new HE_Mesh(new HEC_FromFacelist().setVertices(points).setFaces(faces).setCheckNormals(true));
+    long t1=System.nanoTime();
+    println("threads "+threads+" HEC_FromFacelist with normal check "+nf((t1-t0)*1e-6f, 1, 1)+"ms ("+result.getNumberOfFaces()+" faces)");
+  }
+  exit();
+}
+
+void reverse(int[] face) {
+  for (int k=0;k<face.length/2;k++) {
+    int temp=face[k];
+    face[k]=face[face.length-k-1];
+    face[face.length-k-1]=temp;
+  }
+}
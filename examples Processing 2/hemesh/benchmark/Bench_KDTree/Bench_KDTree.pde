@@ -0,0 +1,47 @@
+import wblut.math.*;
+import wblut.processing.*;
+import wblut.core.*;
+import wblut.hemesh.*;
+import wblut.geom.*;
+import java.util.*;
+
+// Compares build and 8-nearest-neighbor query times of WB_KDTree and the
+// flat WB_StaticKDTree on random points. Results are printed to the console.
+
+int N=10000000;
+int QUERIES=1000000;
+int K=8;
+int RUNS=3;
+
+void setup() {
+  size(200, 200);
+  Random random=new Random(42);
+  double[] coords=new double[3*N];
+  for (int i=0;i<3*N;i++) coords[i]=random.nextDouble()*1000;
+  double[] queries=new double[3*QUERIES];
+  for (int i=0;i<3*QUERIES;i++) queries[i]=random.nextDouble()*1000;
+  int[] result=new int[K*QUERIES];
+  double[] d2=new double[K*QUERIES];
+  for (int r=0;r<RUNS;r++) {
+    long t0=System.nanoTime();
+    WB_StaticKDTree tree=new WB_StaticKDTree(coords);
+    long t1=System.nanoTime();
+    tree.getNearestNeighbors(queries, K, result, d2);
+    long t2=System.nanoTime();
+    println("WB_StaticKDTree build "+ms(t0, t1)+" knn "+ms(t1, t2));
+  }
+  for (int r=0;r<RUNS;r++) {
+    long t0=System.nanoTime();
+    WB_KDTree<WB_Point, Integer> tree=new WB_KDTree<WB_Point, Integer>();
+    for (int i=0;i<N;i++) tree.add(new WB_Point(coords[3*i], coords[3*i+1], coords[3*i+2]), i);
+    long t1=System.nanoTime();
+    for (int i=0;i<QUERIES;i++) tree.getNearestNeighbors(new WB_Point(queries[3*i], queries[3*i+1], queries[3*i+2]), K);
+    long t2=System.nanoTime();
+    println("WB_KDTree       build "+ms(t0, t1)+" knn "+ms(t1, t2));
+  }
+  exit();
+}
+
+String ms(long start, long end) {
+  return nf((end-start)*1e-6f, 1, 1)+"ms";
+}
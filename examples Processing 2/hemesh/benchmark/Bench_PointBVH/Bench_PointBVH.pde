@@ -0,0 +1,68 @@
+import wblut.math.*;
+import wblut.processing.*;
+import wblut.core.*;
+import wblut.hemesh.*;
+import wblut.geom.*;
+import java.util.*;
+
+// Moves random points a little every step, as a relaxation or particle
+// simulation would, and keeps a spatial index up to date between steps:
+// refitting WB_PointBVH versus rebuilding WB_StaticKDTree and WB_KDTree.
+// Results are printed to the console.
+
+int N=1000000;
+int QUERIES=100000;
+int K=8;
+int STEPS=5;
+
+void setup() {
+  size(200, 200);
+  Random random=new Random(42);
+  double[] coords=new double[3*N];
+  for (int i=0;i<3*N;i++) coords[i]=random.nextDouble()*1000;
+  int[] result=new int[K];
+  double[] d2=new double[K];
+  long t0=System.nanoTime();
+  WB_PointBVH bvh=new WB_PointBVH(coords);
+  println("WB_PointBVH build "+ms(t0, System.nanoTime()));
+  for (int s=0;s<STEPS;s++) {
+    move(coords, random);
+    t0=System.nanoTime();
+    bvh.setPoints(coords);
+    long t1=System.nanoTime();
+    for (int i=0;i<QUERIES;i++) bvh.getNearestNeighbors(coords[3*i], coords[3*i+1], coords[3*i+2], K, result, d2);
+    long t2=System.nanoTime();
+    println("WB_PointBVH     refit "+ms(t0, t1)+" knn "+ms(t1, t2));
+  }
+  t0=System.nanoTime();
+  for (int i=0;i<N;i++) bvh.setPoint(i, coords[3*i]+0.01, coords[3*i+1], coords[3*i+2]);
+  println("WB_PointBVH     "+N+" x setPoint "+ms(t0, System.nanoTime()));
+  for (int s=0;s<STEPS;s++) {
+    move(coords, random);
+    t0=System.nanoTime();
+    WB_StaticKDTree tree=new WB_StaticKDTree(coords);
+    long t1=System.nanoTime();
+    for (int i=0;i<QUERIES;i++) tree.getNearestNeighbors(coords[3*i], coords[3*i+1], coords[3*i+2], K, result, d2);
+    long t2=System.nanoTime();
+    println("WB_StaticKDTree build "+ms(t0, t1)+" knn "+ms(t1, t2));
+  }
+  for (int s=0;s<STEPS;s++) {
+    move(coords, random);
+    t0=System.nanoTime();
+    WB_KDTree<WB_Point, Integer> tree=new WB_KDTree<WB_Point, Integer>();
+    for (int i=0;i<N;i++) tree.add(new WB_Point(coords[3*i], coords[3*i+1], coords[3*i+2]), i);
+    long t1=System.nanoTime();
+    for (int i=0;i<QUERIES;i++) tree.getNearestNeighbors(new WB_Point(coords[3*i], coords[3*i+1], coords[3*i+2]), K);
+    long t2=System.nanoTime();
+    println("WB_KDTree       build "+ms(t0, t1)+" knn "+ms(t1, t2));
+  }
+  exit();
+}
+
+void move(double[] coords, Random random) {
+  for (int i=0;i<coords.length;i++) coords[i]+=random.nextDouble()-0.5;
+}
+
+String ms(long start, long end) {
+  return nf((end-start)*1e-6f, 1, 1)+"ms";
+}
@@ -0,0 +1,75 @@
+import wblut.math.*;
+import wblut.processing.*;
+import wblut.core.*;
+import wblut.hemesh.*;
+import wblut.geom.*;
+import java.util.*;
+
+// Compares the keyed HE_RAS with the slot-indexed HE_IndexedRAS used by HE_Mesh.
+// Each operation is timed separately, then in the interleaved mix of a
+// decimation like HES_TriDec. Results are printed to the console.
+
+int N=1000000;
+int STEPS=250000;
+int RUNS=5;
+HE_Vertex[] items;
+
+void setup() {
+  size(200, 200);
+  items=new HE_Vertex[N];
+  for (int i=0;i<N;i++) items[i]=new HE_Vertex(i, 0, 0);
+  for (int r=0;r<RUNS;r++) {
+    println("run "+r);
+    bench("HE_RAS       ", new HE_RAS<HE_Vertex>(N));
+    bench("HE_IndexedRAS", new HE_IndexedRAS<HE_Vertex>(N));
+    mixed("HE_RAS       ", new HE_RAS<HE_Vertex>(N));
+    mixed("HE_IndexedRAS", new HE_IndexedRAS<HE_Vertex>(N));
+  }
+  exit();
+}
+
+void bench(String name, HE_RAS<HE_Vertex> ras) {
+  long t0=System.nanoTime();
+  for (int i=0;i<N;i++) ras.add(items[i]);
+  long t1=System.nanoTime();
+  int found=0;
+  for (int i=0;i<N;i++) if (ras.contains(items[(i*7919)%N])) found++;
+  long t2=System.nanoTime();
+  long sum=0;
+  for (int i=0;i<N;i++) sum+=ras.getIndex(items[(i*7919)%N]);
+  long t3=System.nanoTime();
+  for (int i=0;i<N;i+=2) ras.remove(items[i]);
+  long t4=System.nanoTime();
+  println(name+" add "+ms(t0, t1)+" contains "+ms(t1, t2)+" getIndex "+ms(t2, t3)+" remove "+ms(t3, t4)+" ("+found+", "+sum+", "+ras.size()+")");
+}
+
+// Replays the pattern of an edge collapse: remove an element and its two
+// neighbors, add the merged element and check which elements around it are
+// still there. Fresh elements are used so no slots are left from earlier sets.
+void mixed(String name, HE_RAS<HE_Vertex> ras) {
+  HE_Vertex[] ring=new HE_Vertex[N];
+  for (int i=0;i<N;i++) ring[i]=new HE_Vertex(i, 0, 0);
+  HE_Vertex[] merged=new HE_Vertex[STEPS];
+  for (int i=0;i<STEPS;i++) merged[i]=new HE_Vertex(i, 1, 0);
+  for (int i=0;i<N;i++) ras.add(ring[i]);
+  Random random=new Random(42);
+  int found=0;
+  long sum=0;
+  int c;
+  long t0=System.nanoTime();
+  for (int s=0;s<STEPS;s++) {
+    c=random.nextInt(N);
+    ras.remove(ring[c]);
+    ras.remove(ring[(c+1)%N]);
+    ras.remove(ring[(c+2)%N]);
+    ras.add(merged[s]);
+    for (int d=-3;d<=5;d++) if (ras.contains(ring[(c+d+N)%N])) found++;
+    if (ras.contains(merged[random.nextInt(s+1)])) sum+=ras.getIndex(merged[s]);
+  }
+  long t1=System.nanoTime();
+  println(name+" mixed "+ms(t0, t1)+" ("+found+", "+sum+", "+ras.size()+")");
+}
+
+String ms(long start, long end) {
+  return nf((end-start)*1e-6f, 1, 1)+"ms";
+}
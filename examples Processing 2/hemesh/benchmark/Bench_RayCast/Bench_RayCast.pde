@@ -0,0 +1,60 @@
+import wblut.math.*;
+import wblut.processing.*;
+import wblut.core.*;
+import wblut.hemesh.*;
+import wblut.geom.*;
+import java.util.*;
+
+// Casts a batch of random rays against a large mesh with WB_RayCaster for an
+// increasing number of threads, and once with one HE_Intersection call per
+// ray for comparison. Results are printed to the console in rays per second.
+
+int N=1000000;
+int RUNS=3;
+
+void setup() {
+  size(200, 200);
+  HE_Mesh mesh=new HE_Mesh(new HEC_Geodesic().setB(100).setC(0).setRadius(300));
+  println(mesh.getNumberOfFaces()+" faces");
+  Random random=new Random(42);
+  double[] origins=new double[3*N];
+  double[] directions=new double[3*N];
+  for (int i=0;i<3*N;i++) {
+    origins[i]=random.nextGaussian()*150;
+    directions[i]=random.nextGaussian();
+  }
+  int[] hitFaces=new int[N];
+  double[] hitT=new double[N];
+  double[] hitUV=new double[2*N];
+  long t0=System.nanoTime();
+  WB_RayCaster caster=new WB_RayCaster(mesh);
+  println("build "+ms(t0, System.nanoTime()));
+  int maxThreads=Runtime.getRuntime().availableProcessors();
+  for (int threads=1; threads<=maxThreads; threads*=2) {
+    WB_Parallel.setThreadCount(threads);
+    for (int r=0;r<RUNS;r++) {
+      t0=System.nanoTime();
+      caster.castRays(origins, directions, 0, Double.POSITIVE_INFINITY, hitFaces, hitT, hitUV);
+      println("WB_RayCaster, "+threads+" threads: "+rate(N, t0, System.nanoTime()));
+    }
+  }
+  WB_Parallel.setThreadCount(maxThreads);
+  WB_BVH tree=caster.getTree();
+  int M=N/10;
+  for (int r=0;r<RUNS;r++) {
+    t0=System.nanoTime();
+    for (int i=0;i<M;i++) {
+      HE_Intersection.getClosestIntersection(tree, new WB_Ray(new WB_Point(origins[3*i], origins[3*i+1], origins[3*i+2]), new WB_Vector(directions[3*i], directions[3*i+1], directions[3*i+2])));
+    }
+    println("HE_Intersection, 1 thread: "+rate(M, t0, System.nanoTime()));
+  }
+  exit();
+}
+
+String ms(long start, long end) {
+  return nf((end-start)*1e-6f, 1, 1)+"ms";
+}
+
+String rate(int n, long start, long end) {
+  return nf((float)(n/((end-start)*1e-9)/1e6), 1, 2)+" Mrays/s";
+}
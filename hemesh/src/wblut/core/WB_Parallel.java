@@ -0,0 +1,275 @@
+package wblut.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Minimal shared worker pool for data-parallel loops over index ranges.
+ *
+ * Work is split in contiguous chunks, one per thread. Small problems are run
+ * on the calling thread. Calls made from inside a worker are also run on the
+ * calling thread, so parallel methods can safely call each other. Changing
+ * the number of threads swaps in a new pool, a pool still in use by a running
+ * loop is only shut down when that loop finishes.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_Parallel {
+
+	/**
+	 * Work on a range of indices.
+	 */
+	public interface Range {
+		/**
+		 * Process indices start (inclusive) to end (exclusive).
+		 *
+		 * @param start
+		 * @param end
+		 */
+		public void run(int start, int end);
+	}
+
+	/**
+	 * Work on a numbered chunk.
+	 */
+	public interface Chunk {
+		/**
+		 * Process chunk.
+		 *
+		 * @param chunk
+		 *            chunk index, 0 to number of chunks-1
+		 */
+		public void run(int chunk);
+	}
+
+	/**
+	 * Executor with the number of loops using it.
+	 */
+	private static final class Pool {
+		final ExecutorService executor;
+		int users;
+		boolean retired;
+
+		Pool(final ExecutorService executor) {
+			this.executor = executor;
+		}
+	}
+
+	private static volatile int threadCount = Runtime.getRuntime()
+			.availableProcessors();
+
+	private static Pool pool;
+
+	private static final ThreadLocal<Boolean> isWorker = new ThreadLocal<Boolean>() {
+		@Override
+		protected Boolean initialValue() {
+			return Boolean.FALSE;
+		}
+	};
+
+	private WB_Parallel() {
+	}
+
+	/**
+	 * Get number of threads used for parallel loops.
+	 *
+	 * @return number of threads
+	 */
+	public static int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * Set number of threads used for parallel loops. 1 runs everything on the
+	 * calling thread. Loops running on other threads finish on the old pool.
+	 *
+	 * @param n
+	 *            number of threads
+	 */
+	public static synchronized void setThreadCount(final int n) {
+		final int count = Math.max(1, n);
+		if (count != threadCount) {
+			threadCount = count;
+			if (pool != null) {
+				retire(pool);
+				pool = null;
+			}
+		}
+	}
+
+	/**
+	 * Number of chunks a range of n indices is split into when each chunk
+	 * should have at least grain indices.
+	 *
+	 * @param n
+	 *            number of indices
+	 * @param grain
+	 *            minimum chunk size
+	 * @return number of chunks, at least 1
+	 */
+	public static int getNumberOfChunks(final int n, final int grain) {
+		if (isWorker.get()) {
+			return 1;
+		}
+		final int chunks = n / Math.max(1, grain);
+		return Math.max(1, Math.min(threadCount, chunks));
+	}
+
+	/**
+	 * Process indices 0 to n-1 in parallel.
+	 *
+	 * @param n
+	 *            number of indices
+	 * @param grain
+	 *            minimum number of indices per chunk, smaller ranges are run
+	 *            on the calling thread
+	 * @param range
+	 *            work
+	 */
+	public static void forRange(final int n, final int grain,
+			final Range range) {
+		final int chunks = getNumberOfChunks(n, grain);
+		if (chunks == 1) {
+			if (n > 0) {
+				range.run(0, n);
+			}
+			return;
+		}
+		forChunks(chunks, new Chunk() {
+			@Override
+			public void run(final int chunk) {
+				range.run(getChunkStart(n, chunks, chunk),
+						getChunkStart(n, chunks, chunk + 1));
+			}
+		});
+	}
+
+	/**
+	 * First index of a chunk when n indices are split in a number of chunks.
+	 *
+	 * @param n
+	 *            number of indices
+	 * @param chunks
+	 *            number of chunks
+	 * @param chunk
+	 *            chunk index, chunks gives n
+	 * @return first index
+	 */
+	public static int getChunkStart(final int n, final int chunks,
+			final int chunk) {
+		return (int) ((long) n * chunk / chunks);
+	}
+
+	/**
+	 * Run a number of chunks in parallel and wait for all of them.
+	 *
+	 * @param chunks
+	 *            number of chunks
+	 * @param work
+	 *            work
+	 */
+	public static void forChunks(final int chunks, final Chunk work) {
+		if ((chunks == 1) || (threadCount == 1) || isWorker.get()) {
+			for (int i = 0; i < chunks; i++) {
+				work.run(i);
+			}
+			return;
+		}
+		final Pool p = acquire();
+		try {
+			run(p.executor, chunks, work);
+		}
+		finally {
+			release(p);
+		}
+	}
+
+	private static void run(final ExecutorService ex, final int chunks,
+			final Chunk work) {
+		final List<Future<?>> futures = new ArrayList<Future<?>>(chunks);
+		for (int i = 1; i < chunks; i++) {
+			final int chunk = i;
+			futures.add(ex.submit(new Runnable() {
+				@Override
+				public void run() {
+					work.run(chunk);
+				}
+			}));
+		}
+		// the calling thread takes the first chunk
+		RuntimeException failure = null;
+		isWorker.set(Boolean.TRUE);
+		try {
+			work.run(0);
+		}
+		catch (final RuntimeException e) {
+			failure = e;
+		}
+		finally {
+			isWorker.set(Boolean.FALSE);
+		}
+		for (final Future<?> future : futures) {
+			try {
+				future.get();
+			}
+			catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				if (failure == null) {
+					failure = new IllegalStateException(e);
+				}
+			}
+			catch (final ExecutionException e) {
+				if (failure == null) {
+					failure = (e.getCause() instanceof RuntimeException) ? (RuntimeException) e
+							.getCause() : new IllegalStateException(
+							e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private static synchronized Pool acquire() {
+		if (pool == null) {
+			pool = new Pool(Executors.newFixedThreadPool(threadCount,
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(final Runnable r) {
+							final Thread t = new Thread(new Runnable() {
+								@Override
+								public void run() {
+									isWorker.set(Boolean.TRUE);
+									r.run();
+								}
+							}, "WB_Parallel");
+							t.setDaemon(true);
+							return t;
+						}
+					}));
+		}
+		pool.users++;
+		return pool;
+	}
+
+	private static synchronized void release(final Pool p) {
+		p.users--;
+		if (p.retired && (p.users == 0)) {
+			p.executor.shutdown();
+		}
+	}
+
+	private static void retire(final Pool p) {
+		p.retired = true;
+		if (p.users == 0) {
+			p.executor.shutdown();
+		}
+	}
+}
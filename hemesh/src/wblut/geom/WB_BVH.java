@@ -0,0 +1,1063 @@
+package wblut.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.geom.interfaces.Segment;
+import wblut.hemesh.HE_Face;
+import wblut.hemesh.HE_Halfedge;
+import wblut.hemesh.HE_Intersection;
+import wblut.hemesh.HE_Mesh;
+import wblut.hemesh.HE_Vertex;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Bounding volume hierarchy of the faces of a mesh, built with the surface
+ * area heuristic. Each node is split by binning the face centers along the
+ * three axes and picking the cheapest split, or becomes a leaf when testing
+ * its faces is cheaper than splitting.
+ *
+ * The tree is stored in flat arrays. Node i has its bounds in
+ * bounds[6i..6i+5] (min x,y,z, max x,y,z) and three ints in nodes[3i..3i+2]:
+ * the first face and number of faces for a leaf, or the first child and 0 for
+ * an interior node. The children of a node are next to each other, the third
+ * int is the split axis. Faces are reordered so each leaf holds a contiguous
+ * range. The root is node 0.
+ *
+ * Large nodes are binned in parallel, the subtrees below them are built in
+ * parallel. The tree doesn't depend on the number of threads.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_BVH {
+
+	/** Number of bins per axis. */
+	private static final int BINS = 16;
+
+	/** Cost of visiting a node relative to testing a face. */
+	private static final double TRAVERSALCOST = 1.0;
+
+	/** Minimum number of faces per chunk when binning in parallel. */
+	private static final int GRAIN = 65536;
+
+	/** Nodes with fewer faces are built as independent subtrees. */
+	private static final int SUBTREE = 4096;
+
+	/** Number of rays traced together in a batch. */
+	private static final int PACKET = 32;
+
+	private final HE_Face[] faces;
+
+	/** Index of each face in the face array of the mesh. */
+	private final int[] indices;
+
+	/** Node arrays, also traversed by WB_RayCaster. */
+	double[] bounds;
+
+	int[] nodes;
+
+	private int numberOfNodes;
+
+	private final int maxLeafSize;
+
+	/** Face bounds and centers, only used during construction. */
+	private double[] faceBounds, faceCenters;
+
+	/** Face order, only used during construction. */
+	private int[] order;
+
+	/**
+	 * Build a BVH of all faces of a mesh with at most 8 faces per leaf.
+	 *
+	 * @param mesh
+	 *            mesh
+	 */
+	public WB_BVH(final HE_Mesh mesh) {
+		this(mesh, 8);
+	}
+
+	/**
+	 * Build a BVH of all faces of a mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @param maxLeafSize
+	 *            maximum number of faces per leaf, only exceeded if the
+	 *            faces have the same center
+	 */
+	public WB_BVH(final HE_Mesh mesh, final int maxLeafSize) {
+		this.maxLeafSize = Math.max(1, maxLeafSize);
+		final HE_Face[] meshFaces = mesh.getFacesAsArray();
+		final int n = meshFaces.length;
+		faces = new HE_Face[n];
+		indices = new int[n];
+		bounds = new double[12 * Math.max(1, n / this.maxLeafSize)];
+		nodes = new int[6 * Math.max(1, n / this.maxLeafSize)];
+		numberOfNodes = 1;
+		Arrays.fill(bounds, 0, 6, 0);
+		if (n == 0) {
+			return;
+		}
+		faceBounds = new double[6 * n];
+		faceCenters = new double[3 * n];
+		order = new int[n];
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					setFaceBounds(f, meshFaces[f]);
+					order[f] = f;
+				}
+			}
+		});
+		build();
+		for (int i = 0; i < n; i++) {
+			faces[i] = meshFaces[order[i]];
+		}
+		System.arraycopy(order, 0, indices, 0, n);
+		faceBounds = null;
+		faceCenters = null;
+		order = null;
+		bounds = Arrays.copyOf(bounds, 6 * numberOfNodes);
+		nodes = Arrays.copyOf(nodes, 3 * numberOfNodes);
+	}
+
+	/**
+	 * Bounds of all faces.
+	 *
+	 * @return AABB
+	 */
+	public WB_AABB getAABB() {
+		return new WB_AABB(bounds[0], bounds[1], bounds[2], bounds[3],
+				bounds[4], bounds[5]);
+	}
+
+	/**
+	 * Number of faces.
+	 *
+	 * @return number of faces
+	 */
+	public int getNumberOfFaces() {
+		return faces.length;
+	}
+
+	/**
+	 * Number of nodes.
+	 *
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return numberOfNodes;
+	}
+
+	/**
+	 * Face i, faces are ordered as they are stored in the leaves.
+	 *
+	 * @param i
+	 *            index
+	 * @return face
+	 */
+	public HE_Face getFace(final int i) {
+		return faces[i];
+	}
+
+	/**
+	 * Index of face i in the face array of the mesh the tree was built from,
+	 * see HE_Mesh.getFacesAsArray().
+	 *
+	 * @param i
+	 *            index
+	 * @return index in the mesh
+	 */
+	public int getFaceIndex(final int i) {
+		return indices[i];
+	}
+
+	/**
+	 * Closest face hit by the part of a line o+t*d with t between tmin and
+	 * tmax. Children are visited nearest first and skipped once a closer hit
+	 * is found.
+	 *
+	 * @param ox
+	 * @param oy
+	 * @param oz
+	 *            origin
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 *            direction
+	 * @param tmin
+	 * @param tmax
+	 *            parameter range
+	 * @param hit
+	 *            receives t of the hit in hit[0], untouched if nothing is hit
+	 * @return index of the hit face, see getFace(i), -1 if nothing is hit
+	 */
+	public int getClosestHit(final double ox, final double oy,
+			final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax,
+			final double[] hit) {
+		if (faces.length == 0) {
+			return -1;
+		}
+		final double ix = 1.0 / dx;
+		final double iy = 1.0 / dy;
+		final double iz = 1.0 / dz;
+		double best = tmax;
+		int bestFace = -1;
+		double t = entry(0, ox, oy, oz, ix, iy, iz, tmin, best);
+		if (Double.isNaN(t)) {
+			return -1;
+		}
+		int[] stack = new int[64];
+		double[] entries = new double[64];
+		int sp = 1;
+		entries[0] = t;
+		int n, count, first, near;
+		double tl, tr;
+		while (sp > 0) {
+			sp--;
+			if (entries[sp] > best) {
+				continue;
+			}
+			n = stack[sp];
+			count = nodes[3 * n + 1];
+			if (count > 0) {
+				first = nodes[3 * n];
+				for (int f = first; f < first + count; f++) {
+					t = HE_Intersection.getIntersectionParameter(faces[f], ox,
+							oy, oz, dx, dy, dz);
+					if ((t >= tmin) && (t < best)) {
+						best = t;
+						bestFace = f;
+					}
+				}
+				continue;
+			}
+			if (sp + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+				entries = Arrays.copyOf(entries, 2 * entries.length);
+			}
+			near = nodes[3 * n];
+			tl = entry(near, ox, oy, oz, ix, iy, iz, tmin, best);
+			tr = entry(near + 1, ox, oy, oz, ix, iy, iz, tmin, best);
+			if (Double.isNaN(tl)) {
+				if (!Double.isNaN(tr)) {
+					stack[sp] = near + 1;
+					entries[sp++] = tr;
+				}
+				continue;
+			}
+			if (Double.isNaN(tr)) {
+				stack[sp] = near;
+				entries[sp++] = tl;
+				continue;
+			}
+			// push the far child first
+			if (tr < tl) {
+				stack[sp] = near;
+				entries[sp++] = tl;
+				stack[sp] = near + 1;
+				entries[sp++] = tr;
+			}
+			else {
+				stack[sp] = near + 1;
+				entries[sp++] = tr;
+				stack[sp] = near;
+				entries[sp++] = tl;
+			}
+		}
+		if (bestFace >= 0) {
+			hit[0] = best;
+		}
+		return bestFace;
+	}
+
+	/**
+	 * Closest hits of a batch of rays o+t*d with t between tmin and tmax.
+	 * Rays are sorted by direction and origin and traced in small packets
+	 * that share a single traversal of the tree.
+	 *
+	 * @param origins
+	 *            origins, 3 values per ray
+	 * @param directions
+	 *            directions, 3 values per ray
+	 * @param tmin
+	 * @param tmax
+	 *            parameter range
+	 * @param hitFaces
+	 *            receives the index of the hit face of each ray, -1 if
+	 *            nothing is hit
+	 * @param hitT
+	 *            receives t of the hit of each ray, NaN if nothing is hit
+	 */
+	public void getClosestHits(final double[] origins,
+			final double[] directions, final double tmin, final double tmax,
+			final int[] hitFaces, final double[] hitT) {
+		final int n = origins.length / 3;
+		if ((directions.length < 3 * n) || (hitFaces.length < n)
+				|| (hitT.length < n)) {
+			throw new IllegalArgumentException(
+					"Arrays too short for the number of rays.");
+		}
+		final int[] sorted = getCoherentOrder(origins, directions, n);
+		final Packet packet = new Packet();
+		for (int p = 0; p < n; p += PACKET) {
+			packet.trace(sorted, p, Math.min(n, p + PACKET), origins,
+					directions, tmin, tmax, hitFaces, hitT);
+		}
+	}
+
+	/**
+	 * Order of a batch of rays, sorted by direction octant, then by the
+	 * position of the origin along a Morton curve in the bounds of the tree.
+	 */
+	int[] getCoherentOrder(final double[] origins,
+			final double[] directions, final int n) {
+		final long[] keys = new long[n];
+		final double[] scale = new double[3];
+		for (int a = 0; a < 3; a++) {
+			final double ext = bounds[a + 3] - bounds[a];
+			scale[a] = (ext > 0) ? 511.0 / ext : 0;
+		}
+		final int[] q = new int[3];
+		int key;
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < 3; a++) {
+				q[a] = (int) ((origins[3 * i + a] - bounds[a]) * scale[a]);
+				q[a] = (q[a] < 0) ? 0 : (q[a] > 511) ? 511 : q[a];
+			}
+			key = ((directions[3 * i] < 0) ? 1 : 0)
+					| ((directions[3 * i + 1] < 0) ? 2 : 0)
+					| ((directions[3 * i + 2] < 0) ? 4 : 0);
+			for (int b = 8; b >= 0; b--) {
+				for (int a = 0; a < 3; a++) {
+					key = (key << 1) | ((q[a] >> b) & 1);
+				}
+			}
+			keys[i] = ((long) key << 32) | i;
+		}
+		Arrays.sort(keys);
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * Scratch space for tracing a packet of rays. Nodes are visited once for
+	 * the whole packet, starting from the first ray that still hits them;
+	 * children are ordered by the direction of that ray along the split
+	 * axis.
+	 */
+	private final class Packet {
+		private final double[] o = new double[3 * PACKET];
+		private final double[] d = new double[3 * PACKET];
+		private final double[] inv = new double[3 * PACKET];
+		private final double[] best = new double[PACKET];
+		private final int[] face = new int[PACKET];
+		private int[] stack = new int[128];
+
+		void trace(final int[] sorted, final int from, final int to,
+				final double[] origins, final double[] directions,
+				final double tmin, final double tmax, final int[] hitFaces,
+				final double[] hitT) {
+			final int m = to - from;
+			for (int r = 0; r < m; r++) {
+				final int ray = sorted[from + r];
+				for (int a = 0; a < 3; a++) {
+					o[3 * r + a] = origins[3 * ray + a];
+					d[3 * r + a] = directions[3 * ray + a];
+					inv[3 * r + a] = 1.0 / d[3 * r + a];
+				}
+				best[r] = tmax;
+				face[r] = -1;
+			}
+			if (faces.length > 0) {
+				traverse(m, tmin);
+			}
+			for (int r = 0; r < m; r++) {
+				final int ray = sorted[from + r];
+				hitFaces[ray] = face[r];
+				hitT[ray] = (face[r] < 0) ? Double.NaN : best[r];
+			}
+		}
+
+		private void traverse(final int m, final double tmin) {
+			int sp = 0;
+			stack[sp++] = 0;
+			stack[sp++] = 0;
+			int n, r, count, first, near;
+			double t;
+			while (sp > 0) {
+				r = stack[--sp];
+				n = stack[--sp];
+				while ((r < m) && !hits(n, r, tmin)) {
+					r++;
+				}
+				if (r == m) {
+					continue;
+				}
+				count = nodes[3 * n + 1];
+				if (count > 0) {
+					first = nodes[3 * n];
+					for (int i = r; i < m; i++) {
+						if ((i > r) && !hits(n, i, tmin)) {
+							continue;
+						}
+						for (int f = first; f < first + count; f++) {
+							t = HE_Intersection.getIntersectionParameter(
+									faces[f], o[3 * i], o[3 * i + 1],
+									o[3 * i + 2], d[3 * i], d[3 * i + 1],
+									d[3 * i + 2]);
+							if ((t >= tmin) && (t < best[i])) {
+								best[i] = t;
+								face[i] = f;
+							}
+						}
+					}
+					continue;
+				}
+				if (sp + 4 > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+				}
+				near = nodes[3 * n];
+				if (d[3 * r + nodes[3 * n + 2]] < 0) {
+					near++;
+				}
+				// far child first, then the near child
+				stack[sp++] = (near == nodes[3 * n]) ? near + 1 : near - 1;
+				stack[sp++] = r;
+				stack[sp++] = near;
+				stack[sp++] = r;
+			}
+		}
+
+		private boolean hits(final int n, final int r, final double tmin) {
+			return !Double.isNaN(entry(n, o[3 * r], o[3 * r + 1],
+					o[3 * r + 2], inv[3 * r], inv[3 * r + 1], inv[3 * r + 2],
+					tmin, best[r]));
+		}
+	}
+
+	/**
+	 * Faces whose bounds are hit by a ray.
+	 *
+	 * @param R
+	 *            ray
+	 * @return candidate faces
+	 */
+	public ArrayList<HE_Face> getPotentialIntersectedFaces(final WB_Ray R) {
+		final WB_Point o = R.getOrigin();
+		final WB_Vector d = R.getDirection();
+		return getFaces(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(), 0,
+				Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Faces whose bounds are hit by a line.
+	 *
+	 * @param L
+	 *            line
+	 * @return candidate faces
+	 */
+	public ArrayList<HE_Face> getPotentialIntersectedFaces(final WB_Line L) {
+		final WB_Point o = L.getOrigin();
+		final WB_Vector d = L.getDirection();
+		return getFaces(o.xd(), o.yd(), o.zd(), d.xd(), d.yd(), d.zd(),
+				Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Faces whose bounds are hit by a segment.
+	 *
+	 * @param S
+	 *            segment
+	 * @return candidate faces
+	 */
+	public ArrayList<HE_Face> getPotentialIntersectedFaces(final Segment S) {
+		final WB_Point o = S.getOrigin();
+		final WB_Point e = S.getEndpoint();
+		return getFaces(o.xd(), o.yd(), o.zd(), e.xd() - o.xd(), e.yd()
+				- o.yd(), e.zd() - o.zd(), 0, 1);
+	}
+
+	/**
+	 * Faces whose bounds are cut by a plane.
+	 *
+	 * @param P
+	 *            plane
+	 * @return candidate faces
+	 */
+	public ArrayList<HE_Face> getPotentialIntersectedFaces(final WB_Plane P) {
+		final ArrayList<HE_Face> result = new ArrayList<HE_Face>();
+		if (faces.length == 0) {
+			return result;
+		}
+		final WB_Vector nrm = P.getNormal();
+		final double nx = nrm.xd();
+		final double ny = nrm.yd();
+		final double nz = nrm.zd();
+		final double d = P.d();
+		int[] stack = new int[64];
+		int sp = 1;
+		int n, i;
+		while (sp > 0) {
+			n = stack[--sp];
+			i = 6 * n;
+			final double s = nx * (bounds[i] + bounds[i + 3]) + ny
+					* (bounds[i + 1] + bounds[i + 4]) + nz
+					* (bounds[i + 2] + bounds[i + 5]) - 2 * d;
+			final double r = Math.abs(nx) * (bounds[i + 3] - bounds[i])
+					+ Math.abs(ny) * (bounds[i + 4] - bounds[i + 1])
+					+ Math.abs(nz) * (bounds[i + 5] - bounds[i + 2]);
+			if (Math.abs(s) > r) {
+				continue;
+			}
+			if (sp + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			}
+			sp = visit(n, result, stack, sp);
+		}
+		return result;
+	}
+
+	/**
+	 * Faces whose bounds are hit by the part of a line o+t*d with t between
+	 * tmin and tmax.
+	 */
+	private ArrayList<HE_Face> getFaces(final double ox, final double oy,
+			final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax) {
+		final ArrayList<HE_Face> result = new ArrayList<HE_Face>();
+		if (faces.length == 0) {
+			return result;
+		}
+		final double ix = 1.0 / dx;
+		final double iy = 1.0 / dy;
+		final double iz = 1.0 / dz;
+		int[] stack = new int[64];
+		int sp = 1;
+		int n;
+		while (sp > 0) {
+			n = stack[--sp];
+			if (Double.isNaN(entry(n, ox, oy, oz, ix, iy, iz, tmin, tmax))) {
+				continue;
+			}
+			if (sp + 2 > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+			}
+			sp = visit(n, result, stack, sp);
+		}
+		return result;
+	}
+
+	/**
+	 * Add the faces of a leaf or push the children of an interior node.
+	 *
+	 * @return new stack size
+	 */
+	private int visit(final int n, final ArrayList<HE_Face> result,
+			final int[] stack, int sp) {
+		final int count = nodes[3 * n + 1];
+		if (count > 0) {
+			final int first = nodes[3 * n];
+			for (int f = first; f < first + count; f++) {
+				result.add(faces[f]);
+			}
+			return sp;
+		}
+		stack[sp++] = nodes[3 * n] + 1;
+		stack[sp++] = nodes[3 * n];
+		return sp;
+	}
+
+	/**
+	 * Parameter where a line o+t*d enters the bounds of a node, clipped to
+	 * [tmin,tmax]. Directions with a zero component give infinite inverses,
+	 * the NaN for an origin on a slab plane is ignored by the comparisons.
+	 *
+	 * @return entry parameter, NaN if the node isn't hit
+	 */
+	double entry(final int n, final double ox, final double oy,
+			final double oz, final double ix, final double iy,
+			final double iz, final double tmin, final double tmax) {
+		final int i = 6 * n;
+		double t0 = tmin;
+		double t1 = tmax;
+		double tn, tf;
+		if (ix >= 0) {
+			tn = (bounds[i] - ox) * ix;
+			tf = (bounds[i + 3] - ox) * ix;
+		}
+		else {
+			tn = (bounds[i + 3] - ox) * ix;
+			tf = (bounds[i] - ox) * ix;
+		}
+		if (tn > t0) {
+			t0 = tn;
+		}
+		if (tf < t1) {
+			t1 = tf;
+		}
+		if (iy >= 0) {
+			tn = (bounds[i + 1] - oy) * iy;
+			tf = (bounds[i + 4] - oy) * iy;
+		}
+		else {
+			tn = (bounds[i + 4] - oy) * iy;
+			tf = (bounds[i + 1] - oy) * iy;
+		}
+		if (tn > t0) {
+			t0 = tn;
+		}
+		if (tf < t1) {
+			t1 = tf;
+		}
+		if (iz >= 0) {
+			tn = (bounds[i + 2] - oz) * iz;
+			tf = (bounds[i + 5] - oz) * iz;
+		}
+		else {
+			tn = (bounds[i + 5] - oz) * iz;
+			tf = (bounds[i + 2] - oz) * iz;
+		}
+		if (tn > t0) {
+			t0 = tn;
+		}
+		if (tf < t1) {
+			t1 = tf;
+		}
+		return (t0 <= t1) ? t0 : Double.NaN;
+	}
+
+	private void setFaceBounds(final int f, final HE_Face face) {
+		double minx, miny, minz, maxx, maxy, maxz;
+		minx = miny = minz = Double.POSITIVE_INFINITY;
+		maxx = maxy = maxz = Double.NEGATIVE_INFINITY;
+		final HE_Halfedge start = face.getHalfedge();
+		HE_Halfedge he = start;
+		HE_Vertex v;
+		do {
+			v = he.getVertex();
+			minx = Math.min(minx, v.xd());
+			miny = Math.min(miny, v.yd());
+			minz = Math.min(minz, v.zd());
+			maxx = Math.max(maxx, v.xd());
+			maxy = Math.max(maxy, v.yd());
+			maxz = Math.max(maxz, v.zd());
+			he = he.getNextInFace();
+		} while (he != start);
+		// padded to match the tolerance of the face tests
+		faceBounds[6 * f] = minx - WB_Epsilon.EPSILON;
+		faceBounds[6 * f + 1] = miny - WB_Epsilon.EPSILON;
+		faceBounds[6 * f + 2] = minz - WB_Epsilon.EPSILON;
+		faceBounds[6 * f + 3] = maxx + WB_Epsilon.EPSILON;
+		faceBounds[6 * f + 4] = maxy + WB_Epsilon.EPSILON;
+		faceBounds[6 * f + 5] = maxz + WB_Epsilon.EPSILON;
+		faceCenters[3 * f] = 0.5 * (minx + maxx);
+		faceCenters[3 * f + 1] = 0.5 * (miny + maxy);
+		faceCenters[3 * f + 2] = 0.5 * (minz + maxz);
+	}
+
+	/**
+	 * Build the top of the tree, then the subtrees below it in parallel.
+	 */
+	private void build() {
+		final int n = order.length;
+		final double[] box = new double[6];
+		final double[] cbox = new double[6];
+		reset(box, 0);
+		reset(cbox, 0);
+		for (int f = 0; f < n; f++) {
+			include(box, 0, faceBounds, 6 * f);
+			includePoint(cbox, 0, faceCenters, 3 * f);
+		}
+		final Builder top = new Builder(bounds, nodes, 1);
+		final ArrayList<Builder> subtrees = new ArrayList<Builder>();
+		top.build(0, 0, n, box, cbox, Math.max(SUBTREE, n / 64), subtrees);
+		bounds = top.bounds;
+		nodes = top.nodes;
+		numberOfNodes = top.numberOfNodes;
+		final int ns = subtrees.size();
+		WB_Parallel.forChunks(ns, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int s) {
+				final Builder sub = subtrees.get(s);
+				sub.build(0, sub.start, sub.end, sub.bounds, sub.cbox, 0,
+						null);
+			}
+		});
+		// append the subtrees, their root replaces the node they start from
+		for (final Builder sub : subtrees) {
+			ensureCapacity(numberOfNodes + sub.numberOfNodes - 1);
+			final int offset = numberOfNodes - 1;
+			for (int i = 0; i < sub.numberOfNodes; i++) {
+				final int target = (i == 0) ? sub.root : offset + i;
+				System.arraycopy(sub.bounds, 6 * i, bounds, 6 * target, 6);
+				nodes[3 * target] = sub.nodes[3 * i]
+						+ ((sub.nodes[3 * i + 1] == 0) ? offset : 0);
+				nodes[3 * target + 1] = sub.nodes[3 * i + 1];
+				nodes[3 * target + 2] = sub.nodes[3 * i + 2];
+			}
+			numberOfNodes += sub.numberOfNodes - 1;
+		}
+	}
+
+	private void ensureCapacity(final int n) {
+		if (3 * n > nodes.length) {
+			final int m = Math.max(n, 2 * nodes.length / 3);
+			bounds = Arrays.copyOf(bounds, 6 * m);
+			nodes = Arrays.copyOf(nodes, 3 * m);
+		}
+	}
+
+	/** Empty bounds, min at +infinity and max at -infinity. */
+	private static final double[] EMPTY = { Double.POSITIVE_INFINITY,
+			Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+			Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+			Double.NEGATIVE_INFINITY };
+
+	private static void reset(final double[] box, final int i) {
+		System.arraycopy(EMPTY, 0, box, i, 6);
+	}
+
+	private static double halfArea(final double[] box, final int i) {
+		final double dx = box[i + 3] - box[i];
+		final double dy = box[i + 4] - box[i + 1];
+		final double dz = box[i + 5] - box[i + 2];
+		return dx * dy + dy * dz + dz * dx;
+	}
+
+	/**
+	 * Builds (part of) the tree with an explicit stack. When the top of the
+	 * tree is built, nodes below a size limit are left as independent
+	 * subtree builders.
+	 */
+	private final class Builder {
+		private double[] bounds;
+		private int[] nodes;
+		private int numberOfNodes;
+		/** Subtree only: node it replaces, face range, centroid bounds. */
+		private int root, start, end;
+		private double[] cbox;
+		/** Bins: count and face bounds per axis and bin. */
+		private final int[] count = new int[3 * BINS];
+		private final double[] binBounds = new double[18 * BINS];
+		private final double[] rightArea = new double[BINS];
+		private final double[] scale = new double[3];
+		private final double[] acc = new double[6];
+		/** Axis of the last split. */
+		private int axis;
+		/** Number of bins used for the current node. */
+		private int bins;
+
+		Builder(final double[] bounds, final int[] nodes,
+				final int numberOfNodes) {
+			this.bounds = bounds;
+			this.nodes = nodes;
+			this.numberOfNodes = numberOfNodes;
+		}
+
+		Builder(final int root, final int start, final int end,
+				final double[] box, final double[] cbox) {
+			this(new double[Math.max(12, 12 * (end - start) / maxLeafSize)],
+					new int[Math.max(6, 6 * (end - start) / maxLeafSize)], 1);
+			System.arraycopy(box, 0, bounds, 0, 6);
+			this.root = root;
+			this.start = start;
+			this.end = end;
+			this.cbox = cbox;
+		}
+
+		/**
+		 * Build the subtree of a node.
+		 *
+		 * @param node
+		 *            node index
+		 * @param from
+		 *            first face
+		 * @param to
+		 *            end of the face range
+		 * @param box
+		 *            bounds of the faces
+		 * @param cbox
+		 *            bounds of the face centers
+		 * @param limit
+		 *            nodes with at most this many faces are added to
+		 *            subtrees instead of being built, 0 to build everything
+		 * @param subtrees
+		 *            subtree builders
+		 */
+		void build(final int node, final int from, final int to,
+				final double[] box, final double[] cbox, final int limit,
+				final ArrayList<Builder> subtrees) {
+			int[] stack = new int[192];
+			double[] stackBox = new double[768];
+			int sp = 0;
+			stack[0] = node;
+			stack[1] = from;
+			stack[2] = to;
+			System.arraycopy(box, 0, stackBox, 0, 6);
+			System.arraycopy(cbox, 0, stackBox, 6, 6);
+			sp = 1;
+			final double[] nbox = new double[6];
+			final double[] ncbox = new double[6];
+			final double[] split = new double[24];
+			int n, s, e, mid;
+			while (sp > 0) {
+				sp--;
+				n = stack[3 * sp];
+				s = stack[3 * sp + 1];
+				e = stack[3 * sp + 2];
+				System.arraycopy(stackBox, 12 * sp, nbox, 0, 6);
+				System.arraycopy(stackBox, 12 * sp + 6, ncbox, 0, 6);
+				if ((subtrees != null) && (e - s <= limit)) {
+					subtrees.add(new Builder(n, s, e, nbox, ncbox.clone()));
+					System.arraycopy(nbox, 0, bounds, 6 * n, 6);
+					continue;
+				}
+				System.arraycopy(nbox, 0, bounds, 6 * n, 6);
+				mid = split(s, e, nbox, ncbox, split);
+				if (mid < 0) {
+					nodes[3 * n] = s;
+					nodes[3 * n + 1] = e - s;
+					nodes[3 * n + 2] = 0;
+					continue;
+				}
+				if (3 * (numberOfNodes + 2) > nodes.length) {
+					bounds = Arrays.copyOf(bounds, 2 * bounds.length);
+					nodes = Arrays.copyOf(nodes, 2 * nodes.length);
+				}
+				final int left = numberOfNodes;
+				numberOfNodes += 2;
+				nodes[3 * n] = left;
+				nodes[3 * n + 1] = 0;
+				nodes[3 * n + 2] = axis;
+				if (3 * (sp + 2) > stack.length) {
+					stack = Arrays.copyOf(stack, 2 * stack.length);
+					stackBox = Arrays.copyOf(stackBox, 2 * stackBox.length);
+				}
+				// right first so the left child is built first
+				stack[3 * sp] = left + 1;
+				stack[3 * sp + 1] = mid;
+				stack[3 * sp + 2] = e;
+				System.arraycopy(split, 12, stackBox, 12 * sp, 12);
+				sp++;
+				stack[3 * sp] = left;
+				stack[3 * sp + 1] = s;
+				stack[3 * sp + 2] = mid;
+				System.arraycopy(split, 0, stackBox, 12 * sp, 12);
+				sp++;
+			}
+		}
+
+		/**
+		 * Find the best split of a range of faces and partition it.
+		 *
+		 * @param s
+		 *            first face
+		 * @param e
+		 *            end of the face range
+		 * @param box
+		 *            bounds of the faces
+		 * @param cbox
+		 *            bounds of the face centers
+		 * @param result
+		 *            bounds and center bounds of the left and right part
+		 * @return start of the right part, -1 for a leaf
+		 */
+		private int split(final int s, final int e, final double[] box,
+				final double[] cbox, final double[] result) {
+			final int n = e - s;
+			if (n <= 1) {
+				return -1;
+			}
+			// small nodes don't need more bins than faces
+			bins = Math.min(BINS, n);
+			boolean flat = true;
+			for (int a = 0; a < 3; a++) {
+				final double ext = cbox[a + 3] - cbox[a];
+				scale[a] = (ext > 0) ? bins / ext : 0;
+				flat &= (ext <= 0);
+			}
+			if (flat) {
+				// all centers coincide, split in the middle if too large
+				if (n <= maxLeafSize) {
+					return -1;
+				}
+				final int mid = s + n / 2;
+				fill(result, 0, s, mid);
+				fill(result, 12, mid, e);
+				axis = 0;
+				return mid;
+			}
+			bin(s, e, cbox);
+			// sweep the bins from the right, then from the left
+			double bestCost = Double.POSITIVE_INFINITY;
+			int bestAxis = -1;
+			int bestBin = -1;
+			for (int a = 0; a < 3; a++) {
+				if (scale[a] == 0) {
+					continue;
+				}
+				reset(acc, 0);
+				int nr = 0;
+				for (int b = bins - 1; b > 0; b--) {
+					nr += count[BINS * a + b];
+					include(acc, 0, binBounds, 6 * (BINS * a + b));
+					rightArea[b] = (nr == 0) ? 0 : nr * halfArea(acc, 0);
+				}
+				reset(acc, 0);
+				int nl = 0;
+				for (int b = 1; b < bins; b++) {
+					nl += count[BINS * a + b - 1];
+					include(acc, 0, binBounds, 6 * (BINS * a + b - 1));
+					if ((nl == 0) || (nl == n)) {
+						continue;
+					}
+					final double cost = nl * halfArea(acc, 0) + rightArea[b];
+					if (cost < bestCost) {
+						bestCost = cost;
+						bestAxis = a;
+						bestBin = b;
+					}
+				}
+			}
+			if (bestAxis < 0) {
+				return -1;
+			}
+			final double area = halfArea(box, 0);
+			if ((n <= maxLeafSize)
+					&& ((area <= 0) || (n <= TRAVERSALCOST + bestCost / area))) {
+				return -1;
+			}
+			// bounds of both parts from the bins
+			for (int r = 0; r < 24; r += 6) {
+				reset(result, r);
+			}
+			for (int b = 0; b < bins; b++) {
+				final int bin = BINS * bestAxis + b;
+				if (count[bin] > 0) {
+					include(result, (b < bestBin) ? 0 : 12, binBounds, 6 * bin);
+				}
+			}
+			// partition, collecting the center bounds of both parts
+			final double min = cbox[bestAxis];
+			final double sc = scale[bestAxis];
+			int i = s;
+			int j = e - 1;
+			int t;
+			while (i <= j) {
+				t = order[i];
+				if (binOf(t, bestAxis, min, sc) < bestBin) {
+					includePoint(result, 6, faceCenters, 3 * t);
+					i++;
+				}
+				else {
+					includePoint(result, 18, faceCenters, 3 * t);
+					order[i] = order[j];
+					order[j] = t;
+					j--;
+				}
+			}
+			axis = bestAxis;
+			return i;
+		}
+
+		/**
+		 * Bin a range of faces along all three axes, in parallel if it's
+		 * large.
+		 */
+		private void bin(final int s, final int e, final double[] cbox) {
+			for (int a = 0; a < 3; a++) {
+				for (int b = BINS * a; b < BINS * a + bins; b++) {
+					count[b] = 0;
+					reset(binBounds, 6 * b);
+				}
+			}
+			final int chunks = WB_Parallel.getNumberOfChunks(e - s, GRAIN);
+			if (chunks == 1) {
+				bin(s, e, cbox, count, binBounds);
+				return;
+			}
+			final int[][] counts = new int[chunks][3 * BINS];
+			final double[][] bb = new double[chunks][18 * BINS];
+			WB_Parallel.forChunks(chunks, new WB_Parallel.Chunk() {
+				@Override
+				public void run(final int c) {
+					for (int b = 0; b < 3 * BINS; b++) {
+						reset(bb[c], 6 * b);
+					}
+					bin(s + WB_Parallel.getChunkStart(e - s, chunks, c), s
+							+ WB_Parallel.getChunkStart(e - s, chunks, c + 1),
+							cbox, counts[c], bb[c]);
+				}
+			});
+			for (int c = 0; c < chunks; c++) {
+				for (int b = 0; b < 3 * BINS; b++) {
+					count[b] += counts[c][b];
+					include(binBounds, 6 * b, bb[c], 6 * b);
+				}
+			}
+		}
+
+		private void bin(final int s, final int e, final double[] cbox,
+				final int[] cnt, final double[] bb) {
+			int f, bin;
+			for (int i = s; i < e; i++) {
+				f = order[i];
+				for (int a = 0; a < 3; a++) {
+					if (scale[a] == 0) {
+						continue;
+					}
+					bin = BINS * a + binOf(f, a, cbox[a], scale[a]);
+					cnt[bin]++;
+					include(bb, 6 * bin, faceBounds, 6 * f);
+				}
+			}
+		}
+
+		private int binOf(final int f, final int axis, final double min,
+				final double scale) {
+			final int b = (int) ((faceCenters[3 * f + axis] - min) * scale);
+			return (b < 0) ? 0 : (b >= bins) ? bins - 1 : b;
+		}
+
+		/**
+		 * Bounds and center bounds of a range of faces.
+		 */
+		private void fill(final double[] result, final int off, final int s,
+				final int e) {
+			reset(result, off);
+			reset(result, off + 6);
+			for (int i = s; i < e; i++) {
+				include(result, off, faceBounds, 6 * order[i]);
+				includePoint(result, off + 6, faceCenters, 3 * order[i]);
+			}
+		}
+	}
+
+	private static void include(final double[] box, final int i,
+			final double[] b, final int j) {
+		box[i] = Math.min(box[i], b[j]);
+		box[i + 1] = Math.min(box[i + 1], b[j + 1]);
+		box[i + 2] = Math.min(box[i + 2], b[j + 2]);
+		box[i + 3] = Math.max(box[i + 3], b[j + 3]);
+		box[i + 4] = Math.max(box[i + 4], b[j + 4]);
+		box[i + 5] = Math.max(box[i + 5], b[j + 5]);
+	}
+
+	private static void includePoint(final double[] box, final int i,
+			final double[] p, final int j) {
+		box[i] = Math.min(box[i], p[j]);
+		box[i + 1] = Math.min(box[i + 1], p[j + 1]);
+		box[i + 2] = Math.min(box[i + 2], p[j + 2]);
+		box[i + 3] = Math.max(box[i + 3], p[j]);
+		box[i + 4] = Math.max(box[i + 4], p[j + 1]);
+		box[i + 5] = Math.max(box[i + 5], p[j + 2]);
+	}
+}
@@ -199,13 +199,7 @@ public class WB_CoordinateSequence {
 	}
 
 	public WB_CoordinateSequence _applyAsPointSelf(final WB_Transform T) {
-		int id = 0;
-		for (int j = 0; j < size(); j++) {
-			x1 = ordinates[id++];
-			y1 = ordinates[id++];
-			z1 = ordinates[id++];
-			T.applyAsPoint(x1, y1, z1, getPoint(j));
-		}
+		T.applySelfAsPoints(ordinates, 4, n);
 		return this;
 	}
 
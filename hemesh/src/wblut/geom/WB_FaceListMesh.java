@@ -130,6 +130,26 @@ public class WB_FaceListMesh implements WB_Mesh {
 
 	}
 
+	/**
+	 * Transform the mesh in place. The vertices are transformed in bulk on
+	 * their coordinate array, large meshes are split over the threads of
+	 * WB_Parallel. Cached normals, areas and curvatures are reset.
+	 *
+	 * @param T
+	 *            transform
+	 * @return self
+	 */
+	public WB_FaceListMesh applySelf(final WB_Transform T) {
+		vertices._applyAsPointSelf(T);
+		aabb = null;
+		vNormalsUpdated = false;
+		fNormalsUpdated = false;
+		areasUpdated = false;
+		curvaturesUpdated = false;
+		DCurvaturesUpdated = false;
+		return this;
+	}
+
 	@Override
 	public int[][] getFacesAsInt() {
 		return faces;
@@ -634,19 +654,16 @@ public class WB_FaceListMesh implements WB_Mesh {
 		return faces[i];
 	}
 
+	/**
+	 * Transform a copy of the mesh.
+	 *
+	 * @param T
+	 *            transform
+	 * @return transformed copy
+	 */
 	@Override
-	public WB_FaceListMesh apply(final WB_Transform WB_Point) {
-		final FastTable<WB_Point> newvertices = new FastTable<WB_Point>();
-		int id = 0;
-		WB_Point point;
-		for (int i = 0; i < vertices.size(); i++) {
-			point = geometryfactory.createPoint();
-			WB_Point.applyAsPoint(vertices.getRaw(id++), vertices.getRaw(id++),
-					vertices.getRaw(id++), point);
-			newvertices.add(point);
-			id++;
-		}
-		return geometryfactory.createMesh(newvertices, faces);
+	public WB_FaceListMesh apply(final WB_Transform T) {
+		return get().applySelf(T);
 	}
 
 	@Override
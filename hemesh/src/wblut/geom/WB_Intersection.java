@@ -8,6 +8,7 @@ import wblut.geom.WB_AABBTree.WB_AABBNode;
 import wblut.geom.interfaces.Segment;
 import wblut.geom.interfaces.SimplePolygon;
 import wblut.geom.interfaces.Triangle;
+import wblut.hemesh.HE_Face;
 import wblut.math.WB_Epsilon;
 import wblut.math.WB_Math;
 
@@ -877,6 +878,26 @@ public class WB_Intersection {
 		return result;
 	}
 
+	public static ArrayList<HE_Face> getIntersection3D(final WB_Ray R,
+			final WB_BVH tree) {
+		return tree.getPotentialIntersectedFaces(R);
+	}
+
+	public static ArrayList<HE_Face> getIntersection3D(final WB_Line L,
+			final WB_BVH tree) {
+		return tree.getPotentialIntersectedFaces(L);
+	}
+
+	public static ArrayList<HE_Face> getIntersection3D(final Segment S,
+			final WB_BVH tree) {
+		return tree.getPotentialIntersectedFaces(S);
+	}
+
+	public static ArrayList<HE_Face> getIntersection3D(final WB_Plane P,
+			final WB_BVH tree) {
+		return tree.getPotentialIntersectedFaces(P);
+	}
+
 	public static ArrayList<WB_Segment> getIntersection3D(
 			final SimplePolygon poly, final WB_Plane P) {
 
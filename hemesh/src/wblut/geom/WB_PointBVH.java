@@ -0,0 +1,550 @@
+package wblut.geom;
+
+import java.util.Collection;
+
+import wblut.core.WB_Parallel;
+
+/**
+ * Bounding volume hierarchy of a fixed set of moving points, stored in flat
+ * arrays.
+ *
+ * The hierarchy is built once by median splits along the widest axis, with at
+ * most 8 points per leaf. When points move, the structure is kept and only
+ * the boxes are updated: moving a single point refits its leaf and the boxes
+ * above it, stopping as soon as a box doesn't change, moving all points refits
+ * every box in one bottom-up pass. Both are much cheaper than building a new
+ * tree. Queries stay exact after any number of moves, but they slow down when
+ * points travel far from where the tree was built, call {@link #rebuild()}
+ * then.
+ *
+ * Queries write their results into arrays passed by the caller and return
+ * the number of results. Points are identified by their index in the input.
+ * Queries can run from several threads at once, but not while points are
+ * moved.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_PointBVH {
+
+	/** Maximum number of points in a leaf. */
+	private static final int BUCKET = 8;
+
+	/** Minimum number of nodes per chunk in a parallel refit. */
+	private static final int GRAIN = 1024;
+
+	/** Coordinates, 3 per point, in tree order. */
+	private final double[] coords;
+
+	/** Index in the input of each point in tree order. */
+	private final int[] indices;
+
+	/** Position in tree order of each input point. */
+	private final int[] slots;
+
+	/** Leaf of each point in tree order. */
+	private final int[] leaves;
+
+	/**
+	 * Per node: first point and number of points for a leaf, left child and 0
+	 * for an interior node. The right child follows the left one. Children
+	 * always come after their parent.
+	 */
+	private int[] nodes;
+
+	/** Parent of each node, -1 for the root. */
+	private int[] parents;
+
+	/** Box of each node, min x,y,z and max x,y,z. */
+	private double[] bounds;
+
+	private int numberOfNodes;
+
+	/**
+	 * Build a tree of points given as a flat array.
+	 *
+	 * @param coords
+	 *            coordinates, 3 values per point, not modified
+	 */
+	public WB_PointBVH(final double[] coords) {
+		this.coords = coords.clone();
+		final int n = coords.length / 3;
+		indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		slots = new int[n];
+		leaves = new int[n];
+		build();
+	}
+
+	/**
+	 * Build a tree of points.
+	 *
+	 * @param points
+	 *            points
+	 */
+	public WB_PointBVH(final WB_Coordinate[] points) {
+		this(toArray(points));
+	}
+
+	/**
+	 * Build a tree of points, indices follow the iteration order.
+	 *
+	 * @param points
+	 *            points
+	 */
+	public WB_PointBVH(final Collection<? extends WB_Coordinate> points) {
+		this(toArray(points.toArray(new WB_Coordinate[points.size()])));
+	}
+
+	private static double[] toArray(final WB_Coordinate[] points) {
+		final double[] coords = new double[3 * points.length];
+		for (int i = 0; i < points.length; i++) {
+			coords[3 * i] = points[i].xd();
+			coords[3 * i + 1] = points[i].yd();
+			coords[3 * i + 2] = points[i].zd();
+		}
+		return coords;
+	}
+
+	/**
+	 * Number of points.
+	 *
+	 * @return number of points
+	 */
+	public int getNumberOfPoints() {
+		return indices.length;
+	}
+
+	/**
+	 * Number of nodes.
+	 *
+	 * @return number of nodes
+	 */
+	public int getNumberOfNodes() {
+		return numberOfNodes;
+	}
+
+	/**
+	 * Build a new hierarchy for the current positions of the points. Queries
+	 * are fastest right after a rebuild.
+	 */
+	public void rebuild() {
+		build();
+	}
+
+	private void build() {
+		final int n = indices.length;
+		// median splits leave at least BUCKET/2 points in each leaf
+		final int capacity = Math.max(1, 4 * n / BUCKET + 2);
+		if ((nodes == null) || (parents.length < capacity)) {
+			nodes = new int[2 * capacity];
+			parents = new int[capacity];
+			bounds = new double[6 * capacity];
+		}
+		numberOfNodes = 1;
+		parents[0] = -1;
+		build(0, 0, n);
+		for (int i = 0; i < n; i++) {
+			slots[indices[i]] = i;
+		}
+	}
+
+	private void build(final int node, final int s, final int e) {
+		setBounds(node, s, e);
+		if (e - s <= BUCKET) {
+			nodes[2 * node] = s;
+			nodes[2 * node + 1] = e - s;
+			for (int i = s; i < e; i++) {
+				leaves[i] = node;
+			}
+			return;
+		}
+		int a = 0;
+		double ext = bounds[6 * node + 3] - bounds[6 * node];
+		for (int b = 1; b < 3; b++) {
+			if (bounds[6 * node + b + 3] - bounds[6 * node + b] > ext) {
+				ext = bounds[6 * node + b + 3] - bounds[6 * node + b];
+				a = b;
+			}
+		}
+		final int m = (s + e) >>> 1;
+		WB_StaticKDTree.select(coords, indices, s, e, m, a);
+		final int left = numberOfNodes;
+		numberOfNodes += 2;
+		nodes[2 * node] = left;
+		nodes[2 * node + 1] = 0;
+		parents[left] = node;
+		parents[left + 1] = node;
+		build(left, s, m);
+		build(left + 1, m, e);
+	}
+
+	/**
+	 * Set the box of a node to the box of a range of points.
+	 */
+	private void setBounds(final int node, final int s, final int e) {
+		final int o = 6 * node;
+		bounds[o] = bounds[o + 1] = bounds[o + 2] = Double.POSITIVE_INFINITY;
+		bounds[o + 3] = bounds[o + 4] = bounds[o + 5] = Double.NEGATIVE_INFINITY;
+		double c;
+		for (int i = s; i < e; i++) {
+			for (int a = 0; a < 3; a++) {
+				c = coords[3 * i + a];
+				bounds[o + a] = Math.min(bounds[o + a], c);
+				bounds[o + a + 3] = Math.max(bounds[o + a + 3], c);
+			}
+		}
+	}
+
+	/**
+	 * Set the box of an interior node to the union of its children's boxes.
+	 *
+	 * @return true if the box changed
+	 */
+	private boolean merge(final int node) {
+		final int o = 6 * node;
+		final int l = 6 * nodes[2 * node];
+		final int r = l + 6;
+		boolean changed = false;
+		double c;
+		for (int a = 0; a < 3; a++) {
+			c = Math.min(bounds[l + a], bounds[r + a]);
+			if (c != bounds[o + a]) {
+				bounds[o + a] = c;
+				changed = true;
+			}
+			c = Math.max(bounds[l + a + 3], bounds[r + a + 3]);
+			if (c != bounds[o + a + 3]) {
+				bounds[o + a + 3] = c;
+				changed = true;
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Current position of a point.
+	 *
+	 * @param i
+	 *            index of the point
+	 * @return position
+	 */
+	public WB_Point getPoint(final int i) {
+		final int p = 3 * slots[i];
+		return new WB_Point(coords[p], coords[p + 1], coords[p + 2]);
+	}
+
+	/**
+	 * Move a point and refit the boxes containing it. Only the leaf of the
+	 * point and the boxes above it that change are updated.
+	 *
+	 * @param i
+	 *            index of the point
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            new position
+	 */
+	public void setPoint(final int i, final double x, final double y,
+			final double z) {
+		final int p = slots[i];
+		coords[3 * p] = x;
+		coords[3 * p + 1] = y;
+		coords[3 * p + 2] = z;
+		int node = leaves[p];
+		setBounds(node, nodes[2 * node], nodes[2 * node]
+				+ nodes[2 * node + 1]);
+		node = parents[node];
+		while ((node >= 0) && merge(node)) {
+			node = parents[node];
+		}
+	}
+
+	/**
+	 * Move a point and refit the boxes containing it.
+	 *
+	 * @param i
+	 *            index of the point
+	 * @param p
+	 *            new position
+	 */
+	public void setPoint(final int i, final WB_Coordinate p) {
+		setPoint(i, p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * Move all points and refit all boxes in one pass.
+	 *
+	 * @param coords
+	 *            new coordinates, 3 values per point, in input order
+	 */
+	public void setPoints(final double[] coords) {
+		final int n = indices.length;
+		if (coords.length < 3 * n) {
+			throw new IllegalArgumentException(
+					"Fewer coordinates than points in the tree.");
+		}
+		final double[] target = this.coords;
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int p;
+				for (int i = start; i < end; i++) {
+					p = 3 * slots[i];
+					target[p] = coords[3 * i];
+					target[p + 1] = coords[3 * i + 1];
+					target[p + 2] = coords[3 * i + 2];
+				}
+			}
+		});
+		refit();
+	}
+
+	/**
+	 * Move all points and refit all boxes in one pass.
+	 *
+	 * @param points
+	 *            new positions, in input order
+	 */
+	public void setPoints(final WB_Coordinate[] points) {
+		if (points.length < indices.length) {
+			throw new IllegalArgumentException(
+					"Fewer points than points in the tree.");
+		}
+		int p;
+		for (int i = 0; i < indices.length; i++) {
+			p = 3 * slots[i];
+			coords[p] = points[i].xd();
+			coords[p + 1] = points[i].yd();
+			coords[p + 2] = points[i].zd();
+		}
+		refit();
+	}
+
+	/**
+	 * Refit all boxes: leaves in parallel, then interior nodes from the bottom
+	 * up.
+	 */
+	private void refit() {
+		if (indices.length == 0) {
+			return;
+		}
+		WB_Parallel.forRange(numberOfNodes, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int node = start; node < end; node++) {
+					if (nodes[2 * node + 1] > 0) {
+						setBounds(node, nodes[2 * node], nodes[2 * node]
+								+ nodes[2 * node + 1]);
+					}
+				}
+			}
+		});
+		for (int node = numberOfNodes - 1; node >= 0; node--) {
+			if (nodes[2 * node + 1] == 0) {
+				merge(node);
+			}
+		}
+	}
+
+	/**
+	 * Squared distance from a point to the box of a node.
+	 */
+	private double getSqDistance(final int node, final double x,
+			final double y, final double z) {
+		final int o = 6 * node;
+		double d = 0;
+		double t;
+		t = Math.max(bounds[o] - x, x - bounds[o + 3]);
+		if (t > 0) {
+			d += t * t;
+		}
+		t = Math.max(bounds[o + 1] - y, y - bounds[o + 4]);
+		if (t > 0) {
+			d += t * t;
+		}
+		t = Math.max(bounds[o + 2] - z, z - bounds[o + 5]);
+		if (t > 0) {
+			d += t * t;
+		}
+		return d;
+	}
+
+	/**
+	 * Nearest point.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @return index of the nearest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final double x, final double y,
+			final double z) {
+		final int[] result = new int[1];
+		return (getNearestNeighbors(x, y, z, 1, result, new double[1]) == 0) ? -1
+				: result[0];
+	}
+
+	/**
+	 * Nearest point.
+	 *
+	 * @param p
+	 *            query point
+	 * @return index of the nearest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final WB_Coordinate p) {
+		return getNearestNeighbor(p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * k nearest points, sorted by increasing distance.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @param k
+	 *            number of points
+	 * @param result
+	 *            receives the indices of the points, at least k long
+	 * @param d2
+	 *            receives the squared distances, at least k long
+	 * @return number of points found, k unless the tree has fewer points
+	 */
+	public int getNearestNeighbors(final double x, final double y,
+			final double z, final int k, final int[] result, final double[] d2) {
+		if ((result.length < k) || (d2.length < k)) {
+			throw new IllegalArgumentException("Result arrays shorter than k.");
+		}
+		if ((k <= 0) || (indices.length == 0)) {
+			return 0;
+		}
+		final int found = nearest(0, x, y, z, k, result, d2, 0);
+		WB_StaticKDTree.sort(result, d2, 0, found);
+		return found;
+	}
+
+	/**
+	 * k nearest points, sorted by increasing distance.
+	 *
+	 * @param p
+	 *            query point
+	 * @param k
+	 *            number of points
+	 * @param result
+	 *            receives the indices of the points, at least k long
+	 * @param d2
+	 *            receives the squared distances, at least k long
+	 * @return number of points found, k unless the tree has fewer points
+	 */
+	public int getNearestNeighbors(final WB_Coordinate p, final int k,
+			final int[] result, final double[] d2) {
+		return getNearestNeighbors(p.xd(), p.yd(), p.zd(), k, result, d2);
+	}
+
+	/**
+	 * Search a node, keeping the closest points found so far in a max-heap.
+	 * The child with the closer box is searched first.
+	 *
+	 * @return number of points in the heap
+	 */
+	private int nearest(final int node, final double x, final double y,
+			final double z, final int k, final int[] result,
+			final double[] d2, int count) {
+		final int size = nodes[2 * node + 1];
+		if (size > 0) {
+			final int s = nodes[2 * node];
+			double dx, dy, dz;
+			for (int i = s; i < s + size; i++) {
+				dx = coords[3 * i] - x;
+				dy = coords[3 * i + 1] - y;
+				dz = coords[3 * i + 2] - z;
+				count = WB_StaticKDTree.offer(indices[i], dx * dx + dy * dy
+						+ dz * dz, k, result, d2, 0, count);
+			}
+			return count;
+		}
+		final int l = nodes[2 * node];
+		final double dl = getSqDistance(l, x, y, z);
+		final double dr = getSqDistance(l + 1, x, y, z);
+		final int first = (dl <= dr) ? l : l + 1;
+		final double dfirst = (dl <= dr) ? dl : dr;
+		final double dsecond = (dl <= dr) ? dr : dl;
+		if ((count < k) || (dfirst < d2[0])) {
+			count = nearest(first, x, y, z, k, result, d2, count);
+		}
+		if ((count < k) || (dsecond < d2[0])) {
+			count = nearest((first == l) ? l + 1 : l, x, y, z, k, result, d2,
+					count);
+		}
+		return count;
+	}
+
+	/**
+	 * Points within a distance of a query point, in no particular order.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @param radius
+	 *            distance
+	 * @param result
+	 *            receives the indices of the points, if it's too short only
+	 *            the first result.length are stored
+	 * @return number of points within the distance
+	 */
+	public int getRange(final double x, final double y, final double z,
+			final double radius, final int[] result) {
+		if (indices.length == 0) {
+			return 0;
+		}
+		return range(0, x, y, z, radius * radius, result, 0);
+	}
+
+	/**
+	 * Points within a distance of a query point, in no particular order.
+	 *
+	 * @param p
+	 *            query point
+	 * @param radius
+	 *            distance
+	 * @param result
+	 *            receives the indices of the points, if it's too short only
+	 *            the first result.length are stored
+	 * @return number of points within the distance
+	 */
+	public int getRange(final WB_Coordinate p, final double radius,
+			final int[] result) {
+		return getRange(p.xd(), p.yd(), p.zd(), radius, result);
+	}
+
+	private int range(final int node, final double x, final double y,
+			final double z, final double r2, final int[] result, int count) {
+		if (getSqDistance(node, x, y, z) > r2) {
+			return count;
+		}
+		final int size = nodes[2 * node + 1];
+		if (size == 0) {
+			count = range(nodes[2 * node], x, y, z, r2, result, count);
+			return range(nodes[2 * node] + 1, x, y, z, r2, result, count);
+		}
+		final int s = nodes[2 * node];
+		double dx, dy, dz;
+		for (int i = s; i < s + size; i++) {
+			dx = coords[3 * i] - x;
+			dy = coords[3 * i + 1] - y;
+			dz = coords[3 * i + 2] - z;
+			if (dx * dx + dy * dy + dz * dz <= r2) {
+				if (count < result.length) {
+					result[count] = indices[i];
+				}
+				count++;
+			}
+		}
+		return count;
+	}
+}
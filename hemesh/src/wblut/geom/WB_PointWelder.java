@@ -0,0 +1,274 @@
+package wblut.geom;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Welds points that are closer than a tolerance using a spatial hash. Points
+ * are binned in cubic cells the size of the tolerance, only the 27
+ * surrounding cells are checked for each point.
+ *
+ * Each point is welded to the lowest indexed point within tolerance. If that
+ * point is itself welded, the point follows it. The result only depends on
+ * the input order, not on the number of threads.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_PointWelder {
+
+	/** Minimum number of points per thread. */
+	private static final int GRAIN = 8192;
+
+	/** Weld tolerance. */
+	private double tolerance;
+
+	/** Number of unique points in last result. */
+	private int numberOfUniquePoints;
+
+	/** Coordinates of current input. */
+	private double[] xyz;
+
+	/** Number of points in current input. */
+	private int n;
+
+	/** Cell key of each point. */
+	private long[] keys;
+
+	/** Points sorted by cell, ascending index within a cell. */
+	private int[] sorted;
+
+	/** First position in sorted for each cell, cells.length+1 values. */
+	private int[] cellStart;
+
+	/** Cell key to cell index. */
+	private TLongIntMap cells;
+
+	/**
+	 * Instantiates a new WB_PointWelder with tolerance WB_Epsilon.EPSILON.
+	 */
+	public WB_PointWelder() {
+		this(WB_Epsilon.EPSILON);
+	}
+
+	/**
+	 * Instantiates a new WB_PointWelder.
+	 *
+	 * @param tolerance
+	 *            points closer than tolerance are welded, 0 only welds
+	 *            identical points
+	 */
+	public WB_PointWelder(final double tolerance) {
+		setTolerance(tolerance);
+	}
+
+	/**
+	 * Set weld tolerance.
+	 *
+	 * @param tolerance
+	 *            points closer than tolerance are welded, 0 only welds
+	 *            identical points
+	 * @return self
+	 */
+	public WB_PointWelder setTolerance(final double tolerance) {
+		this.tolerance = Math.max(0, tolerance);
+		return this;
+	}
+
+	public double getTolerance() {
+		return tolerance;
+	}
+
+	/**
+	 * Number of unique points found in last call to weld.
+	 *
+	 * @return number of unique points
+	 */
+	public int getNumberOfUniquePoints() {
+		return numberOfUniquePoints;
+	}
+
+	/**
+	 * Weld points.
+	 *
+	 * @param points
+	 *            points
+	 * @return for each point the index of the point it is welded to, itself if
+	 *         unique. The index is never larger than the index of the point.
+	 */
+	public int[] weld(final WB_Coordinate[] points) {
+		final int np = points.length;
+		final double[] coords = new double[3 * np];
+		WB_Parallel.forRange(np, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					coords[3 * i] = points[i].xd();
+					coords[3 * i + 1] = points[i].yd();
+					coords[3 * i + 2] = points[i].zd();
+				}
+			}
+		});
+		return weld(coords, np);
+	}
+
+	/**
+	 * Weld points.
+	 *
+	 * @param coords
+	 *            coordinates: x0, y0, z0, x1, y1, z1, ...
+	 * @param count
+	 *            number of points
+	 * @return for each point the index of the point it is welded to, itself if
+	 *         unique. The index is never larger than the index of the point.
+	 */
+	public int[] weld(final double[] coords, final int count) {
+		xyz = coords;
+		n = count;
+		keys = new long[n];
+		final int[] result = new int[n];
+		if (n == 0) {
+			numberOfUniquePoints = 0;
+			return result;
+		}
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					keys[i] = (tolerance == 0) ? exactKey(i) : cellKey(
+							cell(xyz[3 * i]), cell(xyz[3 * i + 1]),
+							cell(xyz[3 * i + 2]));
+				}
+			}
+		});
+		binPoints();
+		// lowest indexed neighbor within tolerance, independent per point
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					result[i] = firstNeighbor(i);
+				}
+			}
+		});
+		int unique = 0;
+		for (int i = 0; i < n; i++) {
+			if (result[i] == i) {
+				unique++;
+			}
+			else {
+				result[i] = result[result[i]];
+			}
+		}
+		numberOfUniquePoints = unique;
+		xyz = null;
+		keys = null;
+		sorted = null;
+		cellStart = null;
+		cells = null;
+		return result;
+	}
+
+	/**
+	 * Group points by cell with a counting sort. Points stay in ascending
+	 * order within a cell.
+	 */
+	private void binPoints() {
+		cells = new TLongIntHashMap(Math.max(10, n), 0.5f, Long.MIN_VALUE, -1);
+		final int[] cellOf = new int[n];
+		int nc = 0;
+		int c;
+		for (int i = 0; i < n; i++) {
+			c = cells.get(keys[i]);
+			if (c == -1) {
+				c = nc++;
+				cells.put(keys[i], c);
+			}
+			cellOf[i] = c;
+		}
+		cellStart = new int[nc + 1];
+		for (int i = 0; i < n; i++) {
+			cellStart[cellOf[i] + 1]++;
+		}
+		for (int i = 0; i < nc; i++) {
+			cellStart[i + 1] += cellStart[i];
+		}
+		final int[] fill = Arrays.copyOf(cellStart, nc);
+		sorted = new int[n];
+		for (int i = 0; i < n; i++) {
+			sorted[fill[cellOf[i]]++] = i;
+		}
+	}
+
+	private int firstNeighbor(final int i) {
+		final double x = xyz[3 * i];
+		final double y = xyz[3 * i + 1];
+		final double z = xyz[3 * i + 2];
+		int best = i;
+		if (tolerance == 0) {
+			final int c = cells.get(keys[i]);
+			int j;
+			for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+				j = sorted[k];
+				if (j >= best) {
+					break;
+				}
+				if ((xyz[3 * j] == x) && (xyz[3 * j + 1] == y)
+						&& (xyz[3 * j + 2] == z)) {
+					best = j;
+				}
+			}
+			return best;
+		}
+		final double sqtol = tolerance * tolerance;
+		final long cx = cell(x);
+		final long cy = cell(y);
+		final long cz = cell(z);
+		int c, j;
+		double dx, dy, dz;
+		for (long a = cx - 1; a <= cx + 1; a++) {
+			for (long b = cy - 1; b <= cy + 1; b++) {
+				for (long d = cz - 1; d <= cz + 1; d++) {
+					c = cells.get(cellKey(a, b, d));
+					if (c == -1) {
+						continue;
+					}
+					for (int k = cellStart[c]; k < cellStart[c + 1]; k++) {
+						j = sorted[k];
+						if (j >= best) {
+							break;
+						}
+						dx = xyz[3 * j] - x;
+						dy = xyz[3 * j + 1] - y;
+						dz = xyz[3 * j + 2] - z;
+						if (dx * dx + dy * dy + dz * dz < sqtol) {
+							best = j;
+							break;
+						}
+					}
+				}
+			}
+		}
+		return best;
+	}
+
+	private long cell(final double v) {
+		return (long) Math.floor(v / tolerance);
+	}
+
+	private long exactKey(final int i) {
+		// +0.0 folds -0.0 onto 0.0
+		return cellKey(Double.doubleToLongBits(xyz[3 * i] + 0.0),
+				Double.doubleToLongBits(xyz[3 * i + 1] + 0.0),
+				Double.doubleToLongBits(xyz[3 * i + 2] + 0.0));
+	}
+
+	private static long cellKey(final long i, final long j, final long k) {
+		return (i * 73856093L) ^ (j * 19349663L) ^ (k * 83492791L);
+	}
+}
@@ -0,0 +1,368 @@
+package wblut.geom;
+
+import wblut.core.WB_Parallel;
+import wblut.hemesh.HE_Face;
+import wblut.hemesh.HE_Halfedge;
+import wblut.hemesh.HE_Mesh;
+import wblut.hemesh.HE_Vertex;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Casts large batches of rays against a static mesh. Rays go in and hits come
+ * out as primitive arrays, no objects are created per ray.
+ *
+ * The faces are copied as triangle fans into a flat array, in the order of the
+ * leaves of a WB_BVH. Each fan triangle is stored as its first vertex and two
+ * edges. Faces are tested the same way as in
+ * HE_Intersection.getIntersectionParameter(), so concave faces are handled
+ * correctly. After construction the caster doesn't change, one instance can
+ * be shared by any number of threads.
+ *
+ * Batches are sorted by direction and origin and split over the threads of
+ * WB_Parallel.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_RayCaster {
+
+	/** Number of rays per parallel task. */
+	private static final int GRAIN = 1024;
+
+	/** Maximum number of tasks per thread, smaller tasks balance better. */
+	private static final int TASKSPERTHREAD = 8;
+
+	private final WB_BVH tree;
+
+	/** First vertex and two edges per fan triangle. */
+	private final double[] triangles;
+
+	/** First fan triangle of each face of the tree, plus the total. */
+	private final int[] fans;
+
+	/** Stack size needed to traverse the tree. */
+	private final int stackSize;
+
+	/**
+	 * Build a caster for a mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 */
+	public WB_RayCaster(final HE_Mesh mesh) {
+		this(new WB_BVH(mesh));
+	}
+
+	/**
+	 * Build a caster for the faces in a tree. The faces shouldn't be changed
+	 * afterwards.
+	 *
+	 * @param tree
+	 *            tree
+	 */
+	public WB_RayCaster(final WB_BVH tree) {
+		this.tree = tree;
+		final int n = tree.getNumberOfFaces();
+		fans = new int[n + 1];
+		for (int f = 0; f < n; f++) {
+			fans[f + 1] = fans[f]
+					+ Math.max(0, tree.getFace(f).getFaceOrder() - 2);
+		}
+		triangles = new double[9 * fans[n]];
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int f = start; f < end; f++) {
+					setFan(f, tree.getFace(f));
+				}
+			}
+		});
+		stackSize = getDepth() + 2;
+	}
+
+	private void setFan(final int f, final HE_Face face) {
+		// start at the same vertex as face.getFaceVertices()
+		HE_Halfedge start = face.getHalfedge();
+		HE_Halfedge he = start.getNextInFace();
+		while (he != face.getHalfedge()) {
+			if (he.getVertex().compareTo(start.getVertex()) < 0) {
+				start = he;
+			}
+			he = he.getNextInFace();
+		}
+		final HE_Vertex v0 = start.getVertex();
+		he = start.getNextInFace();
+		HE_Vertex v1 = he.getVertex();
+		HE_Vertex v2;
+		he = he.getNextInFace();
+		for (int i = 9 * fans[f]; i < 9 * fans[f + 1]; i += 9) {
+			v2 = he.getVertex();
+			triangles[i] = v0.xd();
+			triangles[i + 1] = v0.yd();
+			triangles[i + 2] = v0.zd();
+			triangles[i + 3] = v1.xd() - v0.xd();
+			triangles[i + 4] = v1.yd() - v0.yd();
+			triangles[i + 5] = v1.zd() - v0.zd();
+			triangles[i + 6] = v2.xd() - v0.xd();
+			triangles[i + 7] = v2.yd() - v0.yd();
+			triangles[i + 8] = v2.zd() - v0.zd();
+			v1 = v2;
+			he = he.getNextInFace();
+		}
+	}
+
+	private int getDepth() {
+		if (tree.getNumberOfFaces() == 0) {
+			return 0;
+		}
+		final int nn = tree.getNumberOfNodes();
+		final int[] depth = new int[nn];
+		int max = 0;
+		// children always come after their parent
+		for (int n = 0; n < nn; n++) {
+			max = Math.max(max, depth[n]);
+			if (tree.nodes[3 * n + 1] == 0) {
+				depth[tree.nodes[3 * n]] = depth[n] + 1;
+				depth[tree.nodes[3 * n] + 1] = depth[n] + 1;
+			}
+		}
+		return max;
+	}
+
+	/**
+	 * Tree used by the caster.
+	 *
+	 * @return tree
+	 */
+	public WB_BVH getTree() {
+		return tree;
+	}
+
+	/**
+	 * Closest hits of a batch of rays o+t*d with t between tmin and tmax.
+	 *
+	 * The hit point of ray i is (1-u-v)*a+u*b+v*c, with u=hitUV[2i] and
+	 * v=hitUV[2i+1]. For a triangle, a, b and c are its vertices in the order
+	 * of face.getFaceVertices(). For larger faces they are the fan triangle
+	 * that was hit: the first vertex and two consecutive vertices.
+	 *
+	 * @param origins
+	 *            origins, 3 values per ray
+	 * @param directions
+	 *            directions, 3 values per ray
+	 * @param tmin
+	 * @param tmax
+	 *            parameter range
+	 * @param hitFaces
+	 *            receives for each ray the index of the hit face in the mesh,
+	 *            see HE_Mesh.getFaceByIndex(), -1 if nothing is hit
+	 * @param hitT
+	 *            receives for each ray t of the hit, NaN if nothing is hit
+	 * @param hitUV
+	 *            receives for each ray 2 barycentric coordinates of the hit,
+	 *            can be null
+	 */
+	public void castRays(final double[] origins, final double[] directions,
+			final double tmin, final double tmax, final int[] hitFaces,
+			final double[] hitT, final double[] hitUV) {
+		final int n = origins.length / 3;
+		if ((directions.length < 3 * n) || (hitFaces.length < n)
+				|| (hitT.length < n)
+				|| ((hitUV != null) && (hitUV.length < 2 * n))) {
+			throw new IllegalArgumentException(
+					"Arrays too short for the number of rays.");
+		}
+		final int[] order = tree.getCoherentOrder(origins, directions, n);
+		final int chunks = (WB_Parallel.getNumberOfChunks(n, GRAIN) == 1) ? 1
+				: Math.min((n + GRAIN - 1) / GRAIN, TASKSPERTHREAD
+						* WB_Parallel.getThreadCount());
+		WB_Parallel.forChunks(chunks, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int chunk) {
+				final int[] stack = new int[stackSize];
+				final double[] entries = new double[stackSize];
+				final double[] hit = new double[3];
+				final int start = WB_Parallel.getChunkStart(n, chunks, chunk);
+				final int end = WB_Parallel.getChunkStart(n, chunks,
+						chunk + 1);
+				int ray, f;
+				for (int i = start; i < end; i++) {
+					ray = order[i];
+					f = cast(origins[3 * ray], origins[3 * ray + 1],
+							origins[3 * ray + 2], directions[3 * ray],
+							directions[3 * ray + 1], directions[3 * ray + 2],
+							tmin, tmax, stack, entries, hit);
+					hitFaces[ray] = (f < 0) ? -1 : tree.getFaceIndex(f);
+					hitT[ray] = (f < 0) ? Double.NaN : hit[0];
+					if (hitUV != null) {
+						hitUV[2 * ray] = (f < 0) ? Double.NaN : hit[1];
+						hitUV[2 * ray + 1] = (f < 0) ? Double.NaN : hit[2];
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Closest hit of a single ray o+t*d with t between tmin and tmax.
+	 *
+	 * @param ox
+	 * @param oy
+	 * @param oz
+	 *            origin
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 *            direction
+	 * @param tmin
+	 * @param tmax
+	 *            parameter range
+	 * @param hit
+	 *            receives t and the barycentric coordinates u and v of the hit,
+	 *            see castRays()
+	 * @return index of the hit face in the mesh, -1 if nothing is hit
+	 */
+	public int castRay(final double ox, final double oy, final double oz,
+			final double dx, final double dy, final double dz,
+			final double tmin, final double tmax, final double[] hit) {
+		final int f = cast(ox, oy, oz, dx, dy, dz, tmin, tmax,
+				new int[stackSize], new double[stackSize], hit);
+		return (f < 0) ? -1 : tree.getFaceIndex(f);
+	}
+
+	/**
+	 * Front to back traversal of the tree.
+	 *
+	 * @return index of the hit face in the tree, -1 if nothing is hit
+	 */
+	private int cast(final double ox, final double oy, final double oz,
+			final double dx, final double dy, final double dz,
+			final double tmin, final double tmax, final int[] stack,
+			final double[] entries, final double[] hit) {
+		if (tree.getNumberOfFaces() == 0) {
+			return -1;
+		}
+		final int[] nodes = tree.nodes;
+		final double ix = 1.0 / dx;
+		final double iy = 1.0 / dy;
+		final double iz = 1.0 / dz;
+		double best = tmax;
+		int bestFace = -1;
+		double t = tree.entry(0, ox, oy, oz, ix, iy, iz, tmin, best);
+		if (Double.isNaN(t)) {
+			return -1;
+		}
+		int sp = 1;
+		stack[0] = 0;
+		entries[0] = t;
+		int n, count, first, near;
+		double tl, tr;
+		while (sp > 0) {
+			sp--;
+			if (entries[sp] > best) {
+				continue;
+			}
+			n = stack[sp];
+			count = nodes[3 * n + 1];
+			if (count > 0) {
+				first = nodes[3 * n];
+				for (int f = first; f < first + count; f++) {
+					if (hitFan(f, ox, oy, oz, dx, dy, dz, tmin, best, hit)) {
+						best = hit[0];
+						bestFace = f;
+					}
+				}
+				continue;
+			}
+			near = nodes[3 * n];
+			tl = tree.entry(near, ox, oy, oz, ix, iy, iz, tmin, best);
+			tr = tree.entry(near + 1, ox, oy, oz, ix, iy, iz, tmin, best);
+			if (Double.isNaN(tl)) {
+				if (!Double.isNaN(tr)) {
+					stack[sp] = near + 1;
+					entries[sp++] = tr;
+				}
+				continue;
+			}
+			if (Double.isNaN(tr)) {
+				stack[sp] = near;
+				entries[sp++] = tl;
+				continue;
+			}
+			// push the far child first
+			if (tr < tl) {
+				stack[sp] = near;
+				entries[sp++] = tl;
+				stack[sp] = near + 1;
+				entries[sp++] = tr;
+			}
+			else {
+				stack[sp] = near + 1;
+				entries[sp++] = tr;
+				stack[sp] = near;
+				entries[sp++] = tl;
+			}
+		}
+		if (bestFace >= 0) {
+			hit[0] = best;
+		}
+		return bestFace;
+	}
+
+	/**
+	 * Test the fan of a face. Only writes to hit if the face is hit with t
+	 * between tmin and tmax (exclusive).
+	 *
+	 * @return true if the face is hit
+	 */
+	private boolean hitFan(final int f, final double ox, final double oy,
+			final double oz, final double dx, final double dy,
+			final double dz, final double tmin, final double tmax,
+			final double[] hit) {
+		double sx, sy, sz, px, py, pz, qx, qy, qz, det, inv, u, v, tt;
+		double t = Double.NaN;
+		double bu = 0;
+		double bv = 0;
+		int winding = 0;
+		for (int i = 9 * fans[f]; i < 9 * fans[f + 1]; i += 9) {
+			px = dy * triangles[i + 8] - dz * triangles[i + 7];
+			py = dz * triangles[i + 6] - dx * triangles[i + 8];
+			pz = dx * triangles[i + 7] - dy * triangles[i + 6];
+			det = triangles[i + 3] * px + triangles[i + 4] * py
+					+ triangles[i + 5] * pz;
+			if (det == 0) {
+				continue;
+			}
+			inv = 1.0 / det;
+			sx = ox - triangles[i];
+			sy = oy - triangles[i + 1];
+			sz = oz - triangles[i + 2];
+			u = (sx * px + sy * py + sz * pz) * inv;
+			if ((u < -WB_Epsilon.EPSILON) || (u > 1 + WB_Epsilon.EPSILON)) {
+				continue;
+			}
+			qx = sy * triangles[i + 5] - sz * triangles[i + 4];
+			qy = sz * triangles[i + 3] - sx * triangles[i + 5];
+			qz = sx * triangles[i + 4] - sy * triangles[i + 3];
+			v = (dx * qx + dy * qy + dz * qz) * inv;
+			if ((v < -WB_Epsilon.EPSILON) || (u + v > 1 + WB_Epsilon.EPSILON)) {
+				continue;
+			}
+			winding += (det > 0) ? 1 : -1;
+			tt = (triangles[i + 6] * qx + triangles[i + 7] * qy
+					+ triangles[i + 8] * qz) * inv;
+			if (!(tt >= t)) {
+				t = tt;
+				bu = u;
+				bv = v;
+			}
+		}
+		if ((winding == 0) || !(t >= tmin) || !(t < tmax)) {
+			return false;
+		}
+		hit[0] = t;
+		hit[1] = bu;
+		hit[2] = bv;
+		return true;
+	}
+}
@@ -0,0 +1,680 @@
+package wblut.geom;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import wblut.core.WB_Parallel;
+
+/**
+ * KD-tree of a fixed set of points, built in bulk and stored in flat arrays.
+ *
+ * The tree is implicit. The points of a range [s,e) are partitioned around
+ * its median m=(s+e)/2 along the widest axis of the range's region: points
+ * before m are not above point m on that axis, points after m are not below
+ * it. The axis is stored at m, the two halves are the children. Ranges of at
+ * most 8 points are leaves and are searched linearly. There are no node
+ * objects, only the reordered coordinates, the original indices and one byte
+ * per point.
+ *
+ * Queries write their results into arrays passed by the caller and return
+ * the number of results. Points are identified by their index in the input.
+ * The tree doesn't change after construction, so it can be queried from
+ * several threads at once.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class WB_StaticKDTree {
+
+	/** Maximum number of points in a leaf. */
+	private static final int BUCKET = 8;
+
+	/** Number of subtrees built in parallel. */
+	private static final int TASKS = 64;
+
+	/** Minimum number of queries per chunk in parallel batch queries. */
+	private static final int GRAIN = 1024;
+
+	/** Coordinates, 3 per point, in tree order. */
+	private final double[] coords;
+
+	/** Index of each point in the input. */
+	private final int[] indices;
+
+	/** Split axis, stored at the median of each range. */
+	private final byte[] axes;
+
+	/**
+	 * Build a tree of points given as a flat array.
+	 *
+	 * @param coords
+	 *            coordinates, 3 values per point, not modified
+	 */
+	public WB_StaticKDTree(final double[] coords) {
+		this.coords = coords.clone();
+		final int n = coords.length / 3;
+		indices = new int[n];
+		for (int i = 0; i < n; i++) {
+			indices[i] = i;
+		}
+		axes = new byte[n];
+		build();
+	}
+
+	/**
+	 * Build a tree of points.
+	 *
+	 * @param points
+	 *            points
+	 */
+	public WB_StaticKDTree(final WB_Coordinate[] points) {
+		this(toArray(points));
+	}
+
+	/**
+	 * Build a tree of points, indices follow the iteration order.
+	 *
+	 * @param points
+	 *            points
+	 */
+	public WB_StaticKDTree(final Collection<? extends WB_Coordinate> points) {
+		this(toArray(points.toArray(new WB_Coordinate[points.size()])));
+	}
+
+	private static double[] toArray(final WB_Coordinate[] points) {
+		final double[] coords = new double[3 * points.length];
+		for (int i = 0; i < points.length; i++) {
+			coords[3 * i] = points[i].xd();
+			coords[3 * i + 1] = points[i].yd();
+			coords[3 * i + 2] = points[i].zd();
+		}
+		return coords;
+	}
+
+	/**
+	 * Number of points.
+	 *
+	 * @return number of points
+	 */
+	public int getNumberOfPoints() {
+		return indices.length;
+	}
+
+	/**
+	 * Partition the top levels of the tree one level at a time, each level in
+	 * parallel, then build the subtrees below them in parallel.
+	 */
+	private void build() {
+		final int n = indices.length;
+		if (n <= BUCKET) {
+			return;
+		}
+		final double[] region = new double[] { Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < 3; a++) {
+				region[a] = Math.min(region[a], coords[3 * i + a]);
+				region[a + 3] = Math.max(region[a + 3], coords[3 * i + a]);
+			}
+		}
+		ArrayList<double[]> level = new ArrayList<double[]>();
+		// range start, end and region
+		level.add(new double[] { 0, n, region[0], region[1], region[2],
+				region[3], region[4], region[5] });
+		while ((level.size() > 0) && (level.size() < TASKS)) {
+			final ArrayList<double[]> ranges = level;
+			final double[][] children = new double[2 * ranges.size()][];
+			WB_Parallel.forChunks(ranges.size(), new WB_Parallel.Chunk() {
+				@Override
+				public void run(final int r) {
+					final double[] range = ranges.get(r);
+					final int s = (int) range[0];
+					final int e = (int) range[1];
+					final int m = split(s, e, range, 2);
+					final int a = axes[m];
+					final double[] left = range.clone();
+					left[1] = m;
+					left[5 + a] = coords[3 * m + a];
+					final double[] right = range.clone();
+					right[0] = m + 1;
+					right[2 + a] = coords[3 * m + a];
+					children[2 * r] = left;
+					children[2 * r + 1] = right;
+				}
+			});
+			level = new ArrayList<double[]>();
+			for (final double[] child : children) {
+				if (child[1] - child[0] > BUCKET) {
+					level.add(child);
+				}
+			}
+		}
+		final ArrayList<double[]> ranges = level;
+		WB_Parallel.forChunks(ranges.size(), new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int r) {
+				final double[] range = ranges.get(r);
+				build((int) range[0], (int) range[1], range, 2);
+			}
+		});
+	}
+
+	/**
+	 * Build the subtree of a range. The region, 6 values starting at off, is
+	 * changed while building but restored afterwards.
+	 */
+	private void build(final int s, final int e, final double[] region,
+			final int off) {
+		if (e - s <= BUCKET) {
+			return;
+		}
+		final int m = split(s, e, region, off);
+		final int a = axes[m];
+		final double value = coords[3 * m + a];
+		final double max = region[off + a + 3];
+		region[off + a + 3] = value;
+		build(s, m, region, off);
+		region[off + a + 3] = max;
+		final double min = region[off + a];
+		region[off + a] = value;
+		build(m + 1, e, region, off);
+		region[off + a] = min;
+	}
+
+	/**
+	 * Partition a range around its median along the widest axis of its
+	 * region.
+	 *
+	 * @return median
+	 */
+	private int split(final int s, final int e, final double[] region,
+			final int off) {
+		int a = 0;
+		double ext = region[off + 3] - region[off];
+		for (int b = 1; b < 3; b++) {
+			if (region[off + b + 3] - region[off + b] > ext) {
+				ext = region[off + b + 3] - region[off + b];
+				a = b;
+			}
+		}
+		final int m = (s + e) >>> 1;
+		select(coords, indices, s, e, m, a);
+		axes[m] = (byte) a;
+		return m;
+	}
+
+	/**
+	 * Reorder a range so point k is the one that would be there if the range
+	 * were sorted along an axis, with no larger values before it and no
+	 * smaller values after it. Indices are reordered along with the points.
+	 */
+	static void select(final double[] coords, final int[] indices,
+			final int s, final int e, final int k, final int a) {
+		int lo = s;
+		int hi = e - 1;
+		int i, j;
+		double pivot, x, y, z;
+		while (hi > lo) {
+			// median of three
+			x = coords[3 * lo + a];
+			y = coords[3 * ((lo + hi) >>> 1) + a];
+			z = coords[3 * hi + a];
+			pivot = (x < y) ? ((y < z) ? y : (x < z) ? z : x)
+					: ((x < z) ? x : (y < z) ? z : y);
+			i = lo;
+			j = hi;
+			while (i <= j) {
+				while (coords[3 * i + a] < pivot) {
+					i++;
+				}
+				while (coords[3 * j + a] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap(coords, indices, i, j);
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			}
+			else if (k >= i) {
+				lo = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	private static void swap(final double[] coords, final int[] indices,
+			final int i, final int j) {
+		double t;
+		for (int a = 0; a < 3; a++) {
+			t = coords[3 * i + a];
+			coords[3 * i + a] = coords[3 * j + a];
+			coords[3 * j + a] = t;
+		}
+		final int ti = indices[i];
+		indices[i] = indices[j];
+		indices[j] = ti;
+	}
+
+	/**
+	 * Nearest point.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @return index of the nearest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final double x, final double y,
+			final double z) {
+		final int[] result = new int[1];
+		return (getNearestNeighbors(x, y, z, 1, result, new double[1]) == 0) ? -1
+				: result[0];
+	}
+
+	/**
+	 * Nearest point.
+	 *
+	 * @param p
+	 *            query point
+	 * @return index of the nearest point, -1 if the tree is empty
+	 */
+	public int getNearestNeighbor(final WB_Coordinate p) {
+		return getNearestNeighbor(p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * k nearest points, sorted by increasing distance.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @param k
+	 *            number of points
+	 * @param result
+	 *            receives the indices of the points, at least k long
+	 * @param d2
+	 *            receives the squared distances, at least k long
+	 * @return number of points found, k unless the tree has fewer points
+	 */
+	public int getNearestNeighbors(final double x, final double y,
+			final double z, final int k, final int[] result, final double[] d2) {
+		if ((result.length < k) || (d2.length < k)) {
+			throw new IllegalArgumentException("Result arrays shorter than k.");
+		}
+		return nearest(x, y, z, k, result, d2, 0);
+	}
+
+	/**
+	 * k nearest points, sorted by increasing distance.
+	 *
+	 * @param p
+	 *            query point
+	 * @param k
+	 *            number of points
+	 * @param result
+	 *            receives the indices of the points, at least k long
+	 * @param d2
+	 *            receives the squared distances, at least k long
+	 * @return number of points found, k unless the tree has fewer points
+	 */
+	public int getNearestNeighbors(final WB_Coordinate p, final int k,
+			final int[] result, final double[] d2) {
+		return getNearestNeighbors(p.xd(), p.yd(), p.zd(), k, result, d2);
+	}
+
+	/**
+	 * k nearest points of a batch of query points, queried in parallel. The
+	 * results of query i are stored from k*i to k*i+k-1, sorted by increasing
+	 * distance. If the tree has fewer than k points, the remaining entries are
+	 * -1 and NaN.
+	 *
+	 * @param queries
+	 *            query points, 3 values per point
+	 * @param k
+	 *            number of points per query
+	 * @param result
+	 *            receives the indices of the points, k per query
+	 * @param d2
+	 *            receives the squared distances, k per query
+	 */
+	public void getNearestNeighbors(final double[] queries, final int k,
+			final int[] result, final double[] d2) {
+		final int n = queries.length / 3;
+		if ((result.length < k * n) || (d2.length < k * n)) {
+			throw new IllegalArgumentException(
+					"Result arrays shorter than k times the number of queries.");
+		}
+		final int[] order = getMortonOrder(queries, n);
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int found, q;
+				for (int i = start; i < end; i++) {
+					q = order[i];
+					found = nearest(queries[3 * q], queries[3 * q + 1],
+							queries[3 * q + 2], k, result, d2, k * q);
+					for (int j = found; j < k; j++) {
+						result[k * q + j] = -1;
+						d2[k * q + j] = Double.NaN;
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Order of a batch of points along a Morton curve, nearby queries visit
+	 * the same parts of the tree.
+	 */
+	private static int[] getMortonOrder(final double[] points, final int n) {
+		final double[] box = new double[] { Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY };
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < 3; a++) {
+				box[a] = Math.min(box[a], points[3 * i + a]);
+				box[a + 3] = Math.max(box[a + 3], points[3 * i + a]);
+			}
+		}
+		final double[] scale = new double[3];
+		for (int a = 0; a < 3; a++) {
+			final double ext = box[a + 3] - box[a];
+			scale[a] = (ext > 0) ? 1023.0 / ext : 0;
+		}
+		final long[] keys = new long[n];
+		final int[] q = new int[3];
+		long key;
+		for (int i = 0; i < n; i++) {
+			for (int a = 0; a < 3; a++) {
+				q[a] = (int) ((points[3 * i + a] - box[a]) * scale[a]);
+			}
+			key = 0;
+			for (int b = 9; b >= 0; b--) {
+				for (int a = 0; a < 3; a++) {
+					key = (key << 1) | ((q[a] >> b) & 1);
+				}
+			}
+			keys[i] = (key << 32) | i;
+		}
+		Arrays.sort(keys);
+		final int[] order = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = (int) keys[i];
+		}
+		return order;
+	}
+
+	/**
+	 * k nearest points, written from off in the result arrays.
+	 *
+	 * @return number of points found
+	 */
+	private int nearest(final double x, final double y, final double z,
+			final int k, final int[] result, final double[] d2, final int off) {
+		if ((k <= 0) || (indices.length == 0)) {
+			return 0;
+		}
+		final int found = nearest(0, indices.length, x, y, z, k, result, d2,
+				off, 0);
+		sort(result, d2, off, found);
+		return found;
+	}
+
+	/**
+	 * Sort a max-heap of results in place, by increasing distance.
+	 */
+	static void sort(final int[] result, final double[] d2, final int off,
+			final int found) {
+		for (int last = found - 1; last > 0; last--) {
+			swap(result, d2, off, off + last);
+			siftDown(result, d2, off, last, 0);
+		}
+	}
+
+	/**
+	 * Search a range, keeping the closest points found so far in a max-heap
+	 * at off.
+	 *
+	 * @return number of points in the heap
+	 */
+	private int nearest(final int s, final int e, final double x,
+			final double y, final double z, final int k, final int[] result,
+			final double[] d2, final int off, int count) {
+		if (e - s <= BUCKET) {
+			for (int i = s; i < e; i++) {
+				count = offer(i, x, y, z, k, result, d2, off, count);
+			}
+			return count;
+		}
+		final int m = (s + e) >>> 1;
+		count = offer(m, x, y, z, k, result, d2, off, count);
+		final int a = axes[m];
+		final double diff = ((a == 0) ? x : (a == 1) ? y : z)
+				- coords[3 * m + a];
+		if (diff < 0) {
+			count = nearest(s, m, x, y, z, k, result, d2, off, count);
+			if ((count < k) || (diff * diff < d2[off])) {
+				count = nearest(m + 1, e, x, y, z, k, result, d2, off, count);
+			}
+		}
+		else {
+			count = nearest(m + 1, e, x, y, z, k, result, d2, off, count);
+			if ((count < k) || (diff * diff < d2[off])) {
+				count = nearest(s, m, x, y, z, k, result, d2, off, count);
+			}
+		}
+		return count;
+	}
+
+	private int offer(final int i, final double x, final double y,
+			final double z, final int k, final int[] result,
+			final double[] d2, final int off, final int count) {
+		final double dx = coords[3 * i] - x;
+		final double dy = coords[3 * i + 1] - y;
+		final double dz = coords[3 * i + 2] - z;
+		return offer(indices[i], dx * dx + dy * dy + dz * dz, k, result, d2,
+				off, count);
+	}
+
+	/**
+	 * Add a point to a max-heap of at most k results at off, if it's closer
+	 * than the farthest one.
+	 *
+	 * @return number of points in the heap
+	 */
+	static int offer(final int index, final double d, final int k,
+			final int[] result, final double[] d2, final int off,
+			final int count) {
+		if (count < k) {
+			// add at the bottom of the heap and sift up
+			int c = count;
+			int p;
+			while (c > 0) {
+				p = (c - 1) >> 1;
+				if (d2[off + p] >= d) {
+					break;
+				}
+				result[off + c] = result[off + p];
+				d2[off + c] = d2[off + p];
+				c = p;
+			}
+			result[off + c] = index;
+			d2[off + c] = d;
+			return count + 1;
+		}
+		if (d < d2[off]) {
+			result[off] = index;
+			d2[off] = d;
+			siftDown(result, d2, off, count, 0);
+		}
+		return count;
+	}
+
+	private static void siftDown(final int[] result, final double[] d2,
+			final int off, final int size, int p) {
+		int c;
+		while ((c = 2 * p + 1) < size) {
+			if ((c + 1 < size) && (d2[off + c + 1] > d2[off + c])) {
+				c++;
+			}
+			if (d2[off + p] >= d2[off + c]) {
+				return;
+			}
+			swap(result, d2, off + p, off + c);
+			p = c;
+		}
+	}
+
+	private static void swap(final int[] result, final double[] d2,
+			final int i, final int j) {
+		final int ti = result[i];
+		result[i] = result[j];
+		result[j] = ti;
+		final double td = d2[i];
+		d2[i] = d2[j];
+		d2[j] = td;
+	}
+
+	/**
+	 * Points within a distance of a query point, in no particular order.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 *            query point
+	 * @param radius
+	 *            distance
+	 * @param result
+	 *            receives the indices of the points, if it's too short only
+	 *            the first result.length are stored
+	 * @return number of points within the distance
+	 */
+	public int getRange(final double x, final double y, final double z,
+			final double radius, final int[] result) {
+		if (indices.length == 0) {
+			return 0;
+		}
+		return range(0, indices.length, x, y, z, radius, radius * radius,
+				result, 0);
+	}
+
+	/**
+	 * Points within a distance of a query point, in no particular order.
+	 *
+	 * @param p
+	 *            query point
+	 * @param radius
+	 *            distance
+	 * @param result
+	 *            receives the indices of the points, if it's too short only
+	 *            the first result.length are stored
+	 * @return number of points within the distance
+	 */
+	public int getRange(final WB_Coordinate p, final double radius,
+			final int[] result) {
+		return getRange(p.xd(), p.yd(), p.zd(), radius, result);
+	}
+
+	private int range(final int s, final int e, final double x,
+			final double y, final double z, final double r, final double r2,
+			final int[] result, int count) {
+		if (e - s <= BUCKET) {
+			for (int i = s; i < e; i++) {
+				count = collect(i, x, y, z, r2, result, count);
+			}
+			return count;
+		}
+		final int m = (s + e) >>> 1;
+		count = collect(m, x, y, z, r2, result, count);
+		final int a = axes[m];
+		final double diff = ((a == 0) ? x : (a == 1) ? y : z)
+				- coords[3 * m + a];
+		if (diff <= r) {
+			count = range(s, m, x, y, z, r, r2, result, count);
+		}
+		if (diff >= -r) {
+			count = range(m + 1, e, x, y, z, r, r2, result, count);
+		}
+		return count;
+	}
+
+	private int collect(final int i, final double x, final double y,
+			final double z, final double r2, final int[] result,
+			final int count) {
+		final double dx = coords[3 * i] - x;
+		final double dy = coords[3 * i + 1] - y;
+		final double dz = coords[3 * i + 2] - z;
+		if (dx * dx + dy * dy + dz * dz > r2) {
+			return count;
+		}
+		if (count < result.length) {
+			result[count] = indices[i];
+		}
+		return count + 1;
+	}
+
+	/**
+	 * Points inside an AABB, in no particular order.
+	 *
+	 * @param aabb
+	 *            box
+	 * @param result
+	 *            receives the indices of the points, if it's too short only
+	 *            the first result.length are stored
+	 * @return number of points inside the box
+	 */
+	public int getRange(final WB_AABB aabb, final int[] result) {
+		if (indices.length == 0) {
+			return 0;
+		}
+		final double[] box = new double[] { aabb.getMinX(), aabb.getMinY(),
+				aabb.getMinZ(), aabb.getMaxX(), aabb.getMaxY(), aabb.getMaxZ() };
+		return range(0, indices.length, box, result, 0);
+	}
+
+	private int range(final int s, final int e, final double[] box,
+			final int[] result, int count) {
+		if (e - s <= BUCKET) {
+			for (int i = s; i < e; i++) {
+				count = collect(i, box, result, count);
+			}
+			return count;
+		}
+		final int m = (s + e) >>> 1;
+		count = collect(m, box, result, count);
+		final int a = axes[m];
+		final double value = coords[3 * m + a];
+		if (box[a] <= value) {
+			count = range(s, m, box, result, count);
+		}
+		if (box[a + 3] >= value) {
+			count = range(m + 1, e, box, result, count);
+		}
+		return count;
+	}
+
+	private int collect(final int i, final double[] box, final int[] result,
+			final int count) {
+		for (int a = 0; a < 3; a++) {
+			if ((coords[3 * i + a] < box[a])
+					|| (coords[3 * i + a] > box[a + 3])) {
+				return count;
+			}
+		}
+		if (count < result.length) {
+			result[count] = indices[i];
+		}
+		return count + 1;
+	}
+}
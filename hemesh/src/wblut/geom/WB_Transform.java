@@ -1,11 +1,15 @@
 package wblut.geom;
 
+import wblut.core.WB_Parallel;
 import wblut.math.WB_Epsilon;
 import wblut.math.WB_M33;
 import wblut.math.WB_M44;
 
 public class WB_Transform {
 
+	/** Minimum number of points per thread in bulk transforms. */
+	private static final int GRAIN = 65536;
+
 	private double _xt, _yt, _zt;
 	static WB_GeometryFactory geometryfactory = WB_GeometryFactory.instance();
 
@@ -592,6 +596,77 @@ public class WB_Transform {
 		p._set(x * wp, y * wp, z * wp);
 	}
 
+	/**
+	 * Apply transform to a range of points stored in an array, in place. Each
+	 * point is a group of stride values starting with x, y and z, other
+	 * values are left untouched. Affine transforms skip the homogeneous
+	 * divide. No objects are created.
+	 *
+	 * @param coords
+	 *            coordinates
+	 * @param stride
+	 *            number of values per point, at least 3
+	 * @param start
+	 *            first point
+	 * @param end
+	 *            last point, exclusive
+	 */
+	public void applySelfAsPoints(final double[] coords, final int stride,
+			final int start, final int end) {
+		final double m11 = T.m11, m12 = T.m12, m13 = T.m13, m14 = T.m14;
+		final double m21 = T.m21, m22 = T.m22, m23 = T.m23, m24 = T.m24;
+		final double m31 = T.m31, m32 = T.m32, m33 = T.m33, m34 = T.m34;
+		final double m41 = T.m41, m42 = T.m42, m43 = T.m43, m44 = T.m44;
+		final int last = end * stride;
+		double x, y, z, w;
+		if ((m41 == 0) && (m42 == 0) && (m43 == 0) && (m44 == 1)) {
+			for (int i = start * stride; i < last; i += stride) {
+				x = coords[i];
+				y = coords[i + 1];
+				z = coords[i + 2];
+				coords[i] = m11 * x + m12 * y + m13 * z + m14;
+				coords[i + 1] = m21 * x + m22 * y + m23 * z + m24;
+				coords[i + 2] = m31 * x + m32 * y + m33 * z + m34;
+			}
+		}
+		else {
+			for (int i = start * stride; i < last; i += stride) {
+				x = coords[i];
+				y = coords[i + 1];
+				z = coords[i + 2];
+				w = 1.0 / (m41 * x + m42 * y + m43 * z + m44);
+				coords[i] = (m11 * x + m12 * y + m13 * z + m14) * w;
+				coords[i + 1] = (m21 * x + m22 * y + m23 * z + m24) * w;
+				coords[i + 2] = (m31 * x + m32 * y + m33 * z + m34) * w;
+			}
+		}
+	}
+
+	/**
+	 * Apply transform to the first n points stored in an array, in place.
+	 * Large arrays are split over the threads of WB_Parallel.
+	 *
+	 * @param coords
+	 *            coordinates
+	 * @param stride
+	 *            number of values per point, at least 3
+	 * @param n
+	 *            number of points
+	 */
+	public void applySelfAsPoints(final double[] coords, final int stride,
+			final int n) {
+		if (n <= GRAIN) {
+			applySelfAsPoints(coords, stride, 0, n);
+			return;
+		}
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				applySelfAsPoints(coords, stride, start, end);
+			}
+		});
+	}
+
 	/**
 	 * Apply transform to vector.
 	 * 
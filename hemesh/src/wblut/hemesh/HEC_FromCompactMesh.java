@@ -0,0 +1,186 @@
+package wblut.hemesh;
+
+import wblut.core.WB_Parallel;
+
+/**
+ * Creates a new mesh from a HE_CompactMesh. The connectivity is copied
+ * directly by index, no pairing or lookups are needed. Large meshes are built
+ * in parallel.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HEC_FromCompactMesh extends HEC_Creator {
+
+	/** Source mesh. */
+	private HE_CompactMesh source;
+
+	/**
+	 * Instantiates a new HEC_FromCompactMesh.
+	 */
+	public HEC_FromCompactMesh() {
+		super();
+		override = true;
+	}
+
+	/**
+	 * Instantiates a new HEC_FromCompactMesh.
+	 *
+	 * @param mesh
+	 *            source mesh
+	 */
+	public HEC_FromCompactMesh(final HE_CompactMesh mesh) {
+		this();
+		source = mesh;
+	}
+
+	/**
+	 * Set source mesh.
+	 *
+	 * @param mesh
+	 *            source mesh
+	 * @return self
+	 */
+	public HEC_FromCompactMesh setMesh(final HE_CompactMesh mesh) {
+		source = mesh;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HEC_Creator#createBase()
+	 */
+	@Override
+	protected HE_Mesh createBase() {
+		final HE_Mesh mesh = new HE_Mesh();
+		if (source == null) {
+			return mesh;
+		}
+		final int nv = source.numberOfVertices;
+		final int nhe = source.numberOfHalfedges;
+		final int ne = source.numberOfEdges;
+		final int nf = source.numberOfFaces;
+		final HE_Vertex[] vertices = new HE_Vertex[nv];
+		final HE_Halfedge[] halfedges = new HE_Halfedge[nhe];
+		final HE_Edge[] edges = new HE_Edge[ne];
+		final HE_Face[] faces = new HE_Face[nf];
+		final HE_CompactMesh src = source;
+		final double[] coords = src.coords;
+		WB_Parallel.forRange(nv, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					vertices[i] = new HE_Vertex(coords[3 * i],
+							coords[3 * i + 1], coords[3 * i + 2]);
+					vertices[i].setLabel(src.vertexLabel[i]);
+					vertices[i].setColor(src.vertexColor[i]);
+				}
+			}
+		});
+		WB_Parallel.forRange(nhe, HE_CompactMesh.GRAIN,
+				new WB_Parallel.Range() {
+					@Override
+					public void run(final int start, final int end) {
+						for (int i = start; i < end; i++) {
+							halfedges[i] = new HE_Halfedge();
+						}
+					}
+				});
+		WB_Parallel.forRange(ne, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					edges[i] = new HE_Edge();
+				}
+			}
+		});
+		WB_Parallel.forRange(nf, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					faces[i] = new HE_Face();
+					faces[i].setLabel(src.faceLabel[i]);
+					faces[i].setColor(src.faceColor[i]);
+				}
+			}
+		});
+		// every chunk only writes to its own elements
+		WB_Parallel.forRange(nhe, HE_CompactMesh.GRAIN,
+				new WB_Parallel.Range() {
+					@Override
+					public void run(final int start, final int end) {
+						int id;
+						HE_Halfedge he;
+						for (int i = start; i < end; i++) {
+							he = halfedges[i];
+							id = src.halfedgeNext[i];
+							if (id > -1) {
+								he._setNext(halfedges[id]);
+							}
+							id = src.halfedgePrev[i];
+							if (id > -1) {
+								he.setPrev(halfedges[id]);
+							}
+							id = src.halfedgePair[i];
+							if (id > -1) {
+								he.setPair(halfedges[id]);
+							}
+							id = src.halfedgeVertex[i];
+							if (id > -1) {
+								he.setVertex(vertices[id]);
+							}
+							id = src.halfedgeEdge[i];
+							if (id > -1) {
+								he.setEdge(edges[id]);
+							}
+							id = src.halfedgeFace[i];
+							if (id > -1) {
+								he._setFace(faces[id]);
+							}
+						}
+					}
+				});
+		WB_Parallel.forRange(nv, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int id;
+				for (int i = start; i < end; i++) {
+					id = src.vertexHalfedge[i];
+					if (id > -1) {
+						vertices[i].setHalfedge(halfedges[id]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(ne, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int id;
+				for (int i = start; i < end; i++) {
+					id = src.edgeHalfedge[i];
+					if (id > -1) {
+						edges[i].setHalfedge(halfedges[id]);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(nf, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int id;
+				for (int i = start; i < end; i++) {
+					id = src.faceHalfedge[i];
+					if (id > -1) {
+						faces[i].setHalfedge(halfedges[id]);
+					}
+				}
+			}
+		});
+		mesh.addVertices(vertices);
+		mesh.addHalfedges(halfedges);
+		mesh.addEdges(edges);
+		mesh.addFaces(faces);
+		return mesh;
+	}
+}
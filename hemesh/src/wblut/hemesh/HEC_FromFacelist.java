@@ -3,19 +3,16 @@ package wblut.hemesh;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 
-import javolution.util.FastMap;
-import wblut.geom.WB_Coordinate;
-import wblut.geom.WB_KDTree;
-import wblut.geom.WB_KDTree.WB_KDEntry;
+import wblut.core.WB_Parallel;
 import wblut.geom.WB_Point;
+import wblut.geom.WB_PointWelder;
 import wblut.math.WB_Epsilon;
 
 /**
  * Creates a new mesh from a list of vertices and faces. Vertices can be
- * duplicate.
+ * duplicate, duplicates are merged with a spatial hash.
  *
  * @author Frederik Vanhoutte (W:Blut)
  *
@@ -31,6 +28,9 @@ public class HEC_FromFacelist extends HEC_Creator {
 	/** Duplicate vertices?. */
 	private boolean duplicate;
 
+	/** Tolerance for merging duplicate vertices. */
+	private double tolerance;
+
 	/** Check face normal consistency?. */
 	private boolean normalcheck;
 
@@ -42,6 +42,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 		super();
 		override = true;
 		duplicate = true;
+		tolerance = WB_Epsilon.EPSILON;
 		normalcheck = false;
 	}
 
@@ -213,6 +214,20 @@ public class HEC_FromFacelist extends HEC_Creator {
 		return this;
 	}
 
+	/**
+	 * Set tolerance for merging duplicate vertices. Vertices closer than the
+	 * tolerance are merged, 0 only merges identical vertices. Default is
+	 * WB_Epsilon.EPSILON.
+	 *
+	 * @param d
+	 *            tolerance
+	 * @return self
+	 */
+	public HEC_FromFacelist setTolerance(final double d) {
+		tolerance = d;
+		return this;
+	}
+
 	/**
 	 * Check face normals?.
 	 *
@@ -236,25 +251,29 @@ public class HEC_FromFacelist extends HEC_Creator {
 
 		if ((faces != null) && (vertices != null)) {
 			final HE_Vertex[] uniqueVertices = new HE_Vertex[vertices.length];
+			int[] weld = null;
 			if (duplicate) {
-				final WB_KDTree<WB_Coordinate, Integer> kdtree = new WB_KDTree<WB_Coordinate, Integer>();
-				WB_KDEntry<WB_Coordinate, Integer>[] neighbors;
-				HE_Vertex v = new HE_Vertex(vertices[0]);
-				kdtree.add(v, 0);
-				uniqueVertices[0] = v;
-				mesh.add(v);
-				for (int i = 1; i < vertices.length; i++) {
-					v = new HE_Vertex(vertices[i]);
-					neighbors = kdtree.getNearestNeighbors(v, 1);
-					if (neighbors[0].d2 < WB_Epsilon.SQEPSILON) {
-						uniqueVertices[i] = uniqueVertices[neighbors[0].value];
+				weld = new WB_PointWelder(tolerance).weld(vertices);
+				final int[] remap = weld;
+				WB_Parallel.forRange(vertices.length, 8192,
+						new WB_Parallel.Range() {
+							@Override
+							public void run(final int start, final int end) {
+								for (int i = start; i < end; i++) {
+									if (remap[i] == i) {
+										uniqueVertices[i] = new HE_Vertex(
+												vertices[i]);
+									}
+								}
+							}
+						});
+				for (int i = 0; i < vertices.length; i++) {
+					if (weld[i] == i) {
+						mesh.add(uniqueVertices[i]);
 					}
 					else {
-						kdtree.add(v, i);
-						uniqueVertices[i] = v;
-						mesh.add(uniqueVertices[i]);
+						uniqueVertices[i] = uniqueVertices[weld[i]];
 					}
-
 				}
 			}
 			else {
@@ -271,83 +290,7 @@ public class HEC_FromFacelist extends HEC_Creator {
 			int id = 0;
 			HE_Halfedge he;
 			if (normalcheck) {
-				// Create adjacency table
-				final FastMap<Long, int[]> edges = new FastMap<Long, int[]>();
-				for (int i = 0; i < faces.length; i++) {
-					final int[] face = faces[i];
-					final int fl = face.length;
-					for (int j = 0; j < fl; j++) {
-						final long ohash = ohash(face[j], face[(j + 1) % fl]);
-						final int[] faces = edges.get(ohash);
-						if (faces == null) {
-							edges.put(ohash, new int[] { i, -1 });
-
-						}
-						else {
-							faces[1] = i;
-						}
-					}
-				}
-				//
-
-				final boolean[] visited = new boolean[faces.length];
-				final LinkedList<Integer> queue = new LinkedList<Integer>();
-				boolean facesleft = false;
-				int starti = 0;
-				do {
-					queue.add(starti);
-					int temp;
-					while (!queue.isEmpty()) {
-						final Integer index = queue.poll();
-						final int[] face = faces[index];
-						final int fl = face.length;
-						visited[index] = true;
-						for (int j = 0; j < fl; j++) {
-							final long ohash = ohash(face[j],
-									face[(j + 1) % fl]);
-							final int[] ns = edges.get(ohash);
-							if (ns != null) {
-								edges.remove(ohash);// no need to revisit
-								// previous edges
-								Integer neighbor;
-								if (ns[0] == index) {
-									neighbor = ns[1];
-
-								}
-								else {
-									neighbor = ns[0];
-								}
-								if (neighbor > -1) {
-									if (visited[neighbor] == false) {
-										if (!queue.contains(neighbor)) {
-											queue.add(neighbor);
-										}
-										if (consistentOrder(j, (j + 1) % fl,
-												face, faces[neighbor]) == -1) {
-											final int fln = faces[neighbor].length;
-											for (int k = 0; k < fln / 2; k++) {
-												temp = faces[neighbor][k];
-												faces[neighbor][k] = faces[neighbor][fln
-												                                     - k - 1];
-												faces[neighbor][fln - k - 1] = temp;
-											}
-										}
-									}
-								}
-							}
-
-						}
-
-					}
-					facesleft = false;
-					for (; starti < faces.length; starti++) {
-						if (!visited[starti]) {
-							facesleft = true;
-							break;
-						}
-					}
-
-				} while (facesleft);
+				HET_FaceOrientation.orient(faces, weld);
 			}
 
 			for (final int[] face : faces) {
@@ -392,54 +335,4 @@ public class HEC_FromFacelist extends HEC_Creator {
 		}
 		return mesh;
 	}
-
-	/**
-	 * Ohash.
-	 *
-	 * @param u
-	 *            the u
-	 * @param v
-	 *            the v
-	 * @return the long
-	 */
-	private Long ohash(final int u, final int v) {
-		int lu = u;
-		int lv = v;
-		if (u > v) {
-			lu = v;
-			lv = u;
-		}
-
-		final long A = (lu >= 0) ? 2 * lu : -2 * lu - 1;
-		final long B = (lv >= 0) ? 2 * lv : -2 * lv - 1;
-		return (A >= B) ? A * A + A + B : A + B * B;
-	}
-
-	/**
-	 * Consistent order.
-	 *
-	 * @param i
-	 *            the i
-	 * @param j
-	 *            the j
-	 * @param face
-	 *            the face
-	 * @param neighbor
-	 *            the neighbor
-	 * @return the int
-	 */
-	private int consistentOrder(final int i, final int j, final int[] face,
-			final int[] neighbor) {
-		for (int k = 0; k < neighbor.length; k++) {
-			if ((neighbor[k] == face[i])
-					&& (neighbor[(k + 1) % neighbor.length] == face[j])) {
-				return -1;
-			}
-			if ((neighbor[k] == face[j])
-					&& (neighbor[(k + 1) % neighbor.length] == face[i])) {
-				return 1;
-			}
-		}
-		return 0;
-	}
 }
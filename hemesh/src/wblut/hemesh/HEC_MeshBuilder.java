@@ -0,0 +1,534 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+import wblut.geom.WB_Coordinate;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Creates a new mesh from a stream of vertices and faces. Vertices and faces
+ * can be added one at a time or in primitive batches, there is no need to
+ * hold the full input in memory. Vertices are welded and halfedges are paired
+ * as they come in, the mesh is stored in a HE_CompactMesh.
+ *
+ * Faces refer to vertices by their input index: the n-th vertex added has
+ * index n, regardless of welding.
+ *
+ * <pre>
+ * HEC_MeshBuilder builder = new HEC_MeshBuilder().setTolerance(0.001);
+ * builder.addVertices(xyz, 0, count);
+ * builder.addFaces(triangles, 0, count / 3, 3);
+ * HE_Mesh mesh = new HE_Mesh(builder);
+ * </pre>
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HEC_MeshBuilder extends HEC_Creator {
+
+	/** Mesh under construction. */
+	private HE_CompactMesh mesh;
+
+	/** Welded vertex of each input vertex. */
+	private int[] remap;
+
+	/** Number of input vertices. */
+	private int numberOfInputVertices;
+
+	/** Weld vertices?. */
+	private boolean weld;
+
+	/** Weld tolerance. */
+	private double tolerance;
+
+	/** First vertex in each cell of the weld grid. */
+	private TLongIntMap cells;
+
+	/** Next vertex in the same cell. */
+	private int[] cellNext;
+
+	/** Unpaired halfedges by directed vertex pair. */
+	private TLongIntMap waiting;
+
+	/** Unpaired halfedges running in the same direction as another one. */
+	private int[] strays;
+
+	/** Number of strays. */
+	private int numberOfStrays;
+
+	/** Scratch buffer for face vertices. */
+	private int[] faceBuffer;
+
+	/** Capped and ready?. */
+	private boolean finished;
+
+	/**
+	 * Instantiates a new HEC_MeshBuilder.
+	 */
+	public HEC_MeshBuilder() {
+		super();
+		override = true;
+		weld = true;
+		tolerance = WB_Epsilon.EPSILON;
+		reset();
+	}
+
+	/**
+	 * Remove all input and start over.
+	 *
+	 * @return self
+	 */
+	public HEC_MeshBuilder reset() {
+		mesh = new HE_CompactMesh();
+		remap = new int[1024];
+		numberOfInputVertices = 0;
+		cells = new TLongIntHashMap(1024, 0.5f, Long.MIN_VALUE, -1);
+		cellNext = new int[1024];
+		waiting = new TLongIntHashMap(1024, 0.5f, Long.MIN_VALUE, -1);
+		strays = new int[16];
+		numberOfStrays = 0;
+		faceBuffer = new int[16];
+		finished = false;
+		return this;
+	}
+
+	/**
+	 * Weld vertices that are closer than the tolerance?
+	 *
+	 * @param b
+	 *            true/false
+	 * @return self
+	 */
+	public HEC_MeshBuilder setWeld(final boolean b) {
+		weld = b;
+		return this;
+	}
+
+	/**
+	 * Set weld tolerance. 0 only welds identical vertices. Only affects
+	 * vertices added afterwards.
+	 *
+	 * @param d
+	 *            tolerance
+	 * @return self
+	 */
+	public HEC_MeshBuilder setTolerance(final double d) {
+		tolerance = Math.max(0, d);
+		return this;
+	}
+
+	/**
+	 * Add a vertex.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return input index of vertex
+	 */
+	public int addVertex(final double x, final double y, final double z) {
+		checkOpen();
+		if (numberOfInputVertices == remap.length) {
+			remap = Arrays.copyOf(remap, grow(remap.length));
+		}
+		final int id = numberOfInputVertices++;
+		remap[id] = weld ? weldVertex(x, y, z, id) : newVertex(x, y, z, id);
+		return id;
+	}
+
+	/**
+	 * Add a vertex.
+	 *
+	 * @param p
+	 *            position
+	 * @return input index of vertex
+	 */
+	public int addVertex(final WB_Coordinate p) {
+		return addVertex(p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * Add vertices from an array of coordinates: x0, y0, z0, x1, y1, z1, ...
+	 *
+	 * @param xyz
+	 *            coordinates
+	 * @param offset
+	 *            index of first vertex in array
+	 * @param count
+	 *            number of vertices
+	 * @return input index of first vertex
+	 */
+	public int addVertices(final double[] xyz, final int offset,
+			final int count) {
+		final int first = numberOfInputVertices;
+		for (int i = 0, j = 3 * offset; i < count; i++, j += 3) {
+			addVertex(xyz[j], xyz[j + 1], xyz[j + 2]);
+		}
+		return first;
+	}
+
+	/**
+	 * Add vertices from an array of coordinates: x0, y0, z0, x1, y1, z1, ...
+	 *
+	 * @param xyz
+	 *            coordinates
+	 * @param offset
+	 *            index of first vertex in array
+	 * @param count
+	 *            number of vertices
+	 * @return input index of first vertex
+	 */
+	public int addVertices(final float[] xyz, final int offset, final int count) {
+		final int first = numberOfInputVertices;
+		for (int i = 0, j = 3 * offset; i < count; i++, j += 3) {
+			addVertex(xyz[j], xyz[j + 1], xyz[j + 2]);
+		}
+		return first;
+	}
+
+	/**
+	 * Add a face.
+	 *
+	 * @param face
+	 *            input indices of the face vertices
+	 * @return index of face in mesh, -1 if the face is degenerate
+	 */
+	public int addFace(final int... face) {
+		return addFace(face, 0, face.length);
+	}
+
+	/**
+	 * Add a face.
+	 *
+	 * @param indices
+	 *            input indices of vertices
+	 * @param offset
+	 *            position of first vertex of the face in indices
+	 * @param order
+	 *            number of vertices in face
+	 * @return index of face in mesh, -1 if the face is degenerate
+	 */
+	public int addFace(final int[] indices, final int offset, final int order) {
+		checkOpen();
+		if (faceBuffer.length < order) {
+			faceBuffer = new int[order];
+		}
+		// drop consecutive duplicates left by welding
+		int n = 0;
+		int v;
+		for (int i = 0; i < order; i++) {
+			v = remap[indices[offset + i]];
+			if ((n == 0) || (faceBuffer[n - 1] != v)) {
+				faceBuffer[n++] = v;
+			}
+		}
+		while ((n > 1) && (faceBuffer[n - 1] == faceBuffer[0])) {
+			n--;
+		}
+		if (n < 3) {
+			return -1;
+		}
+		final int f = mesh.addFace();
+		mesh.setFaceLabel(f, f);
+		final int first = mesh.getNumberOfHalfedges();
+		int he;
+		for (int i = 0; i < n; i++) {
+			he = mesh.addHalfedge();
+			mesh.setVertex(he, faceBuffer[i]);
+			mesh.setFace(he, f);
+			mesh.setVertexHalfedge(faceBuffer[i], he);
+		}
+		mesh.setFaceHalfedge(f, first);
+		for (int i = 0; i < n; i++) {
+			mesh.setNext(first + i, first + ((i + 1) % n));
+		}
+		for (int i = 0; i < n; i++) {
+			pair(first + i, faceBuffer[i], faceBuffer[(i + 1) % n]);
+		}
+		return f;
+	}
+
+	/**
+	 * Add faces of the same order.
+	 *
+	 * @param indices
+	 *            input indices of vertices, order values per face
+	 * @param offset
+	 *            index of first face
+	 * @param count
+	 *            number of faces
+	 * @param order
+	 *            number of vertices per face
+	 * @return self
+	 */
+	public HEC_MeshBuilder addFaces(final int[] indices, final int offset,
+			final int count, final int order) {
+		for (int i = 0, j = offset * order; i < count; i++, j += order) {
+			addFace(indices, j, order);
+		}
+		return this;
+	}
+
+	/**
+	 * Add faces.
+	 *
+	 * @param faces
+	 *            2D array of input indices: 1st index=face, 2nd=vertex
+	 * @return self
+	 */
+	public HEC_MeshBuilder addFaces(final int[][] faces) {
+		for (final int[] face : faces) {
+			addFace(face, 0, face.length);
+		}
+		return this;
+	}
+
+	/**
+	 * Add a triangle by its corner coordinates.
+	 *
+	 * @return index of face in mesh, -1 if the face is degenerate
+	 */
+	public int addTriangle(final double x0, final double y0, final double z0,
+			final double x1, final double y1, final double z1,
+			final double x2, final double y2, final double z2) {
+		final int a = addVertex(x0, y0, z0);
+		final int b = addVertex(x1, y1, z1);
+		final int c = addVertex(x2, y2, z2);
+		return addFace(a, b, c);
+	}
+
+	/**
+	 * Number of vertices added so far, before welding.
+	 *
+	 * @return number of input vertices
+	 */
+	public int getNumberOfInputVertices() {
+		return numberOfInputVertices;
+	}
+
+	/**
+	 * Mesh vertex of an input vertex.
+	 *
+	 * @param i
+	 *            input index
+	 * @return index of welded vertex in mesh
+	 */
+	public int getVertexIndex(final int i) {
+		return remap[i];
+	}
+
+	/**
+	 * Number of halfedges that could not be paired because another halfedge
+	 * with the same start and end vertex was added before: non-manifold edges
+	 * or inconsistent face orientation.
+	 *
+	 * @return number of non-manifold halfedges
+	 */
+	public int getNumberOfNonManifoldHalfedges() {
+		return numberOfStrays;
+	}
+
+	/**
+	 * Close the open boundaries and return the mesh. No input can be added
+	 * afterwards until reset() is called. The builder keeps no other copy of
+	 * the geometry.
+	 *
+	 * @return compact mesh
+	 */
+	public HE_CompactMesh getCompactMesh() {
+		if (!finished) {
+			finish();
+		}
+		return mesh;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HEC_Creator#createBase()
+	 */
+	@Override
+	protected HE_Mesh createBase() {
+		return new HEC_FromCompactMesh(getCompactMesh()).createBase();
+	}
+
+	private void checkOpen() {
+		if (finished) {
+			throw new IllegalStateException(
+					"HEC_MeshBuilder: mesh is finished, call reset() first.");
+		}
+	}
+
+	private int newVertex(final double x, final double y, final double z,
+			final int input) {
+		final int v = mesh.addVertex(x, y, z);
+		mesh.setVertexLabel(v, input);
+		return v;
+	}
+
+	/**
+	 * Find an existing vertex within tolerance, or add a new one.
+	 */
+	private int weldVertex(final double x, final double y, final double z,
+			final int input) {
+		int found = -1;
+		if (tolerance == 0) {
+			final long key = exactKey(x, y, z);
+			int v = cells.get(key);
+			while (v != -1) {
+				if ((mesh.xd(v) == x) && (mesh.yd(v) == y) && (mesh.zd(v) == z)) {
+					return v;
+				}
+				v = cellNext[v];
+			}
+			found = newVertex(x, y, z, input);
+			link(key, found);
+			return found;
+		}
+		final double inv = 1.0 / tolerance;
+		final long cx = (long) Math.floor(x * inv);
+		final long cy = (long) Math.floor(y * inv);
+		final long cz = (long) Math.floor(z * inv);
+		double best = tolerance * tolerance;
+		double d2, dx, dy, dz;
+		int v;
+		for (long i = cx - 1; i <= cx + 1; i++) {
+			for (long j = cy - 1; j <= cy + 1; j++) {
+				for (long k = cz - 1; k <= cz + 1; k++) {
+					v = cells.get(cellKey(i, j, k));
+					while (v != -1) {
+						dx = mesh.xd(v) - x;
+						dy = mesh.yd(v) - y;
+						dz = mesh.zd(v) - z;
+						d2 = dx * dx + dy * dy + dz * dz;
+						if ((d2 < best) || ((d2 == best) && (v < found))) {
+							best = d2;
+							found = v;
+						}
+						v = cellNext[v];
+					}
+				}
+			}
+		}
+		if (found != -1) {
+			return found;
+		}
+		found = newVertex(x, y, z, input);
+		link(cellKey(cx, cy, cz), found);
+		return found;
+	}
+
+	private void link(final long key, final int v) {
+		if (v >= cellNext.length) {
+			cellNext = Arrays.copyOf(cellNext, grow(v + 1));
+		}
+		cellNext[v] = cells.get(key);
+		cells.put(key, v);
+	}
+
+	/**
+	 * Pair halfedge with a waiting halfedge running in the opposite direction,
+	 * or wait for one.
+	 */
+	private void pair(final int he, final int a, final int b) {
+		final int other = waiting.remove(directedKey(b, a));
+		if (other != -1) {
+			mesh.setPair(he, other);
+			final int e = mesh.addEdge();
+			mesh.setEdgeHalfedge(e, other);
+			mesh.setEdge(he, e);
+			mesh.setEdge(other, e);
+			return;
+		}
+		final long key = directedKey(a, b);
+		if (waiting.containsKey(key)) {
+			if (numberOfStrays == strays.length) {
+				strays = Arrays.copyOf(strays, grow(numberOfStrays));
+			}
+			strays[numberOfStrays++] = he;
+		}
+		else {
+			waiting.put(key, he);
+		}
+	}
+
+	/**
+	 * Cap all unpaired halfedges with boundary halfedges.
+	 */
+	private void finish() {
+		final int[] unpaired = new int[waiting.size() + numberOfStrays];
+		final int nw = waiting.size();
+		System.arraycopy(waiting.values(), 0, unpaired, 0, nw);
+		System.arraycopy(strays, 0, unpaired, nw, numberOfStrays);
+		Arrays.sort(unpaired);
+		// release everything that is only needed while adding
+		waiting = null;
+		cells = null;
+		cellNext = null;
+		strays = null;
+		faceBuffer = null;
+		final int nu = unpaired.length;
+		final int nv = mesh.getNumberOfVertices();
+		mesh.ensureCapacity(nv, mesh.getNumberOfHalfedges() + nu,
+				mesh.getNumberOfEdges() + nu, mesh.getNumberOfFaces());
+		final int firstBoundary = mesh.getNumberOfHalfedges();
+		// boundary halfedges sorted by start vertex
+		final int[] cursor = new int[nv + 1];
+		int he, g, e, v;
+		for (int i = 0; i < nu; i++) {
+			he = unpaired[i];
+			g = mesh.addHalfedge();
+			v = mesh.getVertex(mesh.getNextInFace(he));
+			mesh.setVertex(g, v);
+			mesh.setPair(he, g);
+			e = mesh.addEdge();
+			mesh.setEdgeHalfedge(e, he);
+			mesh.setEdge(he, e);
+			mesh.setEdge(g, e);
+			cursor[v + 1]++;
+		}
+		for (int i = 0; i < nv; i++) {
+			cursor[i + 1] += cursor[i];
+		}
+		final int[] end = Arrays.copyOfRange(cursor, 1, nv + 1);
+		final int[] boundaryOut = new int[nu];
+		for (int i = 0; i < nu; i++) {
+			g = firstBoundary + i;
+			boundaryOut[cursor[mesh.getVertex(g)]++] = g;
+		}
+		// a boundary halfedge ending in u continues with its own boundary
+		// halfedge starting at u, pinched vertices have several of each
+		for (int i = 0; i < nv; i++) {
+			cursor[nv - i] = cursor[nv - i - 1];
+		}
+		cursor[0] = 0;
+		for (int i = 0; i < nu; i++) {
+			v = mesh.getVertex(unpaired[i]);
+			if (cursor[v] < end[v]) {
+				mesh.setNext(firstBoundary + i, boundaryOut[cursor[v]++]);
+			}
+		}
+		finished = true;
+	}
+
+	private static long directedKey(final int a, final int b) {
+		return (((long) a) << 32) | (b & 0xffffffffL);
+	}
+
+	private static long cellKey(final long i, final long j, final long k) {
+		return (i * 73856093L) ^ (j * 19349663L) ^ (k * 83492791L);
+	}
+
+	private static long exactKey(final double x, final double y, final double z) {
+		// +0.0 folds -0.0 onto 0.0
+		return cellKey(Double.doubleToLongBits(x + 0.0),
+				Double.doubleToLongBits(y + 0.0),
+				Double.doubleToLongBits(z + 0.0));
+	}
+
+	private static int grow(final int n) {
+		return Math.max(16, n + (n >> 1) + 1);
+	}
+}
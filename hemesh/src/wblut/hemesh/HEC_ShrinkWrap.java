@@ -5,9 +5,11 @@ import java.util.Iterator;
 
 import wblut.geom.WB_AABB;
 import wblut.geom.WB_AABBTree;
+import wblut.geom.WB_BVH;
 import wblut.geom.WB_Distance;
 import wblut.geom.WB_Point;
 import wblut.geom.WB_Ray;
+import wblut.geom.WB_RayCaster;
 import wblut.geom.WB_Vector;
 import wblut.math.WB_Epsilon;
 
@@ -21,6 +23,8 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 
 	private WB_AABBTree tree;
 
+	private WB_BVH bvh;
+
 	public HEC_ShrinkWrap() {
 		super();
 		override = true;
@@ -30,12 +34,22 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 
 	public HEC_ShrinkWrap setSource(final HE_Mesh mesh) {
 		source = mesh;
+		tree = null;
+		bvh = null;
 		return this;
 	}
 
 	public HEC_ShrinkWrap setSource(final HE_Mesh mesh, final WB_AABBTree tree) {
 		source = mesh;
 		this.tree = tree;
+		bvh = null;
+		return this;
+	}
+
+	public HEC_ShrinkWrap setSource(final HE_Mesh mesh, final WB_BVH tree) {
+		source = mesh;
+		bvh = tree;
+		this.tree = null;
 		return this;
 	}
 
@@ -83,15 +97,50 @@ public class HEC_ShrinkWrap extends HEC_Creator {
 		final Iterator<HE_Vertex> vmodItr = result.vItr();
 		HE_Vertex v, vmod;
 		WB_Ray R;
-		if (tree == null) {
-			tree = new WB_AABBTree(source, 4);
+		if ((tree == null) && (bvh == null)) {
+			bvh = new WB_BVH(source);
+		}
+		// with a BVH, all rays are cast in one batch
+		final int nv = sphere.getNumberOfVertices();
+		final double[] hitT = new double[nv];
+		final double[] origins = new double[3 * nv];
+		final double[] directions = new double[3 * nv];
+		if (bvh != null) {
+			int r = 0;
+			while (vItr.hasNext()) {
+				v = vItr.next();
+				final WB_Vector d = v.getVertexNormal()._mulSelf(-1);
+				origins[3 * r] = v.xd();
+				origins[3 * r + 1] = v.yd();
+				origins[3 * r + 2] = v.zd();
+				directions[3 * r] = d.xd();
+				directions[3 * r + 1] = d.yd();
+				directions[3 * r + 2] = d.zd();
+				r++;
+			}
+			new WB_RayCaster(bvh).castRays(origins, directions, 0,
+					Double.POSITIVE_INFINITY, new int[nv], hitT, null);
 		}
 		ArrayList<HE_Vertex> undecided = new ArrayList<HE_Vertex>();
-		while (vItr.hasNext()) {
-			v = vItr.next();
+		final Iterator<HE_Vertex> sItr = sphere.vItr();
+		int r = 0;
+		while (sItr.hasNext()) {
+			v = sItr.next();
 			vmod = vmodItr.next();
-			R = new WB_Ray(v, v.getVertexNormal()._mulSelf(-1));
-			final WB_Point p = HE_Intersection.getClosestIntersection(tree, R).point;
+			final WB_Point p;
+			if (bvh != null) {
+				p = Double.isNaN(hitT[r]) ? null : new WB_Point(origins[3 * r]
+						+ hitT[r] * directions[3 * r], origins[3 * r + 1]
+						+ hitT[r] * directions[3 * r + 1], origins[3 * r + 2]
+						+ hitT[r] * directions[3 * r + 2]);
+			}
+			else {
+				R = new WB_Ray(v, v.getVertexNormal()._mulSelf(-1));
+				final HE_FaceIntersection sect = HE_Intersection
+						.getClosestIntersection(tree, R);
+				p = (sect == null) ? null : sect.point;
+			}
+			r++;
 			if (p != null) {
 				if (WB_Distance.getDistance3D(v, p) < radius) {
 					vmod._set(p);
@@ -3,9 +3,8 @@ package wblut.hemesh;
 import java.util.ArrayList;
 import java.util.Collection;
 
-import wblut.geom.WB_KDTree;
-import wblut.geom.WB_KDTree.WB_KDEntry;
 import wblut.geom.WB_Point;
+import wblut.geom.WB_StaticKDTree;
 
 /**
  * Creates the Voronoi cells of a collection of points, constrained by a mesh.
@@ -251,20 +250,25 @@ public class HEMC_VoronoiCells extends HEMC_MultiCreator {
 		cvc.setPoints(points).setN(numberOfPoints).setContainer(container)
 		.setSurface(surface).setOffset(offset).setSimpleCap(simpleCap);
 		if (limit > 0) {
-			final WB_KDTree<WB_Point, Integer> tree = new WB_KDTree<WB_Point, Integer>();
+			// neighbors of all points in one parallel batch
+			final double[] coords = new double[3 * numberOfPoints];
 			for (int i = 0; i < numberOfPoints; i++) {
-				tree.add(points[i], i);
+				coords[3 * i] = points[i].xd();
+				coords[3 * i + 1] = points[i].yd();
+				coords[3 * i + 2] = points[i].zd();
 			}
-
+			final int[] closest = new int[limit * numberOfPoints];
+			new WB_StaticKDTree(coords).getNearestNeighbors(coords, limit,
+					closest, new double[limit * numberOfPoints]);
 			for (int i = 0; i < numberOfPoints; i++) {
 				cvc.setCellIndex(i);
 				System.out.println("HEMC_VoronoiCells: creating cell "
 						+ (i + 1) + " of " + numberOfPoints + ".");
-				final WB_KDEntry<WB_Point, Integer>[] closest = tree
-						.getNearestNeighbors(points[i], limit);
 				final ArrayList<Integer> indicesToUse = new ArrayList<Integer>();
-				for (int j = 0; j < limit; j++) {
-					indicesToUse.add(closest[j].value);
+				for (int j = limit * i; j < limit * (i + 1); j++) {
+					if (closest[j] >= 0) {
+						indicesToUse.add(closest[j]);
+					}
 				}
 
 				cvc.setLimitPoints(true).setPointsToUse(indicesToUse);
@@ -103,7 +103,7 @@ public class HEM_Crocodile extends HEM_Modifier {
 		while (vitr.hasNext()) {
 			v = vitr.next();
 			v.getPoint()._addMulSelf(distance, v.getVertexNormal());
-
+			v.positionChanged();
 		}
 		return selection.parent;
 	}
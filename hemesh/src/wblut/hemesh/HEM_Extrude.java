@@ -437,6 +437,7 @@ public class HEM_Extrude extends HEM_Modifier {
 						final HE_Vertex v = he.getVertex();
 						v.getPoint()._addMulSelf(
 								d.value(v.xd(), v.yd(), v.zd()), n);
+						v.positionChanged();
 						he = he.getNextInFace();
 					} while (he != f.getHalfedge());
 
@@ -582,6 +583,7 @@ public class HEM_Extrude extends HEM_Modifier {
 			final HE_Vertex v = vertices.get(i);
 			if (!outerVertices.contains(v)) {
 				v.getPoint()._addMulSelf(d, n);
+				v.positionChanged();
 			}
 
 		}
@@ -3,8 +3,8 @@ package wblut.hemesh;
 import java.util.Iterator;
 
 import wblut.geom.WB_AABB;
-import wblut.geom.WB_KDTree;
 import wblut.geom.WB_Point;
+import wblut.geom.WB_PointBVH;
 import wblut.geom.WB_Vector;
 
 public class HEM_Inflate extends HEM_Modifier {
@@ -64,30 +64,33 @@ public class HEM_Inflate extends HEM_Modifier {
 			box = mesh.getAABB();
 		}
 
-		final WB_KDTree<HE_Vertex, Integer> tree = new WB_KDTree<HE_Vertex, Integer>();
-		Iterator<HE_Vertex> vItr = mesh.vItr();
+		// built once, refit after every iteration
+		final WB_PointBVH tree = mesh.getVertexBVH();
+		final HE_Vertex[] vertices = mesh.getVerticesAsArray();
+		int[] neighbors = new int[64];
+		int count;
+		Iterator<HE_Vertex> vItr;
 		HE_Vertex v;
 		int id = 0;
-		while (vItr.hasNext()) {
-			tree.add(vItr.next(), id++);
-		}
 		final WB_Point[] newPositions = new WB_Point[mesh.getNumberOfVertices()];
 		if (iter < 1) {
 			iter = 1;
 		}
 		for (int r = 0; r < iter; r++) {
 			vItr = mesh.vItr();
-			WB_KDTree.WB_KDEntry<HE_Vertex, Integer>[] neighbors;
 			id = 0;
 			WB_Vector dv;
 			while (vItr.hasNext()) {
 				v = vItr.next();
 				dv = new WB_Vector(v);
-				neighbors = tree.getRange(v, radius);
-
-				for (int i = 0; i < neighbors.length; i++) {
-					if (neighbors[i].coord != v) {
-						final WB_Vector tmp = neighbors[i].coord.getPoint()
+				count = tree.getRange(v, radius, neighbors);
+				if (count > neighbors.length) {
+					neighbors = new int[2 * count];
+					tree.getRange(v, radius, neighbors);
+				}
+				for (int i = 0; i < count; i++) {
+					if (neighbors[i] != id) {
+						final WB_Vector tmp = vertices[neighbors[i]].getPoint()
 								.subToVector(v);
 						tmp._normalizeSelf();
 						dv._addSelf(tmp);
@@ -106,7 +109,7 @@ public class HEM_Inflate extends HEM_Modifier {
 				vItr.next()._set(newPositions[id]);
 				id++;
 			}
-
+			mesh.refitVertexBVH(tree);
 		}
 		mesh.resetCenter();
 		if (autoRescale) {
@@ -130,12 +133,17 @@ public class HEM_Inflate extends HEM_Modifier {
 			box = selection.parent.getAABB();
 		}
 
-		final WB_KDTree<HE_Vertex, Integer> tree = new WB_KDTree<HE_Vertex, Integer>();
-		Iterator<HE_Vertex> vItr = selection.parent.vItr();
+		// built once, the moved vertices are updated after every iteration
+		final WB_PointBVH tree = selection.parent.getVertexBVH();
+		final HE_Vertex[] vertices = selection.parent.getVerticesAsArray();
+		final int[] indices = new int[selection.getNumberOfVertices()];
+		int[] neighbors = new int[64];
+		int count;
+		Iterator<HE_Vertex> vItr = selection.vItr();
 		HE_Vertex v;
 		int id = 0;
 		while (vItr.hasNext()) {
-			tree.add(vItr.next(), id++);
+			indices[id++] = selection.parent.getIndex(vItr.next());
 		}
 		final WB_Point[] newPositions = new WB_Point[selection
 		                                             .getNumberOfVertices()];
@@ -144,17 +152,19 @@ public class HEM_Inflate extends HEM_Modifier {
 		}
 		for (int r = 0; r < iter; r++) {
 			vItr = selection.vItr();
-			final HE_Vertex n;
-			WB_KDTree.WB_KDEntry<HE_Vertex, Integer>[] neighbors;
 			id = 0;
 
 			while (vItr.hasNext()) {
 				v = vItr.next();
 				final WB_Vector dv = new WB_Vector(v);
-				neighbors = tree.getRange(v, radius);
-				for (int i = 0; i < neighbors.length; i++) {
-					if (neighbors[i].coord != v) {
-						final WB_Vector tmp = neighbors[i].coord.getPoint()
+				count = tree.getRange(v, radius, neighbors);
+				if (count > neighbors.length) {
+					neighbors = new int[2 * count];
+					tree.getRange(v, radius, neighbors);
+				}
+				for (int i = 0; i < count; i++) {
+					if (neighbors[i] != indices[id]) {
+						final WB_Vector tmp = vertices[neighbors[i]].getPoint()
 								.subToVector(v);
 						tmp._normalizeSelf();
 						dv._addSelf(tmp);
@@ -169,6 +179,7 @@ public class HEM_Inflate extends HEM_Modifier {
 			id = 0;
 			while (vItr.hasNext()) {
 				vItr.next()._set(newPositions[id]);
+				tree.setPoint(indices[id], newPositions[id]);
 				id++;
 			}
 		}
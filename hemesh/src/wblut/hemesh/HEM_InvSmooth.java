@@ -95,6 +95,7 @@ public class HEM_InvSmooth extends HEM_Modifier {
 			while (vItr.hasNext()) {
 				v = vItr.next();
 				v.getPoint()._addSelf(v.getPoint().sub(newPositions[id++]));
+				v.positionChanged();
 			}
 
 		}
@@ -156,6 +157,7 @@ public class HEM_InvSmooth extends HEM_Modifier {
 			while (vItr.hasNext()) {
 				v = vItr.next();
 				v.getPoint()._addSelf(v.getPoint().sub(newPositions[id++]));
+				v.positionChanged();
 			}
 		}
 		selection.parent.resetCenter();
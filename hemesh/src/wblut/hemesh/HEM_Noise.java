@@ -71,6 +71,7 @@ public class HEM_Noise extends HEM_Modifier {
 			v = vItr.next();
 			n = rs.nextVector();
 			v.getPoint()._addSelf(n._mulSelf(d.value(v.xd(), v.yd(), v.zd())));
+			v.positionChanged();
 		}
 		mesh.resetFaces();
 		return mesh;
@@ -95,6 +96,7 @@ public class HEM_Noise extends HEM_Modifier {
 			v = vItr.next();
 			n = rs.nextVector();
 			v.getPoint()._addSelf(n._mulSelf(d.value(v.xd(), v.yd(), v.zd())));
+			v.positionChanged();
 		}
 		selection.parent.resetFaces();
 		return selection.parent;
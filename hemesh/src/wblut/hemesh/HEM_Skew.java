@@ -141,6 +141,7 @@ public class HEM_Skew extends HEM_Modifier {
 				final double d = WB_Distance.getDistance3D(v, groundPlane);
 				if (!posOnly || (d > 0)) {
 					v.getPoint()._addSelf(skewDirection.mul(d * skewFactor));
+					v.positionChanged();
 				}
 			}
 		}
@@ -166,6 +167,7 @@ public class HEM_Skew extends HEM_Modifier {
 				final double d = WB_Distance.getDistance3D(v, groundPlane);
 				if (!posOnly || (d > 0)) {
 					v.getPoint()._addSelf(skewDirection.mul(d * skewFactor));
+					v.positionChanged();
 				}
 			}
 		}
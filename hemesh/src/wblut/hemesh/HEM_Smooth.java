@@ -1,10 +1,9 @@
 package wblut.hemesh;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.List;
 
 import wblut.geom.WB_AABB;
-import wblut.geom.WB_Point;
 
 public class HEM_Smooth extends HEM_Modifier {
 
@@ -47,45 +46,28 @@ public class HEM_Smooth extends HEM_Modifier {
 		if (autoRescale) {
 			box = mesh.getAABB();
 		}
-
-		final WB_Point[] newPositions = new WB_Point[mesh.getNumberOfVertices()];
 		if (iter < 1) {
 			iter = 1;
 		}
-		for (int r = 0; r < iter; r++) {
-			Iterator<HE_Vertex> vItr = mesh.vItr();
-			HE_Vertex v;
-			List<HE_Vertex> neighbors;
-			int id = 0;
-			WB_Point p;
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (v.isBoundary() && keepBoundary) {
-					newPositions[id] = v.getPoint();
-
-				}
-				else {
-					p = new WB_Point(v);
-					neighbors = v.getNeighborVertices();
-					p._mulSelf(neighbors.size());
-
-					for (int i = 0; i < neighbors.size(); i++) {
-						p._addSelf(neighbors.get(i));
-					}
-
-					newPositions[id] = p._scaleSelf(0.5 / neighbors.size());
-				}
-				id++;
-
+		final HE_VertexRelaxation relaxation = new HE_VertexRelaxation(mesh,
+				false);
+		final int[] active = new int[relaxation.n];
+		int na = 0;
+		HE_Vertex v;
+		for (int i = 0; i < relaxation.n; i++) {
+			v = relaxation.vertices[i];
+			if ((v.getHalfedge() != null) && !(keepBoundary && v.isBoundary())) {
+				active[na++] = i;
 			}
-			vItr = mesh.vItr();
-			id = 0;
-			while (vItr.hasNext()) {
-				vItr.next()._set(newPositions[id]);
-				id++;
-			}
-
 		}
+		final int[] moving = Arrays.copyOf(active, na);
+		relaxation.run(moving, iter, new HE_VertexRelaxation.Rule() {
+			@Override
+			public void relax(final int i, final double[] in, final double[] out) {
+				average(relaxation, null, i, in, out);
+			}
+		});
+		relaxation.write(moving);
 		mesh.resetCenter();
 		if (autoRescale) {
 			mesh.fitInAABB(box);
@@ -107,50 +89,33 @@ public class HEM_Smooth extends HEM_Modifier {
 		if (autoRescale) {
 			box = selection.parent.getAABB();
 		}
-		final WB_Point[] newPositions = new WB_Point[selection
-				.getNumberOfVertices()];
 		if (iter < 1) {
 			iter = 1;
 		}
-		for (int r = 0; r < iter; r++) {
-			Iterator<HE_Vertex> vItr = selection.vItr();
-			HE_Vertex v;
-			HE_Vertex n;
-			List<HE_Vertex> neighbors;
-			int id = 0;
-
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				final WB_Point p = new WB_Point(v);
-				if (v.isBoundary() && keepBoundary) {
-					newPositions[id] = v.getPoint();
-
-				}
-				else {
-					neighbors = v.getNeighborVertices();
-					final Iterator<HE_Vertex> nItr = neighbors.iterator();
-					while (nItr.hasNext()) {
-						n = nItr.next();
-						if (!selection.contains(n)) {
-							nItr.remove();
-						}
-					}
-					p._mulSelf(neighbors.size());
-					for (int i = 0; i < neighbors.size(); i++) {
-						p._addSelf(neighbors.get(i));
-					}
-
-					newPositions[id] = p._scaleSelf(0.5 / neighbors.size());
-				}
-				id++;
-			}
-			vItr = selection.vItr();
-			id = 0;
-			while (vItr.hasNext()) {
-				vItr.next()._set(newPositions[id]);
-				id++;
+		final HE_VertexRelaxation relaxation = new HE_VertexRelaxation(
+				selection.parent, false);
+		final boolean[] selected = new boolean[relaxation.n];
+		final int[] active = new int[selection.getNumberOfVertices()];
+		int na = 0;
+		final Iterator<HE_Vertex> vItr = selection.vItr();
+		HE_Vertex v;
+		int i;
+		while (vItr.hasNext()) {
+			v = vItr.next();
+			i = selection.parent.getIndex(v);
+			selected[i] = true;
+			if ((v.getHalfedge() != null) && !(keepBoundary && v.isBoundary())) {
+				active[na++] = i;
 			}
 		}
+		final int[] moving = Arrays.copyOf(active, na);
+		relaxation.run(moving, iter, new HE_VertexRelaxation.Rule() {
+			@Override
+			public void relax(final int i, final double[] in, final double[] out) {
+				average(relaxation, selected, i, in, out);
+			}
+		});
+		relaxation.write(moving);
 		selection.parent.resetCenter();
 		if (autoRescale) {
 			selection.parent.fitInAABB(box);
@@ -158,4 +123,48 @@ public class HEM_Smooth extends HEM_Modifier {
 		return selection.parent;
 	}
 
+	/**
+	 * Move vertex halfway to the average of its neighbors.
+	 *
+	 * @param relaxation
+	 * @param include
+	 *            only use neighbors flagged here, null to use all
+	 * @param i
+	 *            vertex index
+	 * @param in
+	 *            current positions
+	 * @param out
+	 *            new positions
+	 */
+	private static void average(final HE_VertexRelaxation relaxation,
+			final boolean[] include, final int i, final double[] in,
+			final double[] out) {
+		final int[] neighbor = relaxation.neighbor;
+		final boolean[] unique = relaxation.unique;
+		final int s0 = relaxation.starStart[i];
+		final int s1 = relaxation.starStart[i + 1];
+		int count = 0;
+		for (int s = s0; s < s1; s++) {
+			if (unique[s] && ((include == null) || include[neighbor[s]])) {
+				count++;
+			}
+		}
+		double x = count * in[3 * i];
+		double y = count * in[3 * i + 1];
+		double z = count * in[3 * i + 2];
+		int j;
+		for (int s = s0; s < s1; s++) {
+			if (unique[s] && ((include == null) || include[neighbor[s]])) {
+				j = 3 * neighbor[s];
+				x = x + in[j];
+				y = y + in[j + 1];
+				z = z + in[j + 2];
+			}
+		}
+		final double f = 0.5 / count;
+		out[3 * i] = f * x;
+		out[3 * i + 1] = f * y;
+		out[3 * i + 2] = f * z;
+	}
+
 }
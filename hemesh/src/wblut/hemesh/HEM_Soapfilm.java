@@ -1,15 +1,10 @@
 package wblut.hemesh;
 
-import gnu.trove.map.TLongObjectMap;
-import gnu.trove.map.hash.TLongObjectHashMap;
-
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 import wblut.geom.WB_AABB;
-import wblut.geom.WB_Coordinate;
 import wblut.geom.WB_CoordinateMath;
-import wblut.geom.WB_Point;
 import wblut.math.WB_Epsilon;
 
 public class HEM_Soapfilm extends HEM_Modifier {
@@ -48,38 +43,10 @@ public class HEM_Soapfilm extends HEM_Modifier {
 		if (autoRescale) {
 			box = mesh.getAABB();
 		}
-
-		final TLongObjectMap<WB_Coordinate> newPositions = new TLongObjectHashMap<WB_Coordinate>(
-				10, 0.5f, 0L);
-
 		if (iter < 1) {
 			iter = 1;
 		}
-		for (int r = 0; r < iter; r++) {
-
-			Iterator<HE_Vertex> vItr = mesh.vItr();
-			HE_Vertex v;
-			final HE_Selection sel = mesh.selectAllFaces();
-			final List<HE_Vertex> outer = sel.getOuterVertices();
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (outer.contains(v)) {
-					newPositions.put(v.getKey(), v);
-				}
-				else {
-					newPositions.put(v.getKey(), minDirichletEnergy(v));
-				}
-
-			}
-			vItr = mesh.vItr();
-
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				v._set(newPositions.get(v.getKey()));
-
-			}
-
-		}
+		relax(mesh, mesh.getVerticesAsList());
 		mesh.resetCenter();
 		if (autoRescale) {
 			mesh.fitInAABB(box);
@@ -101,39 +68,10 @@ public class HEM_Soapfilm extends HEM_Modifier {
 		if (autoRescale) {
 			box = selection.parent.getAABB();
 		}
-
-		final TLongObjectMap<WB_Coordinate> newPositions = new TLongObjectHashMap<WB_Coordinate>(
-				10, 0.5f, 0L);
-
 		if (iter < 1) {
 			iter = 1;
 		}
-		for (int r = 0; r < iter; r++) {
-
-			Iterator<HE_Vertex> vItr = selection.vItr();
-			HE_Vertex v;
-
-			final HE_Selection sel = selection.parent.selectAllFaces();
-			final List<HE_Vertex> outer = sel.getOuterVertices();
-
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				if (outer.contains(v)) {
-					newPositions.put(v.getKey(), v);
-				}
-				else {
-					newPositions.put(v.getKey(), minDirichletEnergy(v));
-				}
-
-			}
-			vItr = selection.vItr();
-
-			while (vItr.hasNext()) {
-				v = vItr.next();
-				v._set(newPositions.get(v.getKey()));
-
-			}
-		}
+		relax(selection.parent, selection.getVerticesAsList());
 		selection.parent.resetCenter();
 		if (autoRescale) {
 			selection.parent.fitInAABB(box);
@@ -141,40 +79,79 @@ public class HEM_Soapfilm extends HEM_Modifier {
 		return selection.parent;
 	}
 
-	private WB_Point minDirichletEnergy(final HE_Vertex v) {
-		final WB_Point result = new WB_Point();
-		final List<HE_Halfedge> hes = v.getHalfedgeStar();
-		HE_Vertex neighbor;
-		HE_Vertex corner;
-		HE_Halfedge he;
+	/**
+	 * Move vertices to minimize the Dirichlet energy, boundary vertices of the
+	 * mesh stay fixed.
+	 *
+	 * @param mesh
+	 * @param vertices
+	 *            vertices to move
+	 */
+	private void relax(final HE_Mesh mesh, final List<HE_Vertex> vertices) {
+		final HE_VertexRelaxation relaxation = new HE_VertexRelaxation(mesh,
+				true);
+		final boolean[] fixed = new boolean[relaxation.n];
+		for (final HE_Vertex v : mesh.selectAllFaces().getOuterVertices()) {
+			fixed[mesh.getIndex(v)] = true;
+		}
+		final int[] active = new int[vertices.size()];
+		int na = 0;
+		int i;
+		for (final HE_Vertex v : vertices) {
+			i = mesh.getIndex(v);
+			if (!fixed[i]) {
+				active[na++] = i;
+			}
+		}
+		final int[] moving = Arrays.copyOf(active, na);
+		relaxation.run(moving, iter, new HE_VertexRelaxation.Rule() {
+			@Override
+			public void relax(final int i, final double[] in, final double[] out) {
+				minDirichletEnergy(relaxation, i, in, out);
+			}
+		});
+		relaxation.write(moving);
+	}
+
+	private static void minDirichletEnergy(
+			final HE_VertexRelaxation relaxation, final int i,
+			final double[] in, final double[] out) {
+		final double vx = in[3 * i];
+		final double vy = in[3 * i + 1];
+		final double vz = in[3 * i + 2];
+		double x = 0;
+		double y = 0;
+		double z = 0;
+		int n, c;
 		double cota;
 		double cotb;
 		double cotsum;
 		double weight = 0;
-		for (int i = 0; i < hes.size(); i++) {
+		for (int s = relaxation.starStart[i]; s < relaxation.starStart[i + 1]; s++) {
 			cotsum = 0;
-			he = hes.get(i);
-			neighbor = he.getEndVertex();
-			{
-				corner = he.getPrevInFace().getVertex();
-				cota = WB_CoordinateMath.cosAngleBetween(corner.xd(),
-						corner.yd(), corner.zd(), neighbor.xd(), neighbor.yd(),
-						neighbor.zd(), v.xd(), v.yd(), v.zd());
-				cotsum += cota / Math.sqrt(1 - cota * cota);
-				corner = he.getPair().getPrevInFace().getVertex();
-				cotb = WB_CoordinateMath.cosAngleBetween(corner.xd(),
-						corner.yd(), corner.zd(), neighbor.xd(), neighbor.yd(),
-						neighbor.zd(), v.xd(), v.yd(), v.zd());
-				cotsum += cotb / Math.sqrt(1 - cotb * cotb);
-			}
-			result._addMulSelf(cotsum, neighbor);
+			n = 3 * relaxation.neighbor[s];
+			c = 3 * relaxation.corner[s];
+			cota = WB_CoordinateMath.cosAngleBetween(in[c], in[c + 1],
+					in[c + 2], in[n], in[n + 1], in[n + 2], vx, vy, vz);
+			cotsum += cota / Math.sqrt(1 - cota * cota);
+			c = 3 * relaxation.pairCorner[s];
+			cotb = WB_CoordinateMath.cosAngleBetween(in[c], in[c + 1],
+					in[c + 2], in[n], in[n + 1], in[n + 2], vx, vy, vz);
+			cotsum += cotb / Math.sqrt(1 - cotb * cotb);
+			x = x + cotsum * in[n];
+			y = y + cotsum * in[n + 1];
+			z = z + cotsum * in[n + 2];
 			weight += cotsum;
 		}
-
 		if (!WB_Epsilon.isZero(weight)) {
-			result._divSelf(weight);
+			final double f = 1.0 / weight;
+			x = f * x;
+			y = f * y;
+			z = f * z;
 		}
-		return result;
+		out[3 * i] = x;
+		out[3 * i + 1] = y;
+		out[3 * i + 2] = z;
 	}
 
 }
@@ -87,7 +87,7 @@ public class HEM_SphereInversion extends HEM_Modifier {
 				v._set(center);
 				v.getPoint()._addMulSelf(rf, d);
 			}
-
+			v.positionChanged();
 		}
 		return mesh;
 	}
@@ -129,7 +129,7 @@ public class HEM_SphereInversion extends HEM_Modifier {
 				v.getPoint()._set(center);
 				v.getPoint()._addMulSelf(rf, d);
 			}
-
+			v.positionChanged();
 		}
 		return selection.parent;
 	}
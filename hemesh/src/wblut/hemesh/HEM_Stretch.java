@@ -146,6 +146,7 @@ public class HEM_Stretch extends HEM_Modifier {
 					v.getPoint()._subSelf(p);
 					v.getPoint()._mulSelf(1 / compressionFactor);
 					v.getPoint()._addSelf(p);
+					v.positionChanged();
 				}
 			}
 		}
@@ -183,6 +184,7 @@ public class HEM_Stretch extends HEM_Modifier {
 					v.getPoint()._subSelf(p);
 					v.getPoint()._mulSelf(1 / compressionFactor);
 					v.getPoint()._addSelf(p);
+					v.positionChanged();
 				}
 			}
 		}
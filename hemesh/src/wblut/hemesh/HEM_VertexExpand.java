@@ -45,6 +45,7 @@ public class HEM_VertexExpand extends HEM_Modifier {
 			v = vItr.next();
 			n = vnItr.next();
 			v.getPoint()._addSelf(n._mulSelf(d));
+			v.positionChanged();
 		}
 		return mesh;
 	}
@@ -69,6 +70,7 @@ public class HEM_VertexExpand extends HEM_Modifier {
 
 			v = vItr.next();
 			v.getPoint()._addSelf(v.getVertexNormal()._mulSelf(d));
+			v.positionChanged();
 		}
 
 		return selection.parent;
@@ -0,0 +1,504 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import wblut.geom.WB_Coordinate;
+import wblut.geom.WB_Point;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Adaptive subdivision. Faces are refined one level at a time with the
+ * selection variant of another subdividor, worst faces first, until all faces
+ * are below a threshold, the face budget is spent or the maximum level is
+ * reached.
+ *
+ * Faces are prioritized in a queue by one of two criteria:
+ * <ul>
+ * <li>CURVATURE: estimated distance to the limit surface, the largest
+ * distance of a face vertex to the centroid of its neighbors, measured along
+ * the vertex normal. Flat regions have zero error.</li>
+ * <li>SCREENSIZE: projected size of the face as seen from a viewpoint, the
+ * square root of its area divided by the distance to the viewpoint.</li>
+ * </ul>
+ *
+ * The result is crack-free: shared edges are always split for both faces and
+ * neighboring faces never differ by more than one level. Refining a face
+ * first refines any coarser neighbor, so an edge carries at most one hanging
+ * vertex. These forced faces are included in the budget.
+ *
+ * Works with HES_CatmullClark, HES_Planar and HES_PlanarMidEdge. HES_DooSabin
+ * and HES_Loop have no local refinement.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HES_Adaptive extends HES_Subdividor {
+
+	/** Prioritize by estimated distance to the limit surface. */
+	public static final int CURVATURE = 0;
+
+	/** Prioritize by projected size. */
+	public static final int SCREENSIZE = 1;
+
+	/** Subdividor. */
+	private HES_Subdividor subdividor;
+
+	/** Criterion. */
+	private int criterion;
+
+	/** Faces at or below the threshold are not refined. */
+	private double threshold;
+
+	/** Face budget, 0 for no budget. */
+	private int maxFaces;
+
+	/** Maximum refinement level. */
+	private int maxLevel;
+
+	/** Viewpoint for SCREENSIZE. */
+	private WB_Point viewpoint;
+
+	/**
+	 * Instantiates a new HES_Adaptive with Catmull-Clark subdivision.
+	 */
+	public HES_Adaptive() {
+		super();
+		subdividor = new HES_CatmullClark();
+		criterion = CURVATURE;
+		threshold = 0;
+		maxFaces = 0;
+		maxLevel = 4;
+	}
+
+	/**
+	 * Set subdividor. It should support subdividing a selection.
+	 *
+	 * @param subdividor
+	 *            subdividor
+	 * @return self
+	 */
+	public HES_Adaptive setSubdividor(final HES_Subdividor subdividor) {
+		this.subdividor = subdividor;
+		return this;
+	}
+
+	/**
+	 * Set criterion, CURVATURE or SCREENSIZE.
+	 *
+	 * @param criterion
+	 *            criterion
+	 * @return self
+	 */
+	public HES_Adaptive setCriterion(final int criterion) {
+		this.criterion = criterion;
+		return this;
+	}
+
+	/**
+	 * Set threshold. Faces with a priority at or below the threshold are not
+	 * refined: a distance for CURVATURE, a ratio of size to distance for
+	 * SCREENSIZE.
+	 *
+	 * @param threshold
+	 *            threshold
+	 * @return self
+	 */
+	public HES_Adaptive setThreshold(final double threshold) {
+		this.threshold = threshold;
+		return this;
+	}
+
+	/**
+	 * Set face budget. Refinement stops before the mesh would get more faces.
+	 *
+	 * @param n
+	 *            maximum number of faces, 0 for no budget
+	 * @return self
+	 */
+	public HES_Adaptive setMaxFaces(final int n) {
+		maxFaces = Math.max(0, n);
+		return this;
+	}
+
+	/**
+	 * Set maximum number of times a face of the original mesh is refined.
+	 *
+	 * @param level
+	 *            maximum level
+	 * @return self
+	 */
+	public HES_Adaptive setMaxLevel(final int level) {
+		maxLevel = level;
+		return this;
+	}
+
+	/**
+	 * Set viewpoint for SCREENSIZE.
+	 *
+	 * @param p
+	 *            viewpoint
+	 * @return self
+	 */
+	public HES_Adaptive setViewpoint(final WB_Coordinate p) {
+		viewpoint = new WB_Point(p);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Subdividor#apply(wblut.hemesh.HE_Mesh)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh) {
+		return refine(mesh, null);
+	}
+
+	/**
+	 * Only faces in the selection and the faces they are split into are
+	 * prioritized. Faces outside the selection are only refined to keep
+	 * neighboring levels balanced.
+	 *
+	 * @see wblut.hemesh.HES_Subdividor#apply(wblut.hemesh.HE_Selection)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Selection selection) {
+		return refine(selection.parent, selection);
+	}
+
+	/**
+	 * Face in the queue.
+	 */
+	private static class Candidate implements Comparable<Candidate> {
+		final HE_Face face;
+		final double priority;
+
+		Candidate(final HE_Face face, final double priority) {
+			this.face = face;
+			this.priority = priority;
+		}
+
+		@Override
+		public int compareTo(final Candidate other) {
+			if (priority > other.priority) {
+				return -1;
+			}
+			if (priority < other.priority) {
+				return 1;
+			}
+			return (face.key() < other.face.key()) ? -1 : ((face.key() == other
+					.face.key()) ? 0 : 1);
+		}
+	}
+
+	/**
+	 * Refine in rounds. Each round rebuilds the queue and refines the faces
+	 * with a priority of at least half the largest priority, in order, as long
+	 * as the budget allows. Children of refined faces are reconsidered in the
+	 * next round. Without a budget, all faces above the threshold are refined
+	 * in each round.
+	 *
+	 * @param mesh
+	 * @param selection
+	 *            faces to refine, null for all faces
+	 * @return mesh
+	 */
+	private HE_Mesh refine(final HE_Mesh mesh, final HE_Selection selection) {
+		if ((criterion == SCREENSIZE) && (viewpoint == null)) {
+			throw new IllegalStateException(
+					"HES_Adaptive needs a viewpoint for SCREENSIZE.");
+		}
+		if (mesh.getNumberOfFaces() == 0) {
+			return mesh;
+		}
+		if (subdividor.splitFaceCount(3) < 0) {
+			throw new IllegalArgumentException(subdividor.getClass()
+					.getSimpleName() + " can't subdivide a selection.");
+		}
+		// level of each face, faces outside the selection are stored as
+		// -level-1
+		TLongIntMap levels = new TLongIntHashMap(Math.max(10,
+				2 * mesh.getNumberOfFaces()), 0.5f, -1L, Integer.MIN_VALUE);
+		Iterator<HE_Face> fItr = mesh.fItr();
+		HE_Face f;
+		while (fItr.hasNext()) {
+			f = fItr.next();
+			levels.put(f.key(),
+					((selection == null) || selection.contains(f)) ? 0 : -1);
+		}
+		final PriorityQueue<Candidate> queue = new PriorityQueue<Candidate>();
+		final TLongIntMap chosen = new TLongIntHashMap(10, 0.5f, -1L, -1);
+		final List<HE_Face> closure = new ArrayList<HE_Face>();
+		final List<HE_Face> affected = new ArrayList<HE_Face>();
+		final List<List<HE_Face>> groups = new ArrayList<List<HE_Face>>();
+		double[] vertexError = null;
+		Candidate c;
+		int numberOfFaces, cost, level;
+		double p, cut;
+		while ((maxFaces == 0) || (mesh.getNumberOfFaces() < maxFaces)) {
+			if (criterion == CURVATURE) {
+				vertexError = vertexErrors(mesh);
+			}
+			queue.clear();
+			fItr = mesh.fItr();
+			while (fItr.hasNext()) {
+				f = fItr.next();
+				level = levels.get(f.key());
+				if ((level >= 0) && (level < maxLevel)) {
+					p = priority(mesh, f, vertexError);
+					if (p > threshold) {
+						queue.add(new Candidate(f, p));
+					}
+				}
+			}
+			if (queue.isEmpty()) {
+				break;
+			}
+			// without budget the order doesn't matter, refine all faces
+			cut = (maxFaces == 0) ? 0 : 0.5 * queue.peek().priority;
+			chosen.clear();
+			groups.clear();
+			numberOfFaces = mesh.getNumberOfFaces();
+			while (!queue.isEmpty() && (queue.peek().priority >= cut)) {
+				c = queue.poll();
+				if (chosen.containsKey(c.face.key())) {
+					continue;
+				}
+				closure(c.face, levels, chosen, closure, affected);
+				cost = -cost(affected, chosen);
+				for (int i = 0; i < closure.size(); i++) {
+					f = closure.get(i);
+					chosen.put(f.key(), group(levels.get(f.key())));
+				}
+				cost += cost(affected, chosen);
+				if ((maxFaces > 0) && (numberOfFaces + cost > maxFaces)) {
+					for (int i = 0; i < closure.size(); i++) {
+						chosen.remove(closure.get(i).key());
+					}
+					continue;
+				}
+				numberOfFaces += cost;
+				for (int i = 0; i < closure.size(); i++) {
+					f = closure.get(i);
+					level = chosen.get(f.key());
+					while (groups.size() <= level) {
+						groups.add(new ArrayList<HE_Face>());
+					}
+					groups.get(level).add(f);
+				}
+			}
+			if (chosen.size() == 0) {
+				break;
+			}
+			// coarsest faces first, finer neighbors see their hanging vertices
+			for (int g = 0; g < groups.size(); g++) {
+				if (groups.get(g).size() > 0) {
+					levels = split(mesh, groups.get(g), levels,
+							((g & 1) == 0) ? g / 2 + 1 : -(g / 2 + 1) - 1);
+				}
+			}
+		}
+		return mesh;
+	}
+
+	/**
+	 * Collect a face and, recursively, all coarser edge-neighbors that have to
+	 * be refined first to keep the levels balanced.
+	 *
+	 * @param face
+	 * @param levels
+	 * @param chosen
+	 *            faces already chosen this round
+	 * @param closure
+	 *            cleared and filled with the faces
+	 * @param affected
+	 *            cleared and filled with the faces and their chosen
+	 *            neighbors
+	 */
+	private static void closure(final HE_Face face, final TLongIntMap levels,
+			final TLongIntMap chosen, final List<HE_Face> closure,
+			final List<HE_Face> affected) {
+		closure.clear();
+		closure.add(face);
+		affected.clear();
+		final Set<HE_Face> inClosure = new HashSet<HE_Face>();
+		final Set<HE_Face> inAffected = new HashSet<HE_Face>();
+		inClosure.add(face);
+		HE_Face f, g;
+		HE_Halfedge he;
+		int level;
+		for (int i = 0; i < closure.size(); i++) {
+			f = closure.get(i);
+			affected.add(f);
+			inAffected.add(f);
+			level = level(levels.get(f.key()));
+			he = f.getHalfedge();
+			do {
+				g = he.getPair().getFace();
+				if (g != null) {
+					if (chosen.containsKey(g.key())) {
+						if (inAffected.add(g)) {
+							affected.add(g);
+						}
+					}
+					else if ((level(levels.get(g.key())) < level)
+							&& inClosure.add(g)) {
+						closure.add(g);
+					}
+				}
+				he = he.getNextInFace();
+			} while (he != f.getHalfedge());
+		}
+	}
+
+	/**
+	 * Number of faces added by refining the chosen faces in a list. Each
+	 * chosen neighbor in an earlier group adds a hanging vertex to a face
+	 * before it is split.
+	 *
+	 * @param faces
+	 * @param chosen
+	 *            group of each chosen face
+	 * @return number of new faces
+	 */
+	private int cost(final List<HE_Face> faces, final TLongIntMap chosen) {
+		int cost = 0;
+		HE_Face f, g;
+		HE_Halfedge he;
+		int group, order;
+		for (int i = 0; i < faces.size(); i++) {
+			f = faces.get(i);
+			if (!chosen.containsKey(f.key())) {
+				continue;
+			}
+			group = chosen.get(f.key());
+			order = 0;
+			he = f.getHalfedge();
+			do {
+				order++;
+				g = he.getPair().getFace();
+				if ((g != null) && chosen.containsKey(g.key())
+						&& (chosen.get(g.key()) < group)) {
+					order++;
+				}
+				he = he.getNextInFace();
+			} while (he != f.getHalfedge());
+			cost += subdividor.splitFaceCount(order) - 1;
+		}
+		return cost;
+	}
+
+	/**
+	 * Subdivide a group of faces at the same level and record the level of
+	 * the new faces.
+	 *
+	 * @param mesh
+	 * @param faces
+	 * @param levels
+	 * @param level
+	 *            stored level of the new faces
+	 * @return levels of all faces in the mesh
+	 */
+	private TLongIntMap split(final HE_Mesh mesh, final List<HE_Face> faces,
+			final TLongIntMap levels, final int level) {
+		final HE_Selection sel = new HE_Selection(mesh);
+		for (int i = 0; i < faces.size(); i++) {
+			sel.add(faces.get(i));
+			// some subdividors reuse the face for one of the new faces
+			levels.put(faces.get(i).key(), level);
+		}
+		subdividor.apply(sel);
+		final TLongIntMap result = new TLongIntHashMap(Math.max(10,
+				2 * mesh.getNumberOfFaces()), 0.5f, -1L, Integer.MIN_VALUE);
+		final Iterator<HE_Face> fItr = mesh.fItr();
+		HE_Face f;
+		while (fItr.hasNext()) {
+			f = fItr.next();
+			result.put(f.key(),
+					levels.containsKey(f.key()) ? levels.get(f.key()) : level);
+		}
+		return result;
+	}
+
+	private static int level(final int stored) {
+		return (stored >= 0) ? stored : -stored - 1;
+	}
+
+	/**
+	 * Faces are split in groups: 2*level for faces in the selection,
+	 * 2*level+1 for the others.
+	 *
+	 * @param stored
+	 * @return group
+	 */
+	private static int group(final int stored) {
+		return (stored >= 0) ? 2 * stored : 2 * (-stored - 1) + 1;
+	}
+
+	/**
+	 * Priority of a face.
+	 *
+	 * @param mesh
+	 * @param f
+	 * @param vertexError
+	 * @return priority
+	 */
+	private double priority(final HE_Mesh mesh, final HE_Face f,
+			final double[] vertexError) {
+		if (criterion == SCREENSIZE) {
+			final double d = f.getFaceCenter().getDistance(viewpoint);
+			return Math.sqrt(f.getFaceArea()) / Math.max(d, WB_Epsilon.EPSILON);
+		}
+		double error = 0;
+		HE_Halfedge he = f.getHalfedge();
+		do {
+			error = Math.max(error, vertexError[mesh.getIndex(he.getVertex())]);
+			he = he.getNextInFace();
+		} while (he != f.getHalfedge());
+		return error;
+	}
+
+	/**
+	 * Distance of each vertex to the centroid of its neighbors, along the
+	 * vertex normal.
+	 *
+	 * @param mesh
+	 * @return errors by vertex index
+	 */
+	private static double[] vertexErrors(final HE_Mesh mesh) {
+		final HE_Vertex[] vertices = mesh.getVerticesAsArray();
+		final double[] error = new double[vertices.length];
+		final WB_Point n = new WB_Point();
+		HE_Vertex v;
+		HE_Halfedge he;
+		double x, y, z;
+		int c;
+		for (int i = 0; i < vertices.length; i++) {
+			v = vertices[i];
+			he = v.getHalfedge();
+			if ((he == null) || !v.getVertexNormalInto(n)) {
+				continue;
+			}
+			x = y = z = 0;
+			c = 0;
+			do {
+				x += he.getEndVertex().xd();
+				y += he.getEndVertex().yd();
+				z += he.getEndVertex().zd();
+				c++;
+				he = he.getNextInVertex();
+			} while (he != v.getHalfedge());
+			error[i] = Math.abs((v.xd() - x / c) * n.xd() + (v.yd() - y / c)
+					* n.yd() + (v.zd() - z / c) * n.zd());
+		}
+		return error;
+	}
+}
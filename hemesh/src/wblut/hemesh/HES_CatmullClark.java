@@ -15,8 +15,10 @@ package wblut.hemesh;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import javolution.util.FastMap;
 import wblut.geom.WB_Coordinate;
@@ -112,120 +114,49 @@ public class HES_CatmullClark extends HES_Subdividor {
 	 */
 	@Override
 	public HE_Mesh apply(final HE_Mesh mesh) {
-		mesh.resetVertexLabels();
-		final HashMap<Long, WB_Point> avgFC = new HashMap<Long, WB_Point>();
-		HE_Vertex v;
-		Iterator<HE_Vertex> vItr = mesh.vItr();
-		HE_Halfedge he;
-		WB_Point p;
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			he = v.getHalfedge();
-			final WB_Point afc = new WB_Point();
-			int c = 0;
-			do {
-				if (he.getFace() != null) {
-					afc._addSelf(he.getFace().getFaceCenter());
-					c++;
-				}
-				he = he.getNextInVertex();
-			} while (he != v.getHalfedge());
-			afc._divSelf(c);
-			avgFC.put(v.key(), afc);
-		}
-
-		mesh.quadSplitFaces();
-		final FastMap<Long, WB_Coordinate> newPositions = new FastMap<Long, WB_Coordinate>();
-		final HE_Selection all = mesh.selectAllFaces();
-		final List<HE_Vertex> boundary = all.getOuterVertices();
-		final List<HE_Vertex> inner = all.getInnerVertices();
-
-		HE_Vertex n;
-		List<HE_Vertex> neighbors;
-		vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (v.getLabel() == -1) {
-				p = avgFC.get(v.key());
-				neighbors = v.getNeighborVertices();
-				final int order = neighbors.size();
-				final double io = 1.0 / order;
-				for (int i = 0; i < order; i++) {
-					n = neighbors.get(i);
-					p._addSelf(2.0 * io * n.xd(), 2.0 * io * n.yd(), 2.0 * io
-							* n.zd());
-				}
-				p._addMulSelf(order - 3, v);
-				p._divSelf(order);
-				newPositions.put(
-						v.key(),
-						gf.createInterpolatedPoint(v, p,
-								blendFactor.value(v.xd(), v.yd(), v.zd())));
-			}
-			else {
-				p = new WB_Point();
-				neighbors = v.getNeighborVertices();
-				final int order = neighbors.size();
-				boolean edgePoint = false;
-				for (int i = 0; i < order; i++) {
-					n = neighbors.get(i);
-					p._addSelf(n);
-					if (n.getLabel() == -1) {
-						edgePoint = true;
-					}
-				}
-				p._divSelf(order);
-				if (edgePoint) {
-					newPositions.put(
-							v.key(),
-							gf.createInterpolatedPoint(v, p,
-									blendFactor.value(v.xd(), v.yd(), v.zd())));
-				}
-				else {
-					newPositions.put(v.key(), v);
-				}
-
-			}
+		return apply(mesh, 1);
+	}
 
+	/**
+	 * Subdivide the mesh a number of times. All iterations run on the index
+	 * arrays of a HE_CompactMesh, in parallel, and the mesh is rebuilt once.
+	 * Vertex, face and halfedge objects are replaced, face labels and colors
+	 * are kept. The blend factor is evaluated concurrently.
+	 *
+	 * @param mesh
+	 *            mesh to subdivide
+	 * @param rep
+	 *            subdivision iterations
+	 * @return mesh
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh, final int rep) {
+		if (rep < 1) {
+			return mesh;
 		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (keepBoundary) {
-				newPositions.put(v.key(), v);
-			}
-			else {
-				p = new WB_Point(v);
-				neighbors = v.getNeighborVertices();
-				double c = 1;
-				int nc = 0;
-				for (int i = 0; i < neighbors.size(); i++) {
-					n = neighbors.get(i);
-					if (boundary.contains(n)) {
-						p._addSelf(n);
-						nc++;
-						c++;
-					}
-				}
-				newPositions.put(
-						v.key(),
-						(nc > 1) ? gf.createInterpolatedPoint(v,
-								p._scaleSelf(1.0 / c),
-								blendFactor.value(v.xd(), v.yd(), v.zd())) : v);
-			}
-		}
+		mesh.set(subdivide(new HE_CompactMesh(mesh), rep));
+		return mesh;
+	}
 
-		vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v._set(newPositions.get(v.key()));
-		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v._set(newPositions.get(v.key()));
+	@Override
+	HE_CompactMesh subdivide(final HE_CompactMesh mesh, final int rep) {
+		HE_CompactMesh result = mesh;
+		for (int i = 0; i < rep; i++) {
+			result = HE_CompactSubdivision.catmullClark(result, keepBoundary,
+					blendFactor);
 		}
-		return mesh;
+		return result;
+	}
+
+	@Override
+	boolean subdivideCounts(final long[] counts) {
+		HE_CompactSubdivision.catmullClarkCounts(counts);
+		return true;
+	}
+
+	@Override
+	int splitFaceCount(final int order) {
+		return order;
 	}
 
 	/*
@@ -268,13 +199,18 @@ public class HES_CatmullClark extends HES_Subdividor {
 		final List<HE_Vertex> outer = selection.getOuterVertices();
 		final List<HE_Vertex> inner = selection.getInnerVertices();
 		List<HE_Face> sharedFaces;
+		final Set<HE_Vertex> boundarySet = new HashSet<HE_Vertex>(boundary);
+		final Set<HE_Vertex> outerSet = new HashSet<HE_Vertex>();
 
 		vItr = outer.iterator();
 		while (vItr.hasNext()) {
 			v = vItr.next();
-			if (boundary.contains(v)) {
+			if (boundarySet.contains(v)) {
 				vItr.remove();
 			}
+			else {
+				outerSet.add(v);
+			}
 		}
 
 		HE_Vertex n;
@@ -337,7 +273,7 @@ public class HES_CatmullClark extends HES_Subdividor {
 				int nc = 0;
 				for (int i = 0; i < neighbors.size(); i++) {
 					n = neighbors.get(i);
-					if ((boundary.contains(n)) && (selection.contains(n))) {
+					if ((boundarySet.contains(n)) && (selection.contains(n))) {
 						p._addSelf(n);
 						nc++;
 						c++;
@@ -388,7 +324,7 @@ public class HES_CatmullClark extends HES_Subdividor {
 				int nc = 0;
 				for (int i = 0; i < neighbors.size(); i++) {
 					n = neighbors.get(i);
-					if (outer.contains(n)) {
+					if (outerSet.contains(n)) {
 						sharedFaces = selection.parent.getSharedFaces(v, n);
 						boolean singleFaceGap = true;
 						for (int j = 0; j < sharedFaces.size(); j++) {
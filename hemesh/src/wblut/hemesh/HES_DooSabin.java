@@ -1,15 +1,5 @@
 package wblut.hemesh;
 
-import gnu.trove.map.TLongIntMap;
-import gnu.trove.map.hash.TLongIntHashMap;
-
-import java.util.ArrayList;
-import java.util.Iterator;
-
-import wblut.geom.WB_Distance;
-import wblut.geom.WB_Point;
-import wblut.math.WB_Epsilon;
-
 public class HES_DooSabin extends HES_Subdividor {
 
 	/*
@@ -64,134 +54,62 @@ public class HES_DooSabin extends HES_Subdividor {
 	 */
 	@Override
 	public HE_Mesh apply(final HE_Mesh mesh) {
-		if (mesh.selectAllBoundaryEdges().getNumberOfEdges() > 0) {
-			throw new IllegalArgumentException(
-					"HES_DooSabin only supports closed meshes at this time.");
-		}
-		Iterator<HE_Face> fItr = mesh.fItr();
-		final TLongIntMap halfedgeCorrelation = new TLongIntHashMap(10, 0.5f,
-				-1L, -1);
-		final ArrayList<WB_Point> newVertices = new ArrayList<WB_Point>();
-		HE_Face f;
-		HE_Halfedge he;
-		WB_Point fc;
-		int vertexCount = 0;
-		double div = 1.0 + 2.0 * edgeFactor + faceFactor;
-
-		if (WB_Epsilon.isZero(div)) {
-			div = 1.0;
-		}
-		if (absolute) {
-			div = 4.0;
-		}
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			he = f.getHalfedge();
-			fc = f.getFaceCenter();
-			do {
-				final WB_Point p = fc.mul(faceFactor);
-				p._addSelf(he.getVertex());
-				p._addSelf(he.getHalfedgeCenter().mul(edgeFactor));
-				p._addSelf(he.getPrevInFace().getHalfedgeCenter()
-						.mul(edgeFactor));
-				p._divSelf(div);
-				if (absolute) {
-					final double dcurrent = WB_Distance.getDistance3D(p,
-							he.getVertex());
-					p._subSelf(he.getVertex());
-					p._mulSelf(d / dcurrent);
-					p._addSelf(he.getVertex());
-
-				}
-
-				halfedgeCorrelation.put(he.key(), vertexCount);
-				vertexCount++;
-
-				newVertices.add(p);
-				he = he.getNextInFace();
-			} while (he != f.getHalfedge());
-		}
-		final int[][] faces = new int[mesh.getNumberOfFaces()
-				+ mesh.getNumberOfEdges() + mesh.getNumberOfVertices()][];
-		final int[] labels = new int[mesh.getNumberOfFaces()
-				+ mesh.getNumberOfEdges() + mesh.getNumberOfVertices()];
-		final int[] noe = { mesh.getNumberOfFaces(), mesh.getNumberOfEdges(),
-				mesh.getNumberOfVertices() };
-		int currentFace = 0;
-		fItr = mesh.fItr();
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			faces[currentFace] = new int[f.getFaceOrder()];
-			he = f.getHalfedge();
-			int i = 0;
-			labels[currentFace] = currentFace;
-			do {
-				faces[currentFace][i] = halfedgeCorrelation.get(he.key());
-				he = he.getNextInFace();
-				i++;
-			} while (he != f.getHalfedge());
-			currentFace++;
-		}
-		final Iterator<HE_Edge> eItr = mesh.eItr();
-		HE_Edge e;
-		int currentEdge = 0;
-		while (eItr.hasNext()) {
-
-			e = eItr.next();
-			faces[currentFace] = new int[4];
-			faces[currentFace][3] = halfedgeCorrelation.get(e.getHalfedge()
-					.key());
-			faces[currentFace][2] = halfedgeCorrelation.get(e.getHalfedge()
-					.getNextInFace().key());
-			faces[currentFace][1] = halfedgeCorrelation.get(e.getHalfedge()
-					.getPair().key());
-			faces[currentFace][0] = halfedgeCorrelation.get(e.getHalfedge()
-					.getPair().getNextInFace().key());
-			labels[currentFace] = currentEdge;
-			currentEdge++;
-			currentFace++;
-		}
-		final Iterator<HE_Vertex> vItr = mesh.vItr();
-		HE_Vertex v;
-		int currentVertex = 0;
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			faces[currentFace] = new int[v.getVertexOrder()];
-			he = v.getHalfedge();
-			int i = v.getVertexOrder() - 1;
-			do {
-				faces[currentFace][i] = halfedgeCorrelation.get(he.key());
-				he = he.getNextInVertex();
-				i--;
-			} while (he != v.getHalfedge());
-			labels[currentFace] = currentVertex;
-			currentVertex++;
-			currentFace++;
+		return apply(mesh, 1);
+	}
+
+	/**
+	 * Subdivide the mesh a number of times. All iterations run on the index
+	 * arrays of a HE_CompactMesh, the mesh is rebuilt once. The face
+	 * selections refer to the last iteration.
+	 *
+	 * @param mesh
+	 *            closed mesh
+	 * @param rep
+	 *            subdivision iterations
+	 * @return mesh
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh, final int rep) {
+		if (rep < 1) {
+			return mesh;
 		}
-		final HEC_FromFacelist fl = new HEC_FromFacelist().setFaces(faces)
-				.setVertices(newVertices).setDuplicate(false);
-		mesh.set(fl.create());
-		fItr = mesh.fItr();
-		currentFace = 0;
+		final HE_CompactMesh previous = subdivide(new HE_CompactMesh(mesh),
+				rep - 1);
+		final int nf = previous.getNumberOfFaces();
+		final int ne = previous.getNumberOfEdges();
+		mesh.set(subdivide(previous, 1));
 		faceFaces = new HE_Selection(mesh);
 		edgeFaces = new HE_Selection(mesh);
 		vertexFaces = new HE_Selection(mesh);
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			f.setLabel(labels[currentFace]);
-			if (currentFace < noe[0]) {
-				faceFaces.add(f);
-			} else if (currentFace < noe[0] + noe[1]) {
-				edgeFaces.add(f);
+		final HE_Face[] faces = mesh.getFacesAsArray();
+		for (int i = 0; i < faces.length; i++) {
+			if (i < nf) {
+				faceFaces.add(faces[i]);
+			} else if (i < nf + ne) {
+				edgeFaces.add(faces[i]);
 			} else {
-				vertexFaces.add(f);
+				vertexFaces.add(faces[i]);
 			}
-			currentFace++;
 		}
-
 		return mesh;
 	}
 
+	@Override
+	HE_CompactMesh subdivide(final HE_CompactMesh mesh, final int rep) {
+		HE_CompactMesh result = mesh;
+		for (int i = 0; i < rep; i++) {
+			result = HE_CompactSubdivision.dooSabin(result, faceFactor,
+					edgeFactor, absolute, d);
+		}
+		return result;
+	}
+
+	@Override
+	boolean subdivideCounts(final long[] counts) {
+		HE_CompactSubdivision.dooSabinCounts(counts);
+		return true;
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
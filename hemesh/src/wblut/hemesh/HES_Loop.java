@@ -0,0 +1,88 @@
+package wblut.hemesh;
+
+/**
+ * Loop subdivision of a triangle mesh. Every triangle is split in four, new
+ * vertices are placed with Loop's original weights. Boundaries are treated as
+ * cubic B-spline curves.
+ *
+ * All iterations run on the index arrays of a HE_CompactMesh, in parallel,
+ * the mesh is rebuilt once. Selections can't be subdivided.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HES_Loop extends HES_Subdividor {
+
+	/** Keep boundary?. */
+	private boolean keepBoundary = false;
+
+	/**
+	 * Instantiates a new HES_Loop.
+	 */
+	public HES_Loop() {
+		super();
+	}
+
+	/**
+	 * Keep boundary vertices fixed?.
+	 *
+	 * @param b
+	 *            true/false
+	 * @return self
+	 */
+	public HES_Loop setKeepBoundary(final boolean b) {
+		keepBoundary = b;
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Subdividor#apply(wblut.hemesh.HE_Mesh)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh) {
+		return apply(mesh, 1);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Subdividor#apply(wblut.hemesh.HE_Mesh, int)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh, final int rep) {
+		if (rep < 1) {
+			return mesh;
+		}
+		mesh.set(subdivide(new HE_CompactMesh(mesh), rep));
+		return mesh;
+	}
+
+	/**
+	 * Not supported, Loop subdivision splits every triangle of the mesh.
+	 *
+	 * @throws UnsupportedOperationException
+	 *             always
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Selection selection) {
+		throw new UnsupportedOperationException(
+				"HES_Loop can't subdivide a selection.");
+	}
+
+	@Override
+	HE_CompactMesh subdivide(final HE_CompactMesh mesh, final int rep) {
+		HE_CompactMesh result = mesh;
+		for (int i = 0; i < rep; i++) {
+			result = HE_CompactSubdivision.loop(result, keepBoundary);
+		}
+		return result;
+	}
+
+	@Override
+	boolean subdivideCounts(final long[] counts) {
+		HE_CompactSubdivision.loopCounts(counts);
+		return true;
+	}
+}
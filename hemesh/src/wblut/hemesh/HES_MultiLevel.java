@@ -0,0 +1,274 @@
+package wblut.hemesh;
+
+import java.util.Iterator;
+
+/**
+ * Repeated subdivision on a compact index representation. All levels are
+ * refined on the arrays of a HE_CompactMesh and a HE_Mesh is only created at
+ * the end, or not at all when the result is saved directly to OBJ, STL or
+ * binary hemesh. Only two levels are held in memory at any time.
+ *
+ * The size of the result and the peak memory of the refinement can be
+ * queried before any work is done. An optional memory budget makes apply and
+ * save fail early instead of running out of heap at the last level.
+ *
+ * Supported by HES_CatmullClark, HES_Loop and HES_DooSabin. Other
+ * subdividors are applied level by level on a HE_Mesh.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HES_MultiLevel {
+
+	/** Largest array length the index representation can use. */
+	private static final long MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+	/** Subdividor. */
+	private HES_Subdividor subdividor;
+
+	/** Number of levels. */
+	private int levels;
+
+	/** Memory budget in bytes, 0 for no budget. */
+	private long budget;
+
+	/**
+	 * Instantiates a new HES_MultiLevel.
+	 */
+	public HES_MultiLevel() {
+		levels = 1;
+	}
+
+	/**
+	 * Instantiates a new HES_MultiLevel.
+	 *
+	 * @param subdividor
+	 *            subdividor
+	 * @param levels
+	 *            number of subdivision levels
+	 */
+	public HES_MultiLevel(final HES_Subdividor subdividor, final int levels) {
+		this.subdividor = subdividor;
+		this.levels = levels;
+	}
+
+	/**
+	 * Set subdividor.
+	 *
+	 * @param subdividor
+	 *            subdividor
+	 * @return self
+	 */
+	public HES_MultiLevel setSubdividor(final HES_Subdividor subdividor) {
+		this.subdividor = subdividor;
+		return this;
+	}
+
+	/**
+	 * Set number of subdivision levels.
+	 *
+	 * @param levels
+	 *            levels
+	 * @return self
+	 */
+	public HES_MultiLevel setLevels(final int levels) {
+		this.levels = levels;
+		return this;
+	}
+
+	/**
+	 * Set memory budget. apply() and the save functions throw an
+	 * IllegalStateException before starting if the estimated peak memory
+	 * exceeds the budget.
+	 *
+	 * @param bytes
+	 *            budget in bytes, 0 for no budget
+	 * @return self
+	 */
+	public HES_MultiLevel setMemoryBudget(final long bytes) {
+		budget = Math.max(0, bytes);
+		return this;
+	}
+
+	/**
+	 * Check if the subdividor can run on the index representation.
+	 *
+	 * @return true if supported
+	 */
+	public boolean isIndexed() {
+		return (subdividor != null) && subdividor.subdivideCounts(new long[5]);
+	}
+
+	/**
+	 * Element counts of the final level.
+	 *
+	 * @param mesh
+	 *            input mesh
+	 * @return number of vertices, halfedges, edges and faces, null if the
+	 *         subdividor has no index-based implementation
+	 */
+	public long[] getCounts(final HE_Mesh mesh) {
+		final long[] counts = counts(mesh);
+		for (int i = 0; i < levels; i++) {
+			if (!subdividor.subdivideCounts(counts)) {
+				return null;
+			}
+		}
+		return new long[] { counts[0], counts[1] + counts[2], counts[3],
+				counts[4] };
+	}
+
+	/**
+	 * Approximate peak memory of the refinement: the index arrays of two
+	 * consecutive levels and the scratch space of a step. The input HE_Mesh
+	 * and a materialized result are not included.
+	 *
+	 * @param mesh
+	 *            input mesh
+	 * @return size in bytes, -1 if the subdividor has no index-based
+	 *         implementation
+	 */
+	public long getPeakMemory(final HE_Mesh mesh) {
+		final long[] counts = counts(mesh);
+		long current = memory(counts);
+		long peak = current;
+		long next, scratch;
+		for (int i = 0; i < levels; i++) {
+			scratch = 4 * (counts[1] + counts[2]) + 24 * counts[4];
+			if (!subdividor.subdivideCounts(counts)) {
+				return -1;
+			}
+			next = memory(counts);
+			peak = Math.max(peak, current + next + scratch);
+			current = next;
+		}
+		return peak;
+	}
+
+	/**
+	 * Subdivide the mesh. The mesh is rebuilt once after the last level.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @return mesh
+	 */
+	public HE_Mesh apply(final HE_Mesh mesh) {
+		if (isIndexed()) {
+			check(mesh);
+		}
+		return subdividor.apply(mesh, levels);
+	}
+
+	/**
+	 * Subdivide the mesh into a compact mesh. The input mesh is not modified.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @return subdivided compact mesh
+	 */
+	public HE_CompactMesh create(final HE_Mesh mesh) {
+		if (!isIndexed()) {
+			final HE_Mesh copy = mesh.get();
+			subdividor.apply(copy, levels);
+			return new HE_CompactMesh(copy);
+		}
+		check(mesh);
+		return subdividor.subdivide(new HE_CompactMesh(mesh), levels);
+	}
+
+	/**
+	 * Subdivide the mesh and save the result as OBJ. The input mesh is not
+	 * modified, the result is never created as HE_Mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public void saveToOBJ(final HE_Mesh mesh, final String path,
+			final String name) {
+		HET_Export.saveToOBJ(create(mesh), path, name);
+	}
+
+	/**
+	 * Subdivide the mesh and save the result as binary STL. The input mesh is
+	 * not modified, the result is never created as HE_Mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public void saveToSTL(final HE_Mesh mesh, final String path,
+			final String name) {
+		HET_Export.saveToSTL(create(mesh), path, name);
+	}
+
+	/**
+	 * Subdivide the mesh and save the result as binary hemesh. The input mesh
+	 * is not modified, the result is never created as HE_Mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public void saveToBinaryHemesh(final HE_Mesh mesh, final String path,
+			final String name) {
+		HET_Export.saveToBinaryHemesh(create(mesh), path, name);
+	}
+
+	/**
+	 * Check array sizes and memory budget before subdividing.
+	 *
+	 * @param mesh
+	 */
+	private void check(final HE_Mesh mesh) {
+		final long[] counts = counts(mesh);
+		for (int i = 0; i < levels; i++) {
+			subdividor.subdivideCounts(counts);
+			if ((3 * counts[0] > MAX_ARRAY)
+					|| (counts[1] + counts[2] > MAX_ARRAY)) {
+				throw new IllegalStateException("Subdivision level " + (i + 1)
+						+ " exceeds the maximum array size.");
+			}
+		}
+		if (budget > 0) {
+			final long peak = getPeakMemory(mesh);
+			if (peak > budget) {
+				throw new IllegalStateException("Subdivision needs about "
+						+ peak + " bytes, budget is " + budget + " bytes.");
+			}
+		}
+	}
+
+	/**
+	 * Counts of the input mesh.
+	 *
+	 * @param mesh
+	 * @return vertices, face halfedges, boundary halfedges, edges and faces
+	 */
+	private static long[] counts(final HE_Mesh mesh) {
+		long boundary = 0;
+		final Iterator<HE_Halfedge> heItr = mesh.heItr();
+		while (heItr.hasNext()) {
+			if (heItr.next().getFace() == null) {
+				boundary++;
+			}
+		}
+		return new long[] { mesh.getNumberOfVertices(),
+				mesh.getNumberOfHalfedges() - boundary, boundary,
+				mesh.getNumberOfEdges(), mesh.getNumberOfFaces() };
+	}
+
+	private static long memory(final long[] counts) {
+		return HE_CompactMesh.getMemoryUsage(counts[0], counts[1] + counts[2],
+				counts[3], counts[4]);
+	}
+}
@@ -423,4 +423,9 @@ public class HES_Planar extends HES_Subdividor {
 		return selection.parent;
 	}
 
+	@Override
+	int splitFaceCount(final int order) {
+		return ((order == 3) && keepTriangles) ? 4 : order;
+	}
+
 }
@@ -122,7 +122,12 @@ public class HES_PlanarMidEdge extends HES_Subdividor {
 		selection.parent.removeFaces(selection.getFacesAsArray());
 		selection.parent.addFaces(newFaces);
 
-		return null;
+		return selection.parent;
+	}
+
+	@Override
+	int splitFaceCount(final int order) {
+		return order + 1;
 	}
 
 }
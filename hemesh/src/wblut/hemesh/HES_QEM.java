@@ -0,0 +1,1326 @@
+package wblut.hemesh;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+import wblut.core.WB_Parallel;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_SimplePolygon;
+
+/**
+ * Quadric error metric simplification of a triangle mesh by edge collapse.
+ * Non-triangular faces are triangulated first. When a selection is
+ * simplified, only the selected faces are triangulated.
+ *
+ * The mesh is flattened into primitive arrays: per-vertex quadrics, triangle
+ * indices and a unique edge list. Edges are kept in an indexed binary heap
+ * ordered by collapse cost. Costs are updated in place when a neighborhood
+ * changes, the heap never contains stale entries. A collapse is only done if
+ * it satisfies the link condition and doesn't flip a triangle, the result
+ * stays manifold. The simplified mesh is rebuilt once at the end.
+ *
+ * Simplification stops at a target number of faces or when the cheapest
+ * collapse exceeds a maximum error, whichever comes first. Without a target,
+ * half of the faces are removed, or as many as the maximum error allows if
+ * one is set. The error is the sum of squared distances to the planes of the
+ * original faces around a vertex, it is compared to the square of the maximum
+ * error.
+ *
+ * Very large meshes can be split in spatial partitions that are decimated
+ * concurrently. Each partition is a balanced cluster of triangles obtained by
+ * recursive median splits of the triangle centroids. Vertices on the border
+ * between partitions are locked, so partitions never touch the same data.
+ * Each partition is reduced in proportion to the target, a final serial pass
+ * releases the borders and continues to the target.
+ *
+ * Labels and colors of remaining vertices and faces are kept.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HES_QEM extends HES_Simplifier {
+
+	/**
+	 * Target number of faces, -1 for half of the input or no target if a
+	 * maximum error is set.
+	 */
+	private int targetFaces;
+
+	/** Maximum error. */
+	private double maxError;
+
+	/** Weight of the boundary constraint planes. */
+	private double boundaryWeight;
+
+	/** Number of partitions, 1 for serial, 0 for automatic. */
+	private int partitions;
+
+	/** Minimum number of triangles in a partition. */
+	private static final int MIN_PARTITION = 4096;
+
+	// flattened mesh, valid during apply
+
+	private int nv;
+	private double[] positions;
+	private double[] quadrics;
+	private boolean[] free;
+	private boolean[] boundary;
+	/** Partition of each vertex, -1 if locked, only set in the first pass. */
+	private int[] owner;
+
+	private int nt;
+	/** Face of each triangle in the input, null if all faces are triangles. */
+	private int[] triangleFace;
+	/** Faces that aren't triangles, kept as they are. */
+	private int np;
+	private int[] polygonFace;
+	private int[] triangles;
+	private boolean[] deadTriangle;
+	/** Corners of each vertex, linked list through nextCorner. */
+	private int[] firstCorner;
+	private int[] nextCorner;
+
+	private int ne;
+	/** Endpoints of each edge, a node 2*e+s is end s of edge e. */
+	private int[] edgeVertex;
+	private boolean[] deadEdge;
+	/** Edge ends of each vertex, linked list through nextNode. */
+	private int[] firstNode;
+	private int[] nextNode;
+	private double[] cost;
+	private double[] target;
+
+	/**
+	 * Instantiates a new HES_QEM.
+	 */
+	public HES_QEM() {
+		super();
+		targetFaces = -1;
+		maxError = Double.POSITIVE_INFINITY;
+		boundaryWeight = 10.0;
+		partitions = 1;
+	}
+
+	/**
+	 * Set target number of faces. Without a target, half of the faces are
+	 * removed, unless a maximum error is set.
+	 *
+	 * @param n
+	 *            number of triangles
+	 * @return self
+	 */
+	public HES_QEM setTargetFaces(final int n) {
+		targetFaces = n;
+		return this;
+	}
+
+	/**
+	 * Set maximum error. No collapse with a larger error is done. Without a
+	 * target number of faces, simplification only stops at this error.
+	 *
+	 * @param d
+	 *            distance
+	 * @return self
+	 */
+	public HES_QEM setMaxError(final double d) {
+		maxError = d;
+		return this;
+	}
+
+	/**
+	 * Set weight of the constraint planes that keep boundaries in place.
+	 *
+	 * @param w
+	 *            weight, 0 to ignore boundaries
+	 * @return self
+	 */
+	public HES_QEM setBoundaryWeight(final double w) {
+		boundaryWeight = w;
+		return this;
+	}
+
+	/**
+	 * Set number of partitions decimated concurrently. Meshes with fewer than
+	 * 4096 triangles per partition use less partitions.
+	 *
+	 * @param n
+	 *            number of partitions, 1 for serial simplification, 0 for
+	 *            twice the number of threads
+	 * @return self
+	 */
+	public HES_QEM setPartitions(final int n) {
+		partitions = Math.max(0, n);
+		return this;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Simplifier#apply(wblut.hemesh.HE_Mesh)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Mesh mesh) {
+		return simplify(mesh, null);
+	}
+
+	/**
+	 * Only vertices surrounded by selected faces are removed.
+	 *
+	 * @see wblut.hemesh.HES_Simplifier#apply(wblut.hemesh.HE_Selection)
+	 */
+	@Override
+	public HE_Mesh apply(final HE_Selection selection) {
+		return simplify(selection.parent, selection);
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HES_Simplifier#simplify(wblut.hemesh.HE_CompactMesh)
+	 */
+	@Override
+	HE_CompactMesh simplify(final HE_CompactMesh mesh) {
+		return reduce(flatten(triangulate(mesh), null));
+	}
+
+	private HE_Mesh simplify(final HE_Mesh mesh, final HE_Selection selection) {
+		mesh.set(reduce(flatten(mesh, selection)));
+		return mesh;
+	}
+
+	/**
+	 * Decimate the flattened mesh and rebuild it.
+	 *
+	 * @param compact
+	 *            flattened mesh, for the labels and colors
+	 * @return simplified mesh
+	 */
+	private HE_CompactMesh reduce(final HE_CompactMesh compact) {
+		// target number of triangles, the other faces are kept
+		final int target = Math.max(0, ((targetFaces >= 0) ? targetFaces
+				: (maxError < Double.POSITIVE_INFINITY) ? 0 : (nt + np) / 2)
+				- np);
+		final double limit = maxError * maxError;
+		final int parts = Math.min((partitions == 0) ? 2 * WB_Parallel
+				.getThreadCount() : partitions, nt / MIN_PARTITION);
+		int faces = nt;
+		if ((parts > 1) && (faces > target)) {
+			faces -= decimatePartitions(parts, target, limit);
+			evaluateAll(true);
+		}
+		else {
+			evaluateAll(false);
+		}
+		int n = 0;
+		final int[] live = new int[ne];
+		for (int e = 0; e < ne; e++) {
+			if (!deadEdge[e]) {
+				live[n++] = e;
+			}
+		}
+		final int[] position = new int[ne];
+		Arrays.fill(position, -1);
+		decimate(new Heap(live, 0, n, position, cost), faces, target, limit);
+		final HE_CompactMesh result = rebuild(compact);
+		release();
+		return result;
+	}
+
+	/**
+	 * Collapse edges in order of cost.
+	 *
+	 * @param heap
+	 *            edges that can be collapsed
+	 * @param faces
+	 *            current number of triangles
+	 * @param target
+	 *            target number of triangles
+	 * @param limit
+	 *            maximum cost
+	 * @return remaining number of triangles
+	 */
+	private int decimate(final Heap heap, int faces, final int target,
+			final double limit) {
+		int e;
+		int collapsed = 0;
+		while ((faces > target) && (heap.size() > 0)) {
+			e = heap.peek();
+			if (cost[e] == Double.POSITIVE_INFINITY) {
+				// rejected edges are only reevaluated when their endpoints
+				// change, retry all of them once the rest is exhausted
+				if (collapsed == 0) {
+					break;
+				}
+				retry(heap);
+				collapsed = 0;
+				continue;
+			}
+			if (cost[e] > limit) {
+				break;
+			}
+			if (canCollapse(e)) {
+				faces -= collapse(e, heap);
+				collapsed++;
+			}
+			else {
+				heap.update(e, Double.POSITIVE_INFINITY);
+			}
+		}
+		return faces;
+	}
+
+	/**
+	 * Decimate all partitions concurrently. Only edges with both endpoints
+	 * inside the same partition are collapsed. A collapse only changes the
+	 * triangles, edges and vertices of its own partition, locked vertices on
+	 * the borders are only read.
+	 *
+	 * @param parts
+	 *            number of partitions
+	 * @param target
+	 *            target number of triangles of the whole mesh
+	 * @param limit
+	 *            maximum cost
+	 * @return number of removed triangles
+	 */
+	private int decimatePartitions(final int parts, final int target,
+			final double limit) {
+		final int[] part = partition(parts);
+		final int[] faces = new int[parts];
+		owner = new int[nv];
+		Arrays.fill(owner, -2);
+		int v;
+		for (int t = 0; t < nt; t++) {
+			faces[part[t]]++;
+			for (int k = 0; k < 3; k++) {
+				v = triangles[3 * t + k];
+				if (owner[v] == -2) {
+					owner[v] = part[t];
+				}
+				else if (owner[v] != part[t]) {
+					owner[v] = -1;
+				}
+			}
+		}
+		for (int i = 0; i < nv; i++) {
+			if ((owner[i] == -2) || ((free != null) && !free[i])) {
+				owner[i] = -1;
+			}
+		}
+		evaluateAll(false);
+		// edges of each partition, edges to locked vertices stay locked
+		final int[] first = new int[parts + 1];
+		for (int e = 0; e < ne; e++) {
+			if (!deadEdge[e] && (cost[e] < Double.POSITIVE_INFINITY)) {
+				first[owner[edgeVertex[2 * e]] + 1]++;
+			}
+		}
+		for (int p = 0; p < parts; p++) {
+			first[p + 1] += first[p];
+		}
+		final int[] edges = new int[first[parts]];
+		final int[] fill = Arrays.copyOf(first, parts);
+		for (int e = 0; e < ne; e++) {
+			if (!deadEdge[e] && (cost[e] < Double.POSITIVE_INFINITY)) {
+				edges[fill[owner[edgeVertex[2 * e]]]++] = e;
+			}
+		}
+		final int[] position = new int[ne];
+		Arrays.fill(position, -1);
+		final int[] removed = new int[parts];
+		WB_Parallel.forRange(parts, 1, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int goal;
+				for (int p = start; p < end; p++) {
+					goal = (int) ((long) faces[p] * target / nt);
+					removed[p] = faces[p]
+							- decimate(new Heap(edges, first[p],
+									first[p + 1], position, cost), faces[p],
+									goal, limit);
+				}
+			}
+		});
+		owner = null;
+		int result = 0;
+		for (int p = 0; p < parts; p++) {
+			result += removed[p];
+		}
+		return result;
+	}
+
+	/**
+	 * Split the triangles in balanced spatial clusters by recursive median
+	 * splits of their centroids along the longest axis.
+	 *
+	 * @param parts
+	 *            number of partitions
+	 * @return partition of each triangle
+	 */
+	private int[] partition(final int parts) {
+		final double[] centroid = new double[3 * nt];
+		final int[] order = new int[nt];
+		for (int t = 0; t < nt; t++) {
+			for (int k = 0; k < 3; k++) {
+				centroid[3 * t + k] = (positions[3 * triangles[3 * t] + k]
+						+ positions[3 * triangles[3 * t + 1] + k] + positions[3
+						* triangles[3 * t + 2] + k]) / 3.0;
+			}
+			order[t] = t;
+		}
+		final int[] part = new int[nt];
+		split(order, centroid, 0, nt, 0, parts, part);
+		return part;
+	}
+
+	private static void split(final int[] order, final double[] centroid,
+			final int lo, final int hi, final int first, final int parts,
+			final int[] part) {
+		if (parts == 1) {
+			for (int i = lo; i < hi; i++) {
+				part[order[i]] = first;
+			}
+			return;
+		}
+		final double[] min = new double[] { Double.POSITIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY };
+		final double[] max = new double[] { Double.NEGATIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		for (int i = lo; i < hi; i++) {
+			for (int k = 0; k < 3; k++) {
+				min[k] = Math.min(min[k], centroid[3 * order[i] + k]);
+				max[k] = Math.max(max[k], centroid[3 * order[i] + k]);
+			}
+		}
+		int axis = 0;
+		for (int k = 1; k < 3; k++) {
+			if (max[k] - min[k] > max[axis] - min[axis]) {
+				axis = k;
+			}
+		}
+		final int left = parts / 2;
+		final int mid = lo + (int) ((long) (hi - lo) * left / parts);
+		select(order, centroid, axis, lo, hi - 1, mid);
+		split(order, centroid, lo, mid, first, left, part);
+		split(order, centroid, mid, hi, first + left, parts - left, part);
+	}
+
+	/**
+	 * Reorder lo..hi so that position k holds the k-th smallest centroid
+	 * coordinate, smaller ones before and larger ones after.
+	 *
+	 * @param order
+	 * @param centroid
+	 * @param axis
+	 * @param lo
+	 *            first index, inclusive
+	 * @param hi
+	 *            last index, inclusive
+	 * @param k
+	 */
+	private static void select(final int[] order, final double[] centroid,
+			final int axis, int lo, int hi, final int k) {
+		int i, j, swap;
+		double pivot;
+		while (hi > lo) {
+			pivot = centroid[3 * order[(lo + hi) >>> 1] + axis];
+			i = lo;
+			j = hi;
+			while (i <= j) {
+				while (centroid[3 * order[i] + axis] < pivot) {
+					i++;
+				}
+				while (centroid[3 * order[j] + axis] > pivot) {
+					j--;
+				}
+				if (i <= j) {
+					swap = order[i];
+					order[i] = order[j];
+					order[j] = swap;
+					i++;
+					j--;
+				}
+			}
+			if (k <= j) {
+				hi = j;
+			}
+			else if (k >= i) {
+				lo = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Triangulate the mesh, or the selected faces, if needed and copy it into
+	 * the arrays.
+	 *
+	 * @param mesh
+	 * @param selection
+	 * @return compact copy of the mesh, holds the labels and colors
+	 */
+	private HE_CompactMesh flatten(final HE_Mesh mesh,
+			final HE_Selection selection) {
+		boolean[] selected = null;
+		if (selection != null) {
+			// vertices with all faces in the selection, before triangulation
+			selected = new boolean[mesh.getNumberOfVertices()];
+			final Iterator<HE_Vertex> vItr = mesh.vItr();
+			HE_Vertex v;
+			HE_Halfedge he;
+			int i = 0;
+			while (vItr.hasNext()) {
+				v = vItr.next();
+				he = v.getHalfedge();
+				selected[i] = he != null;
+				if (he != null) {
+					do {
+						if ((he.getFace() == null)
+								|| !selection.contains(he.getFace())) {
+							selected[i] = false;
+						}
+						he = he.getNextInVertex();
+					} while (he != v.getHalfedge());
+				}
+				i++;
+			}
+		}
+		final Iterator<HE_Face> fItr = (selection == null) ? mesh.fItr()
+				: selection.fItr();
+		while (fItr.hasNext()) {
+			if (fItr.next().getFaceOrder() > 3) {
+				if (selection == null) {
+					mesh.triangulate();
+				}
+				else {
+					mesh.triangulate(selection);
+				}
+				break;
+			}
+		}
+		return flatten(new HE_CompactMesh(mesh), selected);
+	}
+
+	/**
+	 * Copy the triangles of a mesh into the arrays, compute quadrics and
+	 * initial costs. Other faces are kept as they are, none of their vertices
+	 * can be selected.
+	 *
+	 * @param compact
+	 *            mesh, all faces with a selected vertex are triangles
+	 * @param selected
+	 *            vertices that can be removed, null for all
+	 * @return compact
+	 */
+	private HE_CompactMesh flatten(final HE_CompactMesh compact,
+			final boolean[] selected) {
+		nv = compact.numberOfVertices;
+		positions = Arrays.copyOf(compact.coords, 3 * nv);
+		quadrics = new double[10 * nv];
+		free = selected;
+		boundary = new boolean[nv];
+		final int nf = compact.numberOfFaces;
+		nt = 0;
+		for (int f = 0; f < nf; f++) {
+			if (compact.getFaceOrder(f) == 3) {
+				nt++;
+			}
+		}
+		np = nf - nt;
+		triangleFace = (np == 0) ? null : new int[nt];
+		polygonFace = (np == 0) ? null : new int[np];
+		triangles = new int[3 * nt];
+		deadTriangle = new boolean[nt];
+		firstCorner = new int[nv];
+		Arrays.fill(firstCorner, -1);
+		nextCorner = new int[3 * nt];
+		int he;
+		for (int f = 0, t = 0, p = 0; f < nf; f++) {
+			if (np > 0) {
+				if (compact.getFaceOrder(f) != 3) {
+					polygonFace[p++] = f;
+					continue;
+				}
+				triangleFace[t] = f;
+			}
+			he = compact.faceHalfedge[f];
+			for (int k = 0; k < 3; k++) {
+				triangles[3 * t + k] = compact.halfedgeVertex[he];
+				he = compact.halfedgeNext[he];
+			}
+			for (int k = 0; k < 3; k++) {
+				nextCorner[3 * t + k] = firstCorner[triangles[3 * t + k]];
+				firstCorner[triangles[3 * t + k]] = 3 * t + k;
+			}
+			addFaceQuadric(t);
+			t++;
+		}
+		ne = compact.numberOfEdges;
+		edgeVertex = new int[2 * ne];
+		deadEdge = new boolean[ne];
+		firstNode = new int[nv];
+		Arrays.fill(firstNode, -1);
+		nextNode = new int[2 * ne];
+		for (int i = 0; i < ne; i++) {
+			he = compact.edgeHalfedge[i];
+			edgeVertex[2 * i] = compact.halfedgeVertex[he];
+			edgeVertex[2 * i + 1] = compact.halfedgeVertex[compact.halfedgePair[he]];
+			if ((compact.halfedgeFace[he] == -1)
+					&& (compact.halfedgeFace[compact.halfedgePair[he]] == -1)) {
+				// dangling edge without faces
+				deadEdge[i] = true;
+				continue;
+			}
+			for (int s = 0; s < 2; s++) {
+				nextNode[2 * i + s] = firstNode[edgeVertex[2 * i + s]];
+				firstNode[edgeVertex[2 * i + s]] = 2 * i + s;
+			}
+			if ((compact.halfedgeFace[he] == -1)
+					|| (compact.halfedgeFace[compact.halfedgePair[he]] == -1)) {
+				boundary[edgeVertex[2 * i]] = true;
+				boundary[edgeVertex[2 * i + 1]] = true;
+				if (boundaryWeight > 0) {
+					addBoundaryQuadric(compact,
+							(compact.halfedgeFace[he] == -1) ? compact.halfedgePair[he]
+									: he);
+				}
+			}
+		}
+		cost = new double[ne];
+		target = new double[3 * ne];
+		return compact;
+	}
+
+	/**
+	 * Compute cost and target of the edges in parallel.
+	 *
+	 * @param rejected
+	 *            only reevaluate edges with infinite cost
+	 */
+	private void evaluateAll(final boolean rejected) {
+		WB_Parallel.forRange(ne, HE_CompactMesh.GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					if (!rejected || (cost[i] == Double.POSITIVE_INFINITY)) {
+						evaluate(i);
+					}
+				}
+			}
+		});
+	}
+
+	/**
+	 * Reevaluate all rejected edges in the heap.
+	 *
+	 * @param heap
+	 */
+	private void retry(final Heap heap) {
+		int e;
+		for (int i = 0; i < heap.size(); i++) {
+			e = heap.get(i);
+			if (cost[e] == Double.POSITIVE_INFINITY) {
+				evaluate(e);
+			}
+		}
+		heap.heapify();
+	}
+
+	private void release() {
+		positions = quadrics = cost = target = null;
+		free = boundary = deadTriangle = deadEdge = null;
+		triangles = firstCorner = nextCorner = null;
+		triangleFace = polygonFace = null;
+		edgeVertex = firstNode = nextNode = owner = null;
+	}
+
+	// QUADRICS
+
+	/**
+	 * Add the plane of a triangle to the quadrics of its vertices. A quadric
+	 * is stored as the upper triangle of the symmetric 4x4 matrix: aa, ab, ac,
+	 * ad, bb, bc, bd, cc, cd, dd.
+	 *
+	 * @param t
+	 */
+	private void addFaceQuadric(final int t) {
+		final int i0 = 3 * triangles[3 * t];
+		final int i1 = 3 * triangles[3 * t + 1];
+		final int i2 = 3 * triangles[3 * t + 2];
+		final double ux = positions[i1] - positions[i0];
+		final double uy = positions[i1 + 1] - positions[i0 + 1];
+		final double uz = positions[i1 + 2] - positions[i0 + 2];
+		final double vx = positions[i2] - positions[i0];
+		final double vy = positions[i2 + 1] - positions[i0 + 1];
+		final double vz = positions[i2 + 2] - positions[i0 + 2];
+		double a = uy * vz - uz * vy;
+		double b = uz * vx - ux * vz;
+		double c = ux * vy - uy * vx;
+		final double l = Math.sqrt(a * a + b * b + c * c);
+		if (l == 0) {
+			return;
+		}
+		a /= l;
+		b /= l;
+		c /= l;
+		final double d = -(a * positions[i0] + b * positions[i0 + 1] + c
+				* positions[i0 + 2]);
+		for (int k = 0; k < 3; k++) {
+			addPlane(triangles[3 * t + k], a, b, c, d, 1.0);
+		}
+	}
+
+	/**
+	 * Add a plane through a boundary edge, perpendicular to its face.
+	 *
+	 * @param compact
+	 * @param he
+	 *            halfedge of the edge with a face
+	 */
+	private void addBoundaryQuadric(final HE_CompactMesh compact, final int he) {
+		final int f = compact.halfedgeFace[he];
+		final int i0 = 3 * compact.halfedgeVertex[he];
+		final int i1 = 3 * compact.halfedgeVertex[compact.halfedgeNext[he]];
+		final double[] n = new double[3];
+		compact.getFaceNormalNN(f, n);
+		final double ex = positions[i1] - positions[i0];
+		final double ey = positions[i1 + 1] - positions[i0 + 1];
+		final double ez = positions[i1 + 2] - positions[i0 + 2];
+		double a = ey * n[2] - ez * n[1];
+		double b = ez * n[0] - ex * n[2];
+		double c = ex * n[1] - ey * n[0];
+		final double l = Math.sqrt(a * a + b * b + c * c);
+		if (l == 0) {
+			return;
+		}
+		a /= l;
+		b /= l;
+		c /= l;
+		final double d = -(a * positions[i0] + b * positions[i0 + 1] + c
+				* positions[i0 + 2]);
+		addPlane(i0 / 3, a, b, c, d, boundaryWeight);
+		addPlane(i1 / 3, a, b, c, d, boundaryWeight);
+	}
+
+	private void addPlane(final int v, final double a, final double b,
+			final double c, final double d, final double w) {
+		final int q = 10 * v;
+		quadrics[q] += w * a * a;
+		quadrics[q + 1] += w * a * b;
+		quadrics[q + 2] += w * a * c;
+		quadrics[q + 3] += w * a * d;
+		quadrics[q + 4] += w * b * b;
+		quadrics[q + 5] += w * b * c;
+		quadrics[q + 6] += w * b * d;
+		quadrics[q + 7] += w * c * c;
+		quadrics[q + 8] += w * c * d;
+		quadrics[q + 9] += w * d * d;
+	}
+
+	/**
+	 * Compute cost and target position of an edge. The target minimizes the
+	 * combined quadric, if that is ill-conditioned the best of the endpoints
+	 * and the midpoint is used.
+	 *
+	 * @param e
+	 */
+	private void evaluate(final int e) {
+		final int v0 = edgeVertex[2 * e];
+		final int v1 = edgeVertex[2 * e + 1];
+		if (deadEdge[e] || ((free != null) && (!free[v0] || !free[v1]))
+				|| ((owner != null) && ((owner[v0] == -1)
+						|| (owner[v0] != owner[v1])))) {
+			cost[e] = Double.POSITIVE_INFINITY;
+			return;
+		}
+		final int q0 = 10 * v0;
+		final int q1 = 10 * v1;
+		final double a = quadrics[q0] + quadrics[q1];
+		final double b = quadrics[q0 + 1] + quadrics[q1 + 1];
+		final double c = quadrics[q0 + 2] + quadrics[q1 + 2];
+		final double d = quadrics[q0 + 3] + quadrics[q1 + 3];
+		final double f = quadrics[q0 + 4] + quadrics[q1 + 4];
+		final double g = quadrics[q0 + 5] + quadrics[q1 + 5];
+		final double h = quadrics[q0 + 6] + quadrics[q1 + 6];
+		final double i = quadrics[q0 + 7] + quadrics[q1 + 7];
+		final double j = quadrics[q0 + 8] + quadrics[q1 + 8];
+		final double k = quadrics[q0 + 9] + quadrics[q1 + 9];
+		// solve [a b c; b f g; c g i] x = -[d h j]
+		final double c00 = f * i - g * g;
+		final double c01 = c * g - b * i;
+		final double c02 = b * g - c * f;
+		final double det = a * c00 + b * c01 + c * c02;
+		final double scale = a + f + i;
+		if (Math.abs(det) > 1e-9 * scale * scale * scale) {
+			final double c11 = a * i - c * c;
+			final double c12 = b * c - a * g;
+			final double c22 = a * f - b * b;
+			final double x = -(c00 * d + c01 * h + c02 * j) / det;
+			final double y = -(c01 * d + c11 * h + c12 * j) / det;
+			final double z = -(c02 * d + c12 * h + c22 * j) / det;
+			target[3 * e] = x;
+			target[3 * e + 1] = y;
+			target[3 * e + 2] = z;
+			cost[e] = Math.max(0, error(a, b, c, d, f, g, h, i, j, k, x, y, z));
+			return;
+		}
+		double best = Double.POSITIVE_INFINITY;
+		double x, y, z, err;
+		for (int s = 0; s < 3; s++) {
+			if (s < 2) {
+				x = positions[3 * edgeVertex[2 * e + s]];
+				y = positions[3 * edgeVertex[2 * e + s] + 1];
+				z = positions[3 * edgeVertex[2 * e + s] + 2];
+			}
+			else {
+				x = 0.5 * (positions[3 * v0] + positions[3 * v1]);
+				y = 0.5 * (positions[3 * v0 + 1] + positions[3 * v1 + 1]);
+				z = 0.5 * (positions[3 * v0 + 2] + positions[3 * v1 + 2]);
+			}
+			err = error(a, b, c, d, f, g, h, i, j, k, x, y, z);
+			if (err < best) {
+				best = err;
+				target[3 * e] = x;
+				target[3 * e + 1] = y;
+				target[3 * e + 2] = z;
+			}
+		}
+		cost[e] = Math.max(0, best);
+	}
+
+	private static double error(final double a, final double b,
+			final double c, final double d, final double f, final double g,
+			final double h, final double i, final double j, final double k,
+			final double x, final double y, final double z) {
+		return a * x * x + 2 * b * x * y + 2 * c * x * z + 2 * d * x + f * y
+				* y + 2 * g * y * z + 2 * h * y + i * z * z + 2 * j * z + k;
+	}
+
+	// CONNECTIVITY
+
+	/**
+	 * First live corner of a vertex, dead corners are unlinked on the way.
+	 *
+	 * @param v
+	 * @return corner or -1
+	 */
+	private int firstCorner(final int v) {
+		int c = firstCorner[v];
+		while ((c != -1) && deadTriangle[c / 3]) {
+			c = nextCorner[c];
+		}
+		firstCorner[v] = c;
+		return c;
+	}
+
+	private int nextCorner(final int c) {
+		int n = nextCorner[c];
+		while ((n != -1) && deadTriangle[n / 3]) {
+			n = nextCorner[n];
+		}
+		nextCorner[c] = n;
+		return n;
+	}
+
+	private int firstNode(final int v) {
+		int n = firstNode[v];
+		while ((n != -1) && deadEdge[n >> 1]) {
+			n = nextNode[n];
+		}
+		firstNode[v] = n;
+		return n;
+	}
+
+	private int nextNode(final int node) {
+		int n = nextNode[node];
+		while ((n != -1) && deadEdge[n >> 1]) {
+			n = nextNode[n];
+		}
+		nextNode[node] = n;
+		return n;
+	}
+
+	/**
+	 * Check if two vertices share an edge. Neighbors are found by scanning
+	 * the edge list of v instead of marking them, partitions can check
+	 * vertices on their border concurrently.
+	 *
+	 * @param v
+	 * @param w
+	 * @return true if w is a neighbor of v
+	 */
+	private boolean isNeighbor(final int v, final int w) {
+		for (int n = firstNode(v); n != -1; n = nextNode(n)) {
+			if (edgeVertex[n ^ 1] == w) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Check link condition, boundary pinching and triangle flips.
+	 *
+	 * @param e
+	 * @return true if the edge can be collapsed
+	 */
+	private boolean canCollapse(final int e) {
+		final int v0 = edgeVertex[2 * e];
+		final int v1 = edgeVertex[2 * e + 1];
+		// vertices opposite to the edge
+		int shared = 0;
+		int o0 = -1, o1 = -1, o;
+		for (int c = firstCorner(v0); c != -1; c = nextCorner(c)) {
+			o = opposite(c, v1);
+			if (o != -1) {
+				if (shared == 0) {
+					o0 = o;
+				}
+				else {
+					o1 = o;
+				}
+				shared++;
+			}
+		}
+		if ((shared == 0) || (shared > 2)) {
+			return false;
+		}
+		// an interior edge between two boundary vertices would pinch
+		if ((shared == 2) && boundary[v0] && boundary[v1]) {
+			return false;
+		}
+		// link condition: common neighbors are the opposite vertices
+		int common = 0;
+		int w;
+		for (int n = firstNode(v1); n != -1; n = nextNode(n)) {
+			w = edgeVertex[n ^ 1];
+			if (isNeighbor(v0, w)) {
+				if ((w != o0) && (w != o1)) {
+					return false;
+				}
+				common++;
+			}
+		}
+		if (common != shared) {
+			return false;
+		}
+		// both endpoints form a triangle with the opposite vertices: the
+		// links also share an edge, e.g. in a tetrahedron
+		if ((shared == 2) && hasTriangle(v0, o0, o1) && hasTriangle(v1, o0, o1)) {
+			return false;
+		}
+		return !flips(v0, v1, e) && !flips(v1, v0, e);
+	}
+
+	/**
+	 * Check if a vertex has a triangle with two other vertices.
+	 *
+	 * @param v
+	 * @param a
+	 * @param b
+	 * @return true if triangle exists
+	 */
+	private boolean hasTriangle(final int v, final int a, final int b) {
+		for (int c = firstCorner(v); c != -1; c = nextCorner(c)) {
+			if (opposite(c, a) == b) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Vertex opposite to the edge from the corner's vertex to v, if the
+	 * triangle of the corner contains v.
+	 *
+	 * @param c
+	 * @param v
+	 * @return opposite vertex or -1
+	 */
+	private int opposite(final int c, final int v) {
+		final int t = 3 * (c / 3);
+		final int k = c - t;
+		if (triangles[t + (k + 1) % 3] == v) {
+			return triangles[t + (k + 2) % 3];
+		}
+		if (triangles[t + (k + 2) % 3] == v) {
+			return triangles[t + (k + 1) % 3];
+		}
+		return -1;
+	}
+
+	/**
+	 * Check if moving v to the target of e flips any of its triangles that
+	 * don't contain other.
+	 *
+	 * @param v
+	 * @param other
+	 * @param e
+	 * @return true if a triangle flips
+	 */
+	private boolean flips(final int v, final int other, final int e) {
+		int t, k, p1, p2;
+		double ax, ay, az, bx, by, bz, nx, ny, nz, mx, my, mz;
+		for (int c = firstCorner(v); c != -1; c = nextCorner(c)) {
+			t = 3 * (c / 3);
+			k = c - t;
+			p1 = 3 * triangles[t + (k + 1) % 3];
+			p2 = 3 * triangles[t + (k + 2) % 3];
+			if ((p1 == 3 * other) || (p2 == 3 * other)) {
+				continue;
+			}
+			ax = positions[p1] - positions[3 * v];
+			ay = positions[p1 + 1] - positions[3 * v + 1];
+			az = positions[p1 + 2] - positions[3 * v + 2];
+			bx = positions[p2] - positions[3 * v];
+			by = positions[p2 + 1] - positions[3 * v + 1];
+			bz = positions[p2 + 2] - positions[3 * v + 2];
+			nx = ay * bz - az * by;
+			ny = az * bx - ax * bz;
+			nz = ax * by - ay * bx;
+			if ((nx == 0) && (ny == 0) && (nz == 0)) {
+				continue;
+			}
+			ax = positions[p1] - target[3 * e];
+			ay = positions[p1 + 1] - target[3 * e + 1];
+			az = positions[p1 + 2] - target[3 * e + 2];
+			bx = positions[p2] - target[3 * e];
+			by = positions[p2 + 1] - target[3 * e + 1];
+			bz = positions[p2 + 2] - target[3 * e + 2];
+			mx = ay * bz - az * by;
+			my = az * bx - ax * bz;
+			mz = ax * by - ay * bx;
+			if (nx * mx + ny * my + nz * mz <= 0) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Collapse an edge, v1 is merged into v0.
+	 *
+	 * @param e
+	 * @param heap
+	 * @return number of removed triangles
+	 */
+	private int collapse(final int e, final Heap heap) {
+		final int v0 = edgeVertex[2 * e];
+		final int v1 = edgeVertex[2 * e + 1];
+		positions[3 * v0] = target[3 * e];
+		positions[3 * v0 + 1] = target[3 * e + 1];
+		positions[3 * v0 + 2] = target[3 * e + 2];
+		for (int i = 0; i < 10; i++) {
+			quadrics[10 * v0 + i] += quadrics[10 * v1 + i];
+		}
+		boundary[v0] |= boundary[v1];
+		// remove triangles on the edge, move the others to v0
+		int removed = 0;
+		int next;
+		for (int c = firstCorner(v1); c != -1; c = next) {
+			next = nextCorner(c);
+			if (opposite(c, v0) != -1) {
+				deadTriangle[c / 3] = true;
+				removed++;
+			}
+		}
+		int last = -1;
+		for (int c = firstCorner(v1); c != -1; c = nextCorner(c)) {
+			triangles[c] = v0;
+			last = c;
+		}
+		if (last != -1) {
+			nextCorner[last] = firstCorner[v0];
+			firstCorner[v0] = firstCorner[v1];
+		}
+		firstCorner[v1] = -1;
+		// remove the edge, merge edges to common neighbors, move the others
+		deadEdge[e] = true;
+		heap.remove(e);
+		int f;
+		for (int n = firstNode(v1); n != -1; n = next) {
+			next = nextNode(n);
+			f = n >> 1;
+			if (isNeighbor(v0, edgeVertex[n ^ 1])) {
+				deadEdge[f] = true;
+				heap.remove(f);
+			}
+			else {
+				edgeVertex[n] = v0;
+				nextNode[n] = firstNode[v0];
+				firstNode[v0] = n;
+			}
+		}
+		firstNode[v1] = -1;
+		for (int n = firstNode(v0); n != -1; n = nextNode(n)) {
+			f = n >> 1;
+			evaluate(f);
+			heap.update(f, cost[f]);
+		}
+		return removed;
+	}
+
+	/**
+	 * Triangulate the faces of a compact mesh with more than three vertices,
+	 * the same way HE_Mesh.triangulate() does. Labels and colors are kept.
+	 *
+	 * @param mesh
+	 *            compact mesh, not modified
+	 * @return mesh itself if it only has triangles, a triangulated copy
+	 *         otherwise
+	 */
+	private static HE_CompactMesh triangulate(final HE_CompactMesh mesh) {
+		final int nf = mesh.numberOfFaces;
+		int n = 0;
+		boolean triangles = true;
+		int order;
+		for (int f = 0; f < nf; f++) {
+			order = mesh.getFaceOrder(f);
+			triangles &= order == 3;
+			n += Math.max(0, order - 2);
+		}
+		if (triangles) {
+			return mesh;
+		}
+		final int[] tris = new int[3 * n];
+		final int[] faceSource = new int[n];
+		int t = 0;
+		int[] vertices;
+		for (int f = 0; f < nf; f++) {
+			vertices = mesh.getFaceVertices(f);
+			if (vertices.length < 3) {
+				continue;
+			}
+			if (vertices.length == 3) {
+				System.arraycopy(vertices, 0, tris, 3 * t, 3);
+				faceSource[t++] = f;
+				continue;
+			}
+			final WB_Point[] points = new WB_Point[vertices.length];
+			for (int i = 0; i < vertices.length; i++) {
+				points[i] = new WB_Point(mesh.xd(vertices[i]),
+						mesh.yd(vertices[i]), mesh.zd(vertices[i]));
+			}
+			for (final int[] tri : new WB_SimplePolygon(points,
+					points.length).triangulate()) {
+				for (int k = 0; k < 3; k++) {
+					tris[3 * t + k] = vertices[tri[k]];
+				}
+				faceSource[t++] = f;
+			}
+		}
+		final int nv = mesh.numberOfVertices;
+		final HE_CompactMesh result = new HE_CompactMesh(1, 1, 1, 1);
+		result.setTriangles(Arrays.copyOf(mesh.coords, 3 * nv), nv, tris, t);
+		System.arraycopy(mesh.vertexLabel, 0, result.vertexLabel, 0, nv);
+		System.arraycopy(mesh.vertexColor, 0, result.vertexColor, 0, nv);
+		for (int i = 0; i < t; i++) {
+			result.faceLabel[i] = mesh.faceLabel[faceSource[i]];
+			result.faceColor[i] = mesh.faceColor[faceSource[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Compact the remaining vertices and triangles, and the kept faces, into a
+	 * new mesh. Labels and colors are taken from the original mesh.
+	 *
+	 * @param original
+	 * @return simplified mesh
+	 */
+	private HE_CompactMesh rebuild(final HE_CompactMesh original) {
+		final int[] map = new int[nv];
+		Arrays.fill(map, -1);
+		int n = 0;
+		int t = 0;
+		for (int i = 0; i < nt; i++) {
+			if (!deadTriangle[i]) {
+				for (int k = 0; k < 3; k++) {
+					if (map[triangles[3 * i + k]] == -1) {
+						map[triangles[3 * i + k]] = n++;
+					}
+				}
+				t++;
+			}
+		}
+		final int[][] polygons = new int[np][];
+		for (int i = 0; i < np; i++) {
+			polygons[i] = original.getFaceVertices(polygonFace[i]);
+			for (int k = 0; k < polygons[i].length; k++) {
+				if (map[polygons[i][k]] == -1) {
+					map[polygons[i][k]] = n++;
+				}
+				polygons[i][k] = map[polygons[i][k]];
+			}
+		}
+		final double[] coords = new double[3 * n];
+		final int[] vertexSource = new int[n];
+		for (int i = 0; i < nv; i++) {
+			if (map[i] != -1) {
+				vertexSource[map[i]] = i;
+				System.arraycopy(positions, 3 * i, coords, 3 * map[i], 3);
+			}
+		}
+		final int[] tris = new int[3 * t];
+		final int[] faceSource = new int[t + np];
+		t = 0;
+		for (int i = 0; i < nt; i++) {
+			if (!deadTriangle[i]) {
+				for (int k = 0; k < 3; k++) {
+					tris[3 * t + k] = map[triangles[3 * i + k]];
+				}
+				faceSource[t++] = (triangleFace == null) ? i : triangleFace[i];
+			}
+		}
+		final HE_CompactMesh result;
+		if (np == 0) {
+			result = new HE_CompactMesh(1, 1, 1, 1);
+			result.setTriangles(coords, n, tris, t);
+		}
+		else {
+			final HEC_MeshBuilder builder = new HEC_MeshBuilder()
+					.setWeld(false);
+			builder.addVertices(coords, 0, n);
+			builder.addFaces(tris, 0, t, 3);
+			builder.addFaces(polygons);
+			System.arraycopy(polygonFace, 0, faceSource, t, np);
+			result = builder.getCompactMesh();
+		}
+		for (int i = 0; i < n; i++) {
+			result.vertexLabel[i] = original.vertexLabel[vertexSource[i]];
+			result.vertexColor[i] = original.vertexColor[vertexSource[i]];
+		}
+		for (int i = 0; i < t + np; i++) {
+			result.faceLabel[i] = original.faceLabel[faceSource[i]];
+			result.faceColor[i] = original.faceColor[faceSource[i]];
+		}
+		return result;
+	}
+
+	/**
+	 * Indexed binary min-heap of edges keyed by cost. Every edge is at most
+	 * once in the heap, its position is tracked so its key can be changed or
+	 * the edge removed in O(log n). Heaps of disjoint sets of edges can share
+	 * the position array.
+	 */
+	static final class Heap {
+		private final int[] heap;
+		private final int[] position;
+		private final double[] key;
+		private int size;
+
+		/**
+		 * Heap of a range of elements.
+		 *
+		 * @param elements
+		 * @param from
+		 *            first element, inclusive
+		 * @param to
+		 *            last element, exclusive
+		 * @param position
+		 *            positions, -1 for elements not in a heap
+		 * @param key
+		 *            keys, updated by the caller before update()
+		 */
+		Heap(final int[] elements, final int from, final int to,
+				final int[] position, final double[] key) {
+			heap = Arrays.copyOfRange(elements, from, to);
+			this.position = position;
+			this.key = key;
+			size = heap.length;
+			for (int i = 0; i < size; i++) {
+				position[heap[i]] = i;
+			}
+			heapify();
+		}
+
+		int size() {
+			return size;
+		}
+
+		int get(final int i) {
+			return heap[i];
+		}
+
+		/**
+		 * Restore heap order after keys were changed directly.
+		 */
+		void heapify() {
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				down(i);
+			}
+		}
+
+		int peek() {
+			return heap[0];
+		}
+
+		/**
+		 * Set key of an element in the heap and restore heap order.
+		 *
+		 * @param e
+		 * @param k
+		 */
+		void update(final int e, final double k) {
+			final int i = position[e];
+			if (i == -1) {
+				return;
+			}
+			key[e] = k;
+			up(i);
+			down(position[e]);
+		}
+
+		void remove(final int e) {
+			final int i = position[e];
+			if (i == -1) {
+				return;
+			}
+			size--;
+			position[e] = -1;
+			if (i < size) {
+				final int m = heap[size];
+				heap[i] = m;
+				position[m] = i;
+				up(i);
+				down(position[m]);
+			}
+		}
+
+		private void up(int i) {
+			final int e = heap[i];
+			int p;
+			while (i > 0) {
+				p = (i - 1) >> 1;
+				if (key[heap[p]] <= key[e]) {
+					break;
+				}
+				heap[i] = heap[p];
+				position[heap[i]] = i;
+				i = p;
+			}
+			heap[i] = e;
+			position[e] = i;
+		}
+
+		private void down(int i) {
+			final int e = heap[i];
+			int c;
+			while ((c = 2 * i + 1) < size) {
+				if ((c + 1 < size) && (key[heap[c + 1]] < key[heap[c]])) {
+					c++;
+				}
+				if (key[e] <= key[heap[c]]) {
+					break;
+				}
+				heap[i] = heap[c];
+				position[heap[i]] = i;
+				i = c;
+			}
+			heap[i] = e;
+			position[e] = i;
+		}
+	}
+}
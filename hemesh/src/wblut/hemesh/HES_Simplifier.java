@@ -30,4 +30,16 @@ abstract public class HES_Simplifier implements HE_Machine {
 	 */
 	public abstract HE_Mesh apply(final HE_Selection selection);
 
+	/**
+	 * Simplify a compact mesh without creating a HE_Mesh.
+	 *
+	 * @param mesh
+	 *            mesh, not modified
+	 * @return simplified mesh, null if the simplifier has no index-based
+	 *         implementation
+	 */
+	HE_CompactMesh simplify(final HE_CompactMesh mesh) {
+		return null;
+	}
+
 }
\ No newline at end of file
@@ -1,11 +1,9 @@
 package wblut.hemesh;
 
-import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.Arrays;
 import java.util.List;
 
 import wblut.geom.WB_Convex;
-import wblut.geom.WB_Point;
 
 /**
  * Catmull-Clark subdivision of a mesh.
@@ -89,70 +87,39 @@ public class HES_Smooth extends HES_Subdividor {
 	@Override
 	public HE_Mesh apply(final HE_Mesh mesh) {
 		mesh.quadSplitFaces();
-		final WB_Point[] newPositions = new WB_Point[mesh.getNumberOfVertices()];
 		final HE_Selection all = mesh.selectAllFaces();
 		final List<HE_Vertex> boundary = all.getOuterVertices();
 		final List<HE_Vertex> inner = all.getInnerVertices();
-
-		HE_Vertex v;
-		HE_Vertex n;
-		List<HE_Vertex> neighbors;
-		int id = 0;
-		Iterator<HE_Vertex> vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			final WB_Point p = new WB_Point(v);
-			neighbors = v.getNeighborVertices();
-			p._mulSelf(origWeight);
-			double c = origWeight;
-			for (int i = 0; i < neighbors.size(); i++) {
-				n = neighbors.get(i);
-				p._addSelf(neigWeight * n.xd(), neigWeight * n.yd(), neigWeight
-						* n.zd());
-				c += neigWeight;
-			}
-			newPositions[id] = p._scaleSelf(1.0 / c);
-
-			id++;
+		final HE_VertexRelaxation relaxation = new HE_VertexRelaxation(mesh,
+				false);
+		final boolean[] use = new boolean[relaxation.neighbor.length];
+		final boolean[] onBoundary = new boolean[relaxation.n];
+		final boolean[] needsTwo = new boolean[relaxation.n];
+		for (final HE_Vertex v : boundary) {
+			onBoundary[mesh.getIndex(v)] = true;
 		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (keepBoundary) {
-				newPositions[id] = v.getPoint();
+		final int[] active = new int[relaxation.n];
+		int na = 0;
+		int i;
+		for (final HE_Vertex v : inner) {
+			i = mesh.getIndex(v);
+			for (int s = relaxation.starStart[i]; s < relaxation.starStart[i + 1]; s++) {
+				use[s] = relaxation.unique[s];
 			}
-			else {
-				final WB_Point p = new WB_Point(v);
-				neighbors = v.getNeighborVertices();
-				p._mulSelf(origWeight);
-				double c = origWeight;
-				int nc = 0;
-				for (int i = 0; i < neighbors.size(); i++) {
-					n = neighbors.get(i);
-					if (boundary.contains(n)) {
-						p._addSelf(neigWeight * n.xd(), neigWeight * n.yd(),
-								neigWeight * n.zd());
-						c += neigWeight;
-						nc++;
-					}
+			active[na++] = i;
+		}
+		if (!keepBoundary) {
+			for (final HE_Vertex v : boundary) {
+				i = mesh.getIndex(v);
+				for (int s = relaxation.starStart[i]; s < relaxation.starStart[i + 1]; s++) {
+					use[s] = relaxation.unique[s]
+							&& onBoundary[relaxation.neighbor[s]];
 				}
-				newPositions[id] = (nc > 1) ? p._scaleSelf(1.0 / c) : v
-						.getPoint();
+				needsTwo[i] = true;
+				active[na++] = i;
 			}
-			id++;
-		}
-
-		vItr = inner.iterator();
-		id = 0;
-		while (vItr.hasNext()) {
-			vItr.next()._set(newPositions[id]);
-			id++;
-		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			vItr.next()._set(newPositions[id]);
-			id++;
 		}
+		smooth(relaxation, Arrays.copyOf(active, na), use, needsTwo);
 		return mesh;
 	}
 
@@ -166,120 +133,130 @@ public class HES_Smooth extends HES_Subdividor {
 	@Override
 	public HE_Mesh apply(final HE_Selection selection) {
 		selection.parent.quadSplitFaces(selection);
-		final List<WB_Point> newPositions = new ArrayList<WB_Point>();
+		final HE_Mesh mesh = selection.parent;
 		final List<HE_Vertex> boundary = selection.getBoundaryVertices();
 		final List<HE_Vertex> outer = selection.getOuterVertices();
 		final List<HE_Vertex> inner = selection.getInnerVertices();
-		List<HE_Face> sharedFaces;
-		HE_Vertex v;
-		Iterator<HE_Vertex> vItr = outer.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (boundary.contains(v)) {
-				vItr.remove();
-			}
+		final HE_VertexRelaxation relaxation = new HE_VertexRelaxation(mesh,
+				false);
+		final boolean[] use = new boolean[relaxation.neighbor.length];
+		final boolean[] onBoundary = new boolean[relaxation.n];
+		final boolean[] onOuter = new boolean[relaxation.n];
+		final boolean[] needsTwo = new boolean[relaxation.n];
+		// 1: inner, 2: boundary, 3: outer, 0: fixed. A fixed vertex keeps a
+		// position computed for an earlier group.
+		final int[] group = new int[relaxation.n];
+		for (final HE_Vertex v : boundary) {
+			onBoundary[mesh.getIndex(v)] = true;
 		}
-
-		HE_Vertex n;
-		List<HE_Vertex> neighbors;
-		int id = 0;
-		vItr = inner.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			final WB_Point p = new WB_Point(v);
-			neighbors = v.getNeighborVertices();
-			p._mulSelf(origWeight);
-			double c = origWeight;
-			for (int i = 0; i < neighbors.size(); i++) {
-				n = neighbors.get(i);
-				p._addSelf(neigWeight * n.xd(), neigWeight * n.yd(), neigWeight
-						* n.zd());
-				c += neigWeight;
+		for (final HE_Vertex v : outer) {
+			if (!onBoundary[mesh.getIndex(v)]) {
+				onOuter[mesh.getIndex(v)] = true;
 			}
-			newPositions.add(p._scaleSelf(1.0 / c));
-
-			id++;
 		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if (keepBoundary) {
-				newPositions.add(v.getPoint());
+		for (final HE_Vertex v : inner) {
+			group[mesh.getIndex(v)] = 1;
+		}
+		if (!keepBoundary) {
+			for (final HE_Vertex v : boundary) {
+				group[mesh.getIndex(v)] = 2;
 			}
-			else {
-				final WB_Point p = new WB_Point(v);
-				neighbors = v.getNeighborVertices();
-				p._mulSelf(origWeight);
-				double c = origWeight;
-				int nc = 0;
-				for (int i = 0; i < neighbors.size(); i++) {
-					n = neighbors.get(i);
-					if (boundary.contains(n)) {
-						p._addSelf(neigWeight * n.xd(), neigWeight * n.yd(),
-								neigWeight * n.zd());
-						c += neigWeight;
-						nc++;
-					}
+		}
+		if (!keepEdges) {
+			for (final HE_Vertex v : outer) {
+				final int i = mesh.getIndex(v);
+				if (onOuter[i] && (v.getVertexType() == WB_Convex.FLAT)) {
+					group[i] = 3;
 				}
-				newPositions.add((nc > 1) ? p._scaleSelf(1.0 / c) : v
-						.getPoint());
 			}
-			id++;
 		}
-		vItr = outer.iterator();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			if ((keepEdges) || (v.getVertexType() != WB_Convex.FLAT)) {
-				newPositions.add(v.getPoint());
+		final int[] active = new int[relaxation.n];
+		int na = 0;
+		HE_Vertex v, n;
+		List<HE_Face> sharedFaces;
+		for (int i = 0; i < relaxation.n; i++) {
+			if (group[i] == 0) {
+				continue;
 			}
-			else {
-				final WB_Point p = new WB_Point(v);
-				neighbors = v.getNeighborVertices();
-				p._mulSelf(origWeight);
-				double c = origWeight;
-				int nc = 0;
-				for (int i = 0; i < neighbors.size(); i++) {
-					n = neighbors.get(i);
-					if (outer.contains(n)) {
-						sharedFaces = selection.parent.getSharedFaces(v, n);
-						boolean singleFaceGap = true;
-						for (int j = 0; j < sharedFaces.size(); j++) {
-							if (selection.contains(sharedFaces.get(j))) {
-								singleFaceGap = false;
-								break;
-							}
-						}
-
-						if (!singleFaceGap) {
-							p._addSelf(neigWeight * n.xd(),
-									neigWeight * n.yd(), neigWeight * n.zd());
-							c += neigWeight;
-							nc++;
+			v = relaxation.vertices[i];
+			for (int s = relaxation.starStart[i]; s < relaxation.starStart[i + 1]; s++) {
+				if (!relaxation.unique[s]) {
+					continue;
+				}
+				if (group[i] == 1) {
+					use[s] = true;
+				}
+				else if (group[i] == 2) {
+					use[s] = onBoundary[relaxation.neighbor[s]];
+				}
+				else if (onOuter[relaxation.neighbor[s]]) {
+					n = relaxation.vertices[relaxation.neighbor[s]];
+					sharedFaces = mesh.getSharedFaces(v, n);
+					boolean singleFaceGap = true;
+					for (int j = 0; j < sharedFaces.size(); j++) {
+						if (selection.contains(sharedFaces.get(j))) {
+							singleFaceGap = false;
+							break;
 						}
 					}
+					use[s] = !singleFaceGap;
 				}
-				newPositions.add((nc > 1) ? p._scaleSelf(1.0 / c) : v
-						.getPoint());
 			}
-			id++;
-		}
-		vItr = inner.iterator();
-		id = 0;
-		while (vItr.hasNext()) {
-			vItr.next()._set(newPositions.get(id));
-			id++;
-		}
-		vItr = boundary.iterator();
-		while (vItr.hasNext()) {
-			vItr.next()._set(newPositions.get(id));
-			id++;
-		}
-		vItr = outer.iterator();
-		while (vItr.hasNext()) {
-			vItr.next()._set(newPositions.get(id));
-			id++;
+			needsTwo[i] = group[i] > 1;
+			active[na++] = i;
 		}
+		smooth(relaxation, Arrays.copyOf(active, na), use, needsTwo);
 		return selection.parent;
 	}
 
+	/**
+	 * Single weighted smoothing pass.
+	 *
+	 * @param relaxation
+	 * @param active
+	 *            vertices to move
+	 * @param use
+	 *            neighbors to use, per star halfedge
+	 * @param needsTwo
+	 *            per vertex, only move if at least two neighbors are used
+	 */
+	private void smooth(final HE_VertexRelaxation relaxation,
+			final int[] active, final boolean[] use, final boolean[] needsTwo) {
+		final double ow = origWeight;
+		final double nw = neigWeight;
+		relaxation.run(active, 1, new HE_VertexRelaxation.Rule() {
+			@Override
+			public void relax(final int i, final double[] in, final double[] out) {
+				double x = ow * in[3 * i];
+				double y = ow * in[3 * i + 1];
+				double z = ow * in[3 * i + 2];
+				double c = ow;
+				int nc = 0;
+				int j;
+				for (int s = relaxation.starStart[i]; s < relaxation.starStart[i + 1]; s++) {
+					if (use[s]) {
+						j = 3 * relaxation.neighbor[s];
+						x = x + nw * in[j];
+						y = y + nw * in[j + 1];
+						z = z + nw * in[j + 2];
+						c += nw;
+						nc++;
+					}
+				}
+				if (needsTwo[i] && (nc <= 1)) {
+					out[3 * i] = in[3 * i];
+					out[3 * i + 1] = in[3 * i + 1];
+					out[3 * i + 2] = in[3 * i + 2];
+				}
+				else {
+					final double f = 1.0 / c;
+					out[3 * i] = f * x;
+					out[3 * i + 1] = f * y;
+					out[3 * i + 2] = f * z;
+				}
+			}
+		});
+		relaxation.write(active);
+	}
+
 }
@@ -30,4 +30,62 @@ abstract public class HES_Subdividor implements HE_Machine {
 	 */
 	public abstract HE_Mesh apply(final HE_Selection selection);
 
+	/**
+	 * Subdivide the mesh a number of times. Subdividors with an index-based
+	 * implementation run all iterations on a HE_CompactMesh and rebuild the
+	 * mesh once.
+	 *
+	 * @param mesh
+	 *            mesh to subdivide
+	 * @param rep
+	 *            subdivision iterations
+	 * @return mesh
+	 */
+	public HE_Mesh apply(final HE_Mesh mesh, final int rep) {
+		for (int i = 0; i < rep; i++) {
+			apply(mesh);
+		}
+		return mesh;
+	}
+
+	/**
+	 * Subdivide a compact mesh a number of times without creating a HE_Mesh.
+	 *
+	 * @param mesh
+	 *            mesh, not modified
+	 * @param rep
+	 *            subdivision iterations
+	 * @return subdivided mesh, null if the subdividor has no index-based
+	 *         implementation
+	 */
+	HE_CompactMesh subdivide(final HE_CompactMesh mesh, final int rep) {
+		return null;
+	}
+
+	/**
+	 * Element counts after one step of the index-based implementation.
+	 *
+	 * @param counts
+	 *            vertices, face halfedges, boundary halfedges, edges and faces,
+	 *            updated in place
+	 * @return false if the subdividor has no index-based implementation
+	 */
+	boolean subdivideCounts(final long[] counts) {
+		return false;
+	}
+
+	/**
+	 * Number of faces a face is replaced by when it is part of a selection
+	 * passed to apply(HE_Selection). Used by HES_Adaptive to spend its face
+	 * budget.
+	 *
+	 * @param order
+	 *            number of vertices of the face, before any of its edges are
+	 *            split
+	 * @return number of faces, -1 if apply(HE_Selection) doesn't subdivide
+	 */
+	int splitFaceCount(final int order) {
+		return -1;
+	}
+
 }
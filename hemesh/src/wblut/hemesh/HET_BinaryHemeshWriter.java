@@ -85,10 +85,24 @@ public class HET_BinaryHemeshWriter {
 	 *            the heid
 	 */
 	public void vertex(final HE_Vertex v, final int heid) {
+		vertex(v.xd(), v.yd(), v.zd(), heid);
+	}
+
+	/**
+	 * Vertex.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @param heid
+	 *            the heid
+	 */
+	public void vertex(final double x, final double y, final double z,
+			final int heid) {
 		try {
-			hemeshWriter.writeDouble(v.xd());
-			hemeshWriter.writeDouble(v.yd());
-			hemeshWriter.writeDouble(v.zd());
+			hemeshWriter.writeDouble(x);
+			hemeshWriter.writeDouble(y);
+			hemeshWriter.writeDouble(z);
 			hemeshWriter.writeInt(heid);
 		}
 		catch (final IOException e) {
@@ -7,6 +7,7 @@ import java.io.PrintWriter;
 import java.util.Iterator;
 
 import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
 
 /**
  *
@@ -32,11 +33,104 @@ public class HET_Export {
 		HET_OBJWriter.saveMeshWithVertexColor(mesh, path, name);
 	}
 
+	/**
+	 * Save a compact mesh as OBJ without creating a HE_Mesh. Faces are written
+	 * as full polygons, no normals.
+	 *
+	 * @param mesh
+	 *            compact mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public static void saveToOBJ(final HE_CompactMesh mesh, final String path,
+			final String name) {
+		HET_OBJWriter.saveMesh(mesh, path, name);
+	}
+
 	public static void saveToSTL(final HE_Mesh mesh, final String path,
 			final String name) {
 		saveToSTLWithFaceColor(mesh, path, name, NONE);
 	}
 
+	/**
+	 * Save a compact mesh as binary STL without creating a HE_Mesh. Faces are
+	 * triangulated as fans, all triangles of a face get the face normal.
+	 *
+	 * @param mesh
+	 *            compact mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public static void saveToSTL(final HE_CompactMesh mesh, final String path,
+			final String name) {
+		final int nf = mesh.getNumberOfFaces();
+		int triangles = 0;
+		int he, n;
+		for (int i = 0; i < nf; i++) {
+			he = mesh.getFaceHalfedge(i);
+			if (he == -1) {
+				continue;
+			}
+			n = 0;
+			do {
+				n++;
+				he = mesh.getNextInFace(he);
+			} while (he != mesh.getFaceHalfedge(i));
+			triangles += n - 2;
+		}
+		final HET_STLWriter stl = new HET_STLWriter(HET_STLWriter.NONE,
+				HET_STLWriter.DEFAULT_BUFFER);
+		stl.beginSave(path, name, triangles);
+		final WB_Point a = new WB_Point();
+		final WB_Point b = new WB_Point();
+		final WB_Point c = new WB_Point();
+		final WB_Vector normal = new WB_Vector();
+		int h0, v, w;
+		double nx, ny, nz, d;
+		for (int i = 0; i < nf; i++) {
+			h0 = mesh.getFaceHalfedge(i);
+			if (h0 == -1) {
+				continue;
+			}
+			// Newell normal
+			nx = ny = nz = 0;
+			he = h0;
+			do {
+				v = mesh.getVertex(he);
+				w = mesh.getVertex(mesh.getNextInFace(he));
+				nx += (mesh.yd(v) - mesh.yd(w)) * (mesh.zd(v) + mesh.zd(w));
+				ny += (mesh.zd(v) - mesh.zd(w)) * (mesh.xd(v) + mesh.xd(w));
+				nz += (mesh.xd(v) - mesh.xd(w)) * (mesh.yd(v) + mesh.yd(w));
+				he = mesh.getNextInFace(he);
+			} while (he != h0);
+			d = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if (d > 0) {
+				normal._set(nx / d, ny / d, nz / d);
+			}
+			else {
+				normal._set(0, 0, 0);
+			}
+			v = mesh.getVertex(h0);
+			a._set(mesh.xd(v), mesh.yd(v), mesh.zd(v));
+			he = mesh.getNextInFace(h0);
+			w = mesh.getVertex(he);
+			b._set(mesh.xd(w), mesh.yd(w), mesh.zd(w));
+			he = mesh.getNextInFace(he);
+			while (he != h0) {
+				w = mesh.getVertex(he);
+				c._set(mesh.xd(w), mesh.yd(w), mesh.zd(w));
+				stl.face(a, b, c, normal);
+				b._set(c);
+				he = mesh.getNextInFace(he);
+			}
+		}
+		stl.endSave();
+	}
+
 	public static void saveToSTLWithFaceColor(final HE_Mesh mesh,
 			final String path, final String name, final int colormodel) {
 		final HET_STLWriter stl = new HET_STLWriter(
@@ -385,6 +479,43 @@ public class HET_Export {
 		hem.endSave();
 	}
 
+	/**
+	 * Saves a compact mesh as binary hemesh format without creating a HE_Mesh.
+	 * The connectivity is written straight from the index arrays.
+	 *
+	 * @param mesh
+	 *            compact mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public static void saveToBinaryHemesh(final HE_CompactMesh mesh,
+			final String path, final String name) {
+		final HET_BinaryHemeshWriter hem = new HET_BinaryHemeshWriter();
+		hem.beginSave(path, name);
+		final int nv = mesh.getNumberOfVertices();
+		final int nhe = mesh.getNumberOfHalfedges();
+		final int ne = mesh.getNumberOfEdges();
+		final int nf = mesh.getNumberOfFaces();
+		hem.sizes(nv, nhe, ne, nf);
+		for (int i = 0; i < nv; i++) {
+			hem.vertex(mesh.xd(i), mesh.yd(i), mesh.zd(i),
+					mesh.getVertexHalfedge(i));
+		}
+		for (int i = 0; i < nhe; i++) {
+			hem.halfedge(mesh.getVertex(i), mesh.getNextInFace(i),
+					mesh.getPair(i), mesh.getEdge(i), mesh.getFace(i));
+		}
+		for (int i = 0; i < ne; i++) {
+			hem.edge(mesh.getEdgeHalfedge(i));
+		}
+		for (int i = 0; i < nf; i++) {
+			hem.face(mesh.getFaceHalfedge(i));
+		}
+		hem.endSave();
+	}
+
 	public static void saveToPOV(final HE_Mesh mesh, final String path,
 			final String name) {
 		saveToPOV(mesh, path, name, true);
@@ -0,0 +1,244 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+
+/**
+ * Makes the orientation of faces in a face list consistent. Faces that share
+ * an edge should run through it in opposite directions. Each connected
+ * component keeps the orientation of its lowest indexed face.
+ *
+ * Face adjacency is found with a primitive edge map keyed by the vertex
+ * pair. Components are found with union-find and oriented by breadth-first
+ * traversal on int queues, independent components in parallel. Edges shared
+ * by more than two faces only connect the first two.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_FaceOrientation {
+
+	/** Minimum number of faces per thread. */
+	private static final int GRAIN = 8192;
+
+	private HET_FaceOrientation() {
+	}
+
+	/**
+	 * Orient faces consistently. Faces are reversed in place.
+	 *
+	 * @param faces
+	 *            faces as vertex indices
+	 * @return number of reversed faces
+	 */
+	public static int orient(final int[][] faces) {
+		return orient(faces, null);
+	}
+
+	/**
+	 * Orient faces consistently. Faces are reversed in place.
+	 *
+	 * @param faces
+	 *            faces as vertex indices
+	 * @param vertexMap
+	 *            maps face vertex indices to unique vertices, e.g. after
+	 *            welding. Null to use the indices as is.
+	 * @return number of reversed faces
+	 */
+	public static int orient(final int[][] faces, final int[] vertexMap) {
+		final int nf = faces.length;
+		if (nf == 0) {
+			return 0;
+		}
+		// corners: one per face vertex, corner c starts edge c of its face
+		final int[] faceStart = new int[nf + 1];
+		for (int i = 0; i < nf; i++) {
+			faceStart[i + 1] = faceStart[i] + faces[i].length;
+		}
+		final int nc = faceStart[nf];
+		final int[] cornerFace = new int[nc];
+		final long[] keys = new long[nc];
+		final boolean[] forward = new boolean[nc];
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int[] face;
+				int a, b, c;
+				for (int i = start; i < end; i++) {
+					face = faces[i];
+					c = faceStart[i];
+					for (int j = 0; j < face.length; j++, c++) {
+						a = vertex(face[j], vertexMap);
+						b = vertex(face[(j + 1) % face.length], vertexMap);
+						cornerFace[c] = i;
+						forward[c] = a < b;
+						if (a == b) {
+							keys[c] = Long.MIN_VALUE;
+						}
+						else {
+							keys[c] = forward[c] ? key(a, b) : key(b, a);
+						}
+					}
+				}
+			}
+		});
+		// pair corners across edges
+		final int[] mate = new int[nc];
+		Arrays.fill(mate, -1);
+		final TLongIntMap edges = new TLongIntHashMap(Math.max(10, nc), 0.5f,
+				Long.MIN_VALUE, -1);
+		int other;
+		for (int c = 0; c < nc; c++) {
+			if (keys[c] == Long.MIN_VALUE) {
+				continue;
+			}
+			other = edges.putIfAbsent(keys[c], c);
+			if ((other != -1) && (mate[other] == -1)) {
+				mate[other] = c;
+				mate[c] = other;
+			}
+		}
+		// connected components, the root of a component is its lowest face
+		final int[] parent = new int[nf];
+		for (int i = 0; i < nf; i++) {
+			parent[i] = i;
+		}
+		for (int c = 0; c < nc; c++) {
+			if (mate[c] > c) {
+				union(parent, cornerFace[c], cornerFace[mate[c]]);
+			}
+		}
+		int nComp = 0;
+		final int[] compOfRoot = new int[nf];
+		final int[] roots = new int[nf];
+		for (int i = 0; i < nf; i++) {
+			parent[i] = find(parent, i);
+			if (parent[i] == i) {
+				roots[nComp] = i;
+				compOfRoot[i] = nComp++;
+			}
+		}
+		final int[] compStart = new int[nComp + 1];
+		for (int i = 0; i < nf; i++) {
+			compStart[compOfRoot[parent[i]] + 1]++;
+		}
+		for (int i = 0; i < nComp; i++) {
+			compStart[i + 1] += compStart[i];
+		}
+		// orient each component, the queue of a component uses its own range
+		final int[] queue = new int[nf];
+		final boolean[] seen = new boolean[nf];
+		final boolean[] flip = new boolean[nf];
+		final int chunks = WB_Parallel.getNumberOfChunks(nf, GRAIN);
+		final int components = nComp;
+		WB_Parallel.forChunks(chunks, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int chunk) {
+				for (int comp = chunk; comp < components; comp += chunks) {
+					orientComponent(roots[comp], compStart[comp], faceStart,
+							cornerFace, forward, mate, queue, seen, flip);
+				}
+			}
+		});
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int[] face;
+				int temp, fl;
+				for (int i = start; i < end; i++) {
+					if (flip[i]) {
+						face = faces[i];
+						fl = face.length;
+						for (int k = 0; k < fl / 2; k++) {
+							temp = face[k];
+							face[k] = face[fl - k - 1];
+							face[fl - k - 1] = temp;
+						}
+					}
+				}
+			}
+		});
+		int flipped = 0;
+		for (int i = 0; i < nf; i++) {
+			if (flip[i]) {
+				flipped++;
+			}
+		}
+		return flipped;
+	}
+
+	/**
+	 * Breadth-first traversal of one component. A neighbor is flipped relative
+	 * to the current face if both run through their shared edge in the same
+	 * direction.
+	 *
+	 * @param root
+	 *            lowest face of the component, keeps its orientation
+	 * @param queueStart
+	 *            start of the range in queue reserved for this component
+	 */
+	private static void orientComponent(final int root, final int queueStart,
+			final int[] faceStart, final int[] cornerFace,
+			final boolean[] forward, final int[] mate, final int[] queue,
+			final boolean[] seen, final boolean[] flip) {
+		int head = queueStart;
+		int tail = queueStart;
+		queue[tail++] = root;
+		seen[root] = true;
+		int f, g, m;
+		while (head < tail) {
+			f = queue[head++];
+			for (int c = faceStart[f]; c < faceStart[f + 1]; c++) {
+				m = mate[c];
+				if (m == -1) {
+					continue;
+				}
+				g = cornerFace[m];
+				if (seen[g]) {
+					continue;
+				}
+				seen[g] = true;
+				flip[g] = flip[f] ^ (forward[c] == forward[m]);
+				queue[tail++] = g;
+			}
+		}
+	}
+
+	private static int vertex(final int i, final int[] vertexMap) {
+		return (vertexMap == null) ? i : vertexMap[i];
+	}
+
+	private static long key(final int a, final int b) {
+		return (((long) a) << 32) | (b & 0xffffffffL);
+	}
+
+	private static int find(final int[] parent, final int i) {
+		int r = i;
+		while (parent[r] != r) {
+			r = parent[r];
+		}
+		int j = i;
+		int next;
+		while (parent[j] != r) {
+			next = parent[j];
+			parent[j] = r;
+			j = next;
+		}
+		return r;
+	}
+
+	private static void union(final int[] parent, final int a, final int b) {
+		final int ra = find(parent, a);
+		final int rb = find(parent, b);
+		if (ra < rb) {
+			parent[rb] = ra;
+		}
+		else if (rb < ra) {
+			parent[ra] = rb;
+		}
+	}
+}
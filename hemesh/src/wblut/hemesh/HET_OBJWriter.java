@@ -46,6 +46,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Iterator;
 
 import wblut.geom.WB_Coordinate;
@@ -117,6 +118,22 @@ public class HET_OBJWriter {
 		objWriter.println("f " + a + " " + b + " " + c);
 	}
 
+	/**
+	 * Polygon face.
+	 *
+	 * @param vertices
+	 *            vertex indices, including offset
+	 * @param n
+	 *            number of vertices
+	 */
+	public static void face(final int[] vertices, final int n) {
+		final StringBuilder sb = new StringBuilder("f");
+		for (int i = 0; i < n; i++) {
+			sb.append(' ').append(vertices[i]);
+		}
+		objWriter.println(sb);
+	}
+
 	public static void facecolor(final int i, final int c) {
 		mtlWriter.println("newmtl f" + i);
 		mtlWriter.println("Kd " + red(c) + " " + green(c) + " " + blue(c));
@@ -224,7 +241,18 @@ public class HET_OBJWriter {
 	 *            the v
 	 */
 	public static void vertex(final WB_Coordinate v) {
-		objWriter.println("v " + v.xd() + " " + v.yd() + " " + v.zd());
+		vertex(v.xd(), v.yd(), v.zd());
+	}
+
+	/**
+	 * Vertex.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	public static void vertex(final double x, final double y, final double z) {
+		objWriter.println("v " + x + " " + y + " " + z);
 		numVerticesWritten++;
 	}
 
@@ -389,4 +417,45 @@ public class HET_OBJWriter {
 		endSave();
 	}
 
+	/**
+	 * Save a compact mesh. Vertices and full polygon faces are written
+	 * straight from the index arrays, no normals.
+	 *
+	 * @param mesh
+	 *            compact mesh
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public static void saveMesh(final HE_CompactMesh mesh, final String path,
+			final String name) {
+		beginSave(path, name);
+		final int vOffset = getCurrVertexOffset() + 1;
+		newObject(name);
+		final int nv = mesh.getNumberOfVertices();
+		for (int i = 0; i < nv; i++) {
+			vertex(mesh.xd(i), mesh.yd(i), mesh.zd(i));
+		}
+		final int nf = mesh.getNumberOfFaces();
+		int[] face = new int[8];
+		int he, n;
+		for (int i = 0; i < nf; i++) {
+			he = mesh.getFaceHalfedge(i);
+			if (he == -1) {
+				continue;
+			}
+			n = 0;
+			do {
+				if (n == face.length) {
+					face = Arrays.copyOf(face, 2 * n);
+				}
+				face[n++] = mesh.getVertex(he) + vOffset;
+				he = mesh.getNextInFace(he);
+			} while (he != mesh.getFaceHalfedge(i));
+			face(face, n);
+		}
+		endSave();
+	}
+
 }
@@ -0,0 +1,559 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import wblut.geom.WB_AABB;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+
+/**
+ * Out-of-core simplification of a binary STL file by vertex clustering.
+ *
+ * Triangles are streamed from disk and never stored. Space is divided in a
+ * uniform grid, all vertices in a cell are merged into one cluster. Each
+ * triangle adds the quadric of its plane, weighted by its area, to the
+ * clusters of its corners. Triangles with corners in three different clusters
+ * are kept, duplicates are dropped. The position of a cluster minimizes its
+ * quadric, if that is ill-conditioned or falls outside the cell the average
+ * of its vertices is used.
+ *
+ * Only the clusters and the output triangles are held in memory, memory use
+ * depends on the resolution of the grid, not on the size of the input. If no
+ * bounds are given, the file is read twice, once to find its bounding box.
+ *
+ * The result can contain non-manifold edges where thin parts collapse. It can
+ * be saved to OBJ or STL, or created as HE_Mesh.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HET_OutOfCoreSimplifier {
+
+	/** Largest number of clusters, three indices are packed in a long. */
+	private static final int MAX_CLUSTERS = 1 << 21;
+
+	private String path;
+
+	private double scale;
+
+	/** Number of cells along the longest side of the bounding box. */
+	private int resolution;
+
+	private WB_AABB bounds;
+
+	// clusters
+
+	private int numberOfVertices;
+	private double[] coords;
+	private double[] quadrics;
+	private double[] sums;
+	private int[] counts;
+	private long[] cells;
+	/** Cell key to cluster, only valid while streaming. */
+	private TLongIntMap clusterMap;
+	private final int[] corner = new int[3];
+
+	// output triangles
+
+	private int numberOfFaces;
+	private int[] triangles;
+	/** Sorted cluster triple to triangle, only valid while streaming. */
+	private TLongIntMap triangleMap;
+
+	// grid
+
+	private final double[] origin = new double[3];
+	private double cellSize;
+	private final int[] gridSize = new int[3];
+
+	/**
+	 * Instantiates a new HET_OutOfCoreSimplifier.
+	 */
+	public HET_OutOfCoreSimplifier() {
+		scale = 1;
+		resolution = 128;
+	}
+
+	/**
+	 * Instantiates a new HET_OutOfCoreSimplifier.
+	 *
+	 * @param path
+	 *            path of binary STL file, optionally gzipped
+	 */
+	public HET_OutOfCoreSimplifier(final String path) {
+		this();
+		this.path = path;
+	}
+
+	/**
+	 * Set path of the input file.
+	 *
+	 * @param path
+	 *            path of binary STL file, optionally gzipped
+	 * @return self
+	 */
+	public HET_OutOfCoreSimplifier setPath(final String path) {
+		this.path = path;
+		return this;
+	}
+
+	/**
+	 * Set scale applied to the input coordinates.
+	 *
+	 * @param f
+	 *            scale
+	 * @return self
+	 */
+	public HET_OutOfCoreSimplifier setScale(final double f) {
+		scale = f;
+		return this;
+	}
+
+	/**
+	 * Set grid resolution.
+	 *
+	 * @param n
+	 *            number of cells along the longest side of the bounding box
+	 * @return self
+	 */
+	public HET_OutOfCoreSimplifier setResolution(final int n) {
+		resolution = Math.max(1, n);
+		return this;
+	}
+
+	/**
+	 * Set bounding box of the grid, saves reading the file twice. Vertices
+	 * outside the box are clamped to the nearest cell.
+	 *
+	 * @param aabb
+	 *            bounding box of the scaled input, null to compute it
+	 * @return self
+	 */
+	public HET_OutOfCoreSimplifier setBounds(final WB_AABB aabb) {
+		bounds = aabb;
+		return this;
+	}
+
+	/**
+	 * Stream the input file and cluster its vertices.
+	 *
+	 * @return self
+	 */
+	public HET_OutOfCoreSimplifier simplify() {
+		if (path == null) {
+			throw new IllegalArgumentException("No input file set.");
+		}
+		final double[] min = new double[3];
+		final double[] max = new double[3];
+		if (bounds == null) {
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			stream(min, max);
+		}
+		else {
+			for (int k = 0; k < 3; k++) {
+				min[k] = bounds.getMin(k);
+				max[k] = bounds.getMax(k);
+			}
+		}
+		double size = 0;
+		for (int k = 0; k < 3; k++) {
+			size = Math.max(size, max[k] - min[k]);
+		}
+		cellSize = (size > 0) ? size / resolution : 1.0;
+		for (int k = 0; k < 3; k++) {
+			origin[k] = min[k];
+			gridSize[k] = Math.max(1,
+					(int) Math.ceil((max[k] - min[k]) / cellSize));
+		}
+		numberOfVertices = 0;
+		quadrics = new double[10 * 1024];
+		sums = new double[3 * 1024];
+		counts = new int[1024];
+		cells = new long[1024];
+		numberOfFaces = 0;
+		triangles = new int[3 * 1024];
+		stream(null, null);
+		coords = new double[3 * numberOfVertices];
+		for (int i = 0; i < numberOfVertices; i++) {
+			position(i);
+		}
+		quadrics = sums = null;
+		counts = null;
+		cells = null;
+		return this;
+	}
+
+	/**
+	 * Get number of vertices of the result.
+	 *
+	 * @return number of vertices
+	 */
+	public int getNumberOfVertices() {
+		return numberOfVertices;
+	}
+
+	/**
+	 * Get number of triangles of the result.
+	 *
+	 * @return number of triangles
+	 */
+	public int getNumberOfFaces() {
+		return numberOfFaces;
+	}
+
+	/**
+	 * Get vertex coordinates of the result.
+	 *
+	 * @return x0, y0, z0, x1, y1, z1, ...
+	 */
+	public double[] getVertices() {
+		checkResult();
+		return Arrays.copyOf(coords, 3 * numberOfVertices);
+	}
+
+	/**
+	 * Get triangles of the result.
+	 *
+	 * @return vertex indices, three per triangle
+	 */
+	public int[] getTriangles() {
+		checkResult();
+		return Arrays.copyOf(triangles, 3 * numberOfFaces);
+	}
+
+	/**
+	 * Create the result as HE_Mesh.
+	 *
+	 * @return mesh
+	 */
+	public HE_Mesh create() {
+		checkResult();
+		final double[][] vertices = new double[numberOfVertices][3];
+		for (int i = 0; i < numberOfVertices; i++) {
+			vertices[i][0] = coords[3 * i];
+			vertices[i][1] = coords[3 * i + 1];
+			vertices[i][2] = coords[3 * i + 2];
+		}
+		final int[][] faces = new int[numberOfFaces][3];
+		for (int i = 0; i < numberOfFaces; i++) {
+			faces[i][0] = triangles[3 * i];
+			faces[i][1] = triangles[3 * i + 1];
+			faces[i][2] = triangles[3 * i + 2];
+		}
+		return new HE_Mesh(new HEC_FromFacelist().setVertices(vertices)
+				.setFaces(faces).setDuplicate(false));
+	}
+
+	/**
+	 * Save the result as OBJ.
+	 *
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public void saveToOBJ(final String path, final String name) {
+		checkResult();
+		HET_OBJWriter.beginSave(path, name);
+		final int vOffset = HET_OBJWriter.getCurrVertexOffset() + 1;
+		HET_OBJWriter.newObject(name);
+		for (int i = 0; i < numberOfVertices; i++) {
+			HET_OBJWriter.vertex(coords[3 * i], coords[3 * i + 1],
+					coords[3 * i + 2]);
+		}
+		for (int i = 0; i < numberOfFaces; i++) {
+			HET_OBJWriter.face(triangles[3 * i] + vOffset, triangles[3 * i + 1]
+					+ vOffset, triangles[3 * i + 2] + vOffset);
+		}
+		HET_OBJWriter.endSave();
+	}
+
+	/**
+	 * Save the result as binary STL.
+	 *
+	 * @param path
+	 *            the path
+	 * @param name
+	 *            the name
+	 */
+	public void saveToSTL(final String path, final String name) {
+		checkResult();
+		final HET_STLWriter stl = new HET_STLWriter(HET_STLWriter.NONE,
+				HET_STLWriter.DEFAULT_BUFFER);
+		stl.beginSave(path, name, numberOfFaces);
+		final WB_Point[] p = new WB_Point[] { new WB_Point(), new WB_Point(),
+				new WB_Point() };
+		final WB_Vector u = new WB_Vector();
+		final WB_Vector normal = new WB_Vector();
+		int v;
+		for (int i = 0; i < numberOfFaces; i++) {
+			for (int k = 0; k < 3; k++) {
+				v = 3 * triangles[3 * i + k];
+				p[k]._set(coords[v], coords[v + 1], coords[v + 2]);
+			}
+			u._set(p[1].xd() - p[0].xd(), p[1].yd() - p[0].yd(), p[1].zd()
+					- p[0].zd());
+			normal._set(p[2].xd() - p[0].xd(), p[2].yd() - p[0].yd(),
+					p[2].zd() - p[0].zd());
+			normal._set(u.cross(normal));
+			normal._normalizeSelf();
+			stl.face(p[0], p[1], p[2], normal);
+		}
+		stl.endSave();
+	}
+
+	private void checkResult() {
+		if (coords == null) {
+			throw new IllegalStateException(
+					"No result, simplify() has not been called.");
+		}
+	}
+
+	// STREAMING
+
+	/**
+	 * Read all triangles of the file. If min and max are given only the
+	 * bounding box is computed, otherwise the triangles are clustered.
+	 *
+	 * @param min
+	 * @param max
+	 */
+	private void stream(final double[] min, final double[] max) {
+		final byte[] record = new byte[50];
+		final double[] p = new double[9];
+		DataInputStream ds = null;
+		try {
+			InputStream stream = new FileInputStream(new File(path));
+			if (path.toLowerCase().endsWith(".gz")) {
+				stream = new GZIPInputStream(stream);
+			}
+			ds = new DataInputStream(new BufferedInputStream(stream, 0x10000));
+			// skip header, ignore color model
+			ds.readFully(new byte[80]);
+			ds.readFully(record, 0, 4);
+			final int numFaces = toInt(record, 0);
+			for (int i = 0; i < numFaces; i++) {
+				try {
+					ds.readFully(record, 0, 50);
+				}
+				catch (final EOFException e) {
+					break;
+				}
+				// skip face normal and attribute
+				for (int k = 0; k < 9; k++) {
+					p[k] = scale
+							* Float.intBitsToFloat(toInt(record, 12 + 4 * k));
+				}
+				if (min != null) {
+					for (int k = 0; k < 9; k++) {
+						min[k % 3] = Math.min(min[k % 3], p[k]);
+						max[k % 3] = Math.max(max[k % 3], p[k]);
+					}
+				}
+				else {
+					addTriangle(p);
+				}
+			}
+		}
+		catch (final IOException e) {
+			throw new IllegalArgumentException("Can't read " + path + ": "
+					+ e.getMessage());
+		}
+		finally {
+			if (ds != null) {
+				try {
+					ds.close();
+				}
+				catch (final IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		clusterMap = null;
+		triangleMap = null;
+	}
+
+	private static int toInt(final byte[] b, final int i) {
+		return (b[i] & 0xff) | ((b[i + 1] & 0xff) << 8)
+				| ((b[i + 2] & 0xff) << 16) | ((b[i + 3] & 0xff) << 24);
+	}
+
+	// CLUSTERING
+
+	/**
+	 * Add a triangle: its quadric goes to the clusters of its corners, it is
+	 * kept if the clusters are all different.
+	 *
+	 * @param p
+	 *            coordinates of the three corners
+	 */
+	private void addTriangle(final double[] p) {
+		if (clusterMap == null) {
+			clusterMap = new TLongIntHashMap(1024, 0.5f, -1L, -1);
+			triangleMap = new TLongIntHashMap(1024, 0.5f, -1L, -1);
+		}
+		for (int k = 0; k < 3; k++) {
+			corner[k] = cluster(p[3 * k], p[3 * k + 1], p[3 * k + 2]);
+		}
+		// plane quadric weighted by area
+		final double ux = p[3] - p[0];
+		final double uy = p[4] - p[1];
+		final double uz = p[5] - p[2];
+		final double vx = p[6] - p[0];
+		final double vy = p[7] - p[1];
+		final double vz = p[8] - p[2];
+		final double a = uy * vz - uz * vy;
+		final double b = uz * vx - ux * vz;
+		final double c = ux * vy - uy * vx;
+		final double l = Math.sqrt(a * a + b * b + c * c);
+		if (l > 0) {
+			final double d = -(a * p[0] + b * p[1] + c * p[2]);
+			// |n|/2 is the area, the plane is divided by |n| twice
+			final double w = 0.5 / l;
+			int q;
+			for (int k = 0; k < 3; k++) {
+				q = 10 * corner[k];
+				quadrics[q] += w * a * a;
+				quadrics[q + 1] += w * a * b;
+				quadrics[q + 2] += w * a * c;
+				quadrics[q + 3] += w * a * d;
+				quadrics[q + 4] += w * b * b;
+				quadrics[q + 5] += w * b * c;
+				quadrics[q + 6] += w * b * d;
+				quadrics[q + 7] += w * c * c;
+				quadrics[q + 8] += w * c * d;
+				quadrics[q + 9] += w * d * d;
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			sums[3 * corner[k]] += p[3 * k];
+			sums[3 * corner[k] + 1] += p[3 * k + 1];
+			sums[3 * corner[k] + 2] += p[3 * k + 2];
+			counts[corner[k]]++;
+		}
+		final int c0 = corner[0];
+		final int c1 = corner[1];
+		final int c2 = corner[2];
+		if ((c0 == c1) || (c1 == c2) || (c2 == c0)) {
+			return;
+		}
+		final long key = key(Math.min(c0, Math.min(c1, c2)),
+				c0 + c1 + c2 - Math.min(c0, Math.min(c1, c2))
+						- Math.max(c0, Math.max(c1, c2)),
+				Math.max(c0, Math.max(c1, c2)));
+		if (triangleMap.containsKey(key)) {
+			return;
+		}
+		if (3 * numberOfFaces == triangles.length) {
+			triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+		}
+		triangleMap.put(key, numberOfFaces);
+		triangles[3 * numberOfFaces] = c0;
+		triangles[3 * numberOfFaces + 1] = c1;
+		triangles[3 * numberOfFaces + 2] = c2;
+		numberOfFaces++;
+	}
+
+	private static long key(final int a, final int b, final int c) {
+		return ((long) a << 42) | ((long) b << 21) | c;
+	}
+
+	/**
+	 * Get the cluster of a point, create it if necessary.
+	 *
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return cluster index
+	 */
+	private int cluster(final double x, final double y, final double z) {
+		final long cell = (cell(x, 0) * gridSize[1] + cell(y, 1)) * gridSize[2]
+				+ cell(z, 2);
+		int c = clusterMap.get(cell);
+		if (c == -1) {
+			if (numberOfVertices == MAX_CLUSTERS) {
+				throw new IllegalStateException("More than " + MAX_CLUSTERS
+						+ " clusters, reduce the resolution.");
+			}
+			c = numberOfVertices++;
+			if (c == counts.length) {
+				quadrics = Arrays.copyOf(quadrics, 20 * c);
+				sums = Arrays.copyOf(sums, 6 * c);
+				counts = Arrays.copyOf(counts, 2 * c);
+				cells = Arrays.copyOf(cells, 2 * c);
+			}
+			cells[c] = cell;
+			clusterMap.put(cell, c);
+		}
+		return c;
+	}
+
+	private long cell(final double x, final int k) {
+		final int i = (int) Math.floor((x - origin[k]) / cellSize);
+		return Math.max(0, Math.min(gridSize[k] - 1, i));
+	}
+
+	/**
+	 * Position of a cluster: minimum of its quadric inside its cell, or the
+	 * average of its vertices.
+	 *
+	 * @param v
+	 */
+	private void position(final int v) {
+		final int q = 10 * v;
+		final double a = quadrics[q];
+		final double b = quadrics[q + 1];
+		final double c = quadrics[q + 2];
+		final double d = quadrics[q + 3];
+		final double f = quadrics[q + 4];
+		final double g = quadrics[q + 5];
+		final double h = quadrics[q + 6];
+		final double i = quadrics[q + 7];
+		final double j = quadrics[q + 8];
+		// solve [a b c; b f g; c g i] x = -[d h j]
+		final double c00 = f * i - g * g;
+		final double c01 = c * g - b * i;
+		final double c02 = b * g - c * f;
+		final double det = a * c00 + b * c01 + c * c02;
+		final double trace = a + f + i;
+		if (Math.abs(det) > 1e-6 * trace * trace * trace) {
+			final double c11 = a * i - c * c;
+			final double c12 = b * c - a * g;
+			final double c22 = a * f - b * b;
+			coords[3 * v] = -(c00 * d + c01 * h + c02 * j) / det;
+			coords[3 * v + 1] = -(c01 * d + c11 * h + c12 * j) / det;
+			coords[3 * v + 2] = -(c02 * d + c12 * h + c22 * j) / det;
+			// accept positions inside the cell, with a margin of half a cell
+			final long cell = cells[v];
+			final long[] index = new long[] { cell / gridSize[2] / gridSize[1],
+					(cell / gridSize[2]) % gridSize[1], cell % gridSize[2] };
+			boolean inside = true;
+			double lo;
+			for (int k = 0; k < 3; k++) {
+				lo = origin[k] + (index[k] - 0.5) * cellSize;
+				if ((coords[3 * v + k] < lo)
+						|| (coords[3 * v + k] > lo + 2 * cellSize)) {
+					inside = false;
+				}
+			}
+			if (inside) {
+				return;
+			}
+		}
+		for (int k = 0; k < 3; k++) {
+			coords[3 * v + k] = sums[3 * v + k] / counts[v];
+		}
+	}
+}
@@ -0,0 +1,1524 @@
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.geom.WB_Coordinate;
+import wblut.geom.WB_MutableCoordinate;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+
+/**
+ * Index-based half-edge mesh. All connectivity is stored in primitive int
+ * arrays, all vertex positions in a single double array. Elements are
+ * identified by their index, -1 indicates a missing reference.
+ *
+ * Intended for very large meshes where the per-element objects of HE_Mesh
+ * become a burden. A HE_CompactMesh can be created from any HE_Mesh and turned
+ * back into one with HEC_FromCompactMesh. Only the subdividors and
+ * simplifiers with an index-based implementation (HES_CatmullClark,
+ * HES_DooSabin, HES_Loop and HES_QEM) can be applied to it, they work on the
+ * arrays directly. A HE_CompactMesh is not a HE_MeshStructure, other
+ * modifiers, subdividors and simplifiers need a HE_Mesh: use toMesh() and
+ * set(HE_Mesh), and keep in mind both are in memory at once.
+ *
+ * Lightweight flyweight handles (VertexHandle, HalfedgeHandle, FaceHandle)
+ * give object-like access to the elements without allocating per element.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public class HE_CompactMesh {
+
+	/** Number of vertices. */
+	protected int numberOfVertices;
+
+	/** Number of halfedges. */
+	protected int numberOfHalfedges;
+
+	/** Number of edges. */
+	protected int numberOfEdges;
+
+	/** Number of faces. */
+	protected int numberOfFaces;
+
+	/** Vertex coordinates: x0, y0, z0, x1, y1, z1, ... */
+	protected double[] coords;
+
+	/** Halfedge of each vertex. */
+	protected int[] vertexHalfedge;
+
+	/** Label of each vertex. */
+	protected int[] vertexLabel;
+
+	/** Color of each vertex. */
+	protected int[] vertexColor;
+
+	/** Next halfedge in face. */
+	protected int[] halfedgeNext;
+
+	/** Previous halfedge in face. */
+	protected int[] halfedgePrev;
+
+	/** Paired halfedge. */
+	protected int[] halfedgePair;
+
+	/** Start vertex of halfedge. */
+	protected int[] halfedgeVertex;
+
+	/** Face of halfedge, -1 for boundary halfedges. */
+	protected int[] halfedgeFace;
+
+	/** Edge of halfedge. */
+	protected int[] halfedgeEdge;
+
+	/** Halfedge of each edge. */
+	protected int[] edgeHalfedge;
+
+	/** Halfedge of each face. */
+	protected int[] faceHalfedge;
+
+	/** Label of each face. */
+	protected int[] faceLabel;
+
+	/** Color of each face. */
+	protected int[] faceColor;
+
+	/** Minimum number of elements per thread when converting. */
+	static final int GRAIN = 16384;
+
+	/** Storage is shared with a snapshot and has to be copied before a change. */
+	private boolean shared;
+
+	/**
+	 * Instantiates a new, empty HE_CompactMesh.
+	 */
+	public HE_CompactMesh() {
+		this(16, 64, 32, 16);
+	}
+
+	/**
+	 * Instantiates a new, empty HE_CompactMesh with an initial capacity.
+	 *
+	 * @param nv
+	 *            expected number of vertices
+	 * @param nhe
+	 *            expected number of halfedges
+	 * @param ne
+	 *            expected number of edges
+	 * @param nf
+	 *            expected number of faces
+	 */
+	public HE_CompactMesh(final int nv, final int nhe, final int ne,
+			final int nf) {
+		allocate(nv, nhe, ne, nf);
+	}
+
+	/**
+	 * Instantiates a new HE_CompactMesh from a HE_Mesh. The elements are
+	 * numbered by their position in the mesh.
+	 *
+	 * @param mesh
+	 *            source mesh
+	 */
+	public HE_CompactMesh(final HE_Mesh mesh) {
+		this(mesh.getNumberOfVertices(), mesh.getNumberOfHalfedges(), mesh
+				.getNumberOfEdges(), mesh.getNumberOfFaces());
+		set(mesh);
+	}
+
+	/**
+	 * Replace the contents of this compact mesh with a HE_Mesh. The elements
+	 * are numbered by their position in the mesh. Large meshes are converted
+	 * in parallel.
+	 *
+	 * @param mesh
+	 *            source mesh
+	 * @return self
+	 */
+	public HE_CompactMesh set(final HE_Mesh mesh) {
+		clear();
+		final int nv = mesh.getNumberOfVertices();
+		final int nhe = mesh.getNumberOfHalfedges();
+		final int ne = mesh.getNumberOfEdges();
+		final int nf = mesh.getNumberOfFaces();
+		ensureCapacity(nv, nhe, ne, nf);
+		numberOfVertices = nv;
+		numberOfHalfedges = nhe;
+		numberOfEdges = ne;
+		numberOfFaces = nf;
+		WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Vertex v;
+				for (int i = start; i < end; i++) {
+					v = mesh.getVertexByIndex(i);
+					coords[3 * i] = v.xd();
+					coords[3 * i + 1] = v.yd();
+					coords[3 * i + 2] = v.zd();
+					vertexHalfedge[i] = (v.getHalfedge() == null) ? -1 : mesh
+							.getIndex(v.getHalfedge());
+					vertexLabel[i] = v.getLabel();
+					vertexColor[i] = v.getColor();
+				}
+			}
+		});
+		WB_Parallel.forRange(nhe, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge he;
+				for (int i = start; i < end; i++) {
+					he = mesh.getHalfedgeByIndex(i);
+					halfedgeNext[i] = (he.getNextInFace() == null) ? -1 : mesh
+							.getIndex(he.getNextInFace());
+					halfedgePrev[i] = (he.getPrevInFace() == null) ? -1 : mesh
+							.getIndex(he.getPrevInFace());
+					halfedgePair[i] = (he.getPair() == null) ? -1 : mesh
+							.getIndex(he.getPair());
+					halfedgeVertex[i] = (he.getVertex() == null) ? -1 : mesh
+							.getIndex(he.getVertex());
+					halfedgeFace[i] = (he.getFace() == null) ? -1 : mesh
+							.getIndex(he.getFace());
+					halfedgeEdge[i] = (he.getEdge() == null) ? -1 : mesh
+							.getIndex(he.getEdge());
+				}
+			}
+		});
+		WB_Parallel.forRange(ne, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Edge e;
+				for (int i = start; i < end; i++) {
+					e = mesh.getEdgeByIndex(i);
+					edgeHalfedge[i] = (e.getHalfedge() == null) ? -1 : mesh
+							.getIndex(e.getHalfedge());
+				}
+			}
+		});
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Face f;
+				for (int i = start; i < end; i++) {
+					f = mesh.getFaceByIndex(i);
+					faceHalfedge[i] = (f.getHalfedge() == null) ? -1 : mesh
+							.getIndex(f.getHalfedge());
+					faceLabel[i] = f.getLabel();
+					faceColor[i] = f.getColor();
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Replace the contents of this compact mesh with a copy of another one.
+	 *
+	 * @param mesh
+	 *            source compact mesh
+	 * @return self
+	 */
+	public HE_CompactMesh set(final HE_CompactMesh mesh) {
+		numberOfVertices = mesh.numberOfVertices;
+		numberOfHalfedges = mesh.numberOfHalfedges;
+		numberOfEdges = mesh.numberOfEdges;
+		numberOfFaces = mesh.numberOfFaces;
+		coords = Arrays.copyOf(mesh.coords, mesh.coords.length);
+		vertexHalfedge = Arrays.copyOf(mesh.vertexHalfedge,
+				mesh.vertexHalfedge.length);
+		vertexLabel = Arrays.copyOf(mesh.vertexLabel, mesh.vertexLabel.length);
+		vertexColor = Arrays.copyOf(mesh.vertexColor, mesh.vertexColor.length);
+		halfedgeNext = Arrays.copyOf(mesh.halfedgeNext,
+				mesh.halfedgeNext.length);
+		halfedgePrev = Arrays.copyOf(mesh.halfedgePrev,
+				mesh.halfedgePrev.length);
+		halfedgePair = Arrays.copyOf(mesh.halfedgePair,
+				mesh.halfedgePair.length);
+		halfedgeVertex = Arrays.copyOf(mesh.halfedgeVertex,
+				mesh.halfedgeVertex.length);
+		halfedgeFace = Arrays.copyOf(mesh.halfedgeFace,
+				mesh.halfedgeFace.length);
+		halfedgeEdge = Arrays.copyOf(mesh.halfedgeEdge,
+				mesh.halfedgeEdge.length);
+		edgeHalfedge = Arrays.copyOf(mesh.edgeHalfedge,
+				mesh.edgeHalfedge.length);
+		faceHalfedge = Arrays.copyOf(mesh.faceHalfedge,
+				mesh.faceHalfedge.length);
+		faceLabel = Arrays.copyOf(mesh.faceLabel, mesh.faceLabel.length);
+		faceColor = Arrays.copyOf(mesh.faceColor, mesh.faceColor.length);
+		shared = false;
+		return this;
+	}
+
+	/**
+	 * Replace the contents of this compact mesh with an indexed triangle mesh.
+	 * Halfedges are paired by their vertices, each unpaired halfedge gets a
+	 * boundary halfedge. Triangles should be consistently oriented and share
+	 * an edge with at most one other triangle. Face i is triangle i, labels
+	 * and colors are -1.
+	 *
+	 * @param coords
+	 *            vertex coordinates, x,y,z per vertex
+	 * @param nv
+	 *            number of vertices
+	 * @param triangles
+	 *            vertex indices, three per triangle
+	 * @param nt
+	 *            number of triangles
+	 * @return self
+	 */
+	public HE_CompactMesh setTriangles(final double[] coords, final int nv,
+			final int[] triangles, final int nt) {
+		clear();
+		final int nfhe = 3 * nt;
+		// face halfedges sorted by start vertex
+		final int[] outStart = new int[nv + 1];
+		for (int h = 0; h < nfhe; h++) {
+			outStart[triangles[h] + 1]++;
+		}
+		for (int i = 0; i < nv; i++) {
+			outStart[i + 1] += outStart[i];
+		}
+		final int[] out = new int[nfhe];
+		final int[] cursor = Arrays.copyOf(outStart, nv + 1);
+		for (int h = 0; h < nfhe; h++) {
+			out[cursor[triangles[h]]++] = h;
+		}
+		final int[] pair = new int[nfhe];
+		Arrays.fill(pair, -1);
+		int nb = 0;
+		int u, v, g;
+		for (int h = 0; h < nfhe; h++) {
+			if (pair[h] != -1) {
+				continue;
+			}
+			u = triangles[h];
+			v = triangles[nextInTriangle(h)];
+			for (int k = outStart[v]; k < outStart[v + 1]; k++) {
+				g = out[k];
+				if ((g != h) && (pair[g] == -1)
+						&& (triangles[nextInTriangle(g)] == u)) {
+					pair[h] = g;
+					pair[g] = h;
+					break;
+				}
+			}
+			if (pair[h] == -1) {
+				nb++;
+			}
+		}
+		final int nhe = nfhe + nb;
+		ensureCapacity(nv, nhe, nhe / 2, nt);
+		numberOfVertices = nv;
+		numberOfHalfedges = nhe;
+		numberOfEdges = nhe / 2;
+		numberOfFaces = nt;
+		System.arraycopy(coords, 0, this.coords, 0, 3 * nv);
+		Arrays.fill(vertexHalfedge, 0, nv, -1);
+		Arrays.fill(vertexLabel, 0, nv, -1);
+		Arrays.fill(vertexColor, 0, nv, -1);
+		int b = nfhe;
+		int e = 0;
+		for (int h = 0; h < nfhe; h++) {
+			halfedgeNext[h] = nextInTriangle(h);
+			halfedgePrev[h] = nextInTriangle(nextInTriangle(h));
+			halfedgeVertex[h] = triangles[h];
+			halfedgeFace[h] = h / 3;
+			if (vertexHalfedge[triangles[h]] == -1) {
+				vertexHalfedge[triangles[h]] = h;
+			}
+			if (pair[h] == -1) {
+				halfedgePair[h] = b;
+				halfedgePair[b] = h;
+				halfedgeVertex[b] = triangles[nextInTriangle(h)];
+				halfedgeFace[b] = -1;
+				halfedgeEdge[h] = e;
+				halfedgeEdge[b] = e;
+				edgeHalfedge[e++] = h;
+				b++;
+			}
+			else {
+				halfedgePair[h] = pair[h];
+				if (h < pair[h]) {
+					halfedgeEdge[h] = e;
+					halfedgeEdge[pair[h]] = e;
+					edgeHalfedge[e++] = h;
+				}
+			}
+		}
+		for (int f = 0; f < nt; f++) {
+			faceHalfedge[f] = 3 * f;
+			faceLabel[f] = -1;
+			faceColor[f] = -1;
+		}
+		// boundary halfedges from v to u continue with a boundary halfedge
+		// starting at u, at every vertex there are as many of each
+		Arrays.fill(cursor, 0);
+		for (b = nfhe; b < nhe; b++) {
+			cursor[halfedgeVertex[b] + 1]++;
+		}
+		for (int i = 0; i < nv; i++) {
+			cursor[i + 1] += cursor[i];
+		}
+		final int[] boundaryOut = new int[nb];
+		for (b = nfhe; b < nhe; b++) {
+			boundaryOut[cursor[halfedgeVertex[b]]++] = b;
+		}
+		for (int i = nv; i > 0; i--) {
+			cursor[i] = cursor[i - 1];
+		}
+		cursor[0] = 0;
+		for (b = nfhe; b < nhe; b++) {
+			u = halfedgeVertex[halfedgePair[b]];
+			g = boundaryOut[cursor[u]++];
+			halfedgeNext[b] = g;
+			halfedgePrev[g] = b;
+		}
+		return this;
+	}
+
+	private static int nextInTriangle(final int h) {
+		return ((h % 3) == 2) ? h - 2 : h + 1;
+	}
+
+	/**
+	 * Deep copy.
+	 *
+	 * @return copy
+	 */
+	public HE_CompactMesh get() {
+		final HE_CompactMesh result = new HE_CompactMesh(1, 1, 1, 1);
+		result.set(this);
+		return result;
+	}
+
+	/**
+	 * Copy-on-write copy. The snapshot shares the storage of this mesh, the
+	 * arrays are only copied when either of them is changed. Snapshots are
+	 * cheap and intended for read-only copies, e.g. undo states.
+	 *
+	 * @return snapshot
+	 */
+	public HE_CompactMesh snapshot() {
+		final HE_CompactMesh result = new HE_CompactMesh(1, 1, 1, 1);
+		result.numberOfVertices = numberOfVertices;
+		result.numberOfHalfedges = numberOfHalfedges;
+		result.numberOfEdges = numberOfEdges;
+		result.numberOfFaces = numberOfFaces;
+		result.coords = coords;
+		result.vertexHalfedge = vertexHalfedge;
+		result.vertexLabel = vertexLabel;
+		result.vertexColor = vertexColor;
+		result.halfedgeNext = halfedgeNext;
+		result.halfedgePrev = halfedgePrev;
+		result.halfedgePair = halfedgePair;
+		result.halfedgeVertex = halfedgeVertex;
+		result.halfedgeFace = halfedgeFace;
+		result.halfedgeEdge = halfedgeEdge;
+		result.edgeHalfedge = edgeHalfedge;
+		result.faceHalfedge = faceHalfedge;
+		result.faceLabel = faceLabel;
+		result.faceColor = faceColor;
+		result.shared = true;
+		shared = true;
+		return result;
+	}
+
+	/**
+	 * Check if the storage is shared with a snapshot.
+	 *
+	 * @return true if shared
+	 */
+	public boolean isShared() {
+		return shared;
+	}
+
+	/**
+	 * Create a new HE_Mesh from this compact mesh.
+	 *
+	 * @return HE_Mesh
+	 */
+	public HE_Mesh toMesh() {
+		return new HE_Mesh(new HEC_FromCompactMesh(this));
+	}
+
+	// MACHINES
+
+	/**
+	 * Subdivide the mesh without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_CatmullClark to apply
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_CatmullClark subdividor) {
+		return subdivide(subdividor, 1);
+	}
+
+	/**
+	 * Subdivide the mesh a number of times without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_CatmullClark to apply
+	 * @param rep
+	 *            subdivision iterations
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_CatmullClark subdividor,
+			final int rep) {
+		return take(subdividor.subdivide(this, rep));
+	}
+
+	/**
+	 * Subdivide the mesh without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_DooSabin to apply
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_DooSabin subdividor) {
+		return subdivide(subdividor, 1);
+	}
+
+	/**
+	 * Subdivide the mesh a number of times without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_DooSabin to apply
+	 * @param rep
+	 *            subdivision iterations
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_DooSabin subdividor,
+			final int rep) {
+		return take(subdividor.subdivide(this, rep));
+	}
+
+	/**
+	 * Subdivide the mesh without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_Loop to apply
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_Loop subdividor) {
+		return subdivide(subdividor, 1);
+	}
+
+	/**
+	 * Subdivide the mesh a number of times without creating a HE_Mesh.
+	 *
+	 * @param subdividor
+	 *            HES_Loop to apply
+	 * @param rep
+	 *            subdivision iterations
+	 * @return self
+	 */
+	public HE_CompactMesh subdivide(final HES_Loop subdividor, final int rep) {
+		return take(subdividor.subdivide(this, rep));
+	}
+
+	/**
+	 * Simplify the mesh without creating a HE_Mesh.
+	 *
+	 * @param simplifier
+	 *            HES_QEM to apply
+	 * @return self
+	 */
+	public HE_CompactMesh simplify(final HES_QEM simplifier) {
+		return take(simplifier.simplify(this));
+	}
+
+	// STORAGE
+
+	/**
+	 * Allocate new, empty storage.
+	 *
+	 * @param nv
+	 *            number of vertices
+	 * @param nhe
+	 *            number of halfedges
+	 * @param ne
+	 *            number of edges
+	 * @param nf
+	 *            number of faces
+	 */
+	private void allocate(final int nv, final int nhe, final int ne,
+			final int nf) {
+		coords = new double[3 * Math.max(nv, 1)];
+		vertexHalfedge = new int[Math.max(nv, 1)];
+		vertexLabel = new int[Math.max(nv, 1)];
+		vertexColor = new int[Math.max(nv, 1)];
+		halfedgeNext = new int[Math.max(nhe, 1)];
+		halfedgePrev = new int[Math.max(nhe, 1)];
+		halfedgePair = new int[Math.max(nhe, 1)];
+		halfedgeVertex = new int[Math.max(nhe, 1)];
+		halfedgeFace = new int[Math.max(nhe, 1)];
+		halfedgeEdge = new int[Math.max(nhe, 1)];
+		edgeHalfedge = new int[Math.max(ne, 1)];
+		faceHalfedge = new int[Math.max(nf, 1)];
+		faceLabel = new int[Math.max(nf, 1)];
+		faceColor = new int[Math.max(nf, 1)];
+		shared = false;
+	}
+
+	/**
+	 * Take over the storage of another compact mesh, which should not be used
+	 * afterwards.
+	 *
+	 * @param mesh
+	 *            compact mesh
+	 * @return self
+	 */
+	private HE_CompactMesh take(final HE_CompactMesh mesh) {
+		if (mesh == this) {
+			return this;
+		}
+		numberOfVertices = mesh.numberOfVertices;
+		numberOfHalfedges = mesh.numberOfHalfedges;
+		numberOfEdges = mesh.numberOfEdges;
+		numberOfFaces = mesh.numberOfFaces;
+		coords = mesh.coords;
+		vertexHalfedge = mesh.vertexHalfedge;
+		vertexLabel = mesh.vertexLabel;
+		vertexColor = mesh.vertexColor;
+		halfedgeNext = mesh.halfedgeNext;
+		halfedgePrev = mesh.halfedgePrev;
+		halfedgePair = mesh.halfedgePair;
+		halfedgeVertex = mesh.halfedgeVertex;
+		halfedgeFace = mesh.halfedgeFace;
+		halfedgeEdge = mesh.halfedgeEdge;
+		edgeHalfedge = mesh.edgeHalfedge;
+		faceHalfedge = mesh.faceHalfedge;
+		faceLabel = mesh.faceLabel;
+		faceColor = mesh.faceColor;
+		shared = mesh.shared;
+		return this;
+	}
+
+	/**
+	 * Make sure the storage is not shared with a snapshot before changing it.
+	 */
+	private void own() {
+		if (shared) {
+			set(this);
+		}
+	}
+
+	/**
+	 * Remove all elements. Allocated storage is kept.
+	 */
+	public void clear() {
+		if (shared) {
+			allocate(vertexHalfedge.length, halfedgeNext.length,
+					edgeHalfedge.length, faceHalfedge.length);
+		}
+		numberOfVertices = 0;
+		numberOfHalfedges = 0;
+		numberOfEdges = 0;
+		numberOfFaces = 0;
+	}
+
+	/**
+	 * Make sure the mesh can hold a number of elements without reallocating.
+	 *
+	 * @param nv
+	 *            number of vertices
+	 * @param nhe
+	 *            number of halfedges
+	 * @param ne
+	 *            number of edges
+	 * @param nf
+	 *            number of faces
+	 */
+	public void ensureCapacity(final int nv, final int nhe, final int ne,
+			final int nf) {
+		own();
+		if (nv > vertexHalfedge.length) {
+			coords = Arrays.copyOf(coords, 3 * nv);
+			vertexHalfedge = Arrays.copyOf(vertexHalfedge, nv);
+			vertexLabel = Arrays.copyOf(vertexLabel, nv);
+			vertexColor = Arrays.copyOf(vertexColor, nv);
+		}
+		if (nhe > halfedgeNext.length) {
+			halfedgeNext = Arrays.copyOf(halfedgeNext, nhe);
+			halfedgePrev = Arrays.copyOf(halfedgePrev, nhe);
+			halfedgePair = Arrays.copyOf(halfedgePair, nhe);
+			halfedgeVertex = Arrays.copyOf(halfedgeVertex, nhe);
+			halfedgeFace = Arrays.copyOf(halfedgeFace, nhe);
+			halfedgeEdge = Arrays.copyOf(halfedgeEdge, nhe);
+		}
+		if (ne > edgeHalfedge.length) {
+			edgeHalfedge = Arrays.copyOf(edgeHalfedge, ne);
+		}
+		if (nf > faceHalfedge.length) {
+			faceHalfedge = Arrays.copyOf(faceHalfedge, nf);
+			faceLabel = Arrays.copyOf(faceLabel, nf);
+			faceColor = Arrays.copyOf(faceColor, nf);
+		}
+	}
+
+	/**
+	 * Release unused storage.
+	 */
+	public void trim() {
+		final int nv = Math.max(numberOfVertices, 1);
+		final int nhe = Math.max(numberOfHalfedges, 1);
+		final int ne = Math.max(numberOfEdges, 1);
+		final int nf = Math.max(numberOfFaces, 1);
+		coords = Arrays.copyOf(coords, 3 * nv);
+		vertexHalfedge = Arrays.copyOf(vertexHalfedge, nv);
+		vertexLabel = Arrays.copyOf(vertexLabel, nv);
+		vertexColor = Arrays.copyOf(vertexColor, nv);
+		halfedgeNext = Arrays.copyOf(halfedgeNext, nhe);
+		halfedgePrev = Arrays.copyOf(halfedgePrev, nhe);
+		halfedgePair = Arrays.copyOf(halfedgePair, nhe);
+		halfedgeVertex = Arrays.copyOf(halfedgeVertex, nhe);
+		halfedgeFace = Arrays.copyOf(halfedgeFace, nhe);
+		halfedgeEdge = Arrays.copyOf(halfedgeEdge, nhe);
+		edgeHalfedge = Arrays.copyOf(edgeHalfedge, ne);
+		faceHalfedge = Arrays.copyOf(faceHalfedge, nf);
+		faceLabel = Arrays.copyOf(faceLabel, nf);
+		faceColor = Arrays.copyOf(faceColor, nf);
+		shared = false;
+	}
+
+	/**
+	 * Approximate memory used by the mesh arrays.
+	 *
+	 * @return size in bytes
+	 */
+	public long getMemoryUsage() {
+		return getMemoryUsage(vertexHalfedge.length, halfedgeNext.length,
+				edgeHalfedge.length, faceHalfedge.length);
+	}
+
+	/**
+	 * Approximate memory needed by a compact mesh with a given number of
+	 * elements.
+	 *
+	 * @param nv
+	 *            number of vertices
+	 * @param nhe
+	 *            number of halfedges
+	 * @param ne
+	 *            number of edges
+	 * @param nf
+	 *            number of faces
+	 * @return size in bytes
+	 */
+	public static long getMemoryUsage(final long nv, final long nhe,
+			final long ne, final long nf) {
+		return nv * (3 * 8 + 3 * 4) + nhe * (6 * 4) + ne * 4 + nf * (3 * 4);
+	}
+
+	// CREATION
+
+	/**
+	 * Add a vertex.
+	 *
+	 * @param x
+	 *            x-coordinate
+	 * @param y
+	 *            y-coordinate
+	 * @param z
+	 *            z-coordinate
+	 * @return index of new vertex
+	 */
+	public int addVertex(final double x, final double y, final double z) {
+		own();
+		if (numberOfVertices == vertexHalfedge.length) {
+			ensureCapacity(grow(numberOfVertices), 0, 0, 0);
+		}
+		final int i = numberOfVertices++;
+		coords[3 * i] = x;
+		coords[3 * i + 1] = y;
+		coords[3 * i + 2] = z;
+		vertexHalfedge[i] = -1;
+		vertexLabel[i] = -1;
+		vertexColor[i] = -1;
+		return i;
+	}
+
+	/**
+	 * Add a vertex.
+	 *
+	 * @param p
+	 *            position
+	 * @return index of new vertex
+	 */
+	public int addVertex(final WB_Coordinate p) {
+		return addVertex(p.xd(), p.yd(), p.zd());
+	}
+
+	/**
+	 * Add an unconnected halfedge.
+	 *
+	 * @return index of new halfedge
+	 */
+	public int addHalfedge() {
+		own();
+		if (numberOfHalfedges == halfedgeNext.length) {
+			ensureCapacity(0, grow(numberOfHalfedges), 0, 0);
+		}
+		final int i = numberOfHalfedges++;
+		halfedgeNext[i] = -1;
+		halfedgePrev[i] = -1;
+		halfedgePair[i] = -1;
+		halfedgeVertex[i] = -1;
+		halfedgeFace[i] = -1;
+		halfedgeEdge[i] = -1;
+		return i;
+	}
+
+	/**
+	 * Add an edge.
+	 *
+	 * @return index of new edge
+	 */
+	public int addEdge() {
+		own();
+		if (numberOfEdges == edgeHalfedge.length) {
+			ensureCapacity(0, 0, grow(numberOfEdges), 0);
+		}
+		final int i = numberOfEdges++;
+		edgeHalfedge[i] = -1;
+		return i;
+	}
+
+	/**
+	 * Add a face.
+	 *
+	 * @return index of new face
+	 */
+	public int addFace() {
+		own();
+		if (numberOfFaces == faceHalfedge.length) {
+			ensureCapacity(0, 0, 0, grow(numberOfFaces));
+		}
+		final int i = numberOfFaces++;
+		faceHalfedge[i] = -1;
+		faceLabel[i] = -1;
+		faceColor[i] = -1;
+		return i;
+	}
+
+	private static int grow(final int n) {
+		return Math.max(16, n + (n >> 1) + 1);
+	}
+
+	// ACCESS
+
+	public final int getNumberOfVertices() {
+		return numberOfVertices;
+	}
+
+	public final int getNumberOfHalfedges() {
+		return numberOfHalfedges;
+	}
+
+	public final int getNumberOfEdges() {
+		return numberOfEdges;
+	}
+
+	public final int getNumberOfFaces() {
+		return numberOfFaces;
+	}
+
+	/**
+	 * Direct access to the coordinate array: x0, y0, z0, x1, y1, z1, ... The
+	 * array can be longer than 3*getNumberOfVertices(). Storage shared with a
+	 * snapshot is copied first.
+	 *
+	 * @return coordinates
+	 */
+	public final double[] getCoordinates() {
+		own();
+		return coords;
+	}
+
+	public final double xd(final int v) {
+		return coords[3 * v];
+	}
+
+	public final double yd(final int v) {
+		return coords[3 * v + 1];
+	}
+
+	public final double zd(final int v) {
+		return coords[3 * v + 2];
+	}
+
+	public final void setVertex(final int v, final double x, final double y,
+			final double z) {
+		own();
+		coords[3 * v] = x;
+		coords[3 * v + 1] = y;
+		coords[3 * v + 2] = z;
+	}
+
+	public final int getVertexHalfedge(final int v) {
+		return vertexHalfedge[v];
+	}
+
+	public final void setVertexHalfedge(final int v, final int he) {
+		own();
+		vertexHalfedge[v] = he;
+	}
+
+	public final int getVertexLabel(final int v) {
+		return vertexLabel[v];
+	}
+
+	public final void setVertexLabel(final int v, final int label) {
+		own();
+		vertexLabel[v] = label;
+	}
+
+	public final int getVertexColor(final int v) {
+		return vertexColor[v];
+	}
+
+	public final void setVertexColor(final int v, final int color) {
+		own();
+		vertexColor[v] = color;
+	}
+
+	public final int getNextInFace(final int he) {
+		return halfedgeNext[he];
+	}
+
+	public final int getPrevInFace(final int he) {
+		return halfedgePrev[he];
+	}
+
+	public final int getNextInVertex(final int he) {
+		final int pair = halfedgePair[he];
+		return (pair < 0) ? -1 : halfedgeNext[pair];
+	}
+
+	public final int getPrevInVertex(final int he) {
+		final int prev = halfedgePrev[he];
+		return (prev < 0) ? -1 : halfedgePair[prev];
+	}
+
+	public final int getPair(final int he) {
+		return halfedgePair[he];
+	}
+
+	public final int getVertex(final int he) {
+		return halfedgeVertex[he];
+	}
+
+	public final int getEndVertex(final int he) {
+		final int pair = halfedgePair[he];
+		if (pair >= 0) {
+			return halfedgeVertex[pair];
+		}
+		return halfedgeVertex[halfedgeNext[he]];
+	}
+
+	public final int getFace(final int he) {
+		return halfedgeFace[he];
+	}
+
+	public final int getEdge(final int he) {
+		return halfedgeEdge[he];
+	}
+
+	/**
+	 * Set next halfedge in face, also sets the previous halfedge of next.
+	 *
+	 * @param he
+	 *            halfedge
+	 * @param next
+	 *            next halfedge
+	 */
+	public final void setNext(final int he, final int next) {
+		own();
+		halfedgeNext[he] = next;
+		if (next >= 0) {
+			halfedgePrev[next] = he;
+		}
+	}
+
+	/**
+	 * Mutually pair halfedges.
+	 *
+	 * @param he
+	 *            halfedge
+	 * @param pair
+	 *            halfedge to pair
+	 */
+	public final void setPair(final int he, final int pair) {
+		own();
+		halfedgePair[he] = pair;
+		if (pair >= 0) {
+			halfedgePair[pair] = he;
+		}
+	}
+
+	public final void setVertex(final int he, final int v) {
+		own();
+		halfedgeVertex[he] = v;
+	}
+
+	public final void setFace(final int he, final int f) {
+		own();
+		halfedgeFace[he] = f;
+	}
+
+	public final void setEdge(final int he, final int e) {
+		own();
+		halfedgeEdge[he] = e;
+	}
+
+	public final int getEdgeHalfedge(final int e) {
+		return edgeHalfedge[e];
+	}
+
+	public final void setEdgeHalfedge(final int e, final int he) {
+		own();
+		edgeHalfedge[e] = he;
+	}
+
+	public final int getFaceHalfedge(final int f) {
+		return faceHalfedge[f];
+	}
+
+	public final void setFaceHalfedge(final int f, final int he) {
+		own();
+		faceHalfedge[f] = he;
+	}
+
+	public final int getFaceLabel(final int f) {
+		return faceLabel[f];
+	}
+
+	public final void setFaceLabel(final int f, final int label) {
+		own();
+		faceLabel[f] = label;
+	}
+
+	public final int getFaceColor(final int f) {
+		return faceColor[f];
+	}
+
+	public final void setFaceColor(final int f, final int color) {
+		own();
+		faceColor[f] = color;
+	}
+
+	/**
+	 * Number of vertices in face.
+	 *
+	 * @param f
+	 *            face index
+	 * @return face order
+	 */
+	public final int getFaceOrder(final int f) {
+		final int start = faceHalfedge[f];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int n = 0;
+		do {
+			n++;
+			he = halfedgeNext[he];
+		} while (he != start);
+		return n;
+	}
+
+	/**
+	 * Number of edges in vertex.
+	 *
+	 * @param v
+	 *            vertex index
+	 * @return vertex order
+	 */
+	public final int getVertexOrder(final int v) {
+		final int start = vertexHalfedge[v];
+		if (start < 0) {
+			return 0;
+		}
+		int he = start;
+		int n = 0;
+		do {
+			n++;
+			he = halfedgeNext[halfedgePair[he]];
+		} while (he != start);
+		return n;
+	}
+
+	/**
+	 * Get the vertex indices of a face.
+	 *
+	 * @param f
+	 *            face index
+	 * @return vertex indices
+	 */
+	public int[] getFaceVertices(final int f) {
+		final int[] result = new int[getFaceOrder(f)];
+		int he = faceHalfedge[f];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = halfedgeVertex[he];
+			he = halfedgeNext[he];
+		}
+		return result;
+	}
+
+	/**
+	 * Get all faces as vertex indices.
+	 *
+	 * @return 2D array of int. First index gives face. Second index gives
+	 *         vertex.
+	 */
+	public int[][] getFacesAsInt() {
+		final int[][] result = new int[numberOfFaces][];
+		for (int f = 0; f < numberOfFaces; f++) {
+			result[f] = getFaceVertices(f);
+		}
+		return result;
+	}
+
+	/**
+	 * Newell normal of a face, not normalized.
+	 *
+	 * @param f
+	 *            face index
+	 * @param result
+	 *            array of at least length 3 to store the normal
+	 */
+	public final void getFaceNormalNN(final int f, final double[] result) {
+		result[0] = result[1] = result[2] = 0;
+		final int start = faceHalfedge[f];
+		if (start < 0) {
+			return;
+		}
+		int he = start;
+		int i0, i1;
+		do {
+			i0 = 3 * halfedgeVertex[he];
+			i1 = 3 * halfedgeVertex[halfedgeNext[he]];
+			result[0] += (coords[i0 + 1] - coords[i1 + 1])
+					* (coords[i0 + 2] + coords[i1 + 2]);
+			result[1] += (coords[i0 + 2] - coords[i1 + 2])
+					* (coords[i0] + coords[i1]);
+			result[2] += (coords[i0] - coords[i1])
+					* (coords[i0 + 1] + coords[i1 + 1]);
+			he = halfedgeNext[he];
+		} while (he != start);
+	}
+
+	/**
+	 * Center of a face.
+	 *
+	 * @param f
+	 *            face index
+	 * @param result
+	 *            array of at least length 3 to store the center
+	 */
+	public final void getFaceCenter(final int f, final double[] result) {
+		result[0] = result[1] = result[2] = 0;
+		final int start = faceHalfedge[f];
+		if (start < 0) {
+			return;
+		}
+		int he = start;
+		int n = 0;
+		int i0;
+		do {
+			i0 = 3 * halfedgeVertex[he];
+			result[0] += coords[i0];
+			result[1] += coords[i0 + 1];
+			result[2] += coords[i0 + 2];
+			n++;
+			he = halfedgeNext[he];
+		} while (he != start);
+		result[0] /= n;
+		result[1] /= n;
+		result[2] /= n;
+	}
+
+	/**
+	 * Check the connectivity of the mesh.
+	 *
+	 * @return true if all references are consistent
+	 */
+	public boolean validate() {
+		for (int he = 0; he < numberOfHalfedges; he++) {
+			final int next = halfedgeNext[he];
+			final int pair = halfedgePair[he];
+			if ((next < 0) || (next >= numberOfHalfedges)
+					|| (halfedgePrev[next] != he)) {
+				return false;
+			}
+			if ((pair < 0) || (pair >= numberOfHalfedges)
+					|| (halfedgePair[pair] != he) || (pair == he)) {
+				return false;
+			}
+			if (halfedgeVertex[pair] != halfedgeVertex[next]) {
+				return false;
+			}
+			if ((halfedgeVertex[he] < 0)
+					|| (halfedgeVertex[he] >= numberOfVertices)) {
+				return false;
+			}
+			if (halfedgeFace[next] != halfedgeFace[he]) {
+				return false;
+			}
+			final int e = halfedgeEdge[he];
+			if ((e < 0) || (e >= numberOfEdges) || (halfedgeEdge[pair] != e)) {
+				return false;
+			}
+		}
+		for (int v = 0; v < numberOfVertices; v++) {
+			final int he = vertexHalfedge[v];
+			if ((he >= 0) && (halfedgeVertex[he] != v)) {
+				return false;
+			}
+		}
+		for (int e = 0; e < numberOfEdges; e++) {
+			final int he = edgeHalfedge[e];
+			if ((he < 0) || (halfedgeEdge[he] != e)) {
+				return false;
+			}
+		}
+		for (int f = 0; f < numberOfFaces; f++) {
+			final int he = faceHalfedge[f];
+			if ((he < 0) || (halfedgeFace[he] != f)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// FLYWEIGHTS
+
+	/**
+	 * Get a reusable handle to a vertex.
+	 *
+	 * @param v
+	 *            vertex index
+	 * @return handle
+	 */
+	public VertexHandle getVertexHandle(final int v) {
+		return new VertexHandle().set(v);
+	}
+
+	/**
+	 * Get a reusable handle to a halfedge.
+	 *
+	 * @param he
+	 *            halfedge index
+	 * @return handle
+	 */
+	public HalfedgeHandle getHalfedgeHandle(final int he) {
+		return new HalfedgeHandle().set(he);
+	}
+
+	/**
+	 * Get a reusable handle to a face.
+	 *
+	 * @param f
+	 *            face index
+	 * @return handle
+	 */
+	public FaceHandle getFaceHandle(final int f) {
+		return new FaceHandle().set(f);
+	}
+
+	/**
+	 * Flyweight vertex. Presents a vertex of the compact mesh as a mutable
+	 * coordinate. Changing the index makes the handle point to another vertex,
+	 * no objects are created.
+	 */
+	public class VertexHandle implements WB_MutableCoordinate {
+		int index;
+
+		VertexHandle() {
+			index = -1;
+		}
+
+		public VertexHandle set(final int v) {
+			index = v;
+			return this;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getHalfedge() {
+			return vertexHalfedge[index];
+		}
+
+		public int getLabel() {
+			return vertexLabel[index];
+		}
+
+		public int getVertexOrder() {
+			return HE_CompactMesh.this.getVertexOrder(index);
+		}
+
+		public WB_Point getPoint() {
+			return new WB_Point(xd(), yd(), zd());
+		}
+
+		@Override
+		public double xd() {
+			return coords[3 * index];
+		}
+
+		@Override
+		public double yd() {
+			return coords[3 * index + 1];
+		}
+
+		@Override
+		public double zd() {
+			return coords[3 * index + 2];
+		}
+
+		@Override
+		public double wd() {
+			return 1;
+		}
+
+		@Override
+		public double getd(final int i) {
+			if (i < 3) {
+				return coords[3 * index + i];
+			}
+			return (i == 3) ? 1 : Double.NaN;
+		}
+
+		@Override
+		public float xf() {
+			return (float) xd();
+		}
+
+		@Override
+		public float yf() {
+			return (float) yd();
+		}
+
+		@Override
+		public float zf() {
+			return (float) zd();
+		}
+
+		@Override
+		public float wf() {
+			return 1f;
+		}
+
+		@Override
+		public float getf(final int i) {
+			return (float) getd(i);
+		}
+
+		@Override
+		public void _setX(final double x) {
+			own();
+			coords[3 * index] = x;
+		}
+
+		@Override
+		public void _setY(final double y) {
+			own();
+			coords[3 * index + 1] = y;
+		}
+
+		@Override
+		public void _setZ(final double z) {
+			own();
+			coords[3 * index + 2] = z;
+		}
+
+		@Override
+		public void _setW(final double w) {
+		}
+
+		@Override
+		public void _setCoord(final int i, final double v) {
+			own();
+			if (i < 3) {
+				coords[3 * index + i] = v;
+			}
+		}
+
+		@Override
+		public void _set(final WB_Coordinate p) {
+			_set(p.xd(), p.yd(), p.zd());
+		}
+
+		@Override
+		public void _set(final double x, final double y) {
+			own();
+			coords[3 * index] = x;
+			coords[3 * index + 1] = y;
+		}
+
+		@Override
+		public void _set(final double x, final double y, final double z) {
+			own();
+			coords[3 * index] = x;
+			coords[3 * index + 1] = y;
+			coords[3 * index + 2] = z;
+		}
+
+		@Override
+		public void _set(final double x, final double y, final double z,
+				final double w) {
+			_set(x, y, z);
+		}
+
+		@Override
+		public String toString() {
+			return "HE_CompactMesh vertex " + index + " [x=" + xd() + ", y="
+					+ yd() + ", z=" + zd() + "]";
+		}
+	}
+
+	/**
+	 * Flyweight halfedge. The navigation methods move the handle itself, no
+	 * objects are created.
+	 */
+	public class HalfedgeHandle {
+		int index;
+
+		HalfedgeHandle() {
+			index = -1;
+		}
+
+		public HalfedgeHandle set(final int he) {
+			index = he;
+			return this;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getVertex() {
+			return halfedgeVertex[index];
+		}
+
+		public int getEndVertex() {
+			return HE_CompactMesh.this.getEndVertex(index);
+		}
+
+		public int getFace() {
+			return halfedgeFace[index];
+		}
+
+		public int getEdge() {
+			return halfedgeEdge[index];
+		}
+
+		public boolean isBoundary() {
+			return halfedgeFace[index] < 0;
+		}
+
+		public HalfedgeHandle toNextInFace() {
+			index = halfedgeNext[index];
+			return this;
+		}
+
+		public HalfedgeHandle toPrevInFace() {
+			index = halfedgePrev[index];
+			return this;
+		}
+
+		public HalfedgeHandle toPair() {
+			index = halfedgePair[index];
+			return this;
+		}
+
+		public HalfedgeHandle toNextInVertex() {
+			index = HE_CompactMesh.this.getNextInVertex(index);
+			return this;
+		}
+
+		public HalfedgeHandle toPrevInVertex() {
+			index = HE_CompactMesh.this.getPrevInVertex(index);
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "HE_CompactMesh halfedge " + index + ", vertex "
+					+ getVertex() + ", pair " + halfedgePair[index] + ".";
+		}
+	}
+
+	/**
+	 * Flyweight face.
+	 */
+	public class FaceHandle {
+		int index;
+		private final double[] tmp;
+
+		FaceHandle() {
+			index = -1;
+			tmp = new double[3];
+		}
+
+		public FaceHandle set(final int f) {
+			index = f;
+			return this;
+		}
+
+		public int getIndex() {
+			return index;
+		}
+
+		public int getHalfedge() {
+			return faceHalfedge[index];
+		}
+
+		public int getLabel() {
+			return faceLabel[index];
+		}
+
+		public int getFaceOrder() {
+			return HE_CompactMesh.this.getFaceOrder(index);
+		}
+
+		/**
+		 * Face normal, stored in result.
+		 *
+		 * @param result
+		 *            vector to store the normal
+		 * @return result
+		 */
+		public WB_Vector getFaceNormal(final WB_Vector result) {
+			getFaceNormalNN(index, tmp);
+			result._set(tmp[0], tmp[1], tmp[2]);
+			result._normalizeSelf();
+			return result;
+		}
+
+		/**
+		 * Face center, stored in result.
+		 *
+		 * @param result
+		 *            point to store the center
+		 * @return result
+		 */
+		public WB_Point getFaceCenter(final WB_Point result) {
+			HE_CompactMesh.this.getFaceCenter(index, tmp);
+			result._set(tmp[0], tmp[1], tmp[2]);
+			return result;
+		}
+
+		@Override
+		public String toString() {
+			return "HE_CompactMesh face " + index + ". Connects "
+					+ getFaceOrder() + " vertices.";
+		}
+	}
+
+}
@@ -0,0 +1,834 @@
+package wblut.hemesh;
+
+import wblut.core.WB_Parallel;
+import wblut.math.WB_Epsilon;
+import wblut.math.WB_Parameter;
+
+/**
+ * Subdivision schemes working directly on the index arrays of a
+ * HE_CompactMesh. Each step computes the new positions into index-addressed
+ * arrays and writes the refined connectivity in closed form, no maps,
+ * selections or incremental edge and face splits are used. All passes over
+ * vertices, edges and halfedges run in parallel, every element only writes to
+ * its own entries.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_CompactSubdivision {
+
+	/** Minimum number of elements per thread. */
+	private static final int GRAIN = 8192;
+
+	private static final double THIRD = 1.0 / 3.0;
+
+	private HE_CompactSubdivision() {
+	}
+
+	/**
+	 * One step of Catmull-Clark subdivision. Follows HES_CatmullClark: every
+	 * face is split in quads, blendFactor interpolates between the split
+	 * position and the smoothed position.
+	 *
+	 * Vertex numbering of the result: the old vertices keep their index, the
+	 * point of edge e is nv+e, the point of face f is nv+ne+f. Each halfedge h
+	 * of a face becomes quad rank(h), where rank counts the face halfedges in
+	 * index order. The old vertices are labeled -1, edge points 1 and face
+	 * points 2.
+	 *
+	 * @param mesh
+	 *            mesh, not modified
+	 * @param keepBoundary
+	 *            keep boundary vertices on the split boundary
+	 * @param blendFactor
+	 *            blend factor, evaluated concurrently
+	 * @return subdivided mesh
+	 */
+	static HE_CompactMesh catmullClark(final HE_CompactMesh mesh,
+			final boolean keepBoundary, final WB_Parameter<Double> blendFactor) {
+		final int nv = mesh.numberOfVertices;
+		final int nhe = mesh.numberOfHalfedges;
+		final int ne = mesh.numberOfEdges;
+		final int nf = mesh.numberOfFaces;
+		final double[] coords = mesh.coords;
+		final int[] next = mesh.halfedgeNext;
+		final int[] prev = mesh.halfedgePrev;
+		final int[] pair = mesh.halfedgePair;
+		final int[] hv = mesh.halfedgeVertex;
+		final int[] hf = mesh.halfedgeFace;
+		final int[] he = mesh.halfedgeEdge;
+		final int[] eh = mesh.edgeHalfedge;
+		final EdgeSplit split = new EdgeSplit(mesh, 4);
+		final int nIn = split.nIn;
+		final HE_CompactMesh result = split.allocate(nv + ne + nf,
+				2 * ne + nIn, nIn);
+		final double[] rc = result.coords;
+		final int fpStart = nv + ne;
+		// face points
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, v, c;
+				double x, y, z, ic;
+				for (int i = start; i < end; i++) {
+					x = y = z = 0;
+					c = 0;
+					h = mesh.faceHalfedge[i];
+					do {
+						v = hv[h];
+						x += coords[3 * v];
+						y += coords[3 * v + 1];
+						z += coords[3 * v + 2];
+						c++;
+						h = next[h];
+					} while (h != mesh.faceHalfedge[i]);
+					ic = 1.0 / c;
+					rc[3 * (fpStart + i)] = x * ic;
+					rc[3 * (fpStart + i) + 1] = y * ic;
+					rc[3 * (fpStart + i) + 2] = z * ic;
+				}
+			}
+		});
+		// edge points, the face points are final
+		WB_Parallel.forRange(ne, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, p, a, b, f0, f1;
+				double mx, my, mz, px, py, pz, t;
+				for (int i = start; i < end; i++) {
+					h = eh[i];
+					p = pair[h];
+					a = hv[h];
+					b = hv[p];
+					mx = 0.5 * coords[3 * a] + 0.5 * coords[3 * b];
+					my = 0.5 * coords[3 * a + 1] + 0.5 * coords[3 * b + 1];
+					mz = 0.5 * coords[3 * a + 2] + 0.5 * coords[3 * b + 2];
+					f0 = hf[h];
+					f1 = hf[p];
+					if ((f0 == -1) || (f1 == -1)) {
+						if (keepBoundary) {
+							setPoint(rc, nv + i, mx, my, mz);
+							continue;
+						}
+						px = (mx + coords[3 * a] + coords[3 * b]) * THIRD;
+						py = (my + coords[3 * a + 1] + coords[3 * b + 1]) * THIRD;
+						pz = (mz + coords[3 * a + 2] + coords[3 * b + 2]) * THIRD;
+					}
+					else {
+						f0 = 3 * (fpStart + f0);
+						f1 = 3 * (fpStart + f1);
+						px = 0.25 * (coords[3 * a] + coords[3 * b] + rc[f0]
+								+ rc[f1]);
+						py = 0.25 * (coords[3 * a + 1] + coords[3 * b + 1]
+								+ rc[f0 + 1] + rc[f1 + 1]);
+						pz = 0.25 * (coords[3 * a + 2] + coords[3 * b + 2]
+								+ rc[f0 + 2] + rc[f1 + 2]);
+					}
+					t = blendFactor.value(mx, my, mz);
+					setPoint(rc, nv + i, (1.0 - t) * mx + t * px, (1.0 - t)
+							* my + t * py, (1.0 - t) * mz + t * pz);
+				}
+			}
+		});
+		// vertex points
+		WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, h0, b, f, order, nfc, nb;
+				double x, y, z, fx, fy, fz, mx, my, mz, bx, by, bz;
+				double px, py, pz, t, io;
+				for (int i = start; i < end; i++) {
+					x = coords[3 * i];
+					y = coords[3 * i + 1];
+					z = coords[3 * i + 2];
+					h0 = mesh.vertexHalfedge[i];
+					if (h0 == -1) {
+						setPoint(rc, i, x, y, z);
+						continue;
+					}
+					fx = fy = fz = mx = my = mz = bx = by = bz = 0;
+					order = nfc = nb = 0;
+					h = h0;
+					do {
+						b = hv[pair[h]];
+						px = 0.5 * x + 0.5 * coords[3 * b];
+						py = 0.5 * y + 0.5 * coords[3 * b + 1];
+						pz = 0.5 * z + 0.5 * coords[3 * b + 2];
+						mx += px;
+						my += py;
+						mz += pz;
+						order++;
+						f = hf[h];
+						if ((f == -1) || (hf[pair[h]] == -1)) {
+							bx += px;
+							by += py;
+							bz += pz;
+							nb++;
+						}
+						if (f != -1) {
+							f = 3 * (fpStart + f);
+							fx += rc[f];
+							fy += rc[f + 1];
+							fz += rc[f + 2];
+							nfc++;
+						}
+						h = next[pair[h]];
+					} while ((h != h0) && (h != -1));
+					if (nb > 0) {
+						if (keepBoundary || (nb < 2)) {
+							setPoint(rc, i, x, y, z);
+							continue;
+						}
+						io = 1.0 / (1 + nb);
+						px = (x + bx) * io;
+						py = (y + by) * io;
+						pz = (z + bz) * io;
+					}
+					else {
+						io = 1.0 / nfc;
+						fx *= io;
+						fy *= io;
+						fz *= io;
+						io = 1.0 / order;
+						px = (fx + 2.0 * io * mx + (order - 3) * x) * io;
+						py = (fy + 2.0 * io * my + (order - 3) * y) * io;
+						pz = (fz + 2.0 * io * mz + (order - 3) * z) * io;
+					}
+					t = blendFactor.value(x, y, z);
+					setPoint(rc, i, (1.0 - t) * x + t * px, (1.0 - t) * y + t
+							* py, (1.0 - t) * z + t * pz);
+				}
+			}
+		});
+		// refined connectivity, each face halfedge writes its own quad
+		final int[] rank = split.rank;
+		WB_Parallel.forRange(nhe, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int q, p, i0;
+				for (int h = start; h < end; h++) {
+					if (hf[h] == -1) {
+						split.boundary(result, h);
+						continue;
+					}
+					q = rank[h];
+					i0 = 4 * q;
+					p = prev[h];
+					for (int k = 0; k < 4; k++) {
+						result.halfedgeNext[i0 + k] = i0 + ((k + 1) & 3);
+						result.halfedgePrev[i0 + k] = i0 + ((k + 3) & 3);
+						result.halfedgeFace[i0 + k] = q;
+					}
+					result.halfedgeVertex[i0] = hv[h];
+					result.halfedgeVertex[i0 + 1] = nv + he[h];
+					result.halfedgeVertex[i0 + 2] = fpStart + hf[h];
+					result.halfedgeVertex[i0 + 3] = nv + he[p];
+					result.halfedgeEdge[i0] = split.firstEdge(h);
+					result.halfedgeEdge[i0 + 1] = 2 * ne + q;
+					result.halfedgeEdge[i0 + 2] = 2 * ne + rank[p];
+					result.halfedgeEdge[i0 + 3] = split.secondEdge(p);
+					result.halfedgePair[i0] = split.second(pair[h]);
+					result.halfedgePair[i0 + 1] = 4 * rank[next[h]] + 2;
+					result.halfedgePair[i0 + 2] = 4 * rank[p] + 1;
+					result.halfedgePair[i0 + 3] = split.first(pair[p]);
+					result.edgeHalfedge[2 * ne + q] = i0 + 1;
+					result.faceHalfedge[q] = i0;
+					result.faceLabel[q] = mesh.faceLabel[hf[h]];
+					result.faceColor[q] = mesh.faceColor[hf[h]];
+				}
+			}
+		});
+		split.edges(result);
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					result.vertexHalfedge[fpStart + i] = 4 * rank[mesh.faceHalfedge[i]]
+							+ 2;
+					result.vertexLabel[fpStart + i] = 2;
+					result.vertexColor[fpStart + i] = -1;
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * One step of Loop subdivision of a triangle mesh. Every triangle is split
+	 * in four. Interior vertices use Loop's original weights, boundary
+	 * vertices and edges follow the cubic B-spline of the boundary curve.
+	 *
+	 * Vertex numbering of the result: the old vertices keep their index, the
+	 * point of edge e is nv+e. Each halfedge h of a face becomes the corner
+	 * triangle rank(h), the center triangle of face f is nIn+f, where nIn is
+	 * the number of face halfedges. The old vertices are labeled -1, edge
+	 * points 1.
+	 *
+	 * @param mesh
+	 *            triangle mesh, not modified
+	 * @param keepBoundary
+	 *            keep boundary vertices on the split boundary
+	 * @return subdivided mesh
+	 */
+	static HE_CompactMesh loop(final HE_CompactMesh mesh,
+			final boolean keepBoundary) {
+		final int nv = mesh.numberOfVertices;
+		final int nhe = mesh.numberOfHalfedges;
+		final int ne = mesh.numberOfEdges;
+		final int nf = mesh.numberOfFaces;
+		final double[] coords = mesh.coords;
+		final int[] next = mesh.halfedgeNext;
+		final int[] prev = mesh.halfedgePrev;
+		final int[] pair = mesh.halfedgePair;
+		final int[] hv = mesh.halfedgeVertex;
+		final int[] hf = mesh.halfedgeFace;
+		final int[] he = mesh.halfedgeEdge;
+		final int[] eh = mesh.edgeHalfedge;
+		for (int i = 0; i < nf; i++) {
+			final int h = mesh.faceHalfedge[i];
+			if (next[next[next[h]]] != h) {
+				throw new IllegalArgumentException(
+						"HES_Loop only supports triangle meshes.");
+			}
+		}
+		final EdgeSplit split = new EdgeSplit(mesh, 3);
+		final int nIn = split.nIn;
+		final HE_CompactMesh result = split.allocate(nv + ne, 2 * ne + nIn,
+				nIn + nf);
+		final double[] rc = result.coords;
+		// edge points
+		WB_Parallel.forRange(ne, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, p, a, b, c, d;
+				for (int i = start; i < end; i++) {
+					h = eh[i];
+					p = pair[h];
+					a = 3 * hv[h];
+					b = 3 * hv[p];
+					if ((hf[h] == -1) || (hf[p] == -1)) {
+						setPoint(rc, nv + i, 0.5 * (coords[a] + coords[b]),
+								0.5 * (coords[a + 1] + coords[b + 1]),
+								0.5 * (coords[a + 2] + coords[b + 2]));
+						continue;
+					}
+					c = 3 * hv[prev[h]];
+					d = 3 * hv[prev[p]];
+					setPoint(rc, nv + i, 0.375 * (coords[a] + coords[b])
+							+ 0.125 * (coords[c] + coords[d]), 0.375
+							* (coords[a + 1] + coords[b + 1]) + 0.125
+							* (coords[c + 1] + coords[d + 1]), 0.375
+							* (coords[a + 2] + coords[b + 2]) + 0.125
+							* (coords[c + 2] + coords[d + 2]));
+				}
+			}
+		});
+		// vertex points
+		WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, h0, b, order, nb;
+				double x, y, z, sx, sy, sz, bx, by, bz, beta, c;
+				for (int i = start; i < end; i++) {
+					x = coords[3 * i];
+					y = coords[3 * i + 1];
+					z = coords[3 * i + 2];
+					h0 = mesh.vertexHalfedge[i];
+					if (h0 == -1) {
+						setPoint(rc, i, x, y, z);
+						continue;
+					}
+					sx = sy = sz = bx = by = bz = 0;
+					order = nb = 0;
+					h = h0;
+					do {
+						b = 3 * hv[pair[h]];
+						sx += coords[b];
+						sy += coords[b + 1];
+						sz += coords[b + 2];
+						order++;
+						if ((hf[h] == -1) || (hf[pair[h]] == -1)) {
+							bx += coords[b];
+							by += coords[b + 1];
+							bz += coords[b + 2];
+							nb++;
+						}
+						h = next[pair[h]];
+					} while ((h != h0) && (h != -1));
+					if (nb > 0) {
+						if (keepBoundary || (nb != 2)) {
+							setPoint(rc, i, x, y, z);
+						}
+						else {
+							setPoint(rc, i, 0.75 * x + 0.125 * bx, 0.75 * y
+									+ 0.125 * by, 0.75 * z + 0.125 * bz);
+						}
+						continue;
+					}
+					c = 0.375 + 0.25 * Math.cos(2.0 * Math.PI / order);
+					beta = (0.625 - c * c) / order;
+					setPoint(rc, i, (1.0 - order * beta) * x + beta * sx,
+							(1.0 - order * beta) * y + beta * sy, (1.0 - order
+									* beta)
+									* z + beta * sz);
+				}
+			}
+		});
+		// refined connectivity, each face halfedge writes its corner triangle
+		// and one halfedge of the center triangle
+		final int[] rank = split.rank;
+		final int cStart = 3 * nIn;
+		WB_Parallel.forRange(nhe, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int q, p, i0, f;
+				for (int h = start; h < end; h++) {
+					if (hf[h] == -1) {
+						split.boundary(result, h);
+						continue;
+					}
+					q = rank[h];
+					i0 = 3 * q;
+					p = prev[h];
+					f = hf[h];
+					for (int k = 0; k < 3; k++) {
+						result.halfedgeNext[i0 + k] = i0 + ((k + 1) % 3);
+						result.halfedgePrev[i0 + k] = i0 + ((k + 2) % 3);
+						result.halfedgeFace[i0 + k] = q;
+					}
+					result.halfedgeVertex[i0] = hv[h];
+					result.halfedgeVertex[i0 + 1] = nv + he[h];
+					result.halfedgeVertex[i0 + 2] = nv + he[p];
+					result.halfedgeEdge[i0] = split.firstEdge(h);
+					result.halfedgeEdge[i0 + 1] = 2 * ne + q;
+					result.halfedgeEdge[i0 + 2] = split.secondEdge(p);
+					result.halfedgePair[i0] = split.second(pair[h]);
+					result.halfedgePair[i0 + 1] = cStart + q;
+					result.halfedgePair[i0 + 2] = split.first(pair[p]);
+					result.edgeHalfedge[2 * ne + q] = i0 + 1;
+					result.faceHalfedge[q] = i0;
+					result.faceLabel[q] = mesh.faceLabel[f];
+					result.faceColor[q] = mesh.faceColor[f];
+					// center triangle, runs from the point of the previous
+					// edge to the point of this edge
+					result.halfedgeNext[cStart + q] = cStart + rank[next[h]];
+					result.halfedgePrev[cStart + q] = cStart + rank[p];
+					result.halfedgeVertex[cStart + q] = nv + he[p];
+					result.halfedgeEdge[cStart + q] = 2 * ne + q;
+					result.halfedgePair[cStart + q] = i0 + 1;
+					result.halfedgeFace[cStart + q] = nIn + f;
+				}
+			}
+		});
+		split.edges(result);
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					result.faceHalfedge[nIn + i] = cStart
+							+ rank[mesh.faceHalfedge[i]];
+					result.faceLabel[nIn + i] = mesh.faceLabel[i];
+					result.faceColor[nIn + i] = mesh.faceColor[i];
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * One step of Doo-Sabin subdivision of a closed mesh. Follows
+	 * HES_DooSabin: each face halfedge becomes a vertex, faces are created for
+	 * every old face, edge and vertex, in that order. Face labels are the
+	 * index of the old element.
+	 *
+	 * Numbering of the result: the point of halfedge h is vertex h. The face
+	 * of old face f is f, the quad of edge e is nf+e, the face of vertex v is
+	 * nf+ne+v.
+	 *
+	 * @param mesh
+	 *            closed mesh, not modified
+	 * @param faceFactor
+	 *            weight of the face center
+	 * @param edgeFactor
+	 *            weight of the edge centers
+	 * @param absolute
+	 *            place the points at a fixed distance from the old vertex
+	 * @param d
+	 *            distance if absolute
+	 * @return subdivided mesh
+	 */
+	static HE_CompactMesh dooSabin(final HE_CompactMesh mesh,
+			final double faceFactor, final double edgeFactor,
+			final boolean absolute, final double d) {
+		final int nv = mesh.numberOfVertices;
+		final int nhe = mesh.numberOfHalfedges;
+		final int ne = mesh.numberOfEdges;
+		final int nf = mesh.numberOfFaces;
+		final double[] coords = mesh.coords;
+		final int[] next = mesh.halfedgeNext;
+		final int[] prev = mesh.halfedgePrev;
+		final int[] pair = mesh.halfedgePair;
+		final int[] hv = mesh.halfedgeVertex;
+		final int[] hf = mesh.halfedgeFace;
+		final int[] he = mesh.halfedgeEdge;
+		final int[] eh = mesh.edgeHalfedge;
+		for (int i = 0; i < nhe; i++) {
+			if ((hf[i] == -1) || (pair[i] == -1)) {
+				throw new IllegalArgumentException(
+						"HES_DooSabin only supports closed meshes at this time.");
+			}
+		}
+		final HE_CompactMesh result = new HE_CompactMesh(nhe, 2 * nhe + 4
+				* ne, 4 * ne, nf + ne + nv);
+		result.numberOfVertices = nhe;
+		result.numberOfHalfedges = 2 * nhe + 4 * ne;
+		result.numberOfEdges = 4 * ne;
+		result.numberOfFaces = nf + ne + nv;
+		final double[] rc = result.coords;
+		double dv = 1.0 + 2.0 * edgeFactor + faceFactor;
+		if (WB_Epsilon.isZero(dv)) {
+			dv = 1.0;
+		}
+		if (absolute) {
+			dv = 4.0;
+		}
+		final double div = dv;
+		// face centers
+		final double[] fc = new double[3 * nf];
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, v, c;
+				double x, y, z, ic;
+				for (int i = start; i < end; i++) {
+					x = y = z = 0;
+					c = 0;
+					h = mesh.faceHalfedge[i];
+					do {
+						v = hv[h];
+						x += coords[3 * v];
+						y += coords[3 * v + 1];
+						z += coords[3 * v + 2];
+						c++;
+						h = next[h];
+					} while (h != mesh.faceHalfedge[i]);
+					ic = 1.0 / c;
+					fc[3 * i] = x * ic;
+					fc[3 * i + 1] = y * ic;
+					fc[3 * i + 2] = z * ic;
+				}
+			}
+		});
+		final int eStart = nhe;
+		final int vStart = nhe + 4 * ne;
+		WB_Parallel.forRange(nhe, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int v, w, u, f, p, pp;
+				double x, y, z, s;
+				for (int h = start; h < end; h++) {
+					f = 3 * hf[h];
+					p = prev[h];
+					v = 3 * hv[h];
+					w = 3 * hv[next[h]];
+					u = 3 * hv[p];
+					x = (faceFactor * fc[f] + coords[v] + edgeFactor * 0.5
+							* (coords[v] + coords[w]) + edgeFactor * 0.5
+							* (coords[u] + coords[v]))
+							/ div;
+					y = (faceFactor * fc[f + 1] + coords[v + 1] + edgeFactor
+							* 0.5 * (coords[v + 1] + coords[w + 1]) + edgeFactor
+							* 0.5 * (coords[u + 1] + coords[v + 1]))
+							/ div;
+					z = (faceFactor * fc[f + 2] + coords[v + 2] + edgeFactor
+							* 0.5 * (coords[v + 2] + coords[w + 2]) + edgeFactor
+							* 0.5 * (coords[u + 2] + coords[v + 2]))
+							/ div;
+					if (absolute) {
+						x -= coords[v];
+						y -= coords[v + 1];
+						z -= coords[v + 2];
+						s = d / Math.sqrt(x * x + y * y + z * z);
+						x = coords[v] + s * x;
+						y = coords[v + 1] + s * y;
+						z = coords[v + 2] + s * z;
+					}
+					setPoint(rc, h, x, y, z);
+					result.vertexHalfedge[h] = h;
+					result.vertexLabel[h] = -1;
+					result.vertexColor[h] = -1;
+					// face of old face, same numbering as the old halfedges
+					result.halfedgeNext[h] = next[h];
+					result.halfedgePrev[h] = p;
+					result.halfedgeVertex[h] = h;
+					result.halfedgeFace[h] = hf[h];
+					result.halfedgeEdge[h] = (eh[he[h]] == h) ? 4 * he[h] + 2
+							: 4 * he[h];
+					result.halfedgePair[h] = eStart + result.halfedgeEdge[h];
+					// face of old vertex, runs from point h to the point of
+					// the previous halfedge around the vertex
+					pp = eStart + ((eh[he[p]] == p) ? 4 * he[p] + 1
+							: 4 * he[p] + 3);
+					result.halfedgeNext[vStart + h] = vStart + pair[p];
+					result.halfedgePrev[vStart + h] = vStart + next[pair[h]];
+					result.halfedgeVertex[vStart + h] = h;
+					result.halfedgeFace[vStart + h] = nf + ne + hv[h];
+					result.halfedgeEdge[vStart + h] = pp - eStart;
+					result.halfedgePair[vStart + h] = pp;
+				}
+			}
+		});
+		// quad of edge e: next(p) -> p -> next(h) -> h, with h the halfedge of
+		// e and p its pair
+		WB_Parallel.forRange(ne, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				int h, p, i0;
+				for (int e = start; e < end; e++) {
+					h = eh[e];
+					p = pair[h];
+					i0 = eStart + 4 * e;
+					for (int k = 0; k < 4; k++) {
+						result.halfedgeNext[i0 + k] = i0 + ((k + 1) & 3);
+						result.halfedgePrev[i0 + k] = i0 + ((k + 3) & 3);
+						result.halfedgeFace[i0 + k] = nf + e;
+						result.halfedgeEdge[i0 + k] = 4 * e + k;
+						result.edgeHalfedge[4 * e + k] = i0 + k;
+					}
+					result.halfedgeVertex[i0] = next[p];
+					result.halfedgeVertex[i0 + 1] = p;
+					result.halfedgeVertex[i0 + 2] = next[h];
+					result.halfedgeVertex[i0 + 3] = h;
+					result.halfedgePair[i0] = p;
+					result.halfedgePair[i0 + 1] = vStart + next[h];
+					result.halfedgePair[i0 + 2] = h;
+					result.halfedgePair[i0 + 3] = vStart + next[p];
+					result.faceHalfedge[nf + e] = i0;
+					result.faceLabel[nf + e] = e;
+					result.faceColor[nf + e] = -1;
+				}
+			}
+		});
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					result.faceHalfedge[i] = mesh.faceHalfedge[i];
+					result.faceLabel[i] = i;
+					result.faceColor[i] = -1;
+				}
+			}
+		});
+		WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				final int[] vh = mesh.vertexHalfedge;
+				for (int i = start; i < end; i++) {
+					result.faceHalfedge[nf + ne + i] = (vh[i] == -1) ? -1
+							: vStart + pair[prev[vh[i]]];
+					result.faceLabel[nf + ne + i] = i;
+					result.faceColor[nf + ne + i] = -1;
+				}
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Element counts after one subdivision step.
+	 *
+	 * @param counts
+	 *            vertices, face halfedges, boundary halfedges, edges and faces,
+	 *            updated in place
+	 */
+	static void catmullClarkCounts(final long[] counts) {
+		final long nv = counts[0];
+		final long nIn = counts[1];
+		final long nB = counts[2];
+		final long ne = counts[3];
+		final long nf = counts[4];
+		counts[0] = nv + ne + nf;
+		counts[1] = 4 * nIn;
+		counts[2] = 2 * nB;
+		counts[3] = 2 * ne + nIn;
+		counts[4] = nIn;
+	}
+
+	/**
+	 * Element counts after one subdivision step.
+	 *
+	 * @param counts
+	 *            vertices, face halfedges, boundary halfedges, edges and faces,
+	 *            updated in place
+	 */
+	static void loopCounts(final long[] counts) {
+		final long nv = counts[0];
+		final long nIn = counts[1];
+		final long nB = counts[2];
+		final long ne = counts[3];
+		final long nf = counts[4];
+		counts[0] = nv + ne;
+		counts[1] = 4 * nIn;
+		counts[2] = 2 * nB;
+		counts[3] = 2 * ne + nIn;
+		counts[4] = nIn + nf;
+	}
+
+	/**
+	 * Element counts after one subdivision step.
+	 *
+	 * @param counts
+	 *            vertices, face halfedges, boundary halfedges, edges and faces,
+	 *            updated in place
+	 */
+	static void dooSabinCounts(final long[] counts) {
+		final long nv = counts[0];
+		final long nIn = counts[1];
+		final long ne = counts[3];
+		final long nf = counts[4];
+		counts[0] = nIn;
+		counts[1] = 2 * nIn + 4 * ne;
+		counts[2] = 0;
+		counts[3] = 4 * ne;
+		counts[4] = nf + ne + nv;
+	}
+
+	/**
+	 * Numbering of the schemes that split every edge in two. Face halfedges
+	 * and boundary halfedges are ranked separately in index order. The
+	 * refined halfedges of face halfedge h start at stride*rank(h), the two
+	 * halves of boundary halfedge b at 4*nIn+2*rank(b). Edge e is split in
+	 * edges 2e, starting at the start of the halfedge of e, and 2e+1.
+	 */
+	private static final class EdgeSplit {
+		final HE_CompactMesh mesh;
+		final int[] rank;
+		final int nIn;
+		final int nB;
+		final int stride;
+		final int bStart;
+
+		EdgeSplit(final HE_CompactMesh mesh, final int stride) {
+			this.mesh = mesh;
+			this.stride = stride;
+			final int nhe = mesh.numberOfHalfedges;
+			final int[] hf = mesh.halfedgeFace;
+			rank = new int[nhe];
+			int inner = 0;
+			int boundary = 0;
+			for (int i = 0; i < nhe; i++) {
+				rank[i] = (hf[i] == -1) ? boundary++ : inner++;
+			}
+			nIn = inner;
+			nB = boundary;
+			bStart = 4 * nIn;
+		}
+
+		HE_CompactMesh allocate(final int nv, final int ne, final int nf) {
+			final HE_CompactMesh result = new HE_CompactMesh(nv, bStart + 2
+					* nB, ne, nf);
+			result.numberOfVertices = nv;
+			result.numberOfHalfedges = bStart + 2 * nB;
+			result.numberOfEdges = ne;
+			result.numberOfFaces = nf;
+			return result;
+		}
+
+		/**
+		 * Refined halfedge running from the start of an old halfedge to its
+		 * midpoint.
+		 */
+		int first(final int h) {
+			if (h == -1) {
+				return -1;
+			}
+			return (mesh.halfedgeFace[h] == -1) ? bStart + 2 * rank[h]
+					: stride * rank[h];
+		}
+
+		/**
+		 * Refined halfedge running from the midpoint of an old halfedge to
+		 * its end. For a face halfedge this is the last halfedge of the
+		 * corner of the next halfedge.
+		 */
+		int second(final int h) {
+			if (h == -1) {
+				return -1;
+			}
+			return (mesh.halfedgeFace[h] == -1) ? bStart + 2 * rank[h] + 1
+					: stride * rank[mesh.halfedgeNext[h]] + stride - 1;
+		}
+
+		/** Refined edge of the first half of an old halfedge. */
+		int firstEdge(final int h) {
+			final int e = mesh.halfedgeEdge[h];
+			return (mesh.edgeHalfedge[e] == h) ? 2 * e : 2 * e + 1;
+		}
+
+		/** Refined edge of the second half of an old halfedge. */
+		int secondEdge(final int h) {
+			final int e = mesh.halfedgeEdge[h];
+			return (mesh.edgeHalfedge[e] == h) ? 2 * e + 1 : 2 * e;
+		}
+
+		/**
+		 * Write the two halves of a boundary halfedge.
+		 */
+		void boundary(final HE_CompactMesh result, final int h) {
+			final int i0 = bStart + 2 * rank[h];
+			result.halfedgeNext[i0] = i0 + 1;
+			result.halfedgePrev[i0] = second(mesh.halfedgePrev[h]);
+			result.halfedgeNext[i0 + 1] = first(mesh.halfedgeNext[h]);
+			result.halfedgePrev[i0 + 1] = i0;
+			result.halfedgeVertex[i0] = mesh.halfedgeVertex[h];
+			result.halfedgeVertex[i0 + 1] = mesh.numberOfVertices
+					+ mesh.halfedgeEdge[h];
+			result.halfedgeFace[i0] = -1;
+			result.halfedgeFace[i0 + 1] = -1;
+			result.halfedgeEdge[i0] = firstEdge(h);
+			result.halfedgeEdge[i0 + 1] = secondEdge(h);
+			result.halfedgePair[i0] = second(mesh.halfedgePair[h]);
+			result.halfedgePair[i0 + 1] = first(mesh.halfedgePair[h]);
+		}
+
+		/**
+		 * Write the split edges, the edge points and the old vertices. The
+		 * old vertices are labeled -1, the edge points 1.
+		 */
+		void edges(final HE_CompactMesh result) {
+			final int nv = mesh.numberOfVertices;
+			WB_Parallel.forRange(mesh.numberOfEdges, GRAIN,
+					new WB_Parallel.Range() {
+						@Override
+						public void run(final int start, final int end) {
+							int h;
+							for (int i = start; i < end; i++) {
+								h = mesh.edgeHalfedge[i];
+								result.edgeHalfedge[2 * i] = first(h);
+								result.edgeHalfedge[2 * i + 1] = second(h);
+								result.vertexHalfedge[nv + i] = second(h);
+								result.vertexLabel[nv + i] = 1;
+								result.vertexColor[nv + i] = -1;
+							}
+						}
+					});
+			WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+				@Override
+				public void run(final int start, final int end) {
+					for (int i = start; i < end; i++) {
+						result.vertexHalfedge[i] = first(mesh.vertexHalfedge[i]);
+						result.vertexLabel[i] = -1;
+						result.vertexColor[i] = mesh.vertexColor[i];
+					}
+				}
+			});
+		}
+	}
+
+	private static void setPoint(final double[] coords, final int i,
+			final double x, final double y, final double z) {
+		coords[3 * i] = x;
+		coords[3 * i + 1] = y;
+		coords[3 * i + 2] = z;
+	}
+}
@@ -1,20 +1,53 @@
 package wblut.hemesh;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 import wblut.geom.WB_GeometryFactory;
 
 public abstract class HE_Element {
-	protected static long _currentKey;
+	/** Number of keys reserved by a thread at once. */
+	private static final int KEYBLOCK = 1024;
+	/** Start of the next unreserved block of keys. */
+	private static final AtomicLong _nextKeyBlock = new AtomicLong();
+	/**
+	 * Per thread range of reserved keys: next key, end of block. Threads only
+	 * synchronize when they need a new block.
+	 */
+	private static final ThreadLocal<long[]> _keyBlock = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[2];
+		}
+	};
 	protected final long _key;
 	protected int _label;
+	/** Indexed set holding this element by slot, null if none. */
+	HE_IndexedRAS<?> _ras;
+	/** Position of this element in _ras. */
+	int _slot;
 	protected final static WB_GeometryFactory geometryfactory = WB_GeometryFactory
 			.instance();
 
 	public HE_Element() {
-		_key = _currentKey;
-		_currentKey++;
+		_key = nextKey();
 
 		_label = -1;
+		_slot = -1;
+
+	}
 
+	/**
+	 * Get a new unique key. Safe to call from multiple threads.
+	 *
+	 * @return key
+	 */
+	private static long nextKey() {
+		final long[] block = _keyBlock.get();
+		if (block[0] == block[1]) {
+			block[0] = _nextKeyBlock.getAndAdd(KEYBLOCK);
+			block[1] = block[0] + KEYBLOCK;
+		}
+		return block[0]++;
 	}
 
 	public final void setLabel(final int label) {
@@ -32,4 +65,22 @@ public abstract class HE_Element {
 
 	}
 
+	/**
+	 * Geometry cache of the mesh holding this element.
+	 *
+	 * @return cache, null if none
+	 */
+	final HE_GeometryCache geometryCache() {
+		return (_ras == null) ? null : _ras.cache;
+	}
+
+	/**
+	 * Mark all cached geometry of the mesh holding this element dirty.
+	 */
+	final void topologyChanged() {
+		if ((_ras != null) && (_ras.cache != null)) {
+			_ras.cache.invalidate();
+		}
+	}
+
 }
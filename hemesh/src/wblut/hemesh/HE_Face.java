@@ -3,11 +3,11 @@ package wblut.hemesh;
 import java.util.HashMap;
 import java.util.List;
 
-import javolution.util.FastTable;
 import wblut.geom.WB_Convex;
 import wblut.geom.WB_Coordinate;
 import wblut.geom.WB_HasColor;
 import wblut.geom.WB_HasData;
+import wblut.geom.WB_MutableCoordinate;
 import wblut.geom.WB_Plane;
 import wblut.geom.WB_Point;
 import wblut.geom.WB_Projection;
@@ -48,6 +48,35 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public WB_Point getFaceCenter() {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getFaceCenter(this);
+		}
+		return computeFaceCenter();
+	}
+
+	/**
+	 * Copy face center into result without allocating a new point. Uses the
+	 * geometry cache of the mesh if enabled.
+	 *
+	 * @param result
+	 *            coordinate to set
+	 * @return false if the face has no halfedge, result is unchanged
+	 */
+	public boolean getFaceCenterInto(final WB_MutableCoordinate result) {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getFaceCenterInto(this, result);
+		}
+		final WB_Point c = computeFaceCenter();
+		if (c == null) {
+			return false;
+		}
+		result._set(c.xd(), c.yd(), c.zd());
+		return true;
+	}
+
+	WB_Point computeFaceCenter() {
 		if (_halfedge == null) {
 			return null;
 		}
@@ -80,6 +109,35 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public WB_Vector getFaceNormal() {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getFaceNormal(this);
+		}
+		return computeFaceNormal();
+	}
+
+	/**
+	 * Copy face normal into result without allocating a new vector. Uses the
+	 * geometry cache of the mesh if enabled.
+	 *
+	 * @param result
+	 *            coordinate to set
+	 * @return false if the face has no halfedge, result is unchanged
+	 */
+	public boolean getFaceNormalInto(final WB_MutableCoordinate result) {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getFaceNormalInto(this, result);
+		}
+		final WB_Vector n = computeFaceNormal();
+		if (n == null) {
+			return false;
+		}
+		result._set(n.xd(), n.yd(), n.zd());
+		return true;
+	}
+
+	WB_Vector computeFaceNormal() {
 		if (_halfedge == null) {
 			return null;
 		}
@@ -125,10 +183,18 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public double getFaceArea() {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getFaceArea(this);
+		}
+		return computeFaceArea();
+	}
+
+	double computeFaceArea() {
 		if (_halfedge == null) {
 			return Double.NaN;
 		}
-		final WB_Vector n = getFaceNormal();
+		final WB_Vector n = computeFaceNormal();
 		final double x = WB_Math.fastAbs(n.xd());
 		final double y = WB_Math.fastAbs(n.yd());
 		final double z = WB_Math.fastAbs(n.zd());
@@ -191,24 +257,30 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public List<HE_Vertex> getFaceVertices() {
+		final HE_ListVisitor<HE_Vertex> fv = new HE_ListVisitor<HE_Vertex>();
+		forEachVertex(fv);
+		return fv.list;
+
+	}
+
+	/**
+	 * Call visitor for each vertex of the face, without allocating. Vertices
+	 * are visited in the same order as getFaceVertices().
+	 *
+	 * @param visitor
+	 */
+	public void forEachVertex(final HE_Visitor<? super HE_Vertex> visitor) {
 		if (!_sorted) {
 			sort();
 		}
-		final List<HE_Vertex> fv = new FastTable<HE_Vertex>();
 		if (_halfedge == null) {
-			return fv;
+			return;
 		}
 		HE_Halfedge he = _halfedge;
 		do {
-
-			if (!fv.contains(he.getVertex())) {
-				fv.add(he.getVertex());
-			}
+			visitor.visit(he.getVertex());
 			he = he.getNextInFace();
 		} while (he != _halfedge);
-
-		return fv;
-
 	}
 
 	public int getFaceOrder() {
@@ -229,45 +301,55 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public List<HE_Halfedge> getFaceHalfedges() {
+		final HE_ListVisitor<HE_Halfedge> fhe = new HE_ListVisitor<HE_Halfedge>();
+		forEachHalfedge(fhe);
+		return fhe.list;
+
+	}
+
+	/**
+	 * Call visitor for each halfedge of the face, without allocating.
+	 *
+	 * @param visitor
+	 */
+	public void forEachHalfedge(final HE_Visitor<? super HE_Halfedge> visitor) {
 		if (!_sorted) {
 			sort();
 		}
-		final List<HE_Halfedge> fhe = new FastTable<HE_Halfedge>();
 		if (_halfedge == null) {
-			return fhe;
+			return;
 		}
 		HE_Halfedge he = _halfedge;
 		do {
-			if (!fhe.contains(he)) {
-				fhe.add(he);
-			}
-
+			visitor.visit(he);
 			he = he.getNextInFace();
 		} while (he != _halfedge);
+	}
 
-		return fhe;
+	public List<HE_Edge> getFaceEdges() {
+		final HE_ListVisitor<HE_Edge> fe = new HE_ListVisitor<HE_Edge>();
+		forEachEdge(fe);
+		return fe.list;
 
 	}
 
-	public List<HE_Edge> getFaceEdges() {
+	/**
+	 * Call visitor for each edge of the face, without allocating.
+	 *
+	 * @param visitor
+	 */
+	public void forEachEdge(final HE_Visitor<? super HE_Edge> visitor) {
 		if (!_sorted) {
 			sort();
 		}
-		final List<HE_Edge> fe = new FastTable<HE_Edge>();
 		if (_halfedge == null) {
-			return fe;
+			return;
 		}
 		HE_Halfedge he = _halfedge;
 		do {
-
-			if (!fe.contains(he.getEdge())) {
-				fe.add(he.getEdge());
-			}
+			visitor.visit(he.getEdge());
 			he = he.getNextInFace();
 		} while (he != _halfedge);
-
-		return fe;
-
 	}
 
 	public HE_Halfedge getHalfedge() {
@@ -277,6 +359,7 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	public void setHalfedge(final HE_Halfedge halfedge) {
 		_halfedge = halfedge;
 		reset();
+		topologyChanged();
 	}
 
 	public void push(final WB_Coordinate c) {
@@ -284,6 +367,7 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 
 		do {
 			he.getVertex().getPoint()._addSelf(c);
+			he.getVertex().positionChanged();
 
 			he = he.getNextInFace();
 		} while (he != _halfedge);
@@ -292,6 +376,7 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	public void clearHalfedge() {
 		_halfedge = null;
 		_sorted = false;
+		topologyChanged();
 	}
 
 	public WB_Plane toPlane() {
@@ -379,28 +464,34 @@ public class HE_Face extends HE_Element implements WB_HasData, WB_HasColor {
 	}
 
 	public List<HE_Face> getNeighborFaces() {
+		final HE_ListVisitor<HE_Face> ff = new HE_ListVisitor<HE_Face>();
+		forEachNeighbor(ff);
+		return ff.list;
+
+	}
+
+	/**
+	 * Call visitor for each face across an edge, without allocating. A
+	 * neighbor is visited once for every shared edge.
+	 *
+	 * @param visitor
+	 */
+	public void forEachNeighbor(final HE_Visitor<? super HE_Face> visitor) {
 		if (!isSorted()) {
 			sort();
 		}
-		final List<HE_Face> ff = new FastTable<HE_Face>();
 		if (getHalfedge() == null) {
-			return ff;
+			return;
 		}
 		HE_Halfedge he = getHalfedge();
+		HE_Face n;
 		do {
-			final HE_Halfedge hep = he.getPair();
-			if (hep.getFace() != null) {
-				if (hep.getFace() != this) {
-					if (!ff.contains(hep.getFace())) {
-						ff.add(hep.getFace());
-					}
-				}
+			n = he.getPair().getFace();
+			if ((n != null) && (n != this)) {
+				visitor.visit(n);
 			}
 			he = he.getNextInFace();
 		} while (he != getHalfedge());
-
-		return ff;
-
 	}
 
 	/*
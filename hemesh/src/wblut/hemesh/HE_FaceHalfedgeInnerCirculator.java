@@ -4,7 +4,7 @@ import java.util.Iterator;
 
 public class HE_FaceHalfedgeInnerCirculator implements Iterator<HE_Halfedge> {
 
-	private final HE_Halfedge _start;
+	private HE_Halfedge _start;
 	private HE_Halfedge _current;
 
 	public HE_FaceHalfedgeInnerCirculator(final HE_Face f) {
@@ -13,6 +13,19 @@ public class HE_FaceHalfedgeInnerCirculator implements Iterator<HE_Halfedge> {
 
 	}
 
+	/**
+	 * Restart around another face, reusing this circulator.
+	 *
+	 * @param f
+	 *            face
+	 * @return self
+	 */
+	public HE_FaceHalfedgeInnerCirculator reset(final HE_Face f) {
+		_start = f.getHalfedge();
+		_current = null;
+		return this;
+	}
+
 	@Override
 	public boolean hasNext() {
 		if (_start == null)
@@ -4,7 +4,7 @@ import java.util.Iterator;
 
 public class HE_FaceVertexCirculator implements Iterator<HE_Vertex> {
 
-	private final HE_Halfedge _start;
+	private HE_Halfedge _start;
 	private HE_Halfedge _current;
 
 	public HE_FaceVertexCirculator(final HE_Face f) {
@@ -13,6 +13,19 @@ public class HE_FaceVertexCirculator implements Iterator<HE_Vertex> {
 
 	}
 
+	/**
+	 * Restart around another face, reusing this circulator.
+	 *
+	 * @param f
+	 *            face
+	 * @return self
+	 */
+	public HE_FaceVertexCirculator reset(final HE_Face f) {
+		_start = f.getHalfedge();
+		_current = null;
+		return this;
+	}
+
 	@Override
 	public boolean hasNext() {
 		if (_start == null)
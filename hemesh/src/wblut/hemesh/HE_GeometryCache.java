@@ -0,0 +1,417 @@
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.geom.WB_MutableCoordinate;
+import wblut.geom.WB_Point;
+import wblut.geom.WB_Vector;
+
+/**
+ * Cache of derived face and vertex geometry of a HE_Mesh: face normals,
+ * centers and areas, and vertex normals. Values are stored in primitive
+ * arrays indexed by the slot of the element in the mesh.
+ *
+ * Entries are computed on first request and stay valid until they are marked
+ * dirty. Moving a vertex marks the faces around it and the normals of the
+ * vertices of these faces. Any change to the connectivity of the mesh marks
+ * all entries at once. Cached values are bitwise identical to the uncached
+ * values.
+ *
+ * Vertex moves are only seen when they go through the HE_Vertex setters.
+ * Many modifiers move vertices in place through getPoint(), so HE_Mesh marks
+ * all entries after every modifier, subdividor and simplifier it applies.
+ * Lazy filling is not thread-safe, call update() before reading from
+ * multiple threads.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_GeometryCache {
+
+	/** Minimum number of elements per thread when updating. */
+	private static final int GRAIN = 8192;
+
+	private final HE_Mesh mesh;
+
+	/** Entries are valid if their stamp equals the generation. */
+	private int generation;
+
+	private int[] faceStamp;
+	private double[] faceNormal;
+	private double[] faceCenter;
+	private double[] faceArea;
+
+	private int[] vertexStamp;
+	private double[] vertexNormal;
+
+	/** Slots of moved vertices whose neighborhood is not yet marked. */
+	private int[] moved;
+	private int numberOfMoved;
+	private boolean[] isMoved;
+
+	HE_GeometryCache(final HE_Mesh mesh) {
+		this.mesh = mesh;
+		generation = 1;
+		faceStamp = new int[0];
+		faceNormal = new double[0];
+		faceCenter = new double[0];
+		faceArea = new double[0];
+		vertexStamp = new int[0];
+		vertexNormal = new double[0];
+		moved = new int[16];
+		isMoved = new boolean[0];
+	}
+
+	/**
+	 * Mark all entries dirty.
+	 */
+	void invalidate() {
+		generation++;
+		if (generation == 0) {
+			// stamps wrapped around, clear them explicitly
+			Arrays.fill(faceStamp, 0);
+			Arrays.fill(vertexStamp, 0);
+			generation = 1;
+		}
+		for (int i = 0; i < numberOfMoved; i++) {
+			if (moved[i] < isMoved.length) {
+				isMoved[moved[i]] = false;
+			}
+		}
+		numberOfMoved = 0;
+	}
+
+	/**
+	 * Mark the entries depending on a vertex position dirty.
+	 *
+	 * @param v
+	 *            moved vertex
+	 */
+	void vertexMoved(final HE_Vertex v) {
+		if (v._ras != mesh.vertices) {
+			return;
+		}
+		final int slot = v._slot;
+		if (slot >= isMoved.length) {
+			isMoved = Arrays.copyOf(isMoved,
+					Math.max(slot + 1, 2 * isMoved.length));
+		}
+		if (isMoved[slot]) {
+			return;
+		}
+		isMoved[slot] = true;
+		if (numberOfMoved == moved.length) {
+			moved = Arrays.copyOf(moved, 2 * moved.length);
+		}
+		moved[numberOfMoved++] = slot;
+	}
+
+	/**
+	 * Check if cached values can be used for the current state of the mesh.
+	 * Elements that are also held by another mesh don't report their changes
+	 * to this cache.
+	 *
+	 * @return true if cache can be used
+	 */
+	private boolean isUsable() {
+		return isExclusive(mesh.vertices) && isExclusive(mesh.halfedges)
+				&& isExclusive(mesh.faces);
+	}
+
+	private static boolean isExclusive(final HE_RAS<?> ras) {
+		return (ras instanceof HE_IndexedRAS)
+				&& ((ras.indices == null) || ras.indices.isEmpty());
+	}
+
+	/**
+	 * Mark faces and vertex normals around moved vertices dirty.
+	 */
+	private void flush() {
+		if (numberOfMoved == 0) {
+			return;
+		}
+		final int nv = mesh.vertices.size();
+		HE_Vertex v;
+		HE_Halfedge he, fhe;
+		boolean broken = false;
+		for (int i = 0; (i < numberOfMoved) && !broken; i++) {
+			if (moved[i] >= nv) {
+				continue;
+			}
+			v = mesh.vertices.objects.get(moved[i]);
+			markVertex(v);
+			he = v.getHalfedge();
+			if (he == null) {
+				continue;
+			}
+			do {
+				if (he.getFace() != null) {
+					markFace(he.getFace());
+					fhe = he;
+					do {
+						markVertex(fhe.getVertex());
+						fhe = fhe.getNextInFace();
+					} while ((fhe != null) && (fhe != he));
+				}
+				markVertex(he.getEndVertex());
+				he = he.getNextInVertex();
+				if (he == null) {
+					broken = true;
+					break;
+				}
+			} while (he != v.getHalfedge());
+		}
+		if (broken) {
+			invalidate();
+			return;
+		}
+		for (int i = 0; i < numberOfMoved; i++) {
+			if (moved[i] < isMoved.length) {
+				isMoved[moved[i]] = false;
+			}
+		}
+		numberOfMoved = 0;
+	}
+
+	private void markFace(final HE_Face f) {
+		if ((f._ras == mesh.faces) && (f._slot < faceStamp.length)) {
+			faceStamp[f._slot] = 0;
+		}
+	}
+
+	private void markVertex(final HE_Vertex v) {
+		if ((v != null) && (v._ras == mesh.vertices)
+				&& (v._slot < vertexStamp.length)) {
+			vertexStamp[v._slot] = 0;
+		}
+	}
+
+	private void ensureFaceCapacity(final int n) {
+		if (faceStamp.length < n) {
+			final int m = Math.max(n, faceStamp.length + (faceStamp.length >> 1));
+			faceStamp = Arrays.copyOf(faceStamp, m);
+			faceNormal = Arrays.copyOf(faceNormal, 3 * m);
+			faceCenter = Arrays.copyOf(faceCenter, 3 * m);
+			faceArea = Arrays.copyOf(faceArea, m);
+		}
+	}
+
+	private void ensureVertexCapacity(final int n) {
+		if (vertexStamp.length < n) {
+			final int m = Math.max(n,
+					vertexStamp.length + (vertexStamp.length >> 1));
+			vertexStamp = Arrays.copyOf(vertexStamp, m);
+			vertexNormal = Arrays.copyOf(vertexNormal, 3 * m);
+		}
+	}
+
+	/**
+	 * Slot of a face with an up-to-date entry, -1 if the face can't be cached.
+	 *
+	 * @param f
+	 * @return slot or -1
+	 */
+	private int faceSlot(final HE_Face f) {
+		if ((f._ras != mesh.faces) || (f.getHalfedge() == null)
+				|| !isUsable()) {
+			return -1;
+		}
+		flush();
+		final int i = f._slot;
+		ensureFaceCapacity(mesh.faces.size());
+		if (faceStamp[i] != generation) {
+			computeFace(f, i);
+		}
+		return i;
+	}
+
+	private void computeFace(final HE_Face f, final int i) {
+		final WB_Vector n = f.computeFaceNormal();
+		final WB_Point c = f.computeFaceCenter();
+		faceNormal[3 * i] = n.xd();
+		faceNormal[3 * i + 1] = n.yd();
+		faceNormal[3 * i + 2] = n.zd();
+		faceCenter[3 * i] = c.xd();
+		faceCenter[3 * i + 1] = c.yd();
+		faceCenter[3 * i + 2] = c.zd();
+		faceArea[i] = f.computeFaceArea();
+		faceStamp[i] = generation;
+	}
+
+	/**
+	 * Slot of a vertex with an up-to-date normal, -1 if the vertex can't be
+	 * cached.
+	 *
+	 * @param v
+	 * @return slot or -1
+	 */
+	private int vertexSlot(final HE_Vertex v) {
+		if ((v._ras != mesh.vertices) || (v.getHalfedge() == null)
+				|| !isUsable()) {
+			return -1;
+		}
+		flush();
+		final int i = v._slot;
+		ensureVertexCapacity(mesh.vertices.size());
+		if (vertexStamp[i] != generation) {
+			computeVertex(v, i);
+		}
+		return i;
+	}
+
+	private void computeVertex(final HE_Vertex v, final int i) {
+		final WB_Vector n = v.computeVertexNormal();
+		vertexNormal[3 * i] = n.xd();
+		vertexNormal[3 * i + 1] = n.yd();
+		vertexNormal[3 * i + 2] = n.zd();
+		vertexStamp[i] = generation;
+	}
+
+	/**
+	 * Compute all dirty entries, in parallel.
+	 */
+	void update() {
+		if (!isUsable()) {
+			return;
+		}
+		flush();
+		final int nf = mesh.faces.size();
+		final int nv = mesh.vertices.size();
+		ensureFaceCapacity(nf);
+		ensureVertexCapacity(nv);
+		WB_Parallel.forRange(nf, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Face f;
+				for (int i = start; i < end; i++) {
+					f = mesh.faces.objects.get(i);
+					if ((faceStamp[i] != generation)
+							&& (f.getHalfedge() != null)) {
+						computeFace(f, i);
+					}
+				}
+			}
+		});
+		WB_Parallel.forRange(nv, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Vertex v;
+				for (int i = start; i < end; i++) {
+					v = mesh.vertices.objects.get(i);
+					if ((vertexStamp[i] != generation)
+							&& (v.getHalfedge() != null)) {
+						computeVertex(v, i);
+					}
+				}
+			}
+		});
+	}
+
+	WB_Vector getFaceNormal(final HE_Face f) {
+		final int i = faceSlot(f);
+		if (i == -1) {
+			return f.computeFaceNormal();
+		}
+		return new WB_Vector(faceNormal[3 * i], faceNormal[3 * i + 1],
+				faceNormal[3 * i + 2]);
+	}
+
+	WB_Point getFaceCenter(final HE_Face f) {
+		final int i = faceSlot(f);
+		if (i == -1) {
+			return f.computeFaceCenter();
+		}
+		return new WB_Point(faceCenter[3 * i], faceCenter[3 * i + 1],
+				faceCenter[3 * i + 2]);
+	}
+
+	double getFaceArea(final HE_Face f) {
+		final int i = faceSlot(f);
+		if (i == -1) {
+			return f.computeFaceArea();
+		}
+		return faceArea[i];
+	}
+
+	WB_Vector getVertexNormal(final HE_Vertex v) {
+		final int i = vertexSlot(v);
+		if (i == -1) {
+			return v.computeVertexNormal();
+		}
+		return new WB_Vector(vertexNormal[3 * i], vertexNormal[3 * i + 1],
+				vertexNormal[3 * i + 2]);
+	}
+
+	/**
+	 * Copy face normal into result without allocating.
+	 *
+	 * @param f
+	 * @param result
+	 * @return false if the face has no normal
+	 */
+	boolean getFaceNormalInto(final HE_Face f,
+			final WB_MutableCoordinate result) {
+		final int i = faceSlot(f);
+		if (i == -1) {
+			return copy(f.computeFaceNormal(), result);
+		}
+		result._set(faceNormal[3 * i], faceNormal[3 * i + 1],
+				faceNormal[3 * i + 2]);
+		return true;
+	}
+
+	/**
+	 * Copy face center into result without allocating.
+	 *
+	 * @param f
+	 * @param result
+	 * @return false if the face has no center
+	 */
+	boolean getFaceCenterInto(final HE_Face f,
+			final WB_MutableCoordinate result) {
+		final int i = faceSlot(f);
+		if (i == -1) {
+			return copy(f.computeFaceCenter(), result);
+		}
+		result._set(faceCenter[3 * i], faceCenter[3 * i + 1],
+				faceCenter[3 * i + 2]);
+		return true;
+	}
+
+	/**
+	 * Copy vertex normal into result without allocating.
+	 *
+	 * @param v
+	 * @param result
+	 * @return false if the vertex has no normal
+	 */
+	boolean getVertexNormalInto(final HE_Vertex v,
+			final WB_MutableCoordinate result) {
+		final int i = vertexSlot(v);
+		if (i == -1) {
+			return copy(v.computeVertexNormal(), result);
+		}
+		result._set(vertexNormal[3 * i], vertexNormal[3 * i + 1],
+				vertexNormal[3 * i + 2]);
+		return true;
+	}
+
+	private static boolean copy(final WB_Vector v,
+			final WB_MutableCoordinate result) {
+		if (v == null) {
+			return false;
+		}
+		result._set(v.xd(), v.yd(), v.zd());
+		return true;
+	}
+
+	private static boolean copy(final WB_Point p,
+			final WB_MutableCoordinate result) {
+		if (p == null) {
+			return false;
+		}
+		result._set(p.xd(), p.yd(), p.zd());
+		return true;
+	}
+}
@@ -119,9 +119,22 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void setNext(final HE_Halfedge he) {
 		_next = he;
+		topologyChanged();
 		he.setPrev(this);
 	}
 
+	/**
+	 * Set next halfedge in face without touching the next halfedge. Used when
+	 * elements are connected in parallel.
+	 *
+	 * @param he
+	 *            next halfedge
+	 */
+	void _setNext(final HE_Halfedge he) {
+		_next = he;
+		topologyChanged();
+	}
+
 	/**
 	 * Sets previous halfedge in face, only to be called by setNext.
 	 *
@@ -141,6 +154,18 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void setPair(final HE_Halfedge he) {
 		_pair = he;
+		topologyChanged();
+	}
+
+	/**
+	 * Set pair without notifying the geometry cache. Used when halfedges are
+	 * paired in parallel, the cache should be invalidated afterwards.
+	 *
+	 * @param he
+	 *            halfedge to pair
+	 */
+	void _setPair(final HE_Halfedge he) {
+		_pair = he;
 	}
 
 	/**
@@ -254,6 +279,19 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 		}
 		_face = face;
 		_face.reset();
+		topologyChanged();
+	}
+
+	/**
+	 * Set face without resetting it. Used when elements are connected in
+	 * parallel, the face should be reset afterwards.
+	 *
+	 * @param face
+	 *            face
+	 */
+	void _setFace(final HE_Face face) {
+		_face = face;
+		topologyChanged();
 	}
 
 	/**
@@ -273,6 +311,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void setVertex(final HE_Vertex vertex) {
 		_vertex = vertex;
+		topologyChanged();
 	}
 
 	/**
@@ -292,6 +331,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void clearNext() {
 		_next = null;
+		topologyChanged();
 	}
 
 	/**
@@ -299,6 +339,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void clearPrev() {
 		_prev = null;
+		topologyChanged();
 	}
 
 	/**
@@ -306,6 +347,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void clearPair() {
 		_pair = null;
+		topologyChanged();
 
 	}
 
@@ -324,6 +366,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 			_face.reset();
 		}
 		_face = null;
+		topologyChanged();
 
 	}
 
@@ -332,6 +375,7 @@ public class HE_Halfedge extends HE_Element implements WB_HasData, WB_HasColor {
 	 */
 	public void clearVertex() {
 		_vertex = null;
+		topologyChanged();
 	}
 
 	/**
@@ -0,0 +1,289 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
+
+/**
+ * Pairs unpaired halfedges and creates their edges in linear time. Each
+ * halfedge is hashed by the indices of its start and end vertex into a
+ * primitive open addressing table. A halfedge is paired with the first
+ * waiting halfedge running in the opposite direction.
+ *
+ * The parallel variant splits the halfedges by hash into independent
+ * partitions. Halfedges that can pair always end up in the same partition,
+ * so the result is identical to the serial version.
+ *
+ * Halfedges that share their vertices with more than one other halfedge, or
+ * that run in the same direction as another one, can't be paired
+ * consistently. These are reported as non-manifold.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_HalfedgePairing {
+
+	/** Minimum number of halfedges per partition. */
+	private static final int GRAIN = 16384;
+
+	private final HE_Mesh mesh;
+	private final HE_Halfedge[] halfedges;
+	private final int n;
+	/** Start and end vertex index of each halfedge. */
+	private final int[] start;
+	private final int[] end;
+	/** Undirected hash key of each halfedge. */
+	private final long[] keys;
+	/** Waiting halfedges with the same key, -1 terminated. */
+	private final int[] chain;
+	/** Edge created for each halfedge that comes first in its pair. */
+	private final HE_Edge[] newEdges;
+	/** Non-manifold flag for each halfedge. */
+	private final boolean[] nonManifold;
+
+	/**
+	 * @param mesh
+	 *            mesh owning the halfedges
+	 * @param unpairedHalfedges
+	 *            halfedges to pair, halfedges that already have a pair are
+	 *            ignored
+	 */
+	HE_HalfedgePairing(final HE_Mesh mesh,
+			final List<HE_Halfedge> unpairedHalfedges) {
+		this.mesh = mesh;
+		final List<HE_Halfedge> list = new FastTable<HE_Halfedge>();
+		for (int i = 0; i < unpairedHalfedges.size(); i++) {
+			final HE_Halfedge he = unpairedHalfedges.get(i);
+			if (he.getPair() == null) {
+				list.add(he);
+			}
+		}
+		n = list.size();
+		halfedges = list.toArray(new HE_Halfedge[n]);
+		start = new int[n];
+		end = new int[n];
+		keys = new long[n];
+		chain = new int[n];
+		newEdges = new HE_Edge[n];
+		nonManifold = new boolean[n];
+	}
+
+	/**
+	 * Pair all halfedges. The geometry cache of the mesh is invalidated once
+	 * at the end.
+	 *
+	 * @param parallel
+	 *            use multiple threads?
+	 * @return non-manifold halfedges left unpaired
+	 */
+	List<HE_Halfedge> pair(final boolean parallel) {
+		final int partitions = parallel ? WB_Parallel.getNumberOfChunks(n,
+				GRAIN) : 1;
+		if (partitions == 1) {
+			indexVertices(0, n);
+		}
+		else {
+			WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+				@Override
+				public void run(final int s, final int e) {
+					indexVertices(s, e);
+				}
+			});
+		}
+		indexForeignVertices();
+		if (partitions == 1) {
+			final int[] all = new int[n];
+			for (int i = 0; i < n; i++) {
+				keys[i] = key(start[i], end[i]);
+				all[i] = i;
+			}
+			match(all, n);
+		}
+		else {
+			WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+				@Override
+				public void run(final int s, final int e) {
+					for (int i = s; i < e; i++) {
+						keys[i] = key(start[i], end[i]);
+					}
+				}
+			});
+			// counting sort into partitions, order within a partition is kept
+			final int[] offsets = new int[partitions + 1];
+			for (int i = 0; i < n; i++) {
+				offsets[partition(keys[i], partitions) + 1]++;
+			}
+			for (int p = 0; p < partitions; p++) {
+				offsets[p + 1] += offsets[p];
+			}
+			final int[] sorted = new int[n];
+			final int[] fill = new int[partitions];
+			System.arraycopy(offsets, 0, fill, 0, partitions);
+			for (int i = 0; i < n; i++) {
+				sorted[fill[partition(keys[i], partitions)]++] = i;
+			}
+			WB_Parallel.forChunks(partitions, new WB_Parallel.Chunk() {
+				@Override
+				public void run(final int p) {
+					final int size = offsets[p + 1] - offsets[p];
+					final int[] part = new int[size];
+					System.arraycopy(sorted, offsets[p], part, 0, size);
+					match(part, size);
+				}
+			});
+		}
+		mesh.invalidateGeometryCache();
+		final List<HE_Halfedge> result = new FastTable<HE_Halfedge>();
+		for (int i = 0; i < n; i++) {
+			if (newEdges[i] != null) {
+				mesh.add(newEdges[i]);
+			}
+			else if (nonManifold[i]) {
+				result.add(halfedges[i]);
+			}
+		}
+		return result;
+	}
+
+	private void indexVertices(final int s, final int e) {
+		HE_Halfedge he;
+		for (int i = s; i < e; i++) {
+			he = halfedges[i];
+			start[i] = mesh.getIndex(he.getVertex());
+			end[i] = mesh.getIndex(he.getNextInFace().getVertex());
+		}
+	}
+
+	/**
+	 * Give vertices that are not part of the mesh an index beyond the mesh
+	 * vertices.
+	 */
+	private void indexForeignVertices() {
+		TLongIntMap foreign = null;
+		int next = mesh.getNumberOfVertices();
+		int id;
+		HE_Vertex v;
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < 2; j++) {
+				if (((j == 0) ? start[i] : end[i]) == -1) {
+					if (foreign == null) {
+						foreign = new TLongIntHashMap(10, 0.5f, -1L, -1);
+					}
+					v = (j == 0) ? halfedges[i].getVertex() : halfedges[i]
+							.getNextInFace().getVertex();
+					id = foreign.get(v.key());
+					if (id == -1) {
+						id = next++;
+						foreign.put(v.key(), id);
+					}
+					if (j == 0) {
+						start[i] = id;
+					}
+					else {
+						end[i] = id;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Single pass matching of a set of halfedges.
+	 *
+	 * @param part
+	 *            halfedge indices, in list order
+	 * @param size
+	 *            number of halfedges
+	 */
+	private void match(final int[] part, final int size) {
+		int capacity = 4;
+		while (capacity < 2 * size) {
+			capacity <<= 1;
+		}
+		final int mask = capacity - 1;
+		final long[] tableKeys = new long[capacity];
+		final int[] heads = new int[capacity];
+		final int[] counts = new int[capacity];
+		Arrays.fill(heads, -1);
+		final int[] slots = new int[size];
+		int i, slot, prev, cur;
+		long key;
+		for (int k = 0; k < size; k++) {
+			i = part[k];
+			key = keys[i];
+			slot = (int) (mix(key) & mask);
+			while ((counts[slot] > 0) && (tableKeys[slot] != key)) {
+				slot = (slot + 1) & mask;
+			}
+			tableKeys[slot] = key;
+			counts[slot]++;
+			slots[k] = slot;
+			prev = -1;
+			cur = heads[slot];
+			while (cur != -1) {
+				if ((start[cur] == end[i]) && (end[cur] == start[i])) {
+					break;
+				}
+				prev = cur;
+				cur = chain[cur];
+			}
+			if (cur == -1) {
+				// no partner yet, wait at the end of the chain
+				chain[i] = -1;
+				if (prev == -1) {
+					heads[slot] = i;
+				}
+				else {
+					chain[prev] = i;
+				}
+			}
+			else {
+				if (prev == -1) {
+					heads[slot] = chain[cur];
+				}
+				else {
+					chain[prev] = chain[cur];
+				}
+				connect(cur, i);
+			}
+		}
+		for (int k = 0; k < size; k++) {
+			i = part[k];
+			if ((halfedges[i].getPair() == null) && (counts[slots[k]] > 1)) {
+				nonManifold[i] = true;
+			}
+		}
+	}
+
+	private void connect(final int first, final int second) {
+		final HE_Halfedge he = halfedges[first];
+		final HE_Halfedge he2 = halfedges[second];
+		he._setPair(he2);
+		he2._setPair(he);
+		final HE_Edge e = new HE_Edge();
+		e.setHalfedge(he);
+		he.setEdge(e);
+		he2.setEdge(e);
+		newEdges[first] = e;
+	}
+
+	private static long key(final int a, final int b) {
+		return (a < b) ? (((long) a) << 32) | (b & 0xffffffffL)
+				: (((long) b) << 32) | (a & 0xffffffffL);
+	}
+
+	private static long mix(final long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		h ^= (h >>> 32);
+		return h;
+	}
+
+	private static int partition(final long key, final int partitions) {
+		return (int) (((mix(key) >>> 40) * partitions) >>> 24);
+	}
+}
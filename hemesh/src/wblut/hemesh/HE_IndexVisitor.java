@@ -0,0 +1,18 @@
+package wblut.hemesh;
+
+/**
+ * Callback for walking mesh neighborhoods by element index, e.g.
+ * HE_Mesh.forEachNeighbor(int, HE_IndexVisitor).
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+public interface HE_IndexVisitor {
+	/**
+	 * Called for each visited element.
+	 *
+	 * @param index
+	 *            index of the element in the mesh
+	 */
+	public void visit(int index);
+}
@@ -0,0 +1,197 @@
+package wblut.hemesh;
+
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Collection;
+
+/**
+ * Random Access Set of HE_Element that stores the position of each element in
+ * the element itself. Membership, index lookup and removal need no hashing.
+ *
+ * An element can only carry the slot of one indexed set at a time. When it is
+ * added to a second indexed set, the new set takes over the slot and the
+ * previous set falls back to a key map for that element. Sets that were never
+ * used for getByKey() keep no key map at all.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ */
+public class HE_IndexedRAS<E extends HE_Element> extends HE_RAS<E> {
+
+	/** Key to position, only created when getByKey() is first used. */
+	TLongIntMap keys;
+
+	/** Geometry cache notified of changes, null if none. */
+	HE_GeometryCache cache;
+
+	public HE_IndexedRAS() {
+		super(10, false);
+	}
+
+	public HE_IndexedRAS(final int n) {
+		super(n, false);
+	}
+
+	public HE_IndexedRAS(final Collection<E> items) {
+		super(items.size(), false);
+		for (final E item : items) {
+			add(item);
+		}
+	}
+
+	@Override
+	public boolean add(final E item) {
+		if (item == null) {
+			return false;
+		}
+		if (contains(item)) {
+			return false;
+		}
+		final int id = objects.size();
+		objects.add(item);
+		final HE_IndexedRAS<?> owner = item._ras;
+		if ((owner != null) && owner.holds(item)) {
+			owner.demote(item);
+		}
+		item._ras = this;
+		item._slot = id;
+		if (keys != null) {
+			keys.put(item._key, id);
+		}
+		if (cache != null) {
+			cache.invalidate();
+		}
+		return true;
+	}
+
+	/**
+	 * Check if element is held by slot.
+	 *
+	 * @param item
+	 * @return true if the element's slot refers to this set
+	 */
+	private boolean holds(final HE_Element item) {
+		return (item._slot < objects.size())
+				&& (objects.get(item._slot) == item);
+	}
+
+	/**
+	 * Keep element in this set but switch it from its slot to the fallback key
+	 * map, another set is taking over the slot.
+	 *
+	 * @param item
+	 */
+	private void demote(final HE_Element item) {
+		if (indices == null) {
+			indices = new TLongIntHashMap(10, 0.5f, -1L, -1);
+		}
+		indices.put(item._key, item._slot);
+	}
+
+	/**
+	 * Override element at position <code>id</code> with last element.
+	 *
+	 * @param id
+	 */
+	@Override
+	public E removeAt(final int id) {
+		if (id >= objects.size()) {
+			return null;
+		}
+		final E res = objects.get(id);
+		if (cache != null) {
+			cache.invalidate();
+		}
+		if (res._ras == this) {
+			res._ras = null;
+			res._slot = -1;
+		}
+		else {
+			indices.remove(res._key);
+		}
+		if (keys != null) {
+			keys.remove(res._key);
+		}
+		final E last = objects.remove(objects.size() - 1);
+		// skip filling the hole if last is removed
+		if (id < objects.size()) {
+			objects.set(id, last);
+			if (last._ras == this) {
+				last._slot = id;
+			}
+			else {
+				indices.put(last._key, id);
+			}
+			if (keys != null) {
+				keys.put(last._key, id);
+			}
+		}
+		return res;
+	}
+
+	@Override
+	public boolean remove(final E item) {
+		if (item == null) {
+			return false;
+		}
+		final int id = getIndex(item);
+		if (id == -1) {
+			return false;
+		}
+		removeAt(id);
+		return true;
+	}
+
+	@Override
+	public E getByKey(final Long key) {
+		final int i = keys().get(key);
+		if (i == -1) {
+			return null;
+		}
+		return objects.get(i);
+	}
+
+	@Override
+	public int getIndex(final E object) {
+		if (object._ras == this) {
+			return object._slot;
+		}
+		if (indices == null) {
+			return -1;
+		}
+		return indices.get(object._key);
+	}
+
+	@Override
+	public boolean contains(final E object) {
+		if (object == null) {
+			return false;
+		}
+		if (object._ras == this) {
+			return true;
+		}
+		return (indices != null) && indices.containsKey(object._key);
+	}
+
+	@Override
+	public boolean containsKey(final Long key) {
+		return keys().containsKey(key);
+	}
+
+	/**
+	 * Key map, built on first use and maintained from then on.
+	 *
+	 * @return key map
+	 */
+	private TLongIntMap keys() {
+		if (keys == null) {
+			final int n = objects.size();
+			keys = new TLongIntHashMap(Math.max(10, 2 * n), 0.5f, -1L, -1);
+			for (int i = 0; i < n; i++) {
+				keys.put(objects.get(i)._key, i);
+			}
+		}
+		return keys;
+	}
+
+}
@@ -1,10 +1,13 @@
 package wblut.hemesh;
 
+import java.util.Arrays;
 import java.util.List;
 
 import javolution.util.FastTable;
+import wblut.geom.WB_AABB;
 import wblut.geom.WB_AABBTree;
 import wblut.geom.WB_AABBTree.WB_AABBNode;
+import wblut.geom.WB_BVH;
 import wblut.geom.WB_Distance;
 import wblut.geom.WB_Intersection;
 import wblut.geom.WB_IntersectionResult;
@@ -13,6 +16,7 @@ import wblut.geom.WB_Plane;
 import wblut.geom.WB_Point;
 import wblut.geom.WB_Ray;
 import wblut.geom.WB_Segment;
+import wblut.geom.WB_Vector;
 import wblut.geom.interfaces.Segment;
 import wblut.math.WB_Epsilon;
 
@@ -209,35 +213,182 @@ public class HE_Intersection {
 		return candidates;
 	}
 
+	/**
+	 * Closest intersection of a ray with the faces in a tree. Nodes are
+	 * visited nearest first and skipped once a closer hit is found.
+	 *
+	 * @param tree
+	 * @param ray
+	 * @return closest intersection, null if none
+	 */
 	public static HE_FaceIntersection getClosestIntersection(
 			final WB_AABBTree tree, final WB_Ray ray) {
-
-		HE_FaceIntersection p = null;
-
-		final List<HE_Face> candidates = new FastTable<HE_Face>();
-		final List<WB_AABBNode> nodes = WB_Intersection.getIntersection3D(ray,
-				tree);
-		for (final WB_AABBNode n : nodes) {
-			candidates.addAll(n.getFaces());
+		final WB_Point o = ray.getOrigin();
+		final WB_Vector d = ray.getDirection();
+		final double ox = o.xd(), oy = o.yd(), oz = o.zd();
+		final double dx = d.xd(), dy = d.yd(), dz = d.zd();
+		final double ix = 1.0 / dx, iy = 1.0 / dy, iz = 1.0 / dz;
+		double best = Double.POSITIVE_INFINITY;
+		HE_Face bestFace = null;
+		double t = getEntry(tree.getRoot().getAABB(), ox, oy, oz, ix, iy, iz,
+				best);
+		if (Double.isNaN(t)) {
+			return null;
 		}
-
-		double d2, d2min = Double.POSITIVE_INFINITY;
-
-		for (final HE_Face face : candidates) {
-			final HE_FaceIntersection sect = getIntersection(face, ray);
-			if (sect != null) {
-				d2 = sect.point.getSqDistance(ray.getOrigin());
-				if (d2 < d2min) {
-					p = sect;
-
-					d2min = d2;
+		WB_AABBNode[] stack = new WB_AABBNode[64];
+		double[] entries = new double[64];
+		final WB_AABBNode[] candidates = new WB_AABBNode[3];
+		final WB_AABBNode[] children = new WB_AABBNode[3];
+		final double[] tc = new double[3];
+		int sp = 1;
+		stack[0] = tree.getRoot();
+		entries[0] = t;
+		WB_AABBNode node;
+		int nc, i;
+		while (sp > 0) {
+			sp--;
+			node = stack[sp];
+			stack[sp] = null;
+			if (entries[sp] > best) {
+				continue;
+			}
+			if (node.isLeaf()) {
+				for (final HE_Face face : node.getFaces()) {
+					t = getIntersectionParameter(face, ox, oy, oz, dx, dy, dz);
+					if ((t >= 0) && (t < best)) {
+						best = t;
+						bestFace = face;
+					}
 				}
+				continue;
+			}
+			// children sorted from far to near
+			nc = 0;
+			candidates[0] = node.getPosChild();
+			candidates[1] = node.getNegChild();
+			candidates[2] = node.getMidChild();
+			for (final WB_AABBNode child : candidates) {
+				if (child == null) {
+					continue;
+				}
+				t = getEntry(child.getAABB(), ox, oy, oz, ix, iy, iz, best);
+				if (Double.isNaN(t)) {
+					continue;
+				}
+				for (i = nc; (i > 0) && (tc[i - 1] < t); i--) {
+					children[i] = children[i - 1];
+					tc[i] = tc[i - 1];
+				}
+				children[i] = child;
+				tc[i] = t;
+				nc++;
+			}
+			if (sp + nc > stack.length) {
+				stack = Arrays.copyOf(stack, 2 * stack.length);
+				entries = Arrays.copyOf(entries, 2 * entries.length);
+			}
+			for (i = 0; i < nc; i++) {
+				stack[sp] = children[i];
+				entries[sp++] = tc[i];
 			}
-
 		}
-
-		return p;
-
+		return (bestFace == null) ? null : new HE_FaceIntersection(bestFace,
+				new WB_Point(ox + best * dx, oy + best * dy, oz + best * dz));
+	}
+
+	/**
+	 * Parameter where a ray o+t*d enters an AABB, limited to [0,tmax].
+	 *
+	 * @return entry parameter, NaN if the AABB isn't hit
+	 */
+	private static double getEntry(final WB_AABB aabb, final double ox,
+			final double oy, final double oz, final double ix,
+			final double iy, final double iz, final double tmax) {
+		double t0 = 0;
+		double t1 = tmax;
+		double tn = (aabb.getMinX() - ox) * ix;
+		double tf = (aabb.getMaxX() - ox) * ix;
+		t0 = Math.max(t0, Math.min(tn, tf));
+		t1 = Math.min(t1, Math.max(tn, tf));
+		tn = (aabb.getMinY() - oy) * iy;
+		tf = (aabb.getMaxY() - oy) * iy;
+		t0 = Math.max(t0, Math.min(tn, tf));
+		t1 = Math.min(t1, Math.max(tn, tf));
+		tn = (aabb.getMinZ() - oz) * iz;
+		tf = (aabb.getMaxZ() - oz) * iz;
+		t0 = Math.max(t0, Math.min(tn, tf));
+		t1 = Math.min(t1, Math.max(tn, tf));
+		return (t0 <= t1) ? t0 : Double.NaN;
+	}
+
+	/**
+	 * Parameter t where the line o+t*d crosses a face, without creating any
+	 * objects. The face is split in a fan of triangles around its first
+	 * vertex. A point is inside if the triangles containing it, counted with
+	 * their orientation, don't cancel out, so concave faces are handled
+	 * correctly.
+	 *
+	 * @param face
+	 * @param ox
+	 * @param oy
+	 * @param oz
+	 *            origin
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 *            direction
+	 * @return t, NaN if the line misses the face
+	 */
+	public static double getIntersectionParameter(final HE_Face face,
+			final double ox, final double oy, final double oz,
+			final double dx, final double dy, final double dz) {
+		final HE_Halfedge start = face.getHalfedge();
+		final HE_Vertex v0 = start.getVertex();
+		final double x0 = v0.xd(), y0 = v0.yd(), z0 = v0.zd();
+		final double sx = ox - x0, sy = oy - y0, sz = oz - z0;
+		HE_Halfedge he = start.getNextInFace();
+		HE_Vertex v = he.getVertex();
+		double e1x, e1y, e1z;
+		double e2x = v.xd() - x0, e2y = v.yd() - y0, e2z = v.zd() - z0;
+		double px, py, pz, qx, qy, qz, det, inv, u, w, tt;
+		double t = Double.NaN;
+		int winding = 0;
+		he = he.getNextInFace();
+		while (he != start) {
+			v = he.getVertex();
+			e1x = e2x;
+			e1y = e2y;
+			e1z = e2z;
+			e2x = v.xd() - x0;
+			e2y = v.yd() - y0;
+			e2z = v.zd() - z0;
+			he = he.getNextInFace();
+			px = dy * e2z - dz * e2y;
+			py = dz * e2x - dx * e2z;
+			pz = dx * e2y - dy * e2x;
+			det = e1x * px + e1y * py + e1z * pz;
+			if (det == 0) {
+				continue;
+			}
+			inv = 1.0 / det;
+			u = (sx * px + sy * py + sz * pz) * inv;
+			if ((u < -WB_Epsilon.EPSILON) || (u > 1 + WB_Epsilon.EPSILON)) {
+				continue;
+			}
+			qx = sy * e1z - sz * e1y;
+			qy = sz * e1x - sx * e1z;
+			qz = sx * e1y - sy * e1x;
+			w = (dx * qx + dy * qy + dz * qz) * inv;
+			if ((w < -WB_Epsilon.EPSILON) || (u + w > 1 + WB_Epsilon.EPSILON)) {
+				continue;
+			}
+			winding += (det > 0) ? 1 : -1;
+			tt = (e2x * qx + e2y * qy + e2z * qz) * inv;
+			if (!(tt >= t)) {
+				t = tt;
+			}
+		}
+		return (winding != 0) ? t : Double.NaN;
 	}
 
 	public static HE_FaceIntersection getFurthestIntersection(
@@ -392,82 +543,269 @@ public class HE_Intersection {
 
 	}
 
+	public static List<HE_FaceIntersection> getIntersection(
+			final WB_BVH tree, final WB_Ray ray) {
+		final List<HE_FaceIntersection> p = new FastTable<HE_FaceIntersection>();
+		for (final HE_Face face : tree.getPotentialIntersectedFaces(ray)) {
+			final HE_FaceIntersection sect = getIntersection(face, ray);
+			if (sect != null) {
+				p.add(sect);
+			}
+		}
+		return p;
+	}
+
+	public static List<HE_FaceIntersection> getIntersection(
+			final WB_BVH tree, final Segment segment) {
+		final List<HE_FaceIntersection> p = new FastTable<HE_FaceIntersection>();
+		for (final HE_Face face : tree.getPotentialIntersectedFaces(segment)) {
+			final HE_FaceIntersection sect = getIntersection(face, segment);
+			if (sect != null) {
+				p.add(sect);
+			}
+		}
+		return p;
+	}
+
+	public static List<HE_FaceIntersection> getIntersection(
+			final WB_BVH tree, final WB_Line line) {
+		final List<HE_FaceIntersection> p = new FastTable<HE_FaceIntersection>();
+		for (final HE_Face face : tree.getPotentialIntersectedFaces(line)) {
+			final HE_FaceIntersection sect = getIntersection(face, line);
+			if (sect != null) {
+				p.add(sect);
+			}
+		}
+		return p;
+	}
+
+	public static List<WB_Segment> getIntersection(final WB_BVH tree,
+			final WB_Plane P) {
+		final List<WB_Segment> cuts = new FastTable<WB_Segment>();
+		for (final HE_Face face : tree.getPotentialIntersectedFaces(P)) {
+			cuts.addAll(WB_Intersection.getIntersection3D(face.toPolygon(), P));
+		}
+		return cuts;
+	}
+
+	public static List<HE_Face> getPotentialIntersectedFaces(
+			final WB_BVH tree, final WB_Plane P) {
+		return tree.getPotentialIntersectedFaces(P);
+	}
+
+	public static List<HE_Face> getPotentialIntersectedFaces(
+			final WB_BVH tree, final WB_Ray R) {
+		return tree.getPotentialIntersectedFaces(R);
+	}
+
+	public static List<HE_Face> getPotentialIntersectedFaces(
+			final WB_BVH tree, final WB_Line L) {
+		return tree.getPotentialIntersectedFaces(L);
+	}
+
+	public static List<HE_Face> getPotentialIntersectedFaces(
+			final WB_BVH tree, final Segment segment) {
+		return tree.getPotentialIntersectedFaces(segment);
+	}
+
+	public static HE_FaceIntersection getClosestIntersection(
+			final WB_BVH tree, final WB_Ray ray) {
+		final WB_Point o = ray.getOrigin();
+		final WB_Vector d = ray.getDirection();
+		return getClosest(tree, o.xd(), o.yd(), o.zd(), d.xd(), d.yd(),
+				d.zd(), 0, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Closest intersections of a batch of rays with the faces in a tree. The
+	 * rays are traced in packets that share their traversal of the tree.
+	 *
+	 * @param tree
+	 * @param rays
+	 * @return closest intersection per ray, null if none
+	 */
+	public static HE_FaceIntersection[] getClosestIntersections(
+			final WB_BVH tree, final WB_Ray[] rays) {
+		final int n = rays.length;
+		final double[] origins = new double[3 * n];
+		final double[] directions = new double[3 * n];
+		for (int i = 0; i < n; i++) {
+			final WB_Point o = rays[i].getOrigin();
+			final WB_Vector d = rays[i].getDirection();
+			origins[3 * i] = o.xd();
+			origins[3 * i + 1] = o.yd();
+			origins[3 * i + 2] = o.zd();
+			directions[3 * i] = d.xd();
+			directions[3 * i + 1] = d.yd();
+			directions[3 * i + 2] = d.zd();
+		}
+		final int[] hitFaces = new int[n];
+		final double[] hitT = new double[n];
+		tree.getClosestHits(origins, directions, 0, Double.POSITIVE_INFINITY,
+				hitFaces, hitT);
+		final HE_FaceIntersection[] result = new HE_FaceIntersection[n];
+		double t;
+		for (int i = 0; i < n; i++) {
+			if (hitFaces[i] >= 0) {
+				t = hitT[i];
+				result[i] = new HE_FaceIntersection(tree.getFace(hitFaces[i]),
+						new WB_Point(origins[3 * i] + t * directions[3 * i],
+								origins[3 * i + 1] + t * directions[3 * i + 1],
+								origins[3 * i + 2] + t * directions[3 * i + 2]));
+			}
+		}
+		return result;
+	}
+
+	public static HE_FaceIntersection getFurthestIntersection(
+			final WB_BVH tree, final WB_Ray ray) {
+		return getFurthest(getIntersection(tree, ray), ray.getOrigin());
+	}
+
+	public static HE_FaceIntersection getClosestIntersection(
+			final WB_BVH tree, final WB_Line line) {
+		final WB_Point o = line.getOrigin();
+		final WB_Vector d = line.getDirection();
+		// closest on either side of the origin
+		final HE_FaceIntersection forward = getClosest(tree, o.xd(), o.yd(),
+				o.zd(), d.xd(), d.yd(), d.zd(), 0, Double.POSITIVE_INFINITY);
+		final HE_FaceIntersection backward = getClosest(tree, o.xd(), o.yd(),
+				o.zd(), -d.xd(), -d.yd(), -d.zd(), 0, Double.POSITIVE_INFINITY);
+		if ((forward == null) || (backward == null)) {
+			return (forward == null) ? backward : forward;
+		}
+		return (backward.point.getSqDistance(o) < forward.point
+				.getSqDistance(o)) ? backward : forward;
+	}
+
+	public static HE_FaceIntersection getFurthestIntersection(
+			final WB_BVH tree, final WB_Line line) {
+		return getFurthest(getIntersection(tree, line), line.getOrigin());
+	}
+
+	public static HE_FaceIntersection getClosestIntersection(
+			final WB_BVH tree, final Segment segment) {
+		final WB_Point o = segment.getOrigin();
+		final WB_Point e = segment.getEndpoint();
+		return getClosest(tree, o.xd(), o.yd(), o.zd(), e.xd() - o.xd(),
+				e.yd() - o.yd(), e.zd() - o.zd(), 0, 1);
+	}
+
+	public static HE_FaceIntersection getFurthestIntersection(
+			final WB_BVH tree, final Segment segment) {
+		return getFurthest(getIntersection(tree, segment),
+				segment.getOrigin());
+	}
+
+	private static HE_FaceIntersection getClosest(final WB_BVH tree,
+			final double ox, final double oy, final double oz,
+			final double dx, final double dy, final double dz,
+			final double tmin, final double tmax) {
+		final double[] hit = new double[1];
+		final int f = tree.getClosestHit(ox, oy, oz, dx, dy, dz, tmin, tmax,
+				hit);
+		if (f < 0) {
+			return null;
+		}
+		return new HE_FaceIntersection(tree.getFace(f), new WB_Point(ox
+				+ hit[0] * dx, oy + hit[0] * dy, oz + hit[0] * dz));
+	}
+
+	private static HE_FaceIntersection getFurthest(
+			final List<HE_FaceIntersection> intersections, final WB_Point origin) {
+		HE_FaceIntersection p = null;
+		double d2, d2max = -1;
+		for (final HE_FaceIntersection sect : intersections) {
+			d2 = sect.point.getSqDistance(origin);
+			if (d2 > d2max) {
+				p = sect;
+				d2max = d2;
+			}
+		}
+		return p;
+	}
+
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh,
 			final WB_Ray ray) {
 
-		return getIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getIntersection(new WB_BVH(mesh), ray);
 	}
 
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh,
 			final Segment segment) {
-		return getIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getIntersection(new WB_BVH(mesh), segment);
 	}
 
 	public static List<HE_FaceIntersection> getIntersection(final HE_Mesh mesh,
 			final WB_Line line) {
-		return getIntersection(new WB_AABBTree(mesh, 10), line);
+		return getIntersection(new WB_BVH(mesh), line);
 	}
 
 	public static List<WB_Segment> getIntersection(final HE_Mesh mesh,
 			final WB_Plane P) {
-		return getIntersection(new WB_AABBTree(mesh, 10), P);
+		return getIntersection(new WB_BVH(mesh), P);
 	}
 
 	public static List<HE_Face> getPotentialIntersectedFaces(
 			final HE_Mesh mesh, final WB_Plane P) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), P);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), P);
 	}
 
 	public static List<HE_Face> getPotentialIntersectedFaces(
 			final HE_Mesh mesh, final WB_Ray R) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), R);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), R);
 	}
 
 	public static List<HE_Face> getPotentialIntersectedFaces(
 			final HE_Mesh mesh, final WB_Line L) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), L);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), L);
 	}
 
 	public static List<HE_Face> getPotentialIntersectedFaces(
 			final HE_Mesh mesh, final Segment segment) {
-		return getPotentialIntersectedFaces(new WB_AABBTree(mesh, 10), segment);
+		return getPotentialIntersectedFaces(new WB_BVH(mesh), segment);
 	}
 
 	public static HE_FaceIntersection getClosestIntersection(
 			final HE_Mesh mesh, final WB_Ray ray) {
 
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getClosestIntersection(new WB_BVH(mesh), ray);
+
+	}
 
+	public static HE_FaceIntersection[] getClosestIntersections(
+			final HE_Mesh mesh, final WB_Ray[] rays) {
+		return getClosestIntersections(new WB_BVH(mesh), rays);
 	}
 
 	public static HE_FaceIntersection getFurthestIntersection(
 			final HE_Mesh mesh, final WB_Ray ray) {
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), ray);
+		return getFurthestIntersection(new WB_BVH(mesh), ray);
 
 	}
 
 	public static HE_FaceIntersection getClosestIntersection(
 			final HE_Mesh mesh, final WB_Line line) {
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), line);
+		return getClosestIntersection(new WB_BVH(mesh), line);
 
 	}
 
 	public static HE_FaceIntersection getFurthestIntersection(
 			final HE_Mesh mesh, final WB_Line line) {
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), line);
+		return getFurthestIntersection(new WB_BVH(mesh), line);
 
 	}
 
 	public static HE_FaceIntersection getClosestIntersection(
 			final HE_Mesh mesh, final Segment segment) {
 
-		return getClosestIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getClosestIntersection(new WB_BVH(mesh), segment);
 
 	}
 
 	public static HE_FaceIntersection getFurthestIntersection(
 			final HE_Mesh mesh, final Segment segment) {
 
-		return getFurthestIntersection(new WB_AABBTree(mesh, 10), segment);
+		return getFurthestIntersection(new WB_BVH(mesh), segment);
 	}
 }
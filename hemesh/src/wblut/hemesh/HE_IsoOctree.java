@@ -0,0 +1,504 @@
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.math.WB_Function3D;
+
+/**
+ * Narrow band sampling of a function on the grid of HE_MarchingCubes. An
+ * octree over the cells is subdivided only where the function can cross the
+ * isolevel. Nodes that can't are culled, their grid points get the value at
+ * the center of the node, which lies on the same side of the isolevel. Only
+ * the corners of the remaining cells are evaluated.
+ *
+ * Samples at grid points are cached in blocks of BLOCK cells along each side,
+ * so the corners and centers probed for a node are reused by its children.
+ * They are kept for the slices, which only evaluate the corners that weren't
+ * sampled yet.
+ *
+ * A culled node contains no crossed edges, so marching cubes on the sampled
+ * slices gives exactly the same mesh as on the full grid. Whether a node can
+ * be culled is decided with the Lipschitz constant of the function. Without
+ * one, nodes of at most PROBE cells along each side are culled when their
+ * corners and center are on the same side, features smaller than that can be
+ * missed, and larger nodes aren't probed at all. Single cells are never
+ * probed, culling one doesn't save the evaluation of its corners.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_IsoOctree implements HE_MarchingCubes.Field {
+
+	/**
+	 * Side, in cells, of the largest node culled without a Lipschitz
+	 * constant.
+	 */
+	static final int PROBE = 8;
+
+	/** Side, in cells, of the blocks in which samples are cached. */
+	private static final int BLOCK = 32;
+
+	private final WB_Function3D<Double> function;
+	private final int resx, resy, resz;
+	private final int nx;
+	/** Function coordinates of grid point (0,0,0) and step between points. */
+	private final double fxi, fyi, fzi, dfx, dfy, dfz;
+	private final double isolevel;
+	/** Lipschitz constant, 0 or less if unknown. */
+	private final double lipschitz;
+	/** Never cull cells on the outside of the grid. */
+	private final boolean keepBorder;
+	/** Grid point range of each culled node, i0,j0,k0,i1,j1,k1. */
+	private int[] culledBox;
+	private double[] culledValue;
+	/** Culled nodes touching each slice. */
+	private int[] culledStart, culledNodes;
+	/** Cells i+resx*j left in each layer. */
+	private int[] activeStart, activeCells;
+	/** Grid points i+nx*j sampled while building, per slice. */
+	private int[] sampledStart, sampledPoints;
+	private double[] sampledValues;
+	/** Side of the cache blocks, at most the side of a subtree. */
+	private int blockSize;
+	private long evaluations;
+
+	/**
+	 *
+	 * @param function
+	 *            function
+	 * @param resx
+	 *            number of cells along x
+	 * @param resy
+	 *            number of cells along y
+	 * @param resz
+	 *            number of cells along z
+	 * @param fxi
+	 *            x of grid point (0,0,0) in function coordinates
+	 * @param fyi
+	 *            y of grid point (0,0,0) in function coordinates
+	 * @param fzi
+	 *            z of grid point (0,0,0) in function coordinates
+	 * @param dfx
+	 *            x step between grid points in function coordinates
+	 * @param dfy
+	 *            y step between grid points in function coordinates
+	 * @param dfz
+	 *            z step between grid points in function coordinates
+	 * @param isolevel
+	 *            isolevel
+	 * @param lipschitz
+	 *            Lipschitz constant of the function, 0 if unknown
+	 * @param keepBorder
+	 *            keep all cells on the outside of the grid, needed when a
+	 *            boundary value replaces the outer grid points
+	 */
+	HE_IsoOctree(final WB_Function3D<Double> function, final int resx,
+			final int resy, final int resz, final double fxi,
+			final double fyi, final double fzi, final double dfx,
+			final double dfy, final double dfz, final double isolevel,
+			final double lipschitz, final boolean keepBorder) {
+		this.function = function;
+		this.resx = resx;
+		this.resy = resy;
+		this.resz = resz;
+		nx = resx + 1;
+		this.fxi = fxi;
+		this.fyi = fyi;
+		this.fzi = fzi;
+		this.dfx = dfx;
+		this.dfy = dfy;
+		this.dfz = dfz;
+		this.isolevel = isolevel;
+		this.lipschitz = lipschitz;
+		this.keepBorder = keepBorder;
+	}
+
+	/**
+	 * Build the octree. The top levels are split in subtrees that are built
+	 * in parallel.
+	 *
+	 * @return self
+	 */
+	HE_IsoOctree build() {
+		int size = 1;
+		while ((size < resx) || (size < resy) || (size < resz)) {
+			size *= 2;
+		}
+		final int top = Math.max(1, size / 4);
+		final int tn = (size / top) * (size / top) * (size / top);
+		final int side = size / top;
+		blockSize = Math.min(BLOCK, top);
+		final Part[] parts = new Part[tn];
+		WB_Parallel.forChunks(tn, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int t) {
+				parts[t] = new Part();
+				final int i = t % side;
+				final int j = (t / side) % side;
+				final int k = t / (side * side);
+				parts[t].node(i * top, j * top, k * top, top);
+				parts[t].samples = null;
+				parts[t].stamps = null;
+			}
+		});
+		// culled nodes per slice, active cells per layer and samples per
+		// slice
+		int nc = 0;
+		int na = 0;
+		int ns = 0;
+		evaluations = 0;
+		for (final Part part : parts) {
+			nc += part.nc;
+			na += part.na;
+			ns += part.ns;
+			evaluations += part.evaluations;
+		}
+		culledBox = new int[6 * nc];
+		culledValue = new double[nc];
+		culledStart = new int[resz + 2];
+		activeStart = new int[resz + 1];
+		activeCells = new int[na];
+		int c = 0;
+		for (final Part part : parts) {
+			System.arraycopy(part.box, 0, culledBox, 6 * c, 6 * part.nc);
+			System.arraycopy(part.value, 0, culledValue, c, part.nc);
+			c += part.nc;
+			for (int a = 0; a < part.na; a++) {
+				activeStart[part.cells[2 * a + 1] + 1]++;
+			}
+		}
+		for (int n = 0; n < nc; n++) {
+			for (int k = culledBox[6 * n + 2]; k <= culledBox[6 * n + 5]; k++) {
+				culledStart[k + 1]++;
+			}
+		}
+		for (int k = 0; k <= resz; k++) {
+			culledStart[k + 1] += culledStart[k];
+		}
+		for (int k = 0; k < resz; k++) {
+			activeStart[k + 1] += activeStart[k];
+		}
+		culledNodes = new int[culledStart[resz + 1]];
+		int[] cursor = Arrays.copyOf(culledStart, resz + 1);
+		for (int n = 0; n < nc; n++) {
+			for (int k = culledBox[6 * n + 2]; k <= culledBox[6 * n + 5]; k++) {
+				culledNodes[cursor[k]++] = n;
+			}
+		}
+		cursor = Arrays.copyOf(activeStart, resz);
+		for (final Part part : parts) {
+			for (int a = 0; a < part.na; a++) {
+				activeCells[cursor[part.cells[2 * a + 1]]++] = part.cells[2 * a];
+			}
+		}
+		sampledStart = new int[resz + 2];
+		sampledPoints = new int[ns];
+		sampledValues = new double[ns];
+		for (final Part part : parts) {
+			for (int a = 0; a < part.ns; a++) {
+				sampledStart[part.sampled[2 * a + 1] + 1]++;
+			}
+		}
+		for (int k = 0; k <= resz; k++) {
+			sampledStart[k + 1] += sampledStart[k];
+		}
+		cursor = Arrays.copyOf(sampledStart, resz + 1);
+		int id;
+		for (final Part part : parts) {
+			for (int a = 0; a < part.ns; a++) {
+				id = cursor[part.sampled[2 * a + 1]]++;
+				sampledPoints[id] = part.sampled[2 * a];
+				sampledValues[id] = part.sampledValue[a];
+			}
+		}
+		return this;
+	}
+
+	/**
+	 * Number of function evaluations used to build the octree, the slices add
+	 * the corners of the remaining cells that weren't sampled yet.
+	 *
+	 * @return number of evaluations
+	 */
+	long getNumberOfEvaluations() {
+		return evaluations;
+	}
+
+	/**
+	 * Number of cells that weren't culled.
+	 *
+	 * @return number of cells
+	 */
+	int getNumberOfActiveCells() {
+		return activeCells.length;
+	}
+
+	/*
+	 * (non-Javadoc)
+	 *
+	 * @see wblut.hemesh.HE_MarchingCubes.Field#slice(int, double[])
+	 */
+	@Override
+	public void slice(final int k, final double[] values) {
+		int n, id;
+		double v;
+		for (int c = culledStart[k]; c < culledStart[k + 1]; c++) {
+			n = 6 * culledNodes[c];
+			v = culledValue[culledNodes[c]];
+			for (int j = culledBox[n + 1]; j <= culledBox[n + 4]; j++) {
+				Arrays.fill(values, culledBox[n] + nx * j, culledBox[n + 3]
+						+ nx * j + 1, v);
+			}
+		}
+		// corners of the remaining cells below and above the slice, marked
+		// first to evaluate shared corners once, and filled in with the
+		// samples taken while building where possible
+		final int from = activeStart[Math.max(0, k - 1)];
+		final int to = activeStart[Math.min(resz, k + 1)];
+		for (int a = from; a < to; a++) {
+			id = corner(activeCells[a]);
+			values[id] = Double.NaN;
+			values[id + 1] = Double.NaN;
+			values[id + nx] = Double.NaN;
+			values[id + nx + 1] = Double.NaN;
+		}
+		for (int s = sampledStart[k]; s < sampledStart[k + 1]; s++) {
+			values[sampledPoints[s]] = sampledValues[s];
+		}
+		final double z = fzi + k * dfz;
+		for (int a = from; a < to; a++) {
+			id = corner(activeCells[a]);
+			evaluate(values, id, z);
+			evaluate(values, id + 1, z);
+			evaluate(values, id + nx, z);
+			evaluate(values, id + nx + 1, z);
+		}
+	}
+
+	/**
+	 * Grid point index in a slice of the lower corner of a cell.
+	 */
+	private int corner(final int cell) {
+		final int j = cell / resx;
+		return cell - resx * j + nx * j;
+	}
+
+	private void evaluate(final double[] values, final int id, final double z) {
+		if (Double.isNaN(values[id])) {
+			final int j = id / nx;
+			values[id] = function.f(fxi + (id - nx * j) * dfx, fyi + j * dfy,
+					z);
+		}
+	}
+
+	/**
+	 * Culled nodes, remaining cells and samples of one subtree.
+	 */
+	private final class Part {
+		private int[] box = new int[96];
+		private double[] value = new double[16];
+		private int nc;
+		/** Cell i+resx*j and layer k of each remaining cell. */
+		private int[] cells = new int[256];
+		private int na;
+		/** Grid point i+nx*j and slice k of each kept sample. */
+		private int[] sampled = new int[256];
+		private double[] sampledValue = new double[128];
+		private int ns;
+		/** Samples of the current block, valid if their stamp is current. */
+		private double[] samples;
+		private int[] stamps;
+		private int stamp;
+		/** First grid point of the current block, bi is -1 outside blocks. */
+		private int bi = -1, bj, bk;
+		/** Grid points along each side of a block. */
+		private final int bn = blockSize + 1;
+		private long evaluations;
+
+		/**
+		 * Cull or subdivide a node of cells. A node of the block size starts a
+		 * new block of cached samples.
+		 *
+		 * @param i0
+		 *            first cell along x
+		 * @param j0
+		 *            first cell along y
+		 * @param k0
+		 *            first cell along z
+		 * @param s
+		 *            node size in cells, a power of 2
+		 */
+		void node(final int i0, final int j0, final int k0, final int s) {
+			if ((i0 >= resx) || (j0 >= resy) || (k0 >= resz)) {
+				return;
+			}
+			if (s != blockSize) {
+				visit(i0, j0, k0, s);
+				return;
+			}
+			if (samples == null) {
+				samples = new double[bn * bn * bn];
+				stamps = new int[bn * bn * bn];
+			}
+			stamp++;
+			bi = i0;
+			bj = j0;
+			bk = k0;
+			visit(i0, j0, k0, s);
+			keepSamples();
+			bi = -1;
+		}
+
+		/**
+		 * Cull or subdivide a node of cells inside the grid.
+		 *
+		 * @param i0
+		 *            first cell along x
+		 * @param j0
+		 *            first cell along y
+		 * @param k0
+		 *            first cell along z
+		 * @param s
+		 *            node size in cells, a power of 2
+		 */
+		private void visit(final int i0, final int j0, final int k0,
+				final int s) {
+			final int i1 = Math.min(i0 + s, resx);
+			final int j1 = Math.min(j0 + s, resy);
+			final int k1 = Math.min(k0 + s, resz);
+			if (!keepBorder
+					|| ((i0 > 0) && (j0 > 0) && (k0 > 0) && (i1 < resx)
+							&& (j1 < resy) && (k1 < resz))) {
+				final double v = cull(i0, j0, k0, i1, j1, k1, s);
+				if (!Double.isNaN(v)) {
+					if (nc == value.length) {
+						box = Arrays.copyOf(box, 12 * nc);
+						value = Arrays.copyOf(value, 2 * nc);
+					}
+					box[6 * nc] = i0;
+					box[6 * nc + 1] = j0;
+					box[6 * nc + 2] = k0;
+					box[6 * nc + 3] = i1;
+					box[6 * nc + 4] = j1;
+					box[6 * nc + 5] = k1;
+					value[nc++] = v;
+					return;
+				}
+			}
+			if (s == 1) {
+				if (2 * na == cells.length) {
+					cells = Arrays.copyOf(cells, 4 * na);
+				}
+				cells[2 * na] = i0 + resx * j0;
+				cells[2 * na + 1] = k0;
+				na++;
+				return;
+			}
+			final int h = s / 2;
+			for (int k = k0; k < k0 + s; k += h) {
+				for (int j = j0; j < j0 + s; j += h) {
+					for (int i = i0; i < i0 + s; i += h) {
+						node(i, j, k, h);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Test if the isolevel can cross a box of grid points.
+		 *
+		 * @return value at the center of the box if it can't, NaN if it can
+		 */
+		private double cull(final int i0, final int j0, final int k0,
+				final int i1, final int j1, final int k1, final int s) {
+			// culling a single cell doesn't save its corners, the neighbors
+			// share them
+			if (s == 1) {
+				return Double.NaN;
+			}
+			if (lipschitz > 0) {
+				final double v = center(i0, j0, k0, i1, j1, k1);
+				final double hx = 0.5 * (i1 - i0) * dfx;
+				final double hy = 0.5 * (j1 - j0) * dfy;
+				final double hz = 0.5 * (k1 - k0) * dfz;
+				return (Math.abs(v - isolevel) > lipschitz
+						* Math.sqrt(hx * hx + hy * hy + hz * hz)) ? v
+						: Double.NaN;
+			}
+			if (s > PROBE) {
+				return Double.NaN;
+			}
+			final double v = center(i0, j0, k0, i1, j1, k1);
+			if (Double.isNaN(v) || (v == isolevel)) {
+				return Double.NaN;
+			}
+			final boolean below = v < isolevel;
+			double c;
+			for (int k = k0; k <= k1; k += k1 - k0) {
+				for (int j = j0; j <= j1; j += j1 - j0) {
+					for (int i = i0; i <= i1; i += i1 - i0) {
+						c = sample(i, j, k);
+						if ((below) ? !(c < isolevel) : !(c > isolevel)) {
+							return Double.NaN;
+						}
+					}
+				}
+			}
+			return v;
+		}
+
+		/**
+		 * Value at the center of a box of grid points.
+		 */
+		private double center(final int i0, final int j0, final int k0,
+				final int i1, final int j1, final int k1) {
+			if ((((i0 + i1) | (j0 + j1) | (k0 + k1)) & 1) == 0) {
+				return sample((i0 + i1) >> 1, (j0 + j1) >> 1, (k0 + k1) >> 1);
+			}
+			return f(0.5 * (i0 + i1), 0.5 * (j0 + j1), 0.5 * (k0 + k1));
+		}
+
+		/**
+		 * Value at a grid point, cached within the current block.
+		 */
+		private double sample(final int i, final int j, final int k) {
+			if (bi < 0) {
+				return f(i, j, k);
+			}
+			final int id = (i - bi) + bn * ((j - bj) + bn * (k - bk));
+			if (stamps[id] != stamp) {
+				samples[id] = f(i, j, k);
+				stamps[id] = stamp;
+			}
+			return samples[id];
+		}
+
+		/**
+		 * Keep the samples of the current block for the slices.
+		 */
+		private void keepSamples() {
+			int i, j, k;
+			for (int id = 0; id < stamps.length; id++) {
+				if (stamps[id] != stamp) {
+					continue;
+				}
+				if (ns == sampledValue.length) {
+					sampled = Arrays.copyOf(sampled, 4 * ns);
+					sampledValue = Arrays.copyOf(sampledValue, 2 * ns);
+				}
+				i = bi + id % bn;
+				j = bj + (id / bn) % bn;
+				k = bk + id / (bn * bn);
+				sampled[2 * ns] = i + nx * j;
+				sampled[2 * ns + 1] = k;
+				sampledValue[ns++] = samples[id];
+			}
+		}
+
+		private double f(final double i, final double j, final double k) {
+			evaluations++;
+			return function.f(fxi + i * dfx, fyi + j * dfy, fzi + k * dfz);
+		}
+	}
+}
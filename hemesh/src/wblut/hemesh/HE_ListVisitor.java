@@ -0,0 +1,25 @@
+package wblut.hemesh;
+
+import java.util.List;
+
+import javolution.util.FastTable;
+
+/**
+ * Visitor collecting elements in a list, each element only once.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ * @param <E>
+ *            element type
+ */
+final class HE_ListVisitor<E> implements HE_Visitor<E> {
+
+	final List<E> list = new FastTable<E>();
+
+	@Override
+	public void visit(final E element) {
+		if (!list.contains(element)) {
+			list.add(element);
+		}
+	}
+}
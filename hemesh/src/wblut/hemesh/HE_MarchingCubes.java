@@ -0,0 +1,773 @@
+package wblut.hemesh;
+
+import java.util.Arrays;
+
+import wblut.core.WB_Parallel;
+import wblut.math.WB_Epsilon;
+
+/**
+ * Marching cubes polygonisation of a regular grid, shared by HEC_IsoSurface,
+ * HEC_IsoFunction and HEC_IsoGrid. The grid is processed one z-slice at a
+ * time, only two slices of values and edge vertex indices are kept. Vertices
+ * and triangles go into primitive buffers, the mesh is built in one go at the
+ * end.
+ *
+ * The cell layers are split in slabs that are polygonised in parallel. A slab
+ * creates the vertices on its own slices, vertices on its top slice belong to
+ * the next slab and are stitched afterwards. Within a slab vertices are
+ * created slice by slice and the slabs are concatenated in order, so the
+ * result doesn't depend on the number of threads.
+ *
+ * Straightforward marching cube implementation:
+ * http://local.wasp.uwa.edu.au/~pbourke/geometry/polygonise/
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_MarchingCubes {
+
+	/** Crossed edges for each cube configuration. */
+	static final int[] edgeTable = { 0x0, 0x109, 0x203, 0x30a, 0x406, 0x50f,
+		0x605, 0x70c, 0x80c, 0x905, 0xa0f, 0xb06, 0xc0a, 0xd03, 0xe09,
+		0xf00, 0x190, 0x99, 0x393, 0x29a, 0x596, 0x49f, 0x795, 0x69c,
+		0x99c, 0x895, 0xb9f, 0xa96, 0xd9a, 0xc93, 0xf99, 0xe90, 0x230,
+		0x339, 0x33, 0x13a, 0x636, 0x73f, 0x435, 0x53c, 0xa3c, 0xb35,
+		0x83f, 0x936, 0xe3a, 0xf33, 0xc39, 0xd30, 0x3a0, 0x2a9, 0x1a3,
+		0xaa, 0x7a6, 0x6af, 0x5a5, 0x4ac, 0xbac, 0xaa5, 0x9af, 0x8a6,
+		0xfaa, 0xea3, 0xda9, 0xca0, 0x460, 0x569, 0x663, 0x76a, 0x66,
+		0x16f, 0x265, 0x36c, 0xc6c, 0xd65, 0xe6f, 0xf66, 0x86a, 0x963,
+		0xa69, 0xb60, 0x5f0, 0x4f9, 0x7f3, 0x6fa, 0x1f6, 0xff, 0x3f5,
+		0x2fc, 0xdfc, 0xcf5, 0xfff, 0xef6, 0x9fa, 0x8f3, 0xbf9, 0xaf0,
+		0x650, 0x759, 0x453, 0x55a, 0x256, 0x35f, 0x55, 0x15c, 0xe5c,
+		0xf55, 0xc5f, 0xd56, 0xa5a, 0xb53, 0x859, 0x950, 0x7c0, 0x6c9,
+		0x5c3, 0x4ca, 0x3c6, 0x2cf, 0x1c5, 0xcc, 0xfcc, 0xec5, 0xdcf,
+		0xcc6, 0xbca, 0xac3, 0x9c9, 0x8c0, 0x8c0, 0x9c9, 0xac3, 0xbca,
+		0xcc6, 0xdcf, 0xec5, 0xfcc, 0xcc, 0x1c5, 0x2cf, 0x3c6, 0x4ca,
+		0x5c3, 0x6c9, 0x7c0, 0x950, 0x859, 0xb53, 0xa5a, 0xd56, 0xc5f,
+		0xf55, 0xe5c, 0x15c, 0x55, 0x35f, 0x256, 0x55a, 0x453, 0x759,
+		0x650, 0xaf0, 0xbf9, 0x8f3, 0x9fa, 0xef6, 0xfff, 0xcf5, 0xdfc,
+		0x2fc, 0x3f5, 0xff, 0x1f6, 0x6fa, 0x7f3, 0x4f9, 0x5f0, 0xb60,
+		0xa69, 0x963, 0x86a, 0xf66, 0xe6f, 0xd65, 0xc6c, 0x36c, 0x265,
+		0x16f, 0x66, 0x76a, 0x663, 0x569, 0x460, 0xca0, 0xda9, 0xea3,
+		0xfaa, 0x8a6, 0x9af, 0xaa5, 0xbac, 0x4ac, 0x5a5, 0x6af, 0x7a6,
+		0xaa, 0x1a3, 0x2a9, 0x3a0, 0xd30, 0xc39, 0xf33, 0xe3a, 0x936,
+		0x83f, 0xb35, 0xa3c, 0x53c, 0x435, 0x73f, 0x636, 0x13a, 0x33,
+		0x339, 0x230, 0xe90, 0xf99, 0xc93, 0xd9a, 0xa96, 0xb9f, 0x895,
+		0x99c, 0x69c, 0x795, 0x49f, 0x596, 0x29a, 0x393, 0x99, 0x190,
+		0xf00, 0xe09, 0xd03, 0xc0a, 0xb06, 0xa0f, 0x905, 0x80c, 0x70c,
+		0x605, 0x50f, 0x406, 0x30a, 0x203, 0x109, 0x0 };
+
+	/** Triangles for each cube configuration, -1 terminated. */
+	static final int[][] triTable = {
+		{ -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 1, 9, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 8, 3, 9, 8, 1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, 1, 2, 10, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 2, 10, 0, 2, 9, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 8, 3, 2, 10, 8, 10, 9, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 11, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 11, 2, 8, 11, 0, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 9, 0, 2, 3, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 11, 2, 1, 9, 11, 9, 8, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 10, 1, 11, 10, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 10, 1, 0, 8, 10, 8, 11, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 9, 0, 3, 11, 9, 11, 10, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 8, 10, 10, 8, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 7, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 3, 0, 7, 3, 4, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 1, 9, 8, 4, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 1, 9, 4, 7, 1, 7, 3, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, 8, 4, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 4, 7, 3, 0, 4, 1, 2, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 2, 10, 9, 0, 2, 8, 4, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 10, 9, 2, 9, 7, 2, 7, 3, 7, 9, 4, -1, -1, -1, -1 },
+		{ 8, 4, 7, 3, 11, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 4, 7, 11, 2, 4, 2, 0, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 0, 1, 8, 4, 7, 2, 3, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 7, 11, 9, 4, 11, 9, 11, 2, 9, 2, 1, -1, -1, -1, -1 },
+		{ 3, 10, 1, 3, 11, 10, 7, 8, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 11, 10, 1, 4, 11, 1, 0, 4, 7, 11, 4, -1, -1, -1, -1 },
+		{ 4, 7, 8, 9, 0, 11, 9, 11, 10, 11, 0, 3, -1, -1, -1, -1 },
+		{ 4, 7, 11, 4, 11, 9, 9, 11, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 5, 4, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 5, 4, 0, 8, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 5, 4, 1, 5, 0, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 5, 4, 8, 3, 5, 3, 1, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, 9, 5, 4, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 0, 8, 1, 2, 10, 4, 9, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 2, 10, 5, 4, 2, 4, 0, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 10, 5, 3, 2, 5, 3, 5, 4, 3, 4, 8, -1, -1, -1, -1 },
+		{ 9, 5, 4, 2, 3, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 11, 2, 0, 8, 11, 4, 9, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 5, 4, 0, 1, 5, 2, 3, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 1, 5, 2, 5, 8, 2, 8, 11, 4, 8, 5, -1, -1, -1, -1 },
+		{ 10, 3, 11, 10, 1, 3, 9, 5, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 9, 5, 0, 8, 1, 8, 10, 1, 8, 11, 10, -1, -1, -1, -1 },
+		{ 5, 4, 0, 5, 0, 11, 5, 11, 10, 11, 0, 3, -1, -1, -1, -1 },
+		{ 5, 4, 8, 5, 8, 10, 10, 8, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 7, 8, 5, 7, 9, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 3, 0, 9, 5, 3, 5, 7, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 7, 8, 0, 1, 7, 1, 5, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 5, 3, 3, 5, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 7, 8, 9, 5, 7, 10, 1, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 1, 2, 9, 5, 0, 5, 3, 0, 5, 7, 3, -1, -1, -1, -1 },
+		{ 8, 0, 2, 8, 2, 5, 8, 5, 7, 10, 5, 2, -1, -1, -1, -1 },
+		{ 2, 10, 5, 2, 5, 3, 3, 5, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 9, 5, 7, 8, 9, 3, 11, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 5, 7, 9, 7, 2, 9, 2, 0, 2, 7, 11, -1, -1, -1, -1 },
+		{ 2, 3, 11, 0, 1, 8, 1, 7, 8, 1, 5, 7, -1, -1, -1, -1 },
+		{ 11, 2, 1, 11, 1, 7, 7, 1, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 5, 8, 8, 5, 7, 10, 1, 3, 10, 3, 11, -1, -1, -1, -1 },
+		{ 5, 7, 0, 5, 0, 9, 7, 11, 0, 1, 0, 10, 11, 10, 0, -1 },
+		{ 11, 10, 0, 11, 0, 3, 10, 5, 0, 8, 0, 7, 5, 7, 0, -1 },
+		{ 11, 10, 5, 7, 11, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 6, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, 5, 10, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 0, 1, 5, 10, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 8, 3, 1, 9, 8, 5, 10, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 6, 5, 2, 6, 1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 6, 5, 1, 2, 6, 3, 0, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 6, 5, 9, 0, 6, 0, 2, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 9, 8, 5, 8, 2, 5, 2, 6, 3, 2, 8, -1, -1, -1, -1 },
+		{ 2, 3, 11, 10, 6, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 0, 8, 11, 2, 0, 10, 6, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 1, 9, 2, 3, 11, 5, 10, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 10, 6, 1, 9, 2, 9, 11, 2, 9, 8, 11, -1, -1, -1, -1 },
+		{ 6, 3, 11, 6, 5, 3, 5, 1, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 11, 0, 11, 5, 0, 5, 1, 5, 11, 6, -1, -1, -1, -1 },
+		{ 3, 11, 6, 0, 3, 6, 0, 6, 5, 0, 5, 9, -1, -1, -1, -1 },
+		{ 6, 5, 9, 6, 9, 11, 11, 9, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 10, 6, 4, 7, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 3, 0, 4, 7, 3, 6, 5, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 9, 0, 5, 10, 6, 8, 4, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 6, 5, 1, 9, 7, 1, 7, 3, 7, 9, 4, -1, -1, -1, -1 },
+		{ 6, 1, 2, 6, 5, 1, 4, 7, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 5, 5, 2, 6, 3, 0, 4, 3, 4, 7, -1, -1, -1, -1 },
+		{ 8, 4, 7, 9, 0, 5, 0, 6, 5, 0, 2, 6, -1, -1, -1, -1 },
+		{ 7, 3, 9, 7, 9, 4, 3, 2, 9, 5, 9, 6, 2, 6, 9, -1 },
+		{ 3, 11, 2, 7, 8, 4, 10, 6, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 10, 6, 4, 7, 2, 4, 2, 0, 2, 7, 11, -1, -1, -1, -1 },
+		{ 0, 1, 9, 4, 7, 8, 2, 3, 11, 5, 10, 6, -1, -1, -1, -1 },
+		{ 9, 2, 1, 9, 11, 2, 9, 4, 11, 7, 11, 4, 5, 10, 6, -1 },
+		{ 8, 4, 7, 3, 11, 5, 3, 5, 1, 5, 11, 6, -1, -1, -1, -1 },
+		{ 5, 1, 11, 5, 11, 6, 1, 0, 11, 7, 11, 4, 0, 4, 11, -1 },
+		{ 0, 5, 9, 0, 6, 5, 0, 3, 6, 11, 6, 3, 8, 4, 7, -1 },
+		{ 6, 5, 9, 6, 9, 11, 4, 7, 9, 7, 11, 9, -1, -1, -1, -1 },
+		{ 10, 4, 9, 6, 4, 10, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 10, 6, 4, 9, 10, 0, 8, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 0, 1, 10, 6, 0, 6, 4, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 3, 1, 8, 1, 6, 8, 6, 4, 6, 1, 10, -1, -1, -1, -1 },
+		{ 1, 4, 9, 1, 2, 4, 2, 6, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 0, 8, 1, 2, 9, 2, 4, 9, 2, 6, 4, -1, -1, -1, -1 },
+		{ 0, 2, 4, 4, 2, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 3, 2, 8, 2, 4, 4, 2, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 4, 9, 10, 6, 4, 11, 2, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 2, 2, 8, 11, 4, 9, 10, 4, 10, 6, -1, -1, -1, -1 },
+		{ 3, 11, 2, 0, 1, 6, 0, 6, 4, 6, 1, 10, -1, -1, -1, -1 },
+		{ 6, 4, 1, 6, 1, 10, 4, 8, 1, 2, 1, 11, 8, 11, 1, -1 },
+		{ 9, 6, 4, 9, 3, 6, 9, 1, 3, 11, 6, 3, -1, -1, -1, -1 },
+		{ 8, 11, 1, 8, 1, 0, 11, 6, 1, 9, 1, 4, 6, 4, 1, -1 },
+		{ 3, 11, 6, 3, 6, 0, 0, 6, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 6, 4, 8, 11, 6, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 10, 6, 7, 8, 10, 8, 9, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 7, 3, 0, 10, 7, 0, 9, 10, 6, 7, 10, -1, -1, -1, -1 },
+		{ 10, 6, 7, 1, 10, 7, 1, 7, 8, 1, 8, 0, -1, -1, -1, -1 },
+		{ 10, 6, 7, 10, 7, 1, 1, 7, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 6, 1, 6, 8, 1, 8, 9, 8, 6, 7, -1, -1, -1, -1 },
+		{ 2, 6, 9, 2, 9, 1, 6, 7, 9, 0, 9, 3, 7, 3, 9, -1 },
+		{ 7, 8, 0, 7, 0, 6, 6, 0, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 3, 2, 6, 7, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 3, 11, 10, 6, 8, 10, 8, 9, 8, 6, 7, -1, -1, -1, -1 },
+		{ 2, 0, 7, 2, 7, 11, 0, 9, 7, 6, 7, 10, 9, 10, 7, -1 },
+		{ 1, 8, 0, 1, 7, 8, 1, 10, 7, 6, 7, 10, 2, 3, 11, -1 },
+		{ 11, 2, 1, 11, 1, 7, 10, 6, 1, 6, 7, 1, -1, -1, -1, -1 },
+		{ 8, 9, 6, 8, 6, 7, 9, 1, 6, 11, 6, 3, 1, 3, 6, -1 },
+		{ 0, 9, 1, 11, 6, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 8, 0, 7, 0, 6, 3, 11, 0, 11, 6, 0, -1, -1, -1, -1 },
+		{ 7, 11, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 6, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 0, 8, 11, 7, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 1, 9, 11, 7, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 1, 9, 8, 3, 1, 11, 7, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 1, 2, 6, 11, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, 3, 0, 8, 6, 11, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 9, 0, 2, 10, 9, 6, 11, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 6, 11, 7, 2, 10, 3, 10, 8, 3, 10, 9, 8, -1, -1, -1, -1 },
+		{ 7, 2, 3, 6, 2, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 7, 0, 8, 7, 6, 0, 6, 2, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 7, 6, 2, 3, 7, 0, 1, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 6, 2, 1, 8, 6, 1, 9, 8, 8, 7, 6, -1, -1, -1, -1 },
+		{ 10, 7, 6, 10, 1, 7, 1, 3, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 7, 6, 1, 7, 10, 1, 8, 7, 1, 0, 8, -1, -1, -1, -1 },
+		{ 0, 3, 7, 0, 7, 10, 0, 10, 9, 6, 10, 7, -1, -1, -1, -1 },
+		{ 7, 6, 10, 7, 10, 8, 8, 10, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 6, 8, 4, 11, 8, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 6, 11, 3, 0, 6, 0, 4, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 6, 11, 8, 4, 6, 9, 0, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 4, 6, 9, 6, 3, 9, 3, 1, 11, 3, 6, -1, -1, -1, -1 },
+		{ 6, 8, 4, 6, 11, 8, 2, 10, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, 3, 0, 11, 0, 6, 11, 0, 4, 6, -1, -1, -1, -1 },
+		{ 4, 11, 8, 4, 6, 11, 0, 2, 9, 2, 10, 9, -1, -1, -1, -1 },
+		{ 10, 9, 3, 10, 3, 2, 9, 4, 3, 11, 3, 6, 4, 6, 3, -1 },
+		{ 8, 2, 3, 8, 4, 2, 4, 6, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 4, 2, 4, 6, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 9, 0, 2, 3, 4, 2, 4, 6, 4, 3, 8, -1, -1, -1, -1 },
+		{ 1, 9, 4, 1, 4, 2, 2, 4, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 1, 3, 8, 6, 1, 8, 4, 6, 6, 10, 1, -1, -1, -1, -1 },
+		{ 10, 1, 0, 10, 0, 6, 6, 0, 4, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 6, 3, 4, 3, 8, 6, 10, 3, 0, 3, 9, 10, 9, 3, -1 },
+		{ 10, 9, 4, 6, 10, 4, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 9, 5, 7, 6, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, 4, 9, 5, 11, 7, 6, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 0, 1, 5, 4, 0, 7, 6, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 7, 6, 8, 3, 4, 3, 5, 4, 3, 1, 5, -1, -1, -1, -1 },
+		{ 9, 5, 4, 10, 1, 2, 7, 6, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 6, 11, 7, 1, 2, 10, 0, 8, 3, 4, 9, 5, -1, -1, -1, -1 },
+		{ 7, 6, 11, 5, 4, 10, 4, 2, 10, 4, 0, 2, -1, -1, -1, -1 },
+		{ 3, 4, 8, 3, 5, 4, 3, 2, 5, 10, 5, 2, 11, 7, 6, -1 },
+		{ 7, 2, 3, 7, 6, 2, 5, 4, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 5, 4, 0, 8, 6, 0, 6, 2, 6, 8, 7, -1, -1, -1, -1 },
+		{ 3, 6, 2, 3, 7, 6, 1, 5, 0, 5, 4, 0, -1, -1, -1, -1 },
+		{ 6, 2, 8, 6, 8, 7, 2, 1, 8, 4, 8, 5, 1, 5, 8, -1 },
+		{ 9, 5, 4, 10, 1, 6, 1, 7, 6, 1, 3, 7, -1, -1, -1, -1 },
+		{ 1, 6, 10, 1, 7, 6, 1, 0, 7, 8, 7, 0, 9, 5, 4, -1 },
+		{ 4, 0, 10, 4, 10, 5, 0, 3, 10, 6, 10, 7, 3, 7, 10, -1 },
+		{ 7, 6, 10, 7, 10, 8, 5, 4, 10, 4, 8, 10, -1, -1, -1, -1 },
+		{ 6, 9, 5, 6, 11, 9, 11, 8, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 6, 11, 0, 6, 3, 0, 5, 6, 0, 9, 5, -1, -1, -1, -1 },
+		{ 0, 11, 8, 0, 5, 11, 0, 1, 5, 5, 6, 11, -1, -1, -1, -1 },
+		{ 6, 11, 3, 6, 3, 5, 5, 3, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 10, 9, 5, 11, 9, 11, 8, 11, 5, 6, -1, -1, -1, -1 },
+		{ 0, 11, 3, 0, 6, 11, 0, 9, 6, 5, 6, 9, 1, 2, 10, -1 },
+		{ 11, 8, 5, 11, 5, 6, 8, 0, 5, 10, 5, 2, 0, 2, 5, -1 },
+		{ 6, 11, 3, 6, 3, 5, 2, 10, 3, 10, 5, 3, -1, -1, -1, -1 },
+		{ 5, 8, 9, 5, 2, 8, 5, 6, 2, 3, 8, 2, -1, -1, -1, -1 },
+		{ 9, 5, 6, 9, 6, 0, 0, 6, 2, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 5, 8, 1, 8, 0, 5, 6, 8, 3, 8, 2, 6, 2, 8, -1 },
+		{ 1, 5, 6, 2, 1, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 3, 6, 1, 6, 10, 3, 8, 6, 5, 6, 9, 8, 9, 6, -1 },
+		{ 10, 1, 0, 10, 0, 6, 9, 5, 0, 5, 6, 0, -1, -1, -1, -1 },
+		{ 0, 3, 8, 5, 6, 10, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 5, 6, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 5, 10, 7, 5, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 5, 10, 11, 7, 5, 8, 3, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 11, 7, 5, 10, 11, 1, 9, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 10, 7, 5, 10, 11, 7, 9, 8, 1, 8, 3, 1, -1, -1, -1, -1 },
+		{ 11, 1, 2, 11, 7, 1, 7, 5, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, 1, 2, 7, 1, 7, 5, 7, 2, 11, -1, -1, -1, -1 },
+		{ 9, 7, 5, 9, 2, 7, 9, 0, 2, 2, 11, 7, -1, -1, -1, -1 },
+		{ 7, 5, 2, 7, 2, 11, 5, 9, 2, 3, 2, 8, 9, 8, 2, -1 },
+		{ 2, 5, 10, 2, 3, 5, 3, 7, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 2, 0, 8, 5, 2, 8, 7, 5, 10, 2, 5, -1, -1, -1, -1 },
+		{ 9, 0, 1, 5, 10, 3, 5, 3, 7, 3, 10, 2, -1, -1, -1, -1 },
+		{ 9, 8, 2, 9, 2, 1, 8, 7, 2, 10, 2, 5, 7, 5, 2, -1 },
+		{ 1, 3, 5, 3, 7, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 7, 0, 7, 1, 1, 7, 5, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 0, 3, 9, 3, 5, 5, 3, 7, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 8, 7, 5, 9, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 8, 4, 5, 10, 8, 10, 11, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 5, 0, 4, 5, 11, 0, 5, 10, 11, 11, 3, 0, -1, -1, -1, -1 },
+		{ 0, 1, 9, 8, 4, 10, 8, 10, 11, 10, 4, 5, -1, -1, -1, -1 },
+		{ 10, 11, 4, 10, 4, 5, 11, 3, 4, 9, 4, 1, 3, 1, 4, -1 },
+		{ 2, 5, 1, 2, 8, 5, 2, 11, 8, 4, 5, 8, -1, -1, -1, -1 },
+		{ 0, 4, 11, 0, 11, 3, 4, 5, 11, 2, 11, 1, 5, 1, 11, -1 },
+		{ 0, 2, 5, 0, 5, 9, 2, 11, 5, 4, 5, 8, 11, 8, 5, -1 },
+		{ 9, 4, 5, 2, 11, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 5, 10, 3, 5, 2, 3, 4, 5, 3, 8, 4, -1, -1, -1, -1 },
+		{ 5, 10, 2, 5, 2, 4, 4, 2, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 10, 2, 3, 5, 10, 3, 8, 5, 4, 5, 8, 0, 1, 9, -1 },
+		{ 5, 10, 2, 5, 2, 4, 1, 9, 2, 9, 4, 2, -1, -1, -1, -1 },
+		{ 8, 4, 5, 8, 5, 3, 3, 5, 1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 4, 5, 1, 0, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 8, 4, 5, 8, 5, 3, 9, 0, 5, 0, 3, 5, -1, -1, -1, -1 },
+		{ 9, 4, 5, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 11, 7, 4, 9, 11, 9, 10, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 8, 3, 4, 9, 7, 9, 11, 7, 9, 10, 11, -1, -1, -1, -1 },
+		{ 1, 10, 11, 1, 11, 4, 1, 4, 0, 7, 4, 11, -1, -1, -1, -1 },
+		{ 3, 1, 4, 3, 4, 8, 1, 10, 4, 7, 4, 11, 10, 11, 4, -1 },
+		{ 4, 11, 7, 9, 11, 4, 9, 2, 11, 9, 1, 2, -1, -1, -1, -1 },
+		{ 9, 7, 4, 9, 11, 7, 9, 1, 11, 2, 11, 1, 0, 8, 3, -1 },
+		{ 11, 7, 4, 11, 4, 2, 2, 4, 0, -1, -1, -1, -1, -1, -1, -1 },
+		{ 11, 7, 4, 11, 4, 2, 8, 3, 4, 3, 2, 4, -1, -1, -1, -1 },
+		{ 2, 9, 10, 2, 7, 9, 2, 3, 7, 7, 4, 9, -1, -1, -1, -1 },
+		{ 9, 10, 7, 9, 7, 4, 10, 2, 7, 8, 7, 0, 2, 0, 7, -1 },
+		{ 3, 7, 10, 3, 10, 2, 7, 4, 10, 1, 10, 0, 4, 0, 10, -1 },
+		{ 1, 10, 2, 8, 7, 4, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 9, 1, 4, 1, 7, 7, 1, 3, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 9, 1, 4, 1, 7, 0, 8, 1, 8, 7, 1, -1, -1, -1, -1 },
+		{ 4, 0, 3, 7, 4, 3, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 4, 8, 7, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 10, 8, 10, 11, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 0, 9, 3, 9, 11, 11, 9, 10, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 1, 10, 0, 10, 8, 8, 10, 11, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 1, 10, 11, 3, 10, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 2, 11, 1, 11, 9, 9, 11, 8, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 0, 9, 3, 9, 11, 1, 2, 9, 2, 11, 9, -1, -1, -1, -1 },
+		{ 0, 2, 11, 8, 0, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 3, 2, 11, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 3, 8, 2, 8, 10, 10, 8, 9, -1, -1, -1, -1, -1, -1, -1 },
+		{ 9, 10, 2, 0, 9, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 2, 3, 8, 2, 8, 10, 0, 1, 8, 1, 10, 8, -1, -1, -1, -1 },
+		{ 1, 10, 2, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 1, 3, 8, 9, 1, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 9, 1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ 0, 3, 8, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 },
+		{ -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1 } };
+
+	/** Minimum number of cell layers per slab. */
+	private static final int GRAIN = 8;
+
+	/**
+	 * Source of the grid values. Different slices can be requested
+	 * concurrently.
+	 */
+	interface Field {
+
+		/**
+		 * Fill one z-slice of grid values.
+		 *
+		 * @param k
+		 *            slice, 0 to resz
+		 * @param values
+		 *            value at grid point (i,j,k) goes in values[i+(resx+1)*j]
+		 */
+		void slice(int k, double[] values);
+	}
+
+	private final Field field;
+	private final int resx, resy, resz;
+	/** Number of grid points along x and y. */
+	private final int nx, ny;
+	private final double isolevel;
+	/** Value forced on the outer grid points, NaN for none. */
+	private final double boundary;
+	private final boolean invert;
+	/** Position of grid point (0,0,0) and cell size. */
+	private double ox, oy, oz, dx, dy, dz;
+	private double[] coords;
+	private int numberOfVertices;
+	private int[] triangles;
+	private int numberOfTriangles;
+
+	/**
+	 *
+	 * @param field
+	 *            grid values
+	 * @param resx
+	 *            number of cells along x
+	 * @param resy
+	 *            number of cells along y
+	 * @param resz
+	 *            number of cells along z
+	 * @param isolevel
+	 *            isolevel
+	 * @param boundary
+	 *            value of the outer grid points, NaN to use the field
+	 * @param invert
+	 *            invert the isosurface
+	 */
+	HE_MarchingCubes(final Field field, final int resx, final int resy,
+			final int resz, final double isolevel, final double boundary,
+			final boolean invert) {
+		this.field = field;
+		this.resx = resx;
+		this.resy = resy;
+		this.resz = resz;
+		nx = resx + 1;
+		ny = resy + 1;
+		this.isolevel = isolevel;
+		this.boundary = boundary;
+		this.invert = invert;
+		dx = dy = dz = 1.0;
+	}
+
+	/**
+	 * Place the grid.
+	 *
+	 * @param ox
+	 *            x of grid point (0,0,0)
+	 * @param oy
+	 *            y of grid point (0,0,0)
+	 * @param oz
+	 *            z of grid point (0,0,0)
+	 * @param dx
+	 *            cell size along x
+	 * @param dy
+	 *            cell size along y
+	 * @param dz
+	 *            cell size along z
+	 * @return self
+	 */
+	HE_MarchingCubes setGrid(final double ox, final double oy,
+			final double oz, final double dx, final double dy, final double dz) {
+		this.ox = ox;
+		this.oy = oy;
+		this.oz = oz;
+		this.dx = dx;
+		this.dy = dy;
+		this.dz = dz;
+		return this;
+	}
+
+	/**
+	 * Polygonise the grid.
+	 *
+	 * @return self
+	 */
+	HE_MarchingCubes polygonise() {
+		numberOfVertices = 0;
+		numberOfTriangles = 0;
+		if ((resx < 1) || (resy < 1) || (resz < 1)) {
+			coords = new double[0];
+			triangles = new int[0];
+			return this;
+		}
+		final int slabs = WB_Parallel.getNumberOfChunks(resz, GRAIN);
+		final Slab[] slab = new Slab[slabs];
+		WB_Parallel.forChunks(slabs, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int s) {
+				slab[s] = new Slab(WB_Parallel.getChunkStart(resz, slabs, s),
+						WB_Parallel.getChunkStart(resz, slabs, s + 1));
+				slab[s].polygonise();
+			}
+		});
+		final int[] vertexOffset = new int[slabs + 1];
+		final int[] triangleOffset = new int[slabs + 1];
+		for (int s = 0; s < slabs; s++) {
+			vertexOffset[s + 1] = vertexOffset[s] + slab[s].nv;
+			triangleOffset[s + 1] = triangleOffset[s] + slab[s].nt;
+		}
+		numberOfVertices = vertexOffset[slabs];
+		numberOfTriangles = triangleOffset[slabs];
+		coords = new double[3 * numberOfVertices];
+		triangles = new int[3 * numberOfTriangles];
+		WB_Parallel.forChunks(slabs, new WB_Parallel.Chunk() {
+			@Override
+			public void run(final int s) {
+				slab[s].stitch(vertexOffset[s], triangleOffset[s],
+						(s < slabs - 1) ? slab[s + 1] : null,
+						vertexOffset[s + 1]);
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Create a mesh from the polygonised grid.
+	 *
+	 * @return mesh
+	 */
+	HE_Mesh createMesh() {
+		final HE_Mesh mesh = new HE_Mesh();
+		mesh.set(new HE_CompactMesh().setTriangles(coords, numberOfVertices,
+				triangles, numberOfTriangles));
+		return mesh;
+	}
+
+	/**
+	 * Get a slice of grid values with the boundary applied.
+	 *
+	 * @param k
+	 *            slice
+	 * @param values
+	 *            slice values
+	 */
+	private void sample(final int k, final double[] values) {
+		field.slice(k, values);
+		if (Double.isNaN(boundary)) {
+			return;
+		}
+		final double b = (invert) ? -boundary : boundary;
+		if ((k == 0) || (k == resz)) {
+			Arrays.fill(values, 0, nx * ny, b);
+			return;
+		}
+		for (int i = 0; i < nx; i++) {
+			values[i] = b;
+			values[i + nx * resy] = b;
+		}
+		for (int j = 0; j < ny; j++) {
+			values[nx * j] = b;
+			values[resx + nx * j] = b;
+		}
+	}
+
+	private boolean inside(final double value) {
+		return (invert) ? value > isolevel : value < isolevel;
+	}
+
+	/**
+	 * Cell layers k0 to k1-1 and their vertices.
+	 */
+	private final class Slab {
+		private final int k0, k1;
+		private double[] coords;
+		private int nv;
+		/**
+		 * Vertex indices of the triangles. Negative indices -(slot+1) refer to
+		 * a vertex on the top slice, owned by the next slab.
+		 */
+		private int[] triangles;
+		private int nt;
+		/** Vertex indices on the x- and y-edges of slice k0. */
+		private int[] firstX, firstY;
+
+		Slab(final int k0, final int k1) {
+			this.k0 = k0;
+			this.k1 = k1;
+			coords = new double[3072];
+			triangles = new int[3072];
+		}
+
+		void polygonise() {
+			double[] lo = new double[nx * ny];
+			double[] hi = new double[nx * ny];
+			int[] xlo = new int[resx * ny];
+			int[] xhi = new int[resx * ny];
+			int[] ylo = new int[nx * resy];
+			int[] yhi = new int[nx * resy];
+			final int[] z = new int[nx * ny];
+			final int[] vertlist = new int[12];
+			double[] tmp;
+			int[] itmp;
+			sample(k0, lo);
+			sliceVertices(k0, lo, xlo, ylo);
+			if (k0 > 0) {
+				firstX = Arrays.copyOf(xlo, xlo.length);
+				firstY = Arrays.copyOf(ylo, ylo.length);
+			}
+			for (int k = k0; k < k1; k++) {
+				sample(k + 1, hi);
+				zVertices(k, lo, hi, z);
+				if ((k + 1 < k1) || (k1 == resz)) {
+					sliceVertices(k + 1, hi, xhi, yhi);
+				}
+				else {
+					for (int i = 0; i < xhi.length; i++) {
+						xhi[i] = -i - 1;
+					}
+					for (int i = 0; i < yhi.length; i++) {
+						yhi[i] = -xhi.length - i - 1;
+					}
+				}
+				cells(lo, hi, xlo, ylo, xhi, yhi, z, vertlist);
+				tmp = lo;
+				lo = hi;
+				hi = tmp;
+				itmp = xlo;
+				xlo = xhi;
+				xhi = itmp;
+				itmp = ylo;
+				ylo = yhi;
+				yhi = itmp;
+			}
+		}
+
+		/**
+		 * Create the vertices on the crossed x- and y-edges of a slice.
+		 */
+		private void sliceVertices(final int k, final double[] v,
+				final int[] xv, final int[] yv) {
+			final double z = k * dz;
+			int id;
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < resx; i++) {
+					id = i + nx * j;
+					if (inside(v[id]) != inside(v[id + 1])) {
+						xv[i + resx * j] = addVertex(i * dx, j * dy, z, i * dx
+								+ dx, j * dy, z, v[id], v[id + 1]);
+					}
+				}
+			}
+			for (int j = 0; j < resy; j++) {
+				for (int i = 0; i < nx; i++) {
+					id = i + nx * j;
+					if (inside(v[id]) != inside(v[id + nx])) {
+						yv[id] = addVertex(i * dx, j * dy, z, i * dx, j * dy
+								+ dy, z, v[id], v[id + nx]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Create the vertices on the crossed z-edges between two slices.
+		 */
+		private void zVertices(final int k, final double[] lo,
+				final double[] hi, final int[] zv) {
+			final double z = k * dz;
+			int id;
+			for (int j = 0; j < ny; j++) {
+				for (int i = 0; i < nx; i++) {
+					id = i + nx * j;
+					if (inside(lo[id]) != inside(hi[id])) {
+						zv[id] = addVertex(i * dx, j * dy, z, i * dx, j * dy, z
+								+ dz, lo[id], hi[id]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Triangulate the cells between two slices.
+		 */
+		private void cells(final double[] lo, final double[] hi,
+				final int[] xlo, final int[] ylo, final int[] xhi,
+				final int[] yhi, final int[] zv, final int[] vertlist) {
+			int id, cubeindex, edges;
+			int[] tri;
+			for (int j = 0; j < resy; j++) {
+				for (int i = 0; i < resx; i++) {
+					id = i + nx * j;
+					cubeindex = 0;
+					if (inside(lo[id])) {
+						cubeindex |= 1;
+					}
+					if (inside(lo[id + 1])) {
+						cubeindex |= 2;
+					}
+					if (inside(lo[id + nx + 1])) {
+						cubeindex |= 4;
+					}
+					if (inside(lo[id + nx])) {
+						cubeindex |= 8;
+					}
+					if (inside(hi[id])) {
+						cubeindex |= 16;
+					}
+					if (inside(hi[id + 1])) {
+						cubeindex |= 32;
+					}
+					if (inside(hi[id + nx + 1])) {
+						cubeindex |= 64;
+					}
+					if (inside(hi[id + nx])) {
+						cubeindex |= 128;
+					}
+					edges = edgeTable[cubeindex];
+					if (edges == 0) {
+						continue;
+					}
+					if ((edges & 1) != 0) {
+						vertlist[0] = xlo[i + resx * j];
+					}
+					if ((edges & 2) != 0) {
+						vertlist[1] = ylo[id + 1];
+					}
+					if ((edges & 4) != 0) {
+						vertlist[2] = xlo[i + resx * (j + 1)];
+					}
+					if ((edges & 8) != 0) {
+						vertlist[3] = ylo[id];
+					}
+					if ((edges & 16) != 0) {
+						vertlist[4] = xhi[i + resx * j];
+					}
+					if ((edges & 32) != 0) {
+						vertlist[5] = yhi[id + 1];
+					}
+					if ((edges & 64) != 0) {
+						vertlist[6] = xhi[i + resx * (j + 1)];
+					}
+					if ((edges & 128) != 0) {
+						vertlist[7] = yhi[id];
+					}
+					if ((edges & 256) != 0) {
+						vertlist[8] = zv[id];
+					}
+					if ((edges & 512) != 0) {
+						vertlist[9] = zv[id + 1];
+					}
+					if ((edges & 1024) != 0) {
+						vertlist[10] = zv[id + nx + 1];
+					}
+					if ((edges & 2048) != 0) {
+						vertlist[11] = zv[id + nx];
+					}
+					tri = triTable[cubeindex];
+					for (int t = 0; tri[t] != -1; t += 3) {
+						addTriangle(vertlist[tri[t]], vertlist[tri[t + 1]],
+								vertlist[tri[t + 2]]);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Linearly interpolate the position where the isosurface cuts an edge
+		 * between two grid points, each with their own value.
+		 */
+		private int addVertex(final double x1, final double y1,
+				final double z1, final double x2, final double y2,
+				final double z2, final double valp1, final double valp2) {
+			if (3 * nv + 3 > coords.length) {
+				coords = Arrays.copyOf(coords, 2 * coords.length);
+			}
+			double mu;
+			if (WB_Epsilon.isEqualAbs(isolevel, valp1)) {
+				mu = 0;
+			}
+			else if (WB_Epsilon.isEqualAbs(isolevel, valp2)) {
+				mu = 1;
+			}
+			else if (WB_Epsilon.isEqualAbs(valp1, valp2)) {
+				mu = 0;
+			}
+			else {
+				mu = (isolevel - valp1) / (valp2 - valp1);
+			}
+			coords[3 * nv] = x1 + mu * (x2 - x1) + ox;
+			coords[3 * nv + 1] = y1 + mu * (y2 - y1) + oy;
+			coords[3 * nv + 2] = z1 + mu * (z2 - z1) + oz;
+			return nv++;
+		}
+
+		private void addTriangle(final int a, final int b, final int c) {
+			if (3 * nt + 3 > triangles.length) {
+				triangles = Arrays.copyOf(triangles, 2 * triangles.length);
+			}
+			triangles[3 * nt] = a;
+			triangles[3 * nt + 1] = b;
+			triangles[3 * nt + 2] = c;
+			nt++;
+		}
+
+		/**
+		 * Copy the vertices and triangles to the final buffers, replacing
+		 * references to the top slice with the vertices of the next slab.
+		 *
+		 * @param vertexOffset
+		 *            index of the first vertex of this slab
+		 * @param triangleOffset
+		 *            index of the first triangle of this slab
+		 * @param next
+		 *            next slab, null for the last one
+		 * @param nextVertexOffset
+		 *            index of the first vertex of the next slab
+		 */
+		void stitch(final int vertexOffset, final int triangleOffset,
+				final Slab next, final int nextVertexOffset) {
+			System.arraycopy(coords, 0, HE_MarchingCubes.this.coords,
+					3 * vertexOffset, 3 * nv);
+			final int[] result = HE_MarchingCubes.this.triangles;
+			final int nxe = resx * ny;
+			int id, slot;
+			for (int h = 0; h < 3 * nt; h++) {
+				id = triangles[h];
+				if (id >= 0) {
+					id += vertexOffset;
+				}
+				else {
+					slot = -id - 1;
+					id = nextVertexOffset
+							+ ((slot < nxe) ? next.firstX[slot]
+									: next.firstY[slot - nxe]);
+				}
+				result[3 * triangleOffset + h] = id;
+			}
+		}
+	}
+}
@@ -1,9 +1,7 @@
 package wblut.hemesh;
 
 import gnu.trove.map.TLongIntMap;
-import gnu.trove.map.TLongLongMap;
 import gnu.trove.map.hash.TLongIntHashMap;
-import gnu.trove.map.hash.TLongLongHashMap;
 
 import java.util.Arrays;
 import java.util.HashMap;
@@ -13,6 +11,7 @@ import java.util.Map;
 
 import javolution.util.FastMap;
 import javolution.util.FastTable;
+import wblut.core.WB_Parallel;
 import wblut.geom.WB_AABB;
 import wblut.geom.WB_Classification;
 import wblut.geom.WB_Convex;
@@ -34,9 +33,11 @@ import wblut.geom.WB_Mesh;
 import wblut.geom.WB_MeshCreator;
 import wblut.geom.WB_Plane;
 import wblut.geom.WB_Point;
+import wblut.geom.WB_PointBVH;
 import wblut.geom.WB_Ray;
 import wblut.geom.WB_Segment;
 import wblut.geom.WB_SimplePolygon;
+import wblut.geom.WB_StaticKDTree;
 import wblut.geom.WB_Transform;
 import wblut.geom.WB_Triangle;
 import wblut.geom.WB_Vector;
@@ -51,6 +52,13 @@ import wblut.math.WB_Epsilon;
 public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		WB_HasColor, WB_Mesh {
 	private static WB_GeometryFactory gf = WB_GeometryFactory.instance();
+
+	/** Minimum number of elements per thread when copying. */
+	private static final int COPYGRAIN = 16384;
+	/** Minimum number of vertices per thread when transforming. */
+	private static final int TRANSFORMGRAIN = 65536;
+	/** Number of vertices transformed at once. */
+	private static final int TRANSFORMBLOCK = 1024;
 	/** Stored mesh center. */
 	private WB_Point _center;
 
@@ -65,6 +73,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 
 	private int meshcolor;
 
+	/** Cached face and vertex geometry, null if disabled. */
+	private HE_GeometryCache geometryCache;
+
 	/**
 	 * Instantiates a new HE_Mesh.
 	 *
@@ -99,6 +110,104 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		this(new HEC_FromMesh(mesh.getMesh()));
 	}
 
+	public HE_Mesh(final HE_CompactMesh mesh) {
+		this(new HEC_FromCompactMesh(mesh));
+	}
+
+	/**
+	 * Mesh elements are stored in sets that keep the position of each element
+	 * in the element itself.
+	 *
+	 * @see wblut.hemesh.HE_MeshStructure#createRAS()
+	 */
+	@Override
+	protected <E extends HE_Element> HE_RAS<E> createRAS() {
+		final HE_IndexedRAS<E> ras = new HE_IndexedRAS<E>(1024);
+		ras.cache = geometryCache;
+		if (geometryCache != null) {
+			geometryCache.invalidate();
+		}
+		return ras;
+	}
+
+	/**
+	 * Cache face normals, centers and areas and vertex normals in primitive
+	 * arrays. Values are computed on first request and reused until they
+	 * change. Moving a vertex only marks the values around it, changing the
+	 * connectivity marks all values.
+	 *
+	 * Modifiers, subdividors and simplifiers applied through modify(),
+	 * subdivide() and simplify() mark all values afterwards, since many of
+	 * them move vertices in place. Other changes made directly through
+	 * HE_Vertex.getPoint() are not tracked, call invalidateGeometryCache()
+	 * afterwards.
+	 */
+	public void enableGeometryCache() {
+		if (geometryCache == null) {
+			geometryCache = new HE_GeometryCache(this);
+			attachGeometryCache();
+		}
+	}
+
+	/**
+	 * Stop caching geometry and release the cache.
+	 */
+	public void disableGeometryCache() {
+		if (geometryCache != null) {
+			geometryCache = null;
+			attachGeometryCache();
+		}
+	}
+
+	/**
+	 * Is geometry cached?
+	 *
+	 * @return true if enableGeometryCache() was called
+	 */
+	public boolean isGeometryCacheEnabled() {
+		return geometryCache != null;
+	}
+
+	/**
+	 * Compute all missing and outdated cached geometry, in parallel. Call this
+	 * before reading normals, centers or areas from several threads.
+	 */
+	public void updateGeometryCache() {
+		if (geometryCache != null) {
+			geometryCache.update();
+		}
+	}
+
+	/**
+	 * Mark all cached geometry dirty, e.g. after moving vertices through
+	 * HE_Vertex.getPoint().
+	 */
+	public void invalidateGeometryCache() {
+		if (geometryCache != null) {
+			geometryCache.invalidate();
+		}
+	}
+
+	/**
+	 * Connect the element sets to the current cache, after the sets were
+	 * replaced or the cache was switched.
+	 */
+	private void attachGeometryCache() {
+		attachGeometryCache(vertices);
+		attachGeometryCache(halfedges);
+		attachGeometryCache(edges);
+		attachGeometryCache(faces);
+		if (geometryCache != null) {
+			geometryCache.invalidate();
+		}
+	}
+
+	private void attachGeometryCache(final HE_RAS<?> ras) {
+		if (ras instanceof HE_IndexedRAS) {
+			((HE_IndexedRAS<?>) ras).cache = geometryCache;
+		}
+	}
+
 	// MODIFY
 
 	/**
@@ -109,7 +218,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 * @return self
 	 */
 	public HE_Mesh modify(final HEM_Modifier modifier) {
-		return modifier.apply(this);
+		final HE_Mesh result = modifier.apply(this);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -123,7 +234,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	public HE_Mesh modifySelected(final HEM_Modifier modifier,
 			final HE_Selection selection) {
-		return modifier.apply(selection.get());
+		final HE_Mesh result = modifier.apply(selection.get());
+		invalidateGeometryCache();
+		return result;
 	}
 
 	// SUBDIVIDE
@@ -136,7 +249,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 * @return self
 	 */
 	public HE_Mesh subdivide(final HES_Subdividor subdividor) {
-		return subdividor.apply(this);
+		final HE_Mesh result = subdividor.apply(this);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -150,8 +265,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	public HE_Mesh subdivideSelected(final HES_Subdividor subdividor,
 			final HE_Selection selection) {
-		return subdividor.apply(selection);
-
+		final HE_Mesh result = subdividor.apply(selection);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -165,10 +281,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 * @return self
 	 */
 	public HE_Mesh subdivide(final HES_Subdividor subdividor, final int rep) {
-		for (int i = 0; i < rep; i++) {
-			subdivide(subdividor);
-		}
-		return this;
+		final HE_Mesh result = subdividor.apply(this, rep);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -199,7 +314,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 * @return the h e_ mesh
 	 */
 	public HE_Mesh simplify(final HES_Simplifier simplifier) {
-		return simplifier.apply(this);
+		final HE_Mesh result = simplifier.apply(this);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -213,8 +330,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	public HE_Mesh simplify(final HES_Simplifier simplifier,
 			final HE_Selection selection) {
-		return simplifier.apply(selection);
-
+		final HE_Mesh result = simplifier.apply(selection);
+		invalidateGeometryCache();
+		return result;
 	}
 
 	/**
@@ -224,136 +342,187 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	@Override
 	public HE_Mesh get() {
-		final HE_Mesh result = new HE_Mesh();
-		final TLongLongMap vertexCorrelation = new TLongLongHashMap(10, 0.5f,
-				-1L, -1L);
-		final TLongLongMap faceCorrelation = new TLongLongHashMap(10, 0.5f,
-				-1L, -1L);
-		final TLongLongMap halfedgeCorrelation = new TLongLongHashMap(10, 0.5f,
-				-1L, -1L);
-		final TLongLongMap edgeCorrelation = new TLongLongHashMap(10, 0.5f,
-				-1L, -1L);
-		HE_Vertex rv;
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			rv = new HE_Vertex(v);
-			result.add(rv);
-			vertexCorrelation.put(v.key(), rv.key());
-		}
-		HE_Face rf;
-		HE_Face f;
-		final Iterator<HE_Face> fItr = fItr();
-		while (fItr.hasNext()) {
-			f = fItr.next();
-			rf = new HE_Face();
-			result.add(rf);
-			rf.setLabel(f.getLabel());
-			rf.setColor(f.getColor());
-			faceCorrelation.put(f.key(), rf.key());
-		}
-		HE_Halfedge rhe;
-		HE_Halfedge he;
-		final Iterator<HE_Halfedge> heItr = heItr();
-		while (heItr.hasNext()) {
-			he = heItr.next();
-			rhe = new HE_Halfedge();
-			result.add(rhe);
-			halfedgeCorrelation.put(he.key(), rhe.key());
-		}
-
-		HE_Edge re;
-		final Iterator<HE_Edge> eItr = eItr();
-		HE_Edge e;
-		while (eItr.hasNext()) {
-			e = eItr.next();
-			re = new HE_Edge();
-			result.add(re);
-			edgeCorrelation.put(e.key(), re.key());
-
-		}
-
-		HE_Vertex sv;
-		HE_Vertex tv;
-		final Iterator<HE_Vertex> svItr = vItr();
-		final Iterator<HE_Vertex> tvItr = result.vItr();
-		Long key;
-		while (svItr.hasNext()) {
-			sv = svItr.next();
-			tv = tvItr.next();
-			tv.set(sv);
-			if (sv.getHalfedge() != null) {
-				key = halfedgeCorrelation.get(sv.getHalfedge().key());
-				tv.setHalfedge(result.getHalfedgeByKey(key));
+		final int nv = vertices.size();
+		final int nhe = halfedges.size();
+		final int ne = edges.size();
+		final int nf = faces.size();
+		final HE_Vertex[] rvertices = new HE_Vertex[nv];
+		final HE_Halfedge[] rhalfedges = new HE_Halfedge[nhe];
+		final HE_Edge[] redges = new HE_Edge[ne];
+		final HE_Face[] rfaces = new HE_Face[nf];
+		// create elements, the copy of element i is at position i
+		WB_Parallel.forRange(nv, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					rvertices[i] = new HE_Vertex(vertices.get(i));
+				}
 			}
-		}
-
-		HE_Face sf;
-		HE_Face tf;
-
-		final Iterator<HE_Face> sfItr = fItr();
-		final Iterator<HE_Face> tfItr = result.fItr();
-		while (sfItr.hasNext()) {
-			sf = sfItr.next();
-			tf = tfItr.next();
-			if (sf.getHalfedge() != null) {
-				key = halfedgeCorrelation.get(sf.getHalfedge().key());
-				tf.setHalfedge(result.getHalfedgeByKey(key));
+		});
+		WB_Parallel.forRange(nf, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Face f;
+				for (int i = start; i < end; i++) {
+					f = faces.get(i);
+					rfaces[i] = new HE_Face();
+					rfaces[i].setLabel(f.getLabel());
+					rfaces[i].setColor(f.getColor());
+				}
 			}
-
-		}
-
-		final Iterator<HE_Edge> seItr = eItr();
-		final Iterator<HE_Edge> teItr = result.eItr();
-		HE_Edge se;
-		HE_Edge te;
-		while (seItr.hasNext()) {
-			se = seItr.next();
-			te = teItr.next();
-			if (se.getHalfedge() != null) {
-				key = halfedgeCorrelation.get(se.getHalfedge().key());
-				te.setHalfedge(result.getHalfedgeByKey(key));
+		});
+		WB_Parallel.forRange(nhe, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					rhalfedges[i] = new HE_Halfedge();
+				}
 			}
-
-		}
-		HE_Halfedge she;
-		HE_Halfedge the;
-
-		final Iterator<HE_Halfedge> sheItr = heItr();
-		final Iterator<HE_Halfedge> theItr = result.heItr();
-		while (sheItr.hasNext()) {
-			she = sheItr.next();
-			the = theItr.next();
-			if (she.getPair() != null) {
-				key = halfedgeCorrelation.get(she.getPair().key());
-				the.setPair(result.getHalfedgeByKey(key));
-				result.getHalfedgeByKey(key).setPair(the);
+		});
+		WB_Parallel.forRange(ne, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				for (int i = start; i < end; i++) {
+					redges[i] = new HE_Edge();
+				}
 			}
-			if (she.getNextInFace() != null) {
-				key = halfedgeCorrelation.get(she.getNextInFace().key());
-				the.setNext(result.getHalfedgeByKey(key));
-				result.getHalfedgeByKey(key).setPrev(the);
+		});
+		// connect elements, every chunk only writes to its own elements
+		WB_Parallel.forRange(nv, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge he;
+				int id;
+				for (int i = start; i < end; i++) {
+					he = vertices.get(i).getHalfedge();
+					if (he != null) {
+						id = halfedges.getIndex(he);
+						if (id > -1) {
+							rvertices[i].setHalfedge(rhalfedges[id]);
+						}
+					}
+				}
 			}
-			if (she.getVertex() != null) {
-				key = vertexCorrelation.get(she.getVertex().key());
-				the.setVertex(result.getVertexByKey(key));
+		});
+		WB_Parallel.forRange(nf, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge he;
+				int id;
+				for (int i = start; i < end; i++) {
+					he = faces.get(i).getHalfedge();
+					if (he != null) {
+						id = halfedges.getIndex(he);
+						if (id > -1) {
+							rfaces[i].setHalfedge(rhalfedges[id]);
+						}
+					}
+				}
 			}
-			if (she.getFace() != null) {
-				key = faceCorrelation.get(she.getFace().key());
-				the.setFace(result.getFaceByKey(key));
+		});
+		WB_Parallel.forRange(ne, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge he;
+				int id;
+				for (int i = start; i < end; i++) {
+					he = edges.get(i).getHalfedge();
+					if (he != null) {
+						id = halfedges.getIndex(he);
+						if (id > -1) {
+							redges[i].setHalfedge(rhalfedges[id]);
+						}
+					}
+				}
 			}
-
-			if (she.getEdge() != null) {
-				key = edgeCorrelation.get(she.getEdge().key());
-				the.setEdge(result.getEdgeByKey(key));
+		});
+		WB_Parallel.forRange(nhe, COPYGRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Halfedge she;
+				HE_Halfedge the;
+				int id;
+				for (int i = start; i < end; i++) {
+					she = halfedges.get(i);
+					the = rhalfedges[i];
+					if (she.getPair() != null) {
+						id = halfedges.getIndex(she.getPair());
+						if (id > -1) {
+							the.setPair(rhalfedges[id]);
+						}
+					}
+					if (she.getNextInFace() != null) {
+						id = halfedges.getIndex(she.getNextInFace());
+						if (id > -1) {
+							the._setNext(rhalfedges[id]);
+						}
+					}
+					if (she.getPrevInFace() != null) {
+						id = halfedges.getIndex(she.getPrevInFace());
+						if (id > -1) {
+							the.setPrev(rhalfedges[id]);
+						}
+					}
+					if (she.getVertex() != null) {
+						id = vertices.getIndex(she.getVertex());
+						if (id > -1) {
+							the.setVertex(rvertices[id]);
+						}
+					}
+					if (she.getFace() != null) {
+						id = faces.getIndex(she.getFace());
+						if (id > -1) {
+							the._setFace(rfaces[id]);
+						}
+					}
+					if (she.getEdge() != null) {
+						id = edges.getIndex(she.getEdge());
+						if (id > -1) {
+							the.setEdge(redges[id]);
+						}
+					}
+				}
 			}
-		}
+		});
+		final HE_Mesh result = new HE_Mesh();
+		result.addVertices(rvertices);
+		result.addFaces(rfaces);
+		result.addHalfedges(rhalfedges);
+		result.addEdges(redges);
 		result._center._set(_center);
 		result._centerUpdated = _centerUpdated;
 		return result;
 	}
 
+	/**
+	 * Copy the mesh into primitive arrays. This is a full O(n) copy, but
+	 * faster and smaller than get(). Copies of the compact mesh made with
+	 * HE_CompactMesh.snapshot() share its storage until one of them is
+	 * changed. Restore the state with set(HE_CompactMesh) or new
+	 * HE_Mesh(HE_CompactMesh).
+	 *
+	 * @return compact copy
+	 */
+	public HE_CompactMesh toCompactMesh() {
+		return new HE_CompactMesh(this);
+	}
+
+	/**
+	 * Replace mesh with the contents of a compact mesh.
+	 *
+	 * @param snapshot
+	 *            compact mesh, for example a copy made with toCompactMesh()
+	 */
+	public void set(final HE_CompactMesh snapshot) {
+		final HE_Mesh result = new HEC_FromCompactMesh(snapshot).create();
+		vertices = result.vertices;
+		halfedges = result.halfedges;
+		edges = result.edges;
+		faces = result.faces;
+		_centerUpdated = false;
+		attachGeometryCache();
+	}
+
 	/**
 	 * Add all mesh elements to this mesh. No copies are made.
 	 *
@@ -392,10 +561,12 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	public void set(final HE_Mesh target) {
 		final HE_Mesh result = target.get();
-		replaceVertices(result.getVerticesAsArray());
-		replaceFaces(result.getFacesAsArray());
-		replaceHalfedges(result.getHalfedgesAsArray());
-		replaceEdges(result.getEdgesAsArray());
+		// result is a private copy, take over its sets instead of re-indexing
+		vertices = result.vertices;
+		halfedges = result.halfedges;
+		edges = result.edges;
+		faces = result.faces;
+		attachGeometryCache();
 
 	}
 
@@ -927,13 +1098,49 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 * @return self
 	 */
 	public HE_Mesh transform(final WB_Transform T) {
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			T.applySelfAsPoint(vItr.next());
-		}
+		transformVertices(T);
+		_centerUpdated = false;
 		return this;
 	}
 
+	/**
+	 * Apply transform to all vertices. Coordinates are copied in blocks to a
+	 * primitive buffer and transformed in bulk. Large meshes are split over
+	 * the threads of WB_Parallel. Positions are written without notifying the
+	 * geometry cache, which isn't thread-safe, and the cache is invalidated
+	 * once afterwards.
+	 *
+	 * @param T
+	 */
+	private void transformVertices(final WB_Transform T) {
+		WB_Parallel.forRange(getNumberOfVertices(), TRANSFORMGRAIN,
+				new WB_Parallel.Range() {
+					@Override
+					public void run(final int start, final int end) {
+						final double[] buffer = new double[3 * Math.min(
+								TRANSFORMBLOCK, end - start)];
+						HE_Vertex v;
+						int n;
+						for (int i = start; i < end; i += TRANSFORMBLOCK) {
+							n = Math.min(TRANSFORMBLOCK, end - i);
+							for (int j = 0; j < n; j++) {
+								v = vertices.get(i + j);
+								buffer[3 * j] = v.xd();
+								buffer[3 * j + 1] = v.yd();
+								buffer[3 * j + 2] = v.zd();
+							}
+							T.applySelfAsPoints(buffer, 3, 0, n);
+							for (int j = 0; j < n; j++) {
+								vertices.get(i + j).getPoint()._set(
+										buffer[3 * j], buffer[3 * j + 1],
+										buffer[3 * j + 2]);
+							}
+						}
+					}
+				});
+		invalidateGeometryCache();
+	}
+
 	/**
 	 * Translate entire mesh.
 	 *
@@ -947,10 +1154,8 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 */
 	public HE_Mesh move(final double x, final double y, final double z) {
 		_center._addSelf(x, y, z);
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			vItr.next().getPoint()._addSelf(x, y, z);
-		}
+		transformVertices(new WB_Transform().addTranslate(new WB_Vector(x, y,
+				z)));
 		return this;
 	}
 
@@ -980,13 +1185,8 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			vItr.next()
-			.getPoint()
-			._addSelf(x - _center.xd(), y - _center.yd(),
-					z - _center.zd());
-		}
+		transformVertices(new WB_Transform().addTranslate(new WB_Vector(x
+				- _center.xd(), y - _center.yd(), z - _center.zd())));
 		_center._set(x, y, z);
 		return this;
 	}
@@ -1027,15 +1227,10 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
 		final WB_Transform raa = new WB_Transform();
 		raa.addRotateAboutAxis(angle, new WB_Point(p1x, p1y, p1z),
 				new WB_Vector(p2x - p1x, p2y - p1y, p2z - p1z));
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			raa.applySelfAsPoint(v);
-		}
+		transformVertices(raa);
 		raa.applySelfAsPoint(_center);
 		;
 		return this;
@@ -1057,14 +1252,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
 		final WB_Transform raa = new WB_Transform();
 		raa.addRotateAboutAxis(angle, p1, p2.subToVector(p1));
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			raa.applySelfAsPoint(v);
-		}
+		transformVertices(raa);
 		raa.applySelfAsPoint(_center);
 
 		return this;
@@ -1086,14 +1276,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
 		final WB_Transform raa = new WB_Transform();
 		raa.addRotateAboutAxis(angle, p, a);
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			raa.applySelfAsPoint(v);
-		}
+		transformVertices(raa);
 		raa.applySelfAsPoint(_center);
 		;
 		return this;
@@ -1117,14 +1302,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v._set(c.xd() + scaleFactorx * (v.xd() - c.xd()), c.yd()
-					+ scaleFactory * (v.yd() - c.yd()), c.zd() + scaleFactorz
-					* (v.zd() - c.zd()));
-		}
+		transformVertices(new WB_Transform().addTranslate(-1, c)
+				.addScale(scaleFactorx, scaleFactory, scaleFactorz)
+				.addTranslate(c));
 		_center._set(c.xd() + scaleFactorx * (-c.xd() + _center.xd()), c.yd()
 				+ scaleFactory * (-c.yd() + _center.yd()), c.zd()
 				+ scaleFactorz * (-c.zd() + _center.zd()));
@@ -1161,15 +1341,9 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		if (!_centerUpdated) {
 			getCenter();
 		}
-		HE_Vertex v;
-		final Iterator<HE_Vertex> vItr = vItr();
-		while (vItr.hasNext()) {
-			v = vItr.next();
-			v._set(_center.xd() + scaleFactorx * (v.xd() - _center.xd()),
-					_center.yd() + scaleFactory * (v.yd() - _center.yd()),
-					_center.zd() + scaleFactorz * (v.zd() - _center.zd()));
-		}
-		;
+		transformVertices(new WB_Transform().addTranslate(-1, _center)
+				.addScale(scaleFactorx, scaleFactory, scaleFactorz)
+				.addTranslate(_center));
 		return this;
 	}
 
@@ -1316,77 +1490,15 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	}
 
 	/**
-	 * Try to pair all unpaired halfedges.
+	 * Try to pair all unpaired halfedges. Runs in linear time, halfedges are
+	 * matched by the indices of their vertices.
+	 *
+	 * @return non-manifold halfedges that could not be paired: halfedges that
+	 *         share their vertices with more than one other halfedge or run in
+	 *         the same direction as another one
 	 */
-	public void pairHalfedgesAndCreateEdges() {
-		class VertexInfo {
-			FastTable<HE_Halfedge> out;
-			FastTable<HE_Halfedge> in;
-
-			VertexInfo() {
-				out = new FastTable<HE_Halfedge>();
-				in = new FastTable<HE_Halfedge>();
-			}
-
-		}
-
-		final FastMap<Long, VertexInfo> vertexLists = new FastMap<Long, VertexInfo>();
-
-		final List<HE_Halfedge> unpairedHalfedges = getUnpairedHalfedges();
-		HE_Vertex v;
-		VertexInfo vi;
-		// System.out.println("HE_Mesh : collating " + unpairedHalfedges.size()
-		// + " unpaired halfedges per vertex.");
-		for (final HE_Halfedge he : unpairedHalfedges) {
-			v = he.getVertex();
-			vi = vertexLists.get(v.key());
-			if (vi == null) {
-				vi = new VertexInfo();
-
-				vertexLists.put(v.key(), vi);
-			}
-			vi.out.add(he);
-			v = he.getNextInFace().getVertex();
-			vi = vertexLists.get(v.key());
-			if (vi == null) {
-				vi = new VertexInfo();
-				vertexLists.put(v.key(), vi);
-
-			}
-			vi.in.add(he);
-		}
-		HE_Halfedge he;
-		HE_Halfedge he2;
-		HE_Edge e;
-		// System.out.println("HE_Mesh : pairing unpaired halfedges per vertex.");
-
-		for (final VertexInfo vInfo : vertexLists.values()) {
-
-			for (int i = 0; i < vInfo.out.size(); i++) {
-				he = vInfo.out.get(i);
-				if (he.getPair() == null) {
-					for (int j = 0; j < vInfo.in.size(); j++) {
-						he2 = vInfo.in.get(j);
-						if ((he2.getPair() == null)
-								&& (he.getVertex() == he2.getNextInFace()
-								.getVertex())
-								&& (he2.getVertex() == he.getNextInFace()
-								.getVertex())) {
-							he.setPair(he2);
-							he2.setPair(he);
-							e = new HE_Edge();
-							e.setHalfedge(he);
-							he.setEdge(e);
-							he2.setEdge(e);
-							add(e);
-							break;
-
-						}
-					}
-				}
-			}
-		}
-
+	public List<HE_Halfedge> pairHalfedgesAndCreateEdges() {
+		return new HE_HalfedgePairing(this, getUnpairedHalfedges()).pair(false);
 	}
 
 	/**
@@ -1394,73 +1506,33 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 	 *
 	 * @param unpairedHalfedges
 	 *            the unpaired halfedges
+	 * @return non-manifold halfedges that could not be paired
 	 */
-	public void pairHalfedgesAndCreateEdges(
+	public List<HE_Halfedge> pairHalfedgesAndCreateEdges(
 			final List<HE_Halfedge> unpairedHalfedges) {
-		class VertexInfo {
-			FastTable<HE_Halfedge> out;
-			FastTable<HE_Halfedge> in;
-
-			VertexInfo() {
-				out = new FastTable<HE_Halfedge>();
-				in = new FastTable<HE_Halfedge>();
-			}
-
-		}
-
-		final FastMap<Long, VertexInfo> vertexLists = new FastMap<Long, VertexInfo>();
-		HE_Vertex v;
-		VertexInfo vi;
-		System.out.println("HE_Mesh : collating " + unpairedHalfedges.size()
-				+ " unpaired halfedges per vertex.");
-		for (final HE_Halfedge he : unpairedHalfedges) {
-			v = he.getVertex();
-			vi = vertexLists.get(v.key());
-			if (vi == null) {
-				vi = new VertexInfo();
-
-				vertexLists.put(v.key(), vi);
-			}
-			vi.out.add(he);
-			v = he.getNextInFace().getVertex();
-			vi = vertexLists.get(v.key());
-			if (vi == null) {
-				vi = new VertexInfo();
-				vertexLists.put(v.key(), vi);
+		return new HE_HalfedgePairing(this, unpairedHalfedges).pair(false);
+	}
 
-			}
-			vi.in.add(he);
-		}
-		HE_Halfedge he;
-		HE_Halfedge he2;
-		HE_Edge e;
-		System.out.println("HE_Mesh : pairing unpaired halfedges per vertex.");
-		for (final VertexInfo vInfo : vertexLists.values()) {
-
-			for (int i = 0; i < vInfo.out.size(); i++) {
-				he = vInfo.out.get(i);
-				if (he.getPair() == null) {
-					for (int j = 0; j < vInfo.in.size(); j++) {
-						he2 = vInfo.in.get(j);
-						if ((he2.getPair() == null)
-								&& (he.getVertex() == he2.getNextInFace()
-								.getVertex())
-								&& (he2.getVertex() == he.getNextInFace()
-								.getVertex())) {
-							he.setPair(he2);
-							he2.setPair(he);
-							e = new HE_Edge();
-							e.setHalfedge(he);
-							he.setEdge(e);
-							he2.setEdge(e);
-							add(e);
-							break;
+	/**
+	 * Try to pair all unpaired halfedges using multiple threads. The result is
+	 * identical to pairHalfedgesAndCreateEdges().
+	 *
+	 * @return non-manifold halfedges that could not be paired
+	 */
+	public List<HE_Halfedge> pairHalfedgesAndCreateEdgesMT() {
+		return new HE_HalfedgePairing(this, getUnpairedHalfedges()).pair(true);
+	}
 
-						}
-					}
-				}
-			}
-		}
+	/**
+	 * Pair halfedges using multiple threads.
+	 *
+	 * @param unpairedHalfedges
+	 *            the unpaired halfedges
+	 * @return non-manifold halfedges that could not be paired
+	 */
+	public List<HE_Halfedge> pairHalfedgesAndCreateEdgesMT(
+			final List<HE_Halfedge> unpairedHalfedges) {
+		return new HE_HalfedgePairing(this, unpairedHalfedges).pair(true);
 	}
 
 	/**
@@ -1487,16 +1559,21 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 			he2.setEdge(e);
 		}
 
+		// first new halfedge starting at each vertex
+		final TLongIntMap firstOut = new TLongIntHashMap(Math.max(10, 2 * nuh),
+				0.5f, -1L, -1);
+		for (int j = 0; j < nuh; j++) {
+			firstOut.putIfAbsent(newHalfedges[j].getVertex().key(), j);
+		}
+		int j;
 		for (int i = 0; i < nuh; i++) {
 			he1 = newHalfedges[i];
 			if (he1.getNextInFace() == null) {
-				for (int j = 0; j < nuh; j++) {
+				j = firstOut.get(he1.getPair().getVertex().key());
+				if (j != -1) {
 					he2 = newHalfedges[j];
-					if (he2.getVertex() == he1.getPair().getVertex()) {
-						he1.setNext(he2);
-						he2.setPrev(he1);
-						break;
-					}
+					he1.setNext(he2);
+					he2.setPrev(he1);
 				}
 			}
 		}
@@ -4751,6 +4828,98 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		return tree;
 	}
 
+	/**
+	 * Return a static KD-tree of all vertices. Point i of the tree is the
+	 * vertex with index i. The tree doesn't follow later changes of the mesh.
+	 *
+	 * @return WB_StaticKDTree
+	 */
+	public WB_StaticKDTree getStaticVertexTree() {
+		return new WB_StaticKDTree(getVerticesAsArray());
+	}
+
+	/**
+	 * Return the closest vertex on the mesh.
+	 *
+	 * @param p
+	 *            query point
+	 * @param vertexTree
+	 *            KD-tree from mesh (from getStaticVertexTree())
+	 * @return HE_Vertex closest vertex
+	 */
+	public HE_Vertex getClosestVertex(final WB_Coordinate p,
+			final WB_StaticKDTree vertexTree) {
+		final int i = vertexTree.getNearestNeighbor(p);
+		return (i < 0) ? null : getVertexByIndex(i);
+	}
+
+	/**
+	 * Return a refittable BVH of all vertices. Point i of the tree is the
+	 * vertex with index i. After moving vertices, update the tree with
+	 * refitVertexBVH() instead of building a new one.
+	 *
+	 * @return WB_PointBVH
+	 */
+	public WB_PointBVH getVertexBVH() {
+		return new WB_PointBVH(getVerticesAsPoint());
+	}
+
+	/**
+	 * Update a BVH from getVertexBVH() to the current vertex positions. The
+	 * vertices themselves should not have been added or removed.
+	 *
+	 * @param vertexTree
+	 *            BVH from mesh (from getVertexBVH())
+	 */
+	public void refitVertexBVH(final WB_PointBVH vertexTree) {
+		if (vertexTree.getNumberOfPoints() != getNumberOfVertices()) {
+			throw new IllegalArgumentException(
+					"BVH doesn't match the vertices of the mesh.");
+		}
+		vertexTree.setPoints(getVerticesAsPoint());
+	}
+
+	/**
+	 * Return a refittable BVH of all face centers. Point i of the tree is the
+	 * center of the face with index i. After moving vertices, update the tree
+	 * with refitFaceBVH() instead of building a new one.
+	 *
+	 * @return WB_PointBVH
+	 */
+	public WB_PointBVH getFaceBVH() {
+		return new WB_PointBVH(getFaceCenters());
+	}
+
+	/**
+	 * Update a BVH from getFaceBVH() to the current face centers. The faces
+	 * themselves should not have been added or removed.
+	 *
+	 * @param faceTree
+	 *            BVH from mesh (from getFaceBVH())
+	 */
+	public void refitFaceBVH(final WB_PointBVH faceTree) {
+		if (faceTree.getNumberOfPoints() != getNumberOfFaces()) {
+			throw new IllegalArgumentException(
+					"BVH doesn't match the faces of the mesh.");
+		}
+		faceTree.setPoints(getFaceCenters());
+	}
+
+	/**
+	 * Return the closest vertex on the mesh.
+	 *
+	 * @param p
+	 *            query point
+	 * @param vertexTree
+	 *            BVH from mesh (from getVertexBVH())
+	 * @return HE_Vertex closest vertex
+	 */
+	public HE_Vertex getClosestVertex(final WB_Coordinate p,
+			final WB_PointBVH vertexTree) {
+		final int i = vertexTree.getNearestNeighbor(p);
+		return (i < 0) ? null : getVertexByIndex(i);
+	}
+
 	/**
 	 * Return the closest vertex on the mesh.
 	 *
@@ -5253,6 +5422,31 @@ public class HE_Mesh extends HE_MeshStructure implements WB_HasData,
 		return getVertexByIndex(i);
 	}
 
+	/**
+	 * Call visitor with the index of each neighbor of a vertex, without
+	 * allocating.
+	 *
+	 * @param i
+	 *            vertex index
+	 * @param visitor
+	 */
+	public void forEachNeighbor(final int i, final HE_IndexVisitor visitor) {
+		final HE_Vertex v = getVertexByIndex(i);
+		final HE_Halfedge start = v.getHalfedge();
+		if (start == null) {
+			return;
+		}
+		HE_Halfedge he = start;
+		HE_Vertex n;
+		do {
+			n = he.getNextInFace().getVertex();
+			if (n != v) {
+				visitor.visit(getIndex(n));
+			}
+			he = he.getNextInVertex();
+		} while (he != start);
+	}
+
 	@Override
 	public int[][] getEdgesAsInt() {
 		final int[][] result = new int[getNumberOfEdges()][2];
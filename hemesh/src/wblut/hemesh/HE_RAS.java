@@ -13,6 +13,7 @@ import java.util.AbstractSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Random;
 
 import javolution.util.FastTable;
@@ -31,6 +32,19 @@ public class HE_RAS<E extends HE_Element> extends AbstractSet<E> {
 		indices = new TLongIntHashMap(10, 0.5f, -1L, -1);
 	}
 
+	/**
+	 * Constructor for subclasses that do not need the key map.
+	 *
+	 * @param n
+	 *            initial capacity
+	 * @param keyed
+	 *            create key map?
+	 */
+	protected HE_RAS(final int n, final boolean keyed) {
+		objects = new FastTable<E>();
+		indices = keyed ? new TLongIntHashMap(10, 0.5f, -1L, -1) : null;
+	}
+
 	public HE_RAS(final Collection<E> items) {
 		objects = new FastTable<E>();
 		indices = new TLongIntHashMap(10, 0.5f, -1L, -1);
@@ -125,13 +139,44 @@ public class HE_RAS<E extends HE_Element> extends AbstractSet<E> {
 		return indices.containsKey(key);
 	}
 
+	/**
+	 * Iterator over all elements. Removing through the iterator keeps the set
+	 * consistent: the last element takes the place of the removed one and is
+	 * returned next.
+	 */
 	@Override
 	public Iterator<E> iterator() {
-		return objects.iterator();
+		return new Iterator<E>() {
+			int cursor = 0;
+			boolean canRemove = false;
+
+			@Override
+			public boolean hasNext() {
+				return cursor < objects.size();
+			}
+
+			@Override
+			public E next() {
+				if (cursor >= objects.size()) {
+					throw new NoSuchElementException();
+				}
+				canRemove = true;
+				return objects.get(cursor++);
+			}
+
+			@Override
+			public void remove() {
+				if (!canRemove) {
+					throw new IllegalStateException();
+				}
+				canRemove = false;
+				removeAt(--cursor);
+			}
+		};
 	}
 
 	public List<E> getObjects() {
 		return objects;
 	}
 
-}
\ No newline at end of file
+}
\ No newline at end of file
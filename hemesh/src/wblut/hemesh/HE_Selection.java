@@ -1,6 +1,8 @@
 package wblut.hemesh;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import javolution.util.FastTable;
 import wblut.geom.WB_Coordinate;
@@ -87,16 +89,17 @@ public class HE_Selection extends HE_MeshStructure {
 	public List<HE_Vertex> getOuterVertices() {
 
 		final List<HE_Vertex> result = new FastTable<HE_Vertex>();
+		final Set<HE_Vertex> found = new HashSet<HE_Vertex>();
 		final List<HE_Edge> outerEdges = getOuterEdges();
 
 		for (int i = 0; i < outerEdges.size(); i++) {
 			final HE_Edge e = outerEdges.get(i);
 			final HE_Vertex v1 = e.getStartVertex();
 			final HE_Vertex v2 = e.getEndVertex();
-			if (!result.contains(v1)) {
+			if (found.add(v1)) {
 				result.add(v1);
 			}
-			if (!result.contains(v2)) {
+			if (found.add(v2)) {
 				result.add(v2);
 			}
 
@@ -113,7 +116,8 @@ public class HE_Selection extends HE_MeshStructure {
 		final HE_Selection sel = get();
 		sel.collectVertices();
 		final List<HE_Vertex> result = new FastTable<HE_Vertex>();
-		final List<HE_Vertex> outerVertices = getOuterVertices();
+		final Set<HE_Vertex> outerVertices = new HashSet<HE_Vertex>(
+				getOuterVertices());
 		HE_Vertex v;
 		final int n = sel.vertices.size();
 		for (int i = 0; i < n; i++) {
@@ -133,16 +137,17 @@ public class HE_Selection extends HE_MeshStructure {
 	public List<HE_Vertex> getBoundaryVertices() {
 
 		final List<HE_Vertex> result = new FastTable<HE_Vertex>();
+		final Set<HE_Vertex> found = new HashSet<HE_Vertex>();
 		final List<HE_Edge> outerEdges = getOuterEdges();
 		for (int i = 0; i < outerEdges.size(); i++) {
 			final HE_Edge e = outerEdges.get(i);
 			if ((e.getFirstFace() == null) || (e.getSecondFace() == null)) {
 				final HE_Vertex v1 = e.getStartVertex();
 				final HE_Vertex v2 = e.getEndVertex();
-				if (!result.contains(v1)) {
+				if (found.add(v1)) {
 					result.add(v1);
 				}
-				if (!result.contains(v2)) {
+				if (found.add(v2)) {
 					result.add(v2);
 				}
 			}
@@ -94,6 +94,7 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 */
 	public void setHalfedge(final HE_Halfedge halfedge) {
 		_halfedge = halfedge;
+		topologyChanged();
 	}
 
 	/**
@@ -104,6 +105,19 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 */
 	public void set(final HE_Vertex v) {
 		pos._set(v);
+		positionChanged();
+	}
+
+	/**
+	 * Mark cached geometry depending on the position of this vertex dirty.
+	 * Called by all setters, only needed after changing the position through
+	 * getPoint().
+	 */
+	void positionChanged() {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			cache.vertexMoved(this);
+		}
 	}
 
 	public WB_Point getOffset(final double d) {
@@ -199,6 +213,7 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 */
 	public void clearHalfedge() {
 		_halfedge = null;
+		topologyChanged();
 	}
 
 	/**
@@ -216,18 +231,26 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 * @return halfedges
 	 */
 	public List<HE_Halfedge> getHalfedgeStar() {
-		final List<HE_Halfedge> vhe = new FastTable<HE_Halfedge>();
-		if (getHalfedge() == null) {
-			return vhe;
+		final HE_ListVisitor<HE_Halfedge> vhe = new HE_ListVisitor<HE_Halfedge>();
+		forEachHalfedge(vhe);
+		return vhe.list;
+	}
+
+	/**
+	 * Call visitor for each outgoing halfedge, without allocating.
+	 *
+	 * @param visitor
+	 */
+	public void forEachHalfedge(final HE_Visitor<? super HE_Halfedge> visitor) {
+		final HE_Halfedge start = getHalfedge();
+		if (start == null) {
+			return;
 		}
-		HE_Halfedge he = getHalfedge();
+		HE_Halfedge he = start;
 		do {
-			if (!vhe.contains(he)) {
-				vhe.add(he);
-			}
+			visitor.visit(he);
 			he = he.getNextInVertex();
-		} while (he != getHalfedge());
-		return vhe;
+		} while (he != start);
 	}
 
 	/**
@@ -236,19 +259,26 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 * @return edges
 	 */
 	public List<HE_Edge> getEdgeStar() {
+		final HE_ListVisitor<HE_Edge> ve = new HE_ListVisitor<HE_Edge>();
+		forEachEdge(ve);
+		return ve.list;
+	}
 
-		final List<HE_Edge> ve = new FastTable<HE_Edge>();
-		if (getHalfedge() == null) {
-			return ve;
+	/**
+	 * Call visitor for the edge of each outgoing halfedge, without allocating.
+	 *
+	 * @param visitor
+	 */
+	public void forEachEdge(final HE_Visitor<? super HE_Edge> visitor) {
+		final HE_Halfedge start = getHalfedge();
+		if (start == null) {
+			return;
 		}
-		HE_Halfedge he = getHalfedge();
+		HE_Halfedge he = start;
 		do {
-			if (!ve.contains(he.getEdge())) {
-				ve.add(he.getEdge());
-			}
+			visitor.visit(he.getEdge());
 			he = he.getNextInVertex();
-		} while (he != getHalfedge());
-		return ve;
+		} while (he != start);
 	}
 
 	/**
@@ -257,20 +287,29 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 * @return faces
 	 */
 	public List<HE_Face> getFaceStar() {
-		final List<HE_Face> vf = new FastTable<HE_Face>();
-		if (getHalfedge() == null) {
-			return vf;
+		final HE_ListVisitor<HE_Face> vf = new HE_ListVisitor<HE_Face>();
+		forEachFace(vf);
+		return vf.list;
+	}
+
+	/**
+	 * Call visitor for each face around the vertex, without allocating.
+	 * Boundary halfedges without face are skipped.
+	 *
+	 * @param visitor
+	 */
+	public void forEachFace(final HE_Visitor<? super HE_Face> visitor) {
+		final HE_Halfedge start = getHalfedge();
+		if (start == null) {
+			return;
 		}
-		HE_Halfedge he = getHalfedge();
+		HE_Halfedge he = start;
 		do {
 			if (he.getFace() != null) {
-				if (!vf.contains(he.getFace())) {
-					vf.add(he.getFace());
-				}
+				visitor.visit(he.getFace());
 			}
 			he = he.getNextInVertex();
-		} while (he != getHalfedge());
-		return vf;
+		} while (he != start);
 	}
 
 	/**
@@ -279,19 +318,32 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	 * @return neighbors
 	 */
 	public List<HE_Vertex> getNeighborVertices() {
-		final List<HE_Vertex> vv = new FastTable<HE_Vertex>();
-		if (getHalfedge() == null) {
-			return vv;
+		final HE_ListVisitor<HE_Vertex> vv = new HE_ListVisitor<HE_Vertex>();
+		forEachNeighbor(vv);
+		return vv.list;
+	}
+
+	/**
+	 * Call visitor for each neighboring vertex, without allocating. A
+	 * neighbor is visited once for every halfedge connecting it to this
+	 * vertex, only once on a manifold mesh.
+	 *
+	 * @param visitor
+	 */
+	public void forEachNeighbor(final HE_Visitor<? super HE_Vertex> visitor) {
+		final HE_Halfedge start = getHalfedge();
+		if (start == null) {
+			return;
 		}
-		HE_Halfedge he = getHalfedge();
+		HE_Halfedge he = start;
+		HE_Vertex n;
 		do {
-			final HE_Halfedge hen = he.getNextInFace();
-			if ((hen.getVertex() != this) && (!vv.contains(hen.getVertex()))) {
-				vv.add(hen.getVertex());
+			n = he.getNextInFace().getVertex();
+			if (n != this) {
+				visitor.visit(n);
 			}
 			he = he.getNextInVertex();
-		} while (he != getHalfedge());
-		return vv;
+		} while (he != start);
 	}
 
 	public List<HE_Vertex> getVertexStar() {
@@ -516,54 +568,63 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 
 	public void apply(final WB_Transform T) {
 		T.applyAsPoint(this, pos);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _setX(final double x) {
 		pos._setX(x);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _setY(final double y) {
 		pos._setY(y);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _setZ(final double z) {
 		pos._setZ(z);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _setW(final double w) {
 		pos._setW(w);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _setCoord(final int i, final double v) {
 		pos._setCoord(i, v);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _set(final WB_Coordinate p) {
 		pos._set(p);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _set(final double x, final double y) {
 		pos._set(x, y);
+		positionChanged();
 
 	}
 
 	@Override
 	public void _set(final double x, final double y, final double z) {
 		pos._set(x, y, z);
+		positionChanged();
 
 	}
 
@@ -571,6 +632,7 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 	public void _set(final double x, final double y, final double z,
 			final double w) {
 		pos._set(x, y, z, w);
+		positionChanged();
 
 	}
 
@@ -611,6 +673,35 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 
 	// Common area-weighted mean normal
 	public WB_Vector getVertexNormal() {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getVertexNormal(this);
+		}
+		return computeVertexNormal();
+	}
+
+	/**
+	 * Copy vertex normal into result without allocating a new vector. Uses
+	 * the geometry cache of the mesh if enabled.
+	 *
+	 * @param result
+	 *            coordinate to set
+	 * @return false if the vertex has no halfedge, result is unchanged
+	 */
+	public boolean getVertexNormalInto(final WB_MutableCoordinate result) {
+		final HE_GeometryCache cache = geometryCache();
+		if (cache != null) {
+			return cache.getVertexNormalInto(this, result);
+		}
+		final WB_Vector n = computeVertexNormal();
+		if (n == null) {
+			return false;
+		}
+		result._set(n.xd(), n.yd(), n.zd());
+		return true;
+	}
+
+	WB_Vector computeVertexNormal() {
 		if (_halfedge == null) {
 			return null;
 		}
@@ -638,7 +729,7 @@ public class HE_Vertex extends HE_Element implements WB_MutableCoordinate,
 			final FastTable<WB_Vector> normals = new FastTable<WB_Vector>();
 			do {
 				if (he.getFace() != null) {
-					final WB_Vector fn = he.getFace().getFaceNormal();
+					final WB_Vector fn = he.getFace().computeFaceNormal();
 					normals.add(fn);
 				}
 				he = he.getNextInVertex();
@@ -13,6 +13,19 @@ public class HE_VertexFaceCirculator implements Iterator<HE_Face> {
 
 	}
 
+	/**
+	 * Restart around another vertex, reusing this circulator.
+	 *
+	 * @param v
+	 *            vertex
+	 * @return self
+	 */
+	public HE_VertexFaceCirculator reset(final HE_Vertex v) {
+		_start = v.getHalfedge();
+		_current = null;
+		return this;
+	}
+
 	@Override
 	public boolean hasNext() {
 		if (_start == null)
@@ -13,6 +13,19 @@ public class HE_VertexHalfedgeOutCirculator implements Iterator<HE_Halfedge> {
 
 	}
 
+	/**
+	 * Restart around another vertex, reusing this circulator.
+	 *
+	 * @param v
+	 *            vertex
+	 * @return self
+	 */
+	public HE_VertexHalfedgeOutCirculator reset(final HE_Vertex v) {
+		_start = v.getHalfedge();
+		_current = null;
+		return this;
+	}
+
 	@Override
 	public boolean hasNext() {
 		if (_start == null)
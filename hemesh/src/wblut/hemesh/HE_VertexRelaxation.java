@@ -0,0 +1,189 @@
+package wblut.hemesh;
+
+import wblut.core.WB_Parallel;
+
+/**
+ * Shared kernel for smoothing-type modifiers that repeatedly move vertices to
+ * a weighted combination of their neighbors.
+ *
+ * The vertex stars are flattened once into compressed rows of primitive
+ * arrays: for each vertex the outgoing halfedges in getNextInVertex() order.
+ * Positions are double-buffered, each sweep reads one buffer and writes the
+ * other, so vertices can be relaxed in parallel. The vertices are only
+ * updated in write(). Every vertex only depends on the previous sweep, the
+ * result is identical to the serial version whatever the number of threads.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ */
+final class HE_VertexRelaxation {
+
+	/**
+	 * Update rule for a single vertex.
+	 */
+	interface Rule {
+		/**
+		 * Compute new position of a vertex.
+		 *
+		 * @param i
+		 *            vertex index
+		 * @param in
+		 *            current positions, x,y,z per vertex
+		 * @param out
+		 *            new positions, write to 3*i, 3*i+1 and 3*i+2
+		 */
+		void relax(int i, double[] in, double[] out);
+	}
+
+	/** Minimum number of vertices per thread. */
+	private static final int GRAIN = 4096;
+
+	final HE_Vertex[] vertices;
+	final int n;
+
+	/** Start of the star of each vertex, n+1 values. */
+	final int[] starStart;
+	/** Start vertex of the next halfedge in face, for each star halfedge. */
+	final int[] neighbor;
+	/**
+	 * Entry is part of getNeighborVertices(): not the vertex itself and not a
+	 * repeat of an earlier neighbor.
+	 */
+	final boolean[] unique;
+	/** Start vertex of the previous halfedge in face, null if not requested. */
+	final int[] corner;
+	/**
+	 * Start vertex of the previous halfedge in the face of the pair, null if
+	 * not requested.
+	 */
+	final int[] pairCorner;
+
+	private double[] positions;
+	private double[] buffer;
+
+	/**
+	 * Flatten the vertex stars of a mesh.
+	 *
+	 * @param mesh
+	 *            mesh
+	 * @param corners
+	 *            also store the corners opposite to each star halfedge?
+	 */
+	HE_VertexRelaxation(final HE_Mesh mesh, final boolean corners) {
+		vertices = mesh.getVerticesAsArray();
+		n = vertices.length;
+		starStart = new int[n + 1];
+		positions = new double[3 * n];
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Vertex v;
+				HE_Halfedge he;
+				int count;
+				for (int i = start; i < end; i++) {
+					v = vertices[i];
+					positions[3 * i] = v.xd();
+					positions[3 * i + 1] = v.yd();
+					positions[3 * i + 2] = v.zd();
+					he = v.getHalfedge();
+					count = 0;
+					if (he != null) {
+						do {
+							count++;
+							he = he.getNextInVertex();
+						} while (he != v.getHalfedge());
+					}
+					starStart[i + 1] = count;
+				}
+			}
+		});
+		for (int i = 0; i < n; i++) {
+			starStart[i + 1] += starStart[i];
+		}
+		final int ns = starStart[n];
+		neighbor = new int[ns];
+		unique = new boolean[ns];
+		corner = corners ? new int[ns] : null;
+		pairCorner = corners ? new int[ns] : null;
+		WB_Parallel.forRange(n, GRAIN, new WB_Parallel.Range() {
+			@Override
+			public void run(final int start, final int end) {
+				HE_Vertex v;
+				HE_Halfedge he;
+				int s;
+				boolean repeat;
+				for (int i = start; i < end; i++) {
+					v = vertices[i];
+					he = v.getHalfedge();
+					if (he == null) {
+						continue;
+					}
+					s = starStart[i];
+					do {
+						neighbor[s] = mesh.getIndex(he.getNextInFace()
+								.getVertex());
+						repeat = neighbor[s] == i;
+						for (int k = starStart[i]; (k < s) && !repeat; k++) {
+							repeat = unique[k] && (neighbor[k] == neighbor[s]);
+						}
+						unique[s] = !repeat;
+						if (corners) {
+							corner[s] = mesh.getIndex(he.getPrevInFace()
+									.getVertex());
+							pairCorner[s] = mesh.getIndex(he.getPair()
+									.getPrevInFace().getVertex());
+						}
+						s++;
+						he = he.getNextInVertex();
+					} while (he != v.getHalfedge());
+				}
+			}
+		});
+		buffer = positions.clone();
+	}
+
+	/**
+	 * Relax a set of vertices. Other vertices keep their position.
+	 *
+	 * @param active
+	 *            indices of vertices to move
+	 * @param iterations
+	 *            number of sweeps
+	 * @param rule
+	 *            update rule
+	 */
+	void run(final int[] active, final int iterations, final Rule rule) {
+		for (int r = 0; r < iterations; r++) {
+			final double[] in = positions;
+			final double[] out = buffer;
+			WB_Parallel.forRange(active.length, GRAIN,
+					new WB_Parallel.Range() {
+						@Override
+						public void run(final int start, final int end) {
+							for (int k = start; k < end; k++) {
+								rule.relax(active[k], in, out);
+							}
+						}
+					});
+			// inactive vertices are identical in both buffers
+			positions = out;
+			buffer = in;
+		}
+	}
+
+	/**
+	 * Copy the relaxed positions back to the vertices. Runs on the calling
+	 * thread, vertex setters notify the geometry cache of the mesh.
+	 *
+	 * @param active
+	 *            indices of moved vertices
+	 */
+	void write(final int[] active) {
+		int i;
+		for (int k = 0; k < active.length; k++) {
+			i = active[k];
+			vertices[i]._set(positions[3 * i], positions[3 * i + 1],
+					positions[3 * i + 2]);
+		}
+	}
+}
@@ -14,6 +14,19 @@ public class HE_VertexVertexCirculator<V extends HE_Vertex> implements
 
 	}
 
+	/**
+	 * Restart around another vertex, reusing this circulator.
+	 *
+	 * @param v
+	 *            vertex
+	 * @return self
+	 */
+	public HE_VertexVertexCirculator<V> reset(final HE_Vertex v) {
+		_start = v.getHalfedge();
+		_current = null;
+		return this;
+	}
+
 	@Override
 	public boolean hasNext() {
 		if (_start == null)
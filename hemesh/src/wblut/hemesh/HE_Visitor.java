@@ -0,0 +1,19 @@
+package wblut.hemesh;
+
+/**
+ * Callback for walking mesh neighborhoods without creating lists or
+ * iterators, e.g. HE_Vertex.forEachNeighbor(HE_Visitor).
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ * @param <E>
+ *            element type
+ */
+public interface HE_Visitor<E> {
+	/**
+	 * Called for each visited element.
+	 *
+	 * @param element
+	 */
+	public void visit(E element);
+}
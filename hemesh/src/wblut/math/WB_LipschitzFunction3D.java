@@ -0,0 +1,19 @@
+package wblut.math;
+
+/**
+ * 3D function with a known Lipschitz constant L, |f(p)-f(q)| <= L*|p-q| for
+ * all points p and q. A signed distance function has L=1.
+ *
+ * @author Frederik Vanhoutte (W:Blut)
+ *
+ * @param <T>
+ */
+public interface WB_LipschitzFunction3D<T> extends WB_Function3D<T> {
+
+	/**
+	 * Upper bound on the rate of change of the function.
+	 *
+	 * @return Lipschitz constant
+	 */
+	public double getLipschitzConstant();
+}